@@ -0,0 +1,158 @@
+// File generated by hadoop record compiler. Do not edit.
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.zookeeper.proto;
+
+import java.util.*;
+import org.apache.jute.*;
+public class GetChildrenPageRequest implements Record {
+  private String path;
+  private boolean watch;
+  private String startAfter;
+  private int maxChildren;
+  public GetChildrenPageRequest() {
+  }
+  public GetChildrenPageRequest(
+        String path,
+        boolean watch,
+        String startAfter,
+        int maxChildren) {
+    this.path=path;
+    this.watch=watch;
+    this.startAfter=startAfter;
+    this.maxChildren=maxChildren;
+  }
+  public String getPath() {
+    return path;
+  }
+  public void setPath(String m_) {
+    path=m_;
+  }
+  public boolean getWatch() {
+    return watch;
+  }
+  public void setWatch(boolean m_) {
+    watch=m_;
+  }
+  public String getStartAfter() {
+    return startAfter;
+  }
+  public void setStartAfter(String m_) {
+    startAfter=m_;
+  }
+  public int getMaxChildren() {
+    return maxChildren;
+  }
+  public void setMaxChildren(int m_) {
+    maxChildren=m_;
+  }
+  public void serialize(OutputArchive a_, String tag) throws java.io.IOException {
+    a_.startRecord(this,tag);
+    a_.writeString(path,"path");
+    a_.writeBool(watch,"watch");
+    a_.writeString(startAfter,"startAfter");
+    a_.writeInt(maxChildren,"maxChildren");
+    a_.endRecord(this,tag);
+  }
+  public void deserialize(InputArchive a_, String tag) throws java.io.IOException {
+    a_.startRecord(tag);
+    path=a_.readString("path");
+    watch=a_.readBool("watch");
+    startAfter=a_.readString("startAfter");
+    maxChildren=a_.readInt("maxChildren");
+    a_.endRecord(tag);
+}
+  public String toString() {
+    try {
+      java.io.ByteArrayOutputStream s =
+        new java.io.ByteArrayOutputStream();
+      CsvOutputArchive a_ = 
+        new CsvOutputArchive(s);
+      a_.startRecord(this,"");
+    a_.writeString(path,"path");
+    a_.writeBool(watch,"watch");
+    a_.writeString(startAfter,"startAfter");
+    a_.writeInt(maxChildren,"maxChildren");
+      a_.endRecord(this,"");
+      return new String(s.toByteArray(), "UTF-8");
+    } catch (Throwable ex) {
+      ex.printStackTrace();
+    }
+    return "ERROR";
+  }
+  public void write(java.io.DataOutput out) throws java.io.IOException {
+    BinaryOutputArchive archive = new BinaryOutputArchive(out);
+    serialize(archive, "");
+  }
+  public void readFields(java.io.DataInput in) throws java.io.IOException {
+    BinaryInputArchive archive = new BinaryInputArchive(in);
+    deserialize(archive, "");
+  }
+  public int compareTo (Object peer_) throws ClassCastException {
+    if (!(peer_ instanceof GetChildrenPageRequest)) {
+      throw new ClassCastException("Comparing different types of records.");
+    }
+    GetChildrenPageRequest peer = (GetChildrenPageRequest) peer_;
+    int ret = 0;
+    ret = path.compareTo(peer.path);
+    if (ret != 0) return ret;
+    ret = (watch == peer.watch)? 0 : (watch?1:-1);
+    if (ret != 0) return ret;
+    ret = startAfter.compareTo(peer.startAfter);
+    if (ret != 0) return ret;
+    ret = (maxChildren == peer.maxChildren)? 0 :((maxChildren<peer.maxChildren)?-1:1);
+    if (ret != 0) return ret;
+     return ret;
+  }
+  public boolean equals(Object peer_) {
+    if (!(peer_ instanceof GetChildrenPageRequest)) {
+      return false;
+    }
+    if (peer_ == this) {
+      return true;
+    }
+    GetChildrenPageRequest peer = (GetChildrenPageRequest) peer_;
+    boolean ret = false;
+    ret = path.equals(peer.path);
+    if (!ret) return ret;
+    ret = (watch==peer.watch);
+    if (!ret) return ret;
+    ret = startAfter.equals(peer.startAfter);
+    if (!ret) return ret;
+    ret = (maxChildren==peer.maxChildren);
+    if (!ret) return ret;
+     return ret;
+  }
+  public int hashCode() {
+    int result = 17;
+    int ret;
+    ret = path.hashCode();
+    result = 37*result + ret;
+     ret = (watch)?0:1;
+    result = 37*result + ret;
+    ret = startAfter.hashCode();
+    result = 37*result + ret;
+    ret = (int)maxChildren;
+    result = 37*result + ret;
+    return result;
+  }
+  public static String signature() {
+    return "LGetChildrenPageRequest(szsi)";
+  }
+}
@@ -75,12 +75,28 @@ public class BinaryInputArchive implements InputArchive {
         return in.readDouble();
     }
     
+    /**
+     * Holds the bytes of strings while they are decoded, so that an archive
+     * that reads many strings, e.g. one reused for many records, doesn't
+     * allocate a byte array for each of them.
+     */
+    private byte stringBuffer[];
+
     public String readString(String tag) throws IOException {
     	int len = in.readInt();
     	if (len == -1) return null;
-    	byte b[] = new byte[len];
-    	in.readFully(b);
-    	return new String(b, "UTF8");
+    	if (len < 0) {
+    	    throw new IOException("Unreasonable length = " + len);
+    	}
+    	byte b[] = stringBuffer;
+    	if (b == null || b.length < len) {
+    	    b = new byte[Math.max(len, 64)];
+    	    if (len <= 1024) {
+    	        stringBuffer = b;
+    	    }
+    	}
+    	in.readFully(b, 0, len);
+    	return new String(b, 0, len, "UTF8");
     }
     
     static public final int maxBuffer = determineMaxBuffer();
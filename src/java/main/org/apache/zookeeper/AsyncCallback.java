@@ -47,6 +47,16 @@ public interface AsyncCallback {
                 List<String> children, Stat stat);
     }
 
+    interface ChildrenPageCallback extends AsyncCallback {
+        public void processResult(int rc, String path, Object ctx,
+                ChildrenPage page);
+    }
+
+    interface ChildNamesPageCallback extends AsyncCallback {
+        public void processResult(int rc, String path, Object ctx,
+                ChildNamesPage page);
+    }
+
     interface StringCallback extends AsyncCallback {
         public void processResult(int rc, String path, Object ctx, String name);
     }
@@ -54,4 +64,15 @@ public interface AsyncCallback {
     interface VoidCallback extends AsyncCallback {
         public void processResult(int rc, String path, Object ctx);
     }
+
+    interface MultiCallback extends AsyncCallback {
+        /**
+         * @param rc the error of the request, or of the first op that
+         *           failed, in which case no op was applied
+         * @param opResults one result per op, null if the request as a
+         *           whole failed
+         */
+        public void processResult(int rc, String path, Object ctx,
+                List<OpResult> opResults);
+    }
 }
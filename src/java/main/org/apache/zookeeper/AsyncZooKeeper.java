@@ -0,0 +1,371 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.zookeeper.AsyncCallback.ACLCallback;
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+
+/**
+ * Makes the asynchronous requests of a {@link ZooKeeper} handle return a
+ * {@link ZooKeeperFuture} rather than take a callback.
+ * <p>
+ * The futures are completed by the callbacks of the handle, on its event
+ * thread. Their listeners run on the completion executor given here,
+ * unless they are added with an executor of their own; with the default
+ * completion executor they run on the event thread too, so a slow listener
+ * delays all other completions and watch events of the handle.
+ * <p>
+ * The methods are the asynchronous methods of ZooKeeper with the same
+ * arguments, which are checked the same way. Methods of the synchronous
+ * API that take a Stat fill it in before the future is completed.
+ */
+public class AsyncZooKeeper {
+    private final ZooKeeper zk;
+
+    private final Executor completionExecutor;
+
+    /**
+     * Runs listeners on the event thread of zk
+     */
+    public AsyncZooKeeper(ZooKeeper zk) {
+        this(zk, ZooKeeperFuture.DIRECT);
+    }
+
+    /**
+     * @param completionExecutor runs the listeners of the futures
+     */
+    public AsyncZooKeeper(ZooKeeper zk, Executor completionExecutor) {
+        this.zk = zk;
+        this.completionExecutor = completionExecutor;
+    }
+
+    public ZooKeeper getZooKeeper() {
+        return zk;
+    }
+
+    private <T> ZooKeeperFuture<T> newFuture() {
+        return new ZooKeeperFuture<T>(completionExecutor);
+    }
+
+    private static boolean failed(ZooKeeperFuture<?> future, int rc,
+            String path)
+    {
+        if (rc == Code.OK.intValue()) {
+            return false;
+        }
+        future.fail(KeeperException.create(Code.get(rc), path));
+        return true;
+    }
+
+    /**
+     * @see ZooKeeper#create(String, byte[], List, CreateMode)
+     */
+    public ZooKeeperFuture<String> create(String path, byte data[],
+            List<ACL> acl, CreateMode createMode)
+    {
+        final ZooKeeperFuture<String> future = newFuture();
+        zk.create(path, data, acl, createMode, new StringCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    String name) {
+                if (!failed(future, rc, path)) {
+                    future.complete(name);
+                }
+            }
+        }, null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#delete(String, int)
+     */
+    public ZooKeeperFuture<Void> delete(String path, int version) {
+        final ZooKeeperFuture<Void> future = newFuture();
+        zk.delete(path, version, new VoidCallback() {
+            public void processResult(int rc, String path, Object ctx) {
+                if (!failed(future, rc, path)) {
+                    future.complete(null);
+                }
+            }
+        }, null);
+        return future;
+    }
+
+    private StatCallback existsCallback(final ZooKeeperFuture<Stat> future) {
+        return new StatCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    Stat stat) {
+                // as with the synchronous exists, no node is not an error
+                if (rc == Code.NONODE.intValue()) {
+                    future.complete(null);
+                } else if (!failed(future, rc, path)) {
+                    future.complete(stat);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a future of the stat of the node, or of null if there is no
+     *         such node
+     * @see ZooKeeper#exists(String, Watcher)
+     */
+    public ZooKeeperFuture<Stat> exists(String path, Watcher watcher) {
+        ZooKeeperFuture<Stat> future = newFuture();
+        zk.exists(path, watcher, existsCallback(future), null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#exists(String, boolean)
+     */
+    public ZooKeeperFuture<Stat> exists(String path, boolean watch) {
+        ZooKeeperFuture<Stat> future = newFuture();
+        zk.exists(path, watch, existsCallback(future), null);
+        return future;
+    }
+
+    private DataCallback dataCallback(final ZooKeeperFuture<byte[]> future,
+            final Stat stat)
+    {
+        return new DataCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    byte data[], Stat s) {
+                if (!failed(future, rc, path)) {
+                    if (stat != null) {
+                        DataTree.copyStat(s, stat);
+                    }
+                    future.complete(data);
+                }
+            }
+        };
+    }
+
+    /**
+     * @see ZooKeeper#getData(String, Watcher, Stat)
+     */
+    public ZooKeeperFuture<byte[]> getData(String path, Watcher watcher,
+            Stat stat)
+    {
+        ZooKeeperFuture<byte[]> future = newFuture();
+        zk.getData(path, watcher, dataCallback(future, stat), null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#getData(String, boolean, Stat)
+     */
+    public ZooKeeperFuture<byte[]> getData(String path, boolean watch,
+            Stat stat)
+    {
+        ZooKeeperFuture<byte[]> future = newFuture();
+        zk.getData(path, watch, dataCallback(future, stat), null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#setData(String, byte[], int)
+     */
+    public ZooKeeperFuture<Stat> setData(String path, byte data[],
+            int version)
+    {
+        final ZooKeeperFuture<Stat> future = newFuture();
+        zk.setData(path, data, version, new StatCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    Stat stat) {
+                if (!failed(future, rc, path)) {
+                    future.complete(stat);
+                }
+            }
+        }, null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#getACL(String, Stat)
+     */
+    public ZooKeeperFuture<List<ACL>> getACL(String path, final Stat stat) {
+        final ZooKeeperFuture<List<ACL>> future = newFuture();
+        zk.getACL(path, new Stat(), new ACLCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    List<ACL> acl, Stat s) {
+                if (!failed(future, rc, path)) {
+                    if (stat != null) {
+                        DataTree.copyStat(s, stat);
+                    }
+                    future.complete(acl);
+                }
+            }
+        }, null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#setACL(String, List, int)
+     */
+    public ZooKeeperFuture<Stat> setACL(String path, List<ACL> acl,
+            int version)
+    {
+        final ZooKeeperFuture<Stat> future = newFuture();
+        zk.setACL(path, acl, version, new StatCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    Stat stat) {
+                if (!failed(future, rc, path)) {
+                    future.complete(stat);
+                }
+            }
+        }, null);
+        return future;
+    }
+
+    private ChildrenCallback childrenCallback(
+            final ZooKeeperFuture<List<String>> future)
+    {
+        return new ChildrenCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    List<String> children) {
+                if (!failed(future, rc, path)) {
+                    future.complete(children);
+                }
+            }
+        };
+    }
+
+    private Children2Callback children2Callback(
+            final ZooKeeperFuture<List<String>> future, final Stat stat)
+    {
+        return new Children2Callback() {
+            public void processResult(int rc, String path, Object ctx,
+                    List<String> children, Stat s) {
+                if (!failed(future, rc, path)) {
+                    if (stat != null) {
+                        DataTree.copyStat(s, stat);
+                    }
+                    future.complete(children);
+                }
+            }
+        };
+    }
+
+    /**
+     * @see ZooKeeper#getChildren(String, Watcher)
+     */
+    public ZooKeeperFuture<List<String>> getChildren(String path,
+            Watcher watcher)
+    {
+        ZooKeeperFuture<List<String>> future = newFuture();
+        zk.getChildren(path, watcher, childrenCallback(future), null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#getChildren(String, boolean)
+     */
+    public ZooKeeperFuture<List<String>> getChildren(String path,
+            boolean watch)
+    {
+        ZooKeeperFuture<List<String>> future = newFuture();
+        zk.getChildren(path, watch, childrenCallback(future), null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#getChildren(String, Watcher, Stat)
+     */
+    public ZooKeeperFuture<List<String>> getChildren(String path,
+            Watcher watcher, Stat stat)
+    {
+        ZooKeeperFuture<List<String>> future = newFuture();
+        zk.getChildren(path, watcher, children2Callback(future, stat), null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#getChildren(String, boolean, Stat)
+     */
+    public ZooKeeperFuture<List<String>> getChildren(String path,
+            boolean watch, Stat stat)
+    {
+        ZooKeeperFuture<List<String>> future = newFuture();
+        zk.getChildren(path, watch, children2Callback(future, stat), null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#sync(String, VoidCallback, Object)
+     */
+    public ZooKeeperFuture<Void> sync(String path) {
+        final ZooKeeperFuture<Void> future = newFuture();
+        zk.sync(path, new VoidCallback() {
+            public void processResult(int rc, String path, Object ctx) {
+                if (!failed(future, rc, path)) {
+                    future.complete(null);
+                }
+            }
+        }, null);
+        return future;
+    }
+
+    /**
+     * @see ZooKeeper#multi(Iterable)
+     */
+    public ZooKeeperFuture<List<OpResult>> multi(Iterable<Op> ops) {
+        return multi(ops, null);
+    }
+
+    /**
+     * Like {@link ZooKeeper#multi(Iterable, List)}, results is filled in
+     * with the result of each op before the future is completed, even if
+     * the request fails.
+     *
+     * @see ZooKeeper#multi(Iterable, List)
+     */
+    public ZooKeeperFuture<List<OpResult>> multi(Iterable<Op> ops,
+            final List<OpResult> results)
+    {
+        final ZooKeeperFuture<List<OpResult>> future = newFuture();
+        if (results != null) {
+            results.clear();
+        }
+        zk.multi(ops, new MultiCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    List<OpResult> opResults) {
+                if (results != null && opResults != null) {
+                    results.addAll(opResults);
+                }
+                if (!failed(future, rc, path)) {
+                    future.complete(opResults);
+                }
+            }
+        }, null);
+        return future;
+    }
+}
@@ -0,0 +1,402 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.DataTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves getData and getChildren of a {@link ZooKeeper} handle from a local
+ * cache, for nodes that are read far more often than they change.
+ * <p>
+ * A node is cached the first time it is read, and a watch is left on it
+ * for as long as it stays cached. When the watch fires the node is dropped
+ * from the cache, and the next read goes to the server again. The cache
+ * grows with the number of nodes read, so it is meant for a working set
+ * of hot nodes, e.g. configuration, not for walking a large tree.
+ * <p>
+ * While the handle is disconnected the cached nodes are not served. When it
+ * reconnects the handle sets the watches again, and the server fires those
+ * of nodes that changed in the meantime; the cache only serves nodes again
+ * after those notifications have been processed. If the session expires
+ * the cache is cleared.
+ * <p>
+ * A cached read sees the data as of the last notification processed by the
+ * event thread of the handle. Writes made through this class drop the
+ * nodes they touch right away, so a thread reads its own writes; writes
+ * made directly on the handle are seen once their notifications have been
+ * processed.
+ */
+public class CachingZooKeeper {
+    private static final Logger LOG = LoggerFactory.getLogger(CachingZooKeeper.class);
+
+    private final ZooKeeper zk;
+
+    /**
+     * A cached value, or a placeholder while the value is being read. A
+     * read only fills in its placeholder if the placeholder has not been
+     * dropped by a notification in the meantime.
+     */
+    private static class Entry<T> {
+        final T value;
+        final Stat stat;
+
+        Entry(T value, Stat stat) {
+            this.value = value;
+            this.stat = stat;
+        }
+
+        boolean isLoaded() {
+            return stat != null;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry<byte[]>> dataCache =
+        new ConcurrentHashMap<String, Entry<byte[]>>();
+
+    private final ConcurrentHashMap<String, Entry<List<String>>> childrenCache =
+        new ConcurrentHashMap<String, Entry<List<String>>>();
+
+    private volatile boolean serving = true;
+
+    /** Tells the exists sent after a reconnect apart from earlier ones */
+    private final AtomicLong connection = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Follows the connection state of the handle. The watches left on the
+     * cached nodes can't be relied on for that, as there may be none and
+     * they are dropped on disconnect if watches are not reset.
+     */
+    private final Watcher stateWatcher = new Watcher() {
+        public void process(WatchedEvent event) {
+            if (event.getType() == EventType.None) {
+                stateChanged(event.getState());
+            }
+        }
+    };
+
+    private final Watcher watcher = new Watcher() {
+        public void process(WatchedEvent event) {
+            if (event.getType() == EventType.None) {
+                // seen by the state watcher
+                return;
+            }
+            String path = event.getPath();
+            switch (event.getType()) {
+            case NodeDataChanged:
+                invalidateData(path);
+                break;
+            case NodeChildrenChanged:
+                invalidateChildren(path);
+                break;
+            case NodeDeleted:
+                invalidateData(path);
+                invalidateChildren(path);
+                break;
+            default:
+                break;
+            }
+        }
+    };
+
+    public CachingZooKeeper(ZooKeeper zk) {
+        this.zk = zk;
+        zk.addStateWatcher(stateWatcher);
+    }
+
+    public ZooKeeper getZooKeeper() {
+        return zk;
+    }
+
+    /**
+     * @see ZooKeeper#getData(String, boolean, Stat)
+     */
+    public byte[] getData(String path, Stat stat)
+        throws KeeperException, InterruptedException
+    {
+        Entry<byte[]> entry = dataCache.get(path);
+        if (serving && entry != null && entry.isLoaded()) {
+            hits.incrementAndGet();
+            if (stat != null) {
+                DataTree.copyStat(entry.stat, stat);
+            }
+            return entry.value == null ? null : entry.value.clone();
+        }
+        misses.incrementAndGet();
+        Entry<byte[]> placeholder = placeholder(dataCache, path, entry);
+        boolean loaded = false;
+        try {
+            Stat s = new Stat();
+            byte[] data = zk.getData(path, watcher, s);
+            if (placeholder != null) {
+                loaded = dataCache.replace(path, placeholder, new Entry<byte[]>(
+                        data == null ? null : data.clone(), s));
+            }
+            if (stat != null) {
+                DataTree.copyStat(s, stat);
+            }
+            return data;
+        } finally {
+            if (placeholder != null && !loaded) {
+                dataCache.remove(path, placeholder);
+            }
+        }
+    }
+
+    /**
+     * @see ZooKeeper#getChildren(String, boolean)
+     */
+    public List<String> getChildren(String path)
+        throws KeeperException, InterruptedException
+    {
+        return getChildren(path, null);
+    }
+
+    /**
+     * @see ZooKeeper#getChildren(String, boolean, Stat)
+     */
+    public List<String> getChildren(String path, Stat stat)
+        throws KeeperException, InterruptedException
+    {
+        Entry<List<String>> entry = childrenCache.get(path);
+        if (serving && entry != null && entry.isLoaded()) {
+            hits.incrementAndGet();
+            if (stat != null) {
+                DataTree.copyStat(entry.stat, stat);
+            }
+            return new ArrayList<String>(entry.value);
+        }
+        misses.incrementAndGet();
+        Entry<List<String>> placeholder = placeholder(childrenCache, path, entry);
+        boolean loaded = false;
+        try {
+            Stat s = new Stat();
+            List<String> children = zk.getChildren(path, watcher, s);
+            if (placeholder != null) {
+                loaded = childrenCache.replace(path, placeholder,
+                        new Entry<List<String>>(
+                                new ArrayList<String>(children), s));
+            }
+            if (stat != null) {
+                DataTree.copyStat(s, stat);
+            }
+            return children;
+        } finally {
+            if (placeholder != null && !loaded) {
+                childrenCache.remove(path, placeholder);
+            }
+        }
+    }
+
+    /**
+     * @return the placeholder the read of path should fill in, or null if
+     *         it should not be cached
+     */
+    private static <T> Entry<T> placeholder(
+            ConcurrentHashMap<String, Entry<T>> cache, String path,
+            Entry<T> current)
+    {
+        if (current != null && !current.isLoaded()) {
+            // another thread is reading it, whichever read ends first
+            // fills it in
+            return current;
+        }
+        Entry<T> placeholder = new Entry<T>(null, null);
+        if (current == null) {
+            return cache.putIfAbsent(path, placeholder) == null
+                ? placeholder : null;
+        }
+        return cache.replace(path, current, placeholder) ? placeholder : null;
+    }
+
+    /**
+     * @see ZooKeeper#create(String, byte[], List, CreateMode)
+     */
+    public String create(String path, byte[] data, List<ACL> acl,
+            CreateMode createMode)
+        throws KeeperException, InterruptedException
+    {
+        String name = zk.create(path, data, acl, createMode);
+        invalidateChildren(parent(name));
+        return name;
+    }
+
+    /**
+     * @see ZooKeeper#delete(String, int)
+     */
+    public void delete(String path, int version)
+        throws InterruptedException, KeeperException
+    {
+        zk.delete(path, version);
+        invalidateData(path);
+        invalidateChildren(path);
+        invalidateChildren(parent(path));
+    }
+
+    /**
+     * @see ZooKeeper#setData(String, byte[], int)
+     */
+    public Stat setData(String path, byte[] data, int version)
+        throws KeeperException, InterruptedException
+    {
+        Stat stat = zk.setData(path, data, version);
+        invalidateData(path);
+        return stat;
+    }
+
+    private static String parent(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash == 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    private void invalidateData(String path) {
+        if (dataCache.remove(path) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private void invalidateChildren(String path) {
+        if (childrenCache.remove(path) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop all cached nodes. Their watches stay set until they fire.
+     */
+    public void clear() {
+        dataCache.clear();
+        childrenCache.clear();
+    }
+
+    /**
+     * Stop following the connection state of the handle and drop all
+     * cached nodes; reads go to the server from then on. The handle is
+     * not closed.
+     */
+    public void close() {
+        zk.removeStateWatcher(stateWatcher);
+        serving = false;
+        clear();
+    }
+
+    private void stateChanged(KeeperState state) {
+        switch (state) {
+        case SyncConnected:
+            if (!serving) {
+                resync();
+            }
+            break;
+        case Disconnected:
+            serving = false;
+            connection.incrementAndGet();
+            if (ClientCnxn.getDisableAutoResetWatch()) {
+                // the watches are gone, so the cache can't be trusted
+                clear();
+            }
+            break;
+        case Expired:
+        case AuthFailed:
+            serving = false;
+            connection.incrementAndGet();
+            clear();
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * The handle sends the watches to the server before any other request
+     * after a reconnect, and the server sends the notifications of the
+     * nodes that changed while the handle was away before the response to
+     * the next request. Once the response to an exists sent now has been
+     * processed, so have those notifications.
+     */
+    private void resync() {
+        final long current = connection.get();
+        zk.exists("/", false, new StatCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    Stat stat) {
+                if (rc == Code.OK.intValue() && connection.get() == current) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Serving " + getSize()
+                                + " cached nodes again after reconnect");
+                    }
+                    serving = true;
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * @return the number of reads served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of reads that went to the server
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of reads served from the cache
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return the number of cached nodes dropped because they changed
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the number of cached data and children entries
+     */
+    public int getSize() {
+        return dataCache.size() + childrenCache.size();
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.List;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * One page of the names of the children of a node, sorted by name, as
+ * returned by {@link ZooKeeper#getChildren(String, boolean, String, int)}.
+ * <p>
+ * To walk all the children of a node, pass {@link #getLastName()} of a page
+ * as the startAfter cursor of the next call until {@link #hasMore()} returns
+ * false. Children created or deleted between calls may or may not show up,
+ * as the pages aren't taken from a single view of the tree.
+ */
+public class ChildNamesPage {
+    private final List<String> children;
+
+    private final Stat stat;
+
+    private final boolean hasMore;
+
+    public ChildNamesPage(List<String> children, Stat stat, boolean hasMore) {
+        this.children = children;
+        this.stat = stat;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * @return the names of the children in this page, sorted
+     */
+    public List<String> getChildren() {
+        return children;
+    }
+
+    /**
+     * @return the stat of the parent node
+     */
+    public Stat getStat() {
+        return stat;
+    }
+
+    /**
+     * @return true if more children sort after the last one of this page
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * @return the name of the last child of this page, to be passed as the
+     *         startAfter cursor for the next page; null if the page is empty
+     */
+    public String getLastName() {
+        if (children.isEmpty()) {
+            return null;
+        }
+        return children.get(children.size() - 1);
+    }
+}
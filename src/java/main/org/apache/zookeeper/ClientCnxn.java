@@ -23,12 +23,21 @@ import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.net.ConnectException;
@@ -41,17 +50,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.zookeeper.AsyncCallback.ACLCallback;
 import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.ChildNamesPageCallback;
 import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.ChildrenPageCallback;
 import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
 import org.apache.zookeeper.AsyncCallback.StatCallback;
 import org.apache.zookeeper.AsyncCallback.StringCallback;
 import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.OpResult.ErrorResult;
 import org.apache.zookeeper.Watcher.Event;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.ZooKeeper.States;
 import org.apache.zookeeper.ZooKeeper.WatchRegistration;
+import org.apache.zookeeper.client.HostLatencyListener;
 import org.apache.zookeeper.client.HostProvider;
 import org.apache.zookeeper.proto.AuthPacket;
 import org.apache.zookeeper.proto.ConnectRequest;
@@ -59,6 +73,8 @@ import org.apache.zookeeper.proto.CreateResponse;
 import org.apache.zookeeper.proto.ExistsResponse;
 import org.apache.zookeeper.proto.GetACLResponse;
 import org.apache.zookeeper.proto.GetChildren2Response;
+import org.apache.zookeeper.proto.GetChildrenPageResponse;
+import org.apache.zookeeper.proto.GetChildrenWithDataResponse;
 import org.apache.zookeeper.proto.GetChildrenResponse;
 import org.apache.zookeeper.proto.GetDataResponse;
 import org.apache.zookeeper.proto.ReplyHeader;
@@ -95,6 +111,13 @@ public class ClientCnxn {
         }
     }
 
+    /**
+     * Setting the system property "zookeeper.outOfOrderReads" to "true" makes
+     * the client ask the server, during session establishment, to be allowed
+     * to reply to read requests out of order.
+     */
+    public static final String OUT_OF_ORDER_READS = "zookeeper.outOfOrderReads";
+
     static class AuthData {
         AuthData(String scheme, byte data[]) {
             this.scheme = scheme;
@@ -109,14 +132,43 @@ public class ClientCnxn {
     private final CopyOnWriteArraySet<AuthData> authInfo = new CopyOnWriteArraySet<AuthData>();
 
     /**
-     * These are the packets that have been sent and are waiting for a response.
+     * These are the packets that have been sent and are waiting for a response,
+     * keyed by xid and kept in the order they were sent.
      */
-    private final LinkedList<Packet> pendingQueue = new LinkedList<Packet>();
+    private final LinkedHashMap<Integer, Packet> pendingQueue =
+        new LinkedHashMap<Integer, Packet>();
 
     /**
      * These are the packets that need to be sent.
      */
-    private final LinkedList<Packet> outgoingQueue = new LinkedList<Packet>();
+    private final OutgoingQueue outgoingQueue = new OutgoingQueue();
+
+    /**
+     * The most requests the send thread has sent without having received
+     * their responses. Once there are this many it stops sending, and the
+     * requests queued after them wait in the outgoingQueue. 0 means no
+     * limit.
+     */
+    static final int maxInFlight =
+        Integer.getInteger("zookeeper.client.maxInFlight", 0);
+
+    /**
+     * When the server list changes and this client should move to another
+     * server, it moves at a random time within this many milliseconds, so
+     * that the clients that move do not all reconnect at once.
+     */
+    static final int migrationWindow =
+        Integer.getInteger("zookeeper.client.migrationWindow", 10000);
+
+    /**
+     * With a host provider that compares the servers, a connected client
+     * asks it about every this many milliseconds, give or take half,
+     * whether to move to a server that answers faster. Clients then spread
+     * again after a rolling restart that leaves the server list unchanged.
+     * 0 disables it.
+     */
+    static final int rebalanceInterval =
+        Integer.getInteger("zookeeper.client.rebalanceInterval", 300000);
 
     private int connectTimeout;
 
@@ -148,6 +200,20 @@ public class ClientCnxn {
      */
     private boolean readOnly;
 
+    /**
+     * If true, the client asks the server for permission to answer read
+     * requests out of order during session establishment.
+     */
+    private final boolean requestOutOfOrderReads;
+
+    /**
+     * Set once the server has agreed to reply to reads out of order. Replies
+     * are then matched to pending packets by xid rather than expected to
+     * arrive in the order the requests were sent. Writes are still answered
+     * in order by the server.
+     */
+    private volatile boolean outOfOrderReads;
+
     final String chrootPath;
 
     final SendThread sendThread;
@@ -161,6 +227,9 @@ public class ClientCnxn {
      * operation)
      */
     private volatile boolean closing = false;
+
+    /** The closeSession packet, set before closing */
+    private Packet closePacket;
     
     /**
      * A set of ZooKeeper hosts this client could connect to.
@@ -205,7 +274,7 @@ public class ClientCnxn {
             .append(" local:").append(local)
             .append(" remoteserver:").append(remote)
             .append(" lastZxid:").append(lastZxid)
-            .append(" xid:").append(xid)
+            .append(" xid:").append(outgoingQueue.xid)
             .append(" sent:").append(sendThread.getClientCnxnSocket().getSentCount())
             .append(" recv:").append(sendThread.getClientCnxnSocket().getRecvCount())
             .append(" queuedpkts:").append(outgoingQueue.size())
@@ -242,17 +311,24 @@ public class ClientCnxn {
 
         WatchRegistration watchRegistration;
 
+        /**
+         * The send thread gives the packet an xid when it sends it, see
+         * OutgoingQueue.peek
+         */
+        volatile boolean needsXid;
+
         /** Convenience ctor */
         Packet(RequestHeader requestHeader, ReplyHeader replyHeader,
                Record request, Record response,
                WatchRegistration watchRegistration) {
             this(requestHeader, replyHeader, request, response,
-                 watchRegistration, false);
+                 watchRegistration, false, false);
         }
 
         Packet(RequestHeader requestHeader, ReplyHeader replyHeader,
                Record request, Record response,
-               WatchRegistration watchRegistration, boolean readOnly) {
+               WatchRegistration watchRegistration, boolean readOnly,
+               boolean outOfOrderReads) {
 
             this.requestHeader = requestHeader;
             this.replyHeader = replyHeader;
@@ -270,6 +346,8 @@ public class ClientCnxn {
                     request.serialize(boa, "connect");
                     // append "am-I-allowed-to-be-readonly" flag
                     boa.writeBool(readOnly, "readOnly");
+                    // append "may-reads-be-answered-out-of-order" flag
+                    boa.writeBool(outOfOrderReads, "outOfOrderReads");
                 } else if (request != null) {
                     request.serialize(boa, "request");
                 }
@@ -284,6 +362,16 @@ public class ClientCnxn {
             this.watchRegistration = watchRegistration;
         }
 
+        /**
+         * Set the xid of the request header, both in the header and in the
+         * serialized packet, where it follows the length.
+         */
+        void setXid(int xid) {
+            requestHeader.setXid(xid);
+            bb.putInt(4, xid);
+            needsXid = false;
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
@@ -302,6 +390,101 @@ public class ClientCnxn {
         }
     }
 
+    /**
+     * The packets waiting to be sent. Any thread can add a packet without
+     * taking a lock; everything else is done by the send thread.
+     * <p>
+     * Packets get their xid from the send thread when they reach the head
+     * of the queue, rather than when they are added, so xids go out in
+     * increasing order without the threads adding packets having to agree
+     * on an order among themselves.
+     */
+    static class OutgoingQueue {
+        private final ConcurrentLinkedQueue<Packet> queue =
+            new ConcurrentLinkedQueue<Packet>();
+
+        /** Packets that go before those in queue, used by the send thread */
+        private final LinkedList<Packet> first = new LinkedList<Packet>();
+
+        /** Only used by the send thread */
+        private int xid = 1;
+
+        void add(Packet p) {
+            queue.add(p);
+        }
+
+        /**
+         * Remove p, unless the send thread took it first.
+         */
+        boolean remove(Packet p) {
+            return queue.remove(p);
+        }
+
+        /**
+         * Remove p if it was added after last, so that its xid would come
+         * after the xid of last, unless the send thread took it first.
+         */
+        boolean removeIfAfter(Packet p, Packet last) {
+            for (Packet q : queue) {
+                if (q == last) {
+                    break;
+                }
+                if (q == p) {
+                    // p is ahead of last, unless the send thread has already
+                    // given last its xid and taken it
+                    if (last.needsXid) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+            return queue.remove(p);
+        }
+
+        void addFirst(Packet p) {
+            first.addFirst(p);
+        }
+
+        boolean isEmpty() {
+            return first.isEmpty() && queue.isEmpty();
+        }
+
+        /**
+         * @return the next packet to send, with its xid set, or null
+         */
+        Packet peek() {
+            Packet p = first.isEmpty() ? queue.peek() : first.getFirst();
+            if (p != null && p.needsXid) {
+                p.setXid(xid++);
+            }
+            return p;
+        }
+
+        Packet remove() {
+            return first.isEmpty() ? queue.poll() : first.removeFirst();
+        }
+
+        /**
+         * @return the packets of the queue, which is left empty
+         */
+        List<Packet> clear() {
+            List<Packet> packets = new ArrayList<Packet>(first);
+            first.clear();
+            Packet p;
+            while ((p = queue.poll()) != null) {
+                packets.add(p);
+            }
+            return packets;
+        }
+
+        /**
+         * Takes time linear in the number of packets
+         */
+        int size() {
+            return first.size() + queue.size();
+        }
+    }
+
     /**
      * Creates a connection object. The actual network connect doesn't get
      * established until needed. The start() instance method must be called
@@ -365,9 +548,10 @@ public class ClientCnxn {
         connectTimeout = sessionTimeout / hostProvider.size();
         readTimeout = sessionTimeout * 2 / 3;
         readOnly = canBeReadOnly;
+        requestOutOfOrderReads = Boolean.getBoolean(OUT_OF_ORDER_READS);
 
         sendThread = new SendThread(clientCnxnSocket);
-        eventThread = new EventThread();
+        eventThread = new EventThread(clientCnxnSocket.getCallbackExecutor());
     }
 
     /**
@@ -384,9 +568,28 @@ public class ClientCnxn {
     public static void setDisableAutoResetWatch(boolean b) {
         disableAutoWatchReset = b;
     }
+    /**
+     * Replaces the servers of the host provider, and moves to another
+     * server if the host provider says this client should.
+     */
+    void updateServerList(Collection<InetSocketAddress> serverAddresses)
+            throws UnknownHostException {
+        // the server being connected to counts too, the move then applies
+        // once the client is connected to it
+        InetSocketAddress currentHost = sendThread.currentAddr;
+        if (hostProvider.updateServerList(serverAddresses, currentHost)) {
+            LOG.info("Server list changed, session 0x"
+                    + Long.toHexString(getSessionId())
+                    + " will move away from " + currentHost);
+            sendThread.migrate(currentHost);
+        }
+    }
+
     public void start() {
-        sendThread.start();
-        eventThread.start();
+        sendThread.getClientCnxnSocket().start(sendThread);
+        if (eventThread.callbackExecutor == null) {
+            eventThread.start();
+        }
     }
 
     private Object eventOfDeath = new Object();
@@ -432,8 +635,24 @@ public class ClientCnxn {
        private volatile boolean wasKilled = false;
        private volatile boolean isRunning = false;
 
-        EventThread() {
+        /**
+         * If not null, events are processed by tasks on this executor, one
+         * task at a time, instead of on this thread, which is then never
+         * started.
+         */
+        final Executor callbackExecutor;
+
+        private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+        private final Runnable drainer = new Runnable() {
+            public void run() {
+                drainEvents();
+            }
+        };
+
+        EventThread(Executor callbackExecutor) {
             super(makeThreadName("-EventThread"));
+            this.callbackExecutor = callbackExecutor;
             setUncaughtExceptionHandler(uncaughtExceptionHandler);
             setDaemon(true);
         }
@@ -452,10 +671,14 @@ public class ClientCnxn {
                             event);
             // queue the pair (watch set & event) for later processing
             waitingEvents.add(pair);
+            scheduleDrain();
         }
 
        public void queuePacket(Packet packet) {
-          if (wasKilled) {
+          if (callbackExecutor != null) {
+             waitingEvents.add(packet);
+             scheduleDrain();
+          } else if (wasKilled) {
              synchronized (waitingEvents) {
                 if (isRunning) waitingEvents.add(packet);
                 else processEvent(packet);
@@ -467,6 +690,34 @@ public class ClientCnxn {
 
         public void queueEventOfDeath() {
             waitingEvents.add(eventOfDeath);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (callbackExecutor != null
+                    && drainScheduled.compareAndSet(false, true)) {
+                callbackExecutor.execute(drainer);
+            }
+        }
+
+        /**
+         * Processes the queued events on the callback executor. Only one
+         * drain runs at a time so that the callbacks and watchers of a
+         * connection are still called in order.
+         */
+        private void drainEvents() {
+            do {
+                Object event;
+                while ((event = waitingEvents.poll()) != null) {
+                    if (event == eventOfDeath) {
+                        wasKilled = true;
+                    } else {
+                        processEvent(event);
+                    }
+                }
+                drainScheduled.set(false);
+            } while (!waitingEvents.isEmpty()
+                    && drainScheduled.compareAndSet(false, true));
         }
 
         @Override
@@ -575,6 +826,28 @@ public class ClientCnxn {
                       } else {
                           cb.processResult(rc, clientPath, p.ctx, null, null);
                       }
+                  } else if (p.response instanceof GetChildrenPageResponse) {
+                      ChildNamesPageCallback cb = (ChildNamesPageCallback) p.cb;
+                      GetChildrenPageResponse rsp =
+                          (GetChildrenPageResponse) p.response;
+                      if (rc == 0) {
+                          cb.processResult(rc, clientPath, p.ctx,
+                                  new ChildNamesPage(rsp.getChildren(),
+                                          rsp.getStat(), rsp.getHasMore()));
+                      } else {
+                          cb.processResult(rc, clientPath, p.ctx, null);
+                      }
+                  } else if (p.response instanceof GetChildrenWithDataResponse) {
+                      ChildrenPageCallback cb = (ChildrenPageCallback) p.cb;
+                      GetChildrenWithDataResponse rsp =
+                          (GetChildrenWithDataResponse) p.response;
+                      if (rc == 0) {
+                          cb.processResult(rc, clientPath, p.ctx,
+                                  new ChildrenPage(rsp.getChildren(),
+                                          rsp.getStat(), rsp.getHasMore()));
+                      } else {
+                          cb.processResult(rc, clientPath, p.ctx, null);
+                      }
                   } else if (p.response instanceof CreateResponse) {
                       StringCallback cb = (StringCallback) p.cb;
                       CreateResponse rsp = (CreateResponse) p.response;
@@ -587,6 +860,24 @@ public class ClientCnxn {
                       } else {
                           cb.processResult(rc, clientPath, p.ctx, null);
                       }
+                  } else if (p.response instanceof MultiResponse) {
+                      MultiCallback cb = (MultiCallback) p.cb;
+                      MultiResponse rsp = (MultiResponse) p.response;
+                      if (rc == 0) {
+                          List<OpResult> results = rsp.getResultList();
+                          // as with the synchronous multi, the first op
+                          // that failed fails the whole request
+                          for (OpResult result : results) {
+                              if (result instanceof ErrorResult
+                                      && ((ErrorResult) result).getErr() != 0) {
+                                  rc = ((ErrorResult) result).getErr();
+                                  break;
+                              }
+                          }
+                          cb.processResult(rc, clientPath, p.ctx, results);
+                      } else {
+                          cb.processResult(rc, clientPath, p.ctx, null);
+                      }
                   } else if (p.cb instanceof VoidCallback) {
                       VoidCallback cb = (VoidCallback) p.cb;
                       cb.processResult(rc, clientPath, p.ctx);
@@ -669,6 +960,14 @@ public class ClientCnxn {
             super(msg);
         }
     }
+
+    private static class ServerMigrationException extends IOException {
+        private static final long serialVersionUID = -2962406294620532335L;
+
+        public ServerMigrationException(String msg) {
+            super(msg);
+        }
+    }
     
     public static final int packetLen = Integer.getInteger("jute.maxbuffer",
             4096 * 1024);
@@ -683,11 +982,44 @@ public class ClientCnxn {
         private Random r = new Random(System.nanoTime());        
         private boolean isFirstConnect = true;
 
+        /*
+         * The server being connected to and when the attempt started, to
+         * tell the host provider how it performs if it wants to know.
+         */
+        private volatile InetSocketAddress currentAddr;
+        private long connectStartNs;
+
+        /*
+         * When to move to another server after the server list changed, 0
+         * when not moving.
+         */
+        private volatile long migrateAtNs;
+
+        /*
+         * The server to move away from, when moving.
+         */
+        private volatile InetSocketAddress migrateFrom;
+
+        /*
+         * When to ask the host provider whether to move to a faster server.
+         */
+        private long rebalanceAtNs;
+
+        /*
+         * Responses are read one at a time by this thread, so the stream,
+         * the archive and the header they are read with are reused. The
+         * records they are read into are handed to other threads, so those
+         * are not.
+         */
+        private final ByteBufferInputStream responseStream =
+            new ByteBufferInputStream(null);
+        private final BinaryInputArchive responseArchive =
+            BinaryInputArchive.getArchive(responseStream);
+        private final ReplyHeader replyHdr = new ReplyHeader();
+
         void readResponse(ByteBuffer incomingBuffer) throws IOException {
-            ByteBufferInputStream bbis = new ByteBufferInputStream(
-                    incomingBuffer);
-            BinaryInputArchive bbia = BinaryInputArchive.getArchive(bbis);
-            ReplyHeader replyHdr = new ReplyHeader();
+            responseStream.setByteBuffer(incomingBuffer);
+            BinaryInputArchive bbia = responseArchive;
 
             replyHdr.deserialize(bbia, "header");
             if (replyHdr.getXid() == -2) {
@@ -699,6 +1031,7 @@ public class ClientCnxn {
                             + ((System.nanoTime() - lastPingSentNs) / 1000000)
                             + "ms");
                 }
+                reportLatency(System.nanoTime() - lastPingSentNs);
                 return;
             }
             if (replyHdr.getXid() == -4) {
@@ -747,11 +1080,24 @@ public class ClientCnxn {
                     throw new IOException("Nothing in the queue, but got "
                             + replyHdr.getXid());
                 }
-                packet = pendingQueue.remove();
+                if (outOfOrderReads) {
+                    packet = pendingQueue.remove(replyHdr.getXid());
+                    if (packet == null) {
+                        throw new IOException("Xid unknown. Got Xid "
+                                + replyHdr.getXid() + " with err "
+                                + replyHdr.getErr()
+                                + " which matches no pending request");
+                    }
+                } else {
+                    Iterator<Packet> iter = pendingQueue.values().iterator();
+                    packet = iter.next();
+                    iter.remove();
+                }
             }
             /*
-             * Since requests are processed in order, we better get a response
-             * to the first request!
+             * Unless the server agreed to answer reads out of order, requests
+             * are processed in order, so we better get a response to the
+             * first request!
              */
             try {
                 if (packet.requestHeader.getXid() != replyHdr.getXid()) {
@@ -818,34 +1164,32 @@ public class ClientCnxn {
             long sessId = (seenRwServerBefore) ? sessionId : 0;
             ConnectRequest conReq = new ConnectRequest(0, lastZxid,
                     sessionTimeout, sessId, sessionPasswd);
-            synchronized (outgoingQueue) {
-                // We add backwards since we are pushing into the front
-                // Only send if there's a pending watch
-                // TODO: here we have the only remaining use of zooKeeper in
-                // this class. It's to be eliminated!
-                if (!disableAutoWatchReset
-                        && (!zooKeeper.getDataWatches().isEmpty()
-                                || !zooKeeper.getExistWatches().isEmpty() || !zooKeeper
-                                .getChildWatches().isEmpty())) {
-                    SetWatches sw = new SetWatches(lastZxid,
-                            zooKeeper.getDataWatches(),
-                            zooKeeper.getExistWatches(),
-                            zooKeeper.getChildWatches());
-                    RequestHeader h = new RequestHeader();
-                    h.setType(ZooDefs.OpCode.setWatches);
-                    h.setXid(-8);
-                    Packet packet = new Packet(h, new ReplyHeader(), sw, null, null);
-                    outgoingQueue.addFirst(packet);
-                }
+            // We add backwards since we are pushing into the front
+            // Only send if there's a pending watch
+            // TODO: here we have the only remaining use of zooKeeper in
+            // this class. It's to be eliminated!
+            if (!disableAutoWatchReset
+                    && (!zooKeeper.getDataWatches().isEmpty()
+                            || !zooKeeper.getExistWatches().isEmpty() || !zooKeeper
+                            .getChildWatches().isEmpty())) {
+                SetWatches sw = new SetWatches(lastZxid,
+                        zooKeeper.getDataWatches(),
+                        zooKeeper.getExistWatches(),
+                        zooKeeper.getChildWatches());
+                RequestHeader h = new RequestHeader();
+                h.setType(ZooDefs.OpCode.setWatches);
+                h.setXid(-8);
+                Packet packet = new Packet(h, new ReplyHeader(), sw, null, null);
+                outgoingQueue.addFirst(packet);
+            }
 
-                for (AuthData id : authInfo) {
-                    outgoingQueue.addFirst(new Packet(new RequestHeader(-4,
-                            OpCode.auth), null, new AuthPacket(0, id.scheme,
-                            id.data), null, null));
-                }
-                outgoingQueue.addFirst(new Packet(null, null, conReq,
-                            null, null, readOnly));
+            for (AuthData id : authInfo) {
+                outgoingQueue.addFirst(new Packet(new RequestHeader(-4,
+                        OpCode.auth), null, new AuthPacket(0, id.scheme,
+                        id.data), null, null));
             }
+            outgoingQueue.addFirst(new Packet(null, null, conReq,
+                        null, null, readOnly, requestOutOfOrderReads));
             clientCnxnSocket.enableReadWriteOnly();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Session establishment request sent on "
@@ -867,10 +1211,56 @@ public class ClientCnxn {
 
         private int pingRwTimeout = minPingRwTimeout;
 
-        private void startConnect() throws IOException {
-            if(!isFirstConnect){
+        /**
+         * Set by pingRwServer once it found a read/write server
+         */
+        private volatile InetSocketAddress rwServerFound = null;
+
+        private long lastPingRwServer;
+
+        /**
+         * For non-blocking transports, the time before which the next
+         * connection attempt must not start
+         */
+        private long nextConnectTime = 0;
+
+        private boolean connectAttempted = false;
+
+        private final ReconnectBackoff backoff = new ReconnectBackoff();
+
+        /**
+         * How long to wait before the next attempt to reconnect. Waiting
+         * longer than a third of the session timeout would risk the session
+         * expiring while waiting.
+         */
+        private long reconnectDelay() {
+            int timeout = negotiatedSessionTimeout > 0 ?
+                    negotiatedSessionTimeout : sessionTimeout;
+            return Math.min(backoff.nextDelay(), timeout / 3);
+        }
+
+        /**
+         * @return false if a non-blocking transport has to come back later
+         *         to connect
+         */
+        private boolean startConnect() throws IOException {
+            if (!clientCnxnSocket.isBlocking()) {
+                // The event loop can't sleep, neither here nor in the host
+                // provider, so every attempt after the first one is delayed
+                // instead
+                long now = System.currentTimeMillis();
+                if (connectAttempted && nextConnectTime == 0) {
+                    nextConnectTime = now + reconnectDelay();
+                }
+                if (now < nextConnectTime) {
+                    clientCnxnSocket.wakeupAfter((int) (nextConnectTime - now));
+                    return false;
+                }
+                nextConnectTime = 0;
+                connectAttempted = true;
+            } else if(!isFirstConnect){
                 try {
-                    Thread.sleep(r.nextInt(1000));
+                    Thread.sleep(reconnectDelay());
                 } catch (InterruptedException e) {
                     LOG.warn("Unexpected exception", e);
                 }
@@ -882,7 +1272,7 @@ public class ClientCnxn {
                 addr = rwServerAddress;
                 rwServerAddress = null;
             } else {
-                addr = hostProvider.next(1000);
+                addr = hostProvider.next(clientCnxnSocket.isBlocking() ? 1000 : 0);
             }
 
             LOG.info("Opening socket connection to server " + addr);
@@ -890,7 +1280,43 @@ public class ClientCnxn {
             setName(getName().replaceAll("\\(.*\\)",
                     "(" + addr.getHostName() + ":" + addr.getPort() + ")"));
 
+            currentAddr = addr;
+            connectStartNs = System.nanoTime();
             clientCnxnSocket.connect(addr);
+            return true;
+        }
+
+        /**
+         * Moves away from the given server at a random time within the
+         * migration window, once connected to it.
+         */
+        void migrate(InetSocketAddress from) {
+            migrateFrom = from;
+            long delayNs = (long) (r.nextDouble() * migrationWindow) * 1000000L;
+            migrateAtNs = (System.nanoTime() + delayNs) | 1;
+            clientCnxnSocket.wakeupCnxn();
+        }
+
+        private void scheduleRebalance() {
+            long delayNs = (long) ((0.5 + r.nextDouble()) * rebalanceInterval)
+                * 1000000L;
+            rebalanceAtNs = System.nanoTime() + delayNs;
+        }
+
+        private void reportLatency(long latencyNs) {
+            if (hostProvider instanceof HostLatencyListener
+                    && currentAddr != null) {
+                ((HostLatencyListener) hostProvider).onLatency(currentAddr,
+                        latencyNs);
+            }
+        }
+
+        private void reportFailure() {
+            if (hostProvider instanceof HostLatencyListener
+                    && currentAddr != null) {
+                ((HostLatencyListener) hostProvider).onFailure(currentAddr);
+            }
+            currentAddr = null;
         }
 
         private static final String RETRY_CONN_MSG =
@@ -898,105 +1324,189 @@ public class ClientCnxn {
         
         @Override
         public void run() {
+            startLoop();
+            while (runOnce()) {
+                // runOnce blocks in doTransport
+            }
+            finishLoop();
+        }
+
+        void startLoop() {
             clientCnxnSocket.introduce(this,sessionId);
             clientCnxnSocket.updateNow();
             clientCnxnSocket.updateLastSendAndHeard();
+            lastPingRwServer = System.currentTimeMillis();
+        }
+
+        /**
+         * Runs one iteration of the loop of this thread. A non-blocking
+         * transport calls it from its own event loop instead, whenever
+         * something happens on the socket or the time it waits for is over.
+         *
+         * @return false once the loop is over
+         */
+        boolean runOnce() {
+            if (!state.isAlive()) {
+                return false;
+            }
             int to;
-            long lastPingRwServer = System.currentTimeMillis();
-            while (state.isAlive()) {
-                try {
-                    if (!clientCnxnSocket.isConnected()) {
-                        // don't re-establish connection if we are closing
-                        if (closing) {
-                            break;
-                        }
-                        startConnect();
-                        clientCnxnSocket.updateLastSendAndHeard();
+            try {
+                if (!clientCnxnSocket.isConnected()) {
+                    // don't re-establish connection if we are closing
+                    if (closing) {
+                        return false;
                     }
-                   
-                    if (state.isConnected()) {
-                        to = readTimeout - clientCnxnSocket.getIdleRecv();
-                    } else {
-                        to = connectTimeout - clientCnxnSocket.getIdleRecv();
+                    if (!startConnect()) {
+                        return true;
                     }
-                    
-                    if (to <= 0) {
-                        throw new SessionTimeoutException(
-                                "Client session timed out, have not heard from server in "
-                                        + clientCnxnSocket.getIdleRecv() + "ms"
-                                        + " for sessionid 0x"
-                                        + Long.toHexString(sessionId));
+                    clientCnxnSocket.updateLastSendAndHeard();
+                }
+
+                if (state.isConnected()) {
+                    to = readTimeout - clientCnxnSocket.getIdleRecv();
+                } else {
+                    to = connectTimeout - clientCnxnSocket.getIdleRecv();
+                }
+
+                if (to <= 0) {
+                    throw new SessionTimeoutException(
+                            "Client session timed out, have not heard from server in "
+                                    + clientCnxnSocket.getIdleRecv() + "ms"
+                                    + " for sessionid 0x"
+                                    + Long.toHexString(sessionId));
+                }
+                if (state.isConnected()) {
+                    int timeToNextPing = readTimeout / 2
+                            - clientCnxnSocket.getIdleSend();
+                    if (timeToNextPing <= 0) {
+                        sendPing();
+                        clientCnxnSocket.updateLastSend();
+                        clientCnxnSocket.enableWrite();
+                    } else {
+                        if (timeToNextPing < to) {
+                            to = timeToNextPing;
+                        }
                     }
-                    if (state.isConnected()) {
-                        int timeToNextPing = readTimeout / 2
-                                - clientCnxnSocket.getIdleSend();
-                        if (timeToNextPing <= 0) {
-                            sendPing();
-                            clientCnxnSocket.updateLastSend();
-                            clientCnxnSocket.enableWrite();
-                        } else {
-                            if (timeToNextPing < to) {
-                                to = timeToNextPing;
+                }
+
+                // If we are in read-only mode, seek for read/write server
+                if (state == States.CONNECTEDREADONLY) {
+                    long now = System.currentTimeMillis();
+                    int idlePingRwServer = (int) (now - lastPingRwServer);
+                    if (idlePingRwServer >= pingRwTimeout) {
+                        lastPingRwServer = now;
+                        idlePingRwServer = 0;
+                        pingRwTimeout =
+                            Math.min(2*pingRwTimeout, maxPingRwTimeout);
+                        // the host provider is only used by this thread,
+                        // so the server to check is picked here
+                        final InetSocketAddress rwAddr = hostProvider.next(0);
+                        clientCnxnSocket.runBlocking(new Runnable() {
+                            public void run() {
+                                pingRwServer(rwAddr);
                             }
-                        }
+                        });
+                    }
+                    InetSocketAddress addr = rwServerFound;
+                    if (addr != null) {
+                        rwServerFound = null;
+                        pingRwTimeout = minPingRwTimeout;
+                        // save the found address so that it's used during
+                        // the next connection attempt
+                        rwServerAddress = addr;
+                        throw new RWServerFoundException("Majority server found at "
+                                + addr.getHostName() + ":" + addr.getPort());
                     }
+                    to = Math.min(to, pingRwTimeout - idlePingRwServer);
+                }
 
-                    // If we are in read-only mode, seek for read/write server
-                    if (state == States.CONNECTEDREADONLY) {
-                        long now = System.currentTimeMillis();
-                        int idlePingRwServer = (int) (now - lastPingRwServer);
-                        if (idlePingRwServer >= pingRwTimeout) {
-                            lastPingRwServer = now;
-                            idlePingRwServer = 0;
-                            pingRwTimeout =
-                                Math.min(2*pingRwTimeout, maxPingRwTimeout);
-                            pingRwServer();
+                if (rebalanceInterval > 0 && state.isConnected()
+                        && migrateAtNs == 0
+                        && hostProvider instanceof HostLatencyListener) {
+                    long wait = (rebalanceAtNs - System.nanoTime()) / 1000000;
+                    if (wait <= 0) {
+                        scheduleRebalance();
+                        InetSocketAddress addr = currentAddr;
+                        if (addr != null && ((HostLatencyListener) hostProvider)
+                                .shouldMove(addr)) {
+                            LOG.info("Session 0x"
+                                    + Long.toHexString(getSessionId())
+                                    + " will move away from slower server "
+                                    + addr);
+                            migrate(addr);
                         }
-                        to = Math.min(to, pingRwTimeout - idlePingRwServer);
+                    } else {
+                        to = (int) Math.min(to, wait);
                     }
+                }
 
-                    clientCnxnSocket.doTransport(to, pendingQueue, outgoingQueue);
+                long migrateAt = migrateAtNs;
+                if (migrateAt != 0 && state.isConnected()) {
+                    long wait = (migrateAt - System.nanoTime()) / 1000000;
+                    if (wait <= 0) {
+                        migrateAtNs = 0;
+                        throw new ServerMigrationException(
+                                "Server list changed, moving away from server "
+                                + clientCnxnSocket.getRemoteSocketAddress());
+                    }
+                    to = (int) Math.min(to, wait);
+                }
 
-                } catch (Exception e) {
-                    if (closing) {
-                        if (LOG.isDebugEnabled()) {
-                            // closing so this is expected
-                            LOG.debug("An exception was thrown while closing send thread for session 0x"
-                                    + Long.toHexString(getSessionId())
-                                    + " : " + e.getMessage());
-                        }
-                        break;
+                clientCnxnSocket.doTransport(to, pendingQueue, outgoingQueue);
+
+            } catch (Exception e) {
+                if (closing) {
+                    if (LOG.isDebugEnabled()) {
+                        // closing so this is expected
+                        LOG.debug("An exception was thrown while closing send thread for session 0x"
+                                + Long.toHexString(getSessionId())
+                                + " : " + e.getMessage());
+                    }
+                    return false;
+                } else {
+                    // this is ugly, you have a better way speak up
+                    if (e instanceof SessionExpiredException) {
+                        LOG.info(e.getMessage() + ", closing socket connection");
+                    } else if (e instanceof SessionTimeoutException) {
+                        LOG.info(e.getMessage() + RETRY_CONN_MSG);
+                    } else if (e instanceof EndOfStreamException) {
+                        LOG.info(e.getMessage() + RETRY_CONN_MSG);
+                    } else if (e instanceof RWServerFoundException) {
+                        LOG.info(e.getMessage());
+                    } else if (e instanceof ServerMigrationException) {
+                        LOG.info(e.getMessage());
                     } else {
-                        // this is ugly, you have a better way speak up
-                        if (e instanceof SessionExpiredException) {
-                            LOG.info(e.getMessage() + ", closing socket connection");
-                        } else if (e instanceof SessionTimeoutException) {
-                            LOG.info(e.getMessage() + RETRY_CONN_MSG);
-                        } else if (e instanceof EndOfStreamException) {
-                            LOG.info(e.getMessage() + RETRY_CONN_MSG);
-                        } else if (e instanceof RWServerFoundException) {
-                            LOG.info(e.getMessage());
-                        } else {
-                            LOG.warn(
-                                    "Session 0x"
-                                            + Long.toHexString(getSessionId())
-                                            + " for server "
-                                            + clientCnxnSocket.getRemoteSocketAddress()
-                                            + ", unexpected error"
-                                            + RETRY_CONN_MSG, e);
-                        }
-                        cleanup();
-                        if (state.isAlive()) {
-                            eventThread.queueEvent(new WatchedEvent(
-                                    Event.EventType.None,
-                                    Event.KeeperState.Disconnected,
-                                    null));
-                        }
-                        clientCnxnSocket.updateNow();
-                        clientCnxnSocket.updateLastSendAndHeard();
+                        LOG.warn(
+                                "Session 0x"
+                                        + Long.toHexString(getSessionId())
+                                        + " for server "
+                                        + clientCnxnSocket.getRemoteSocketAddress()
+                                        + ", unexpected error"
+                                        + RETRY_CONN_MSG, e);
+                    }
+                    if (e instanceof SessionExpiredException
+                            || e instanceof RWServerFoundException
+                            || e instanceof ServerMigrationException) {
+                        // the server is fine, the client moves on anyway
+                        currentAddr = null;
+                    } else {
+                        reportFailure();
+                    }
+                    cleanup();
+                    if (state.isAlive()) {
+                        eventThread.queueEvent(new WatchedEvent(
+                                Event.EventType.None,
+                                Event.KeeperState.Disconnected,
+                                null));
                     }
+                    clientCnxnSocket.updateNow();
+                    clientCnxnSocket.updateLastSendAndHeard();
                 }
             }
+            return true;
+        }
+
+        void finishLoop() {
             cleanup();
             clientCnxnSocket.close();
             if (state.isAlive()) {
@@ -1007,9 +1517,12 @@ public class ClientCnxn {
                                      "SendThread exitedloop.");
         }
 
-        private void pingRwServer() throws RWServerFoundException {
+        /**
+         * Sets rwServerFound if the given server is a read/write one. This
+         * blocks on the network, see ClientCnxnSocket.runBlocking.
+         */
+        private void pingRwServer(InetSocketAddress addr) {
             String result = null;
-            InetSocketAddress addr = hostProvider.next(0);
             LOG.info("Checking server " + addr + " for being r/w." +
                     " Timeout " + pingRwTimeout);
 
@@ -1035,28 +1548,21 @@ public class ClientCnxn {
             }
 
             if ("rw".equals(result)) {
-                pingRwTimeout = minPingRwTimeout;
-                // save the found address so that it's used during the next
-                // connection attempt
-                rwServerAddress = addr;
-                throw new RWServerFoundException("Majority server found at "
-                        + addr.getHostName() + ":" + addr.getPort());
+                rwServerFound = addr;
+                clientCnxnSocket.wakeupCnxn();
             }
         }
 
         private void cleanup() {
             clientCnxnSocket.cleanup();
             synchronized (pendingQueue) {
-                for (Packet p : pendingQueue) {
+                for (Packet p : pendingQueue.values()) {
                     conLossPacket(p);
                 }
                 pendingQueue.clear();
             }
-            synchronized (outgoingQueue) {
-                for (Packet p : outgoingQueue) {
-                    conLossPacket(p);
-                }
-                outgoingQueue.clear();
+            for (Packet p : outgoingQueue.clear()) {
+                conLossPacket(p);
             }
         }
 
@@ -1068,10 +1574,13 @@ public class ClientCnxn {
          * @param _sessionId
          * @param _sessionPasswd
          * @param isRO
+         * @param _outOfOrderReads whether the server agreed to answer reads
+         *                         out of order
          * @throws IOException
          */
         void onConnected(int _negotiatedSessionTimeout, long _sessionId,
-                byte[] _sessionPasswd, boolean isRO) throws IOException {
+                byte[] _sessionPasswd, boolean isRO, boolean _outOfOrderReads)
+                throws IOException {
             negotiatedSessionTimeout = _negotiatedSessionTimeout;
             if (negotiatedSessionTimeout <= 0) {
                 state = States.CLOSED;
@@ -1090,8 +1599,17 @@ public class ClientCnxn {
             readTimeout = negotiatedSessionTimeout * 2 / 3;
             connectTimeout = negotiatedSessionTimeout / hostProvider.size();
             hostProvider.onConnected();
+            reportLatency(System.nanoTime() - connectStartNs);
+            InetSocketAddress from = migrateFrom;
+            if (from == null || !from.equals(currentAddr)) {
+                // already away from the server to move away from
+                migrateAtNs = 0;
+            }
+            scheduleRebalance();
+            backoff.reset();
             sessionId = _sessionId;
             sessionPasswd = _sessionPasswd;
+            outOfOrderReads = requestOutOfOrderReads && _outOfOrderReads;
             state = (isRO) ?
                     States.CONNECTEDREADONLY : States.CONNECTED;
             seenRwServerBefore |= !isRO;
@@ -1099,7 +1617,8 @@ public class ClientCnxn {
                     + clientCnxnSocket.getRemoteSocketAddress()
                     + ", sessionid = 0x" + Long.toHexString(sessionId)
                     + ", negotiated timeout = " + negotiatedSessionTimeout
-                    + (isRO ? " (READ-ONLY mode)" : ""));
+                    + (isRO ? " (READ-ONLY mode)" : "")
+                    + (outOfOrderReads ? " (out of order reads)" : ""));
             KeeperState eventState = (isRO) ?
                     KeeperState.ConnectedReadOnly : KeeperState.SyncConnected;
             eventThread.queueEvent(new WatchedEvent(
@@ -1157,14 +1676,8 @@ public class ClientCnxn {
         }
     }
 
-    private int xid = 1;
-
     private volatile States state;
 
-    synchronized private int getXid() {
-        return xid++;
-    }
-
     public ReplyHeader submitRequest(RequestHeader h, Record request,
             Record response, WatchRegistration watchRegistration)
             throws InterruptedException {
@@ -1183,26 +1696,34 @@ public class ClientCnxn {
             Record response, AsyncCallback cb, String clientPath,
             String serverPath, Object ctx, WatchRegistration watchRegistration)
     {
-        Packet packet = null;
-        synchronized (outgoingQueue) {
-            if (h.getType() != OpCode.ping && h.getType() != OpCode.auth) {
-                h.setXid(getXid());
-            }
-            packet = new Packet(h, r, request, response, watchRegistration);
-            packet.cb = cb;
-            packet.ctx = ctx;
-            packet.clientPath = clientPath;
-            packet.serverPath = serverPath;
-            if (!state.isAlive() || closing) {
-                conLossPacket(packet);
-            } else {
-                // If the client is asking to close the session then
-                // mark as closing
-                if (h.getType() == OpCode.closeSession) {
-                    closing = true;
-                }
-                outgoingQueue.add(packet);
-            }
+        // the packet is serialized here, by the calling thread, and added
+        // to the queue without a lock
+        Packet packet = new Packet(h, r, request, response, watchRegistration);
+        packet.needsXid = h.getType() != OpCode.ping
+            && h.getType() != OpCode.auth;
+        packet.cb = cb;
+        packet.ctx = ctx;
+        packet.clientPath = clientPath;
+        packet.serverPath = serverPath;
+        if (!state.isAlive() || closing) {
+            conLossPacket(packet);
+            return packet;
+        }
+        outgoingQueue.add(packet);
+        if (h.getType() == OpCode.closeSession) {
+            // If the client is asking to close the session then
+            // mark as closing
+            closePacket = packet;
+            closing = true;
+        } else if ((!state.isAlive() && outgoingQueue.remove(packet))
+                || (closing
+                    && outgoingQueue.removeIfAfter(packet, closePacket))) {
+            // the send thread may have emptied the queue for the last
+            // time before the packet was added, and if so nobody else
+            // will finish it. Packets added before the closeSession packet
+            // still go out ahead of it.
+            conLossPacket(packet);
+            return packet;
         }
         sendThread.getClientCnxnSocket().wakeupCnxn();
         return packet;
@@ -1221,4 +1742,12 @@ public class ClientCnxn {
     States getState() {
         return state;
     }
+
+    /**
+     * @return true if the server agreed to answer reads out of order on the
+     *         current connection
+     */
+    boolean isOutOfOrderReads() {
+        return outOfOrderReads;
+    }
 }
@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates ClientCnxnSocketShared sockets, which share a fixed number of
+ * event loop threads for their I/O and a fixed pool of threads for their
+ * callbacks and watchers, however many ZooKeeper handles use them.
+ *
+ * The default group is sized by the zookeeper.client.eventLoops and
+ * zookeeper.client.callbackThreads system properties, both defaulting to
+ * the number of processors.
+ */
+class ClientCnxnEventLoopGroup {
+    private static final Logger LOG =
+        LoggerFactory.getLogger(ClientCnxnEventLoopGroup.class);
+
+    public static final String EVENT_LOOPS = "zookeeper.client.eventLoops";
+
+    public static final String CALLBACK_THREADS =
+        "zookeeper.client.callbackThreads";
+
+    private static ClientCnxnEventLoopGroup defaultGroup;
+
+    private final EventLoop loops[];
+
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+
+    private final ExecutorService callbackExecutor;
+
+    /**
+     * Runs the tasks that block on the network, so that they hold up
+     * neither an event loop nor the callbacks. Its threads only live
+     * while there are such tasks.
+     */
+    private final ExecutorService blockingExecutor;
+
+    static synchronized ClientCnxnEventLoopGroup getDefault()
+        throws IOException
+    {
+        if (defaultGroup == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            defaultGroup = new ClientCnxnEventLoopGroup(
+                    Integer.getInteger(EVENT_LOOPS, processors),
+                    Integer.getInteger(CALLBACK_THREADS, processors));
+        }
+        return defaultGroup;
+    }
+
+    ClientCnxnEventLoopGroup(int eventLoops, int callbackThreads)
+        throws IOException
+    {
+        if (eventLoops <= 0 || callbackThreads <= 0) {
+            throw new IllegalArgumentException("Need at least one event loop"
+                    + " and one callback thread");
+        }
+        loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop("zk-client-eventloop-" + i);
+            loops[i].start();
+        }
+        callbackExecutor = Executors.newFixedThreadPool(callbackThreads,
+                new DaemonThreadFactory("zk-client-callback-"));
+        blockingExecutor = Executors.newCachedThreadPool(
+                new DaemonThreadFactory("zk-client-blocking-"));
+        LOG.info("Started " + eventLoops + " client event loops and "
+                + callbackThreads + " callback threads");
+    }
+
+    /**
+     * @return a socket for a new connection, on the next event loop
+     */
+    ClientCnxnSocket newClientCnxnSocket() {
+        return new ClientCnxnSocketShared(this);
+    }
+
+    EventLoop nextLoop() {
+        int i = nextLoop.getAndIncrement() & Integer.MAX_VALUE;
+        return loops[i % loops.length];
+    }
+
+    Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    Executor getBlockingExecutor() {
+        return blockingExecutor;
+    }
+
+    /**
+     * @return the number of connections the event loops are running
+     */
+    int getConnectionCount() {
+        int count = 0;
+        for (EventLoop loop : loops) {
+            count += loop.connections.get();
+        }
+        return count;
+    }
+
+    /**
+     * Stops the threads of the group. The connections using it have to be
+     * closed first.
+     */
+    void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.halt();
+        }
+        callbackExecutor.shutdown();
+        blockingExecutor.shutdown();
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Thread running the SendThread loops of the connections assigned to it.
+     * A loop is run when its socket is ready, when it was woken up, e.g.
+     * because a packet was queued, or when the time it waits for is over.
+     */
+    static class EventLoop extends Thread {
+        final Selector selector;
+
+        private final ConcurrentLinkedQueue<ClientCnxnSocketShared> woken =
+            new ConcurrentLinkedQueue<ClientCnxnSocketShared>();
+
+        /*
+         * The connections of this loop, only used by this thread
+         */
+        private final Set<ClientCnxnSocketShared> sockets =
+            new HashSet<ClientCnxnSocketShared>();
+
+        private final AtomicInteger connections = new AtomicInteger(0);
+
+        private volatile boolean running = true;
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void wakeup(ClientCnxnSocketShared socket) {
+            if (socket.woken.compareAndSet(false, true)) {
+                woken.add(socket);
+                selector.wakeup();
+            }
+        }
+
+        void halt() {
+            running = false;
+            selector.wakeup();
+        }
+
+        private long selectTimeout() {
+            if (sockets.isEmpty()) {
+                return 0;
+            }
+            long deadline = Long.MAX_VALUE;
+            for (ClientCnxnSocketShared socket : sockets) {
+                deadline = Math.min(deadline, socket.deadline);
+            }
+            return deadline - System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            Set<ClientCnxnSocketShared> toRun =
+                new LinkedHashSet<ClientCnxnSocketShared>();
+            while (running) {
+                try {
+                    long timeout = selectTimeout();
+                    if (!woken.isEmpty() || (timeout <= 0 && !sockets.isEmpty())) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(Math.max(timeout, 0));
+                    }
+                    Set<SelectionKey> selected = selector.selectedKeys();
+                    for (SelectionKey k : selected) {
+                        ClientCnxnSocketShared socket =
+                            (ClientCnxnSocketShared) k.attachment();
+                        if (k.isValid()) {
+                            socket.readyOps |= k.readyOps();
+                        }
+                        toRun.add(socket);
+                    }
+                    selected.clear();
+                    ClientCnxnSocketShared socket;
+                    while ((socket = woken.poll()) != null) {
+                        socket.woken.set(false);
+                        if (sockets.add(socket)) {
+                            connections.incrementAndGet();
+                        }
+                        toRun.add(socket);
+                    }
+                    long now = System.currentTimeMillis();
+                    for (ClientCnxnSocketShared s : sockets) {
+                        if (now >= s.deadline) {
+                            toRun.add(s);
+                        }
+                    }
+                    for (ClientCnxnSocketShared s : toRun) {
+                        if (sockets.contains(s) && !step(s)) {
+                            sockets.remove(s);
+                            connections.decrementAndGet();
+                        }
+                    }
+                    toRun.clear();
+                } catch (IOException e) {
+                    LOG.warn("Ignoring exception in client event loop", e);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.warn("Ignoring exception during selector close", e);
+            }
+            LOG.info(getName() + " exited");
+        }
+
+        private boolean step(ClientCnxnSocketShared socket) {
+            try {
+                return socket.step();
+            } catch (Throwable t) {
+                LOG.error("Unexpected exception running client connection", t);
+                // come back to it later rather than spinning on it
+                socket.deadline = System.currentTimeMillis() + 1000;
+                return true;
+            }
+        }
+    }
+}
@@ -22,12 +22,13 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.apache.jute.BinaryInputArchive;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.ClientCnxn.OutgoingQueue;
 import org.apache.zookeeper.ClientCnxn.Packet;
 import org.apache.zookeeper.proto.ConnectResponse;
 import org.apache.zookeeper.server.ByteBufferInputStream;
@@ -51,10 +52,21 @@ abstract class ClientCnxnSocket {
     protected final ByteBuffer lenBuffer = ByteBuffer.allocateDirect(4);
 
     /**
-     * After the length is read, a new incomingBuffer is allocated in
-     * readLength() to receive the full message.
+     * After the length is read, readLength() points incomingBuffer at a
+     * buffer that receives the full message. The buffer is reused for the
+     * next message, since responses are fully deserialized before the next
+     * one is read, unless it grew past maxRetainedBufferSize.
      */
     protected ByteBuffer incomingBuffer = lenBuffer;
+
+    private ByteBuffer receiveBuffer = ByteBuffer.allocate(1024);
+
+    /**
+     * Receive buffers up to this size are kept for the next message
+     */
+    static final int maxRetainedBufferSize =
+        Integer.getInteger("zookeeper.client.maxRetainedBufferSize", 64 * 1024);
+
     protected long sentCount = 0;
     protected long recvCount = 0;
     protected long lastHeard;
@@ -111,14 +123,24 @@ abstract class ClientCnxnSocket {
         if (len < 0 || len >= ClientCnxn.packetLen) {
             throw new IOException("Packet len" + len + " is out of range!");
         }
-        incomingBuffer = ByteBuffer.allocate(len);
+        if (len > receiveBuffer.capacity()) {
+            ByteBuffer buffer = ByteBuffer.allocate(len);
+            if (len <= maxRetainedBufferSize) {
+                receiveBuffer = buffer;
+            }
+            incomingBuffer = buffer;
+            return;
+        }
+        receiveBuffer.clear();
+        receiveBuffer.limit(len);
+        incomingBuffer = receiveBuffer;
     }
 
     void readConnectResult() throws IOException {
         if (LOG.isTraceEnabled()) {
             StringBuffer buf = new StringBuffer("0x[");
-            for (byte b : incomingBuffer.array()) {
-                buf.append(Integer.toHexString(b) + ",");
+            for (int i = 0; i < incomingBuffer.limit(); i++) {
+                buf.append(Integer.toHexString(incomingBuffer.get(i)) + ",");
             }
             buf.append("]");
             LOG.trace("readConnectRestult " + incomingBuffer.remaining() + " "
@@ -131,8 +153,14 @@ abstract class ClientCnxnSocket {
 
         // read "is read-only" flag
         boolean isRO = false;
+        boolean outOfOrderReads = false;
         try {
             isRO = bbia.readBool("readOnly");
+            if (incomingBuffer.hasRemaining()) {
+                // only sent when the server agrees to answer reads
+                // out of order
+                outOfOrderReads = bbia.readBool("outOfOrderReads");
+            }
         } catch (IOException e) {
             // this is ok -- just a packet from an old server which
             // doesn't contain readOnly field
@@ -141,7 +169,49 @@ abstract class ClientCnxnSocket {
 
         this.sessionId = conRsp.getSessionId();
         sendThread.onConnected(conRsp.getTimeOut(), this.sessionId,
-                conRsp.getPasswd(), isRO);
+                conRsp.getPasswd(), isRO, outOfOrderReads);
+    }
+
+    /**
+     * Starts running the loop of the SendThread. As the loop blocks in
+     * doTransport it runs on a thread of its own, unless the transport
+     * isn't blocking and drives the loop itself.
+     */
+    void start(ClientCnxn.SendThread sendThread) {
+        sendThread.start();
+    }
+
+    /**
+     * Whether doTransport and the SendThread may block the thread running
+     * the loop. A transport that runs the loops of many connections on one
+     * thread can't let them, and instead runs a loop again when it is woken
+     * up or its time out is over.
+     */
+    boolean isBlocking() {
+        return true;
+    }
+
+    /**
+     * Called instead of waiting by the SendThread of a non-blocking
+     * transport, to be run again after ms even if nothing happens.
+     */
+    void wakeupAfter(int ms) {
+    }
+
+    /**
+     * Runs a task of the SendThread that blocks on the network. Blocking
+     * transports run it right away on the calling thread.
+     */
+    void runBlocking(Runnable task) {
+        task.run();
+    }
+
+    /**
+     * @return the executor that calls the callbacks and watchers of the
+     *         connection, or null to call them on an EventThread of its own
+     */
+    Executor getCallbackExecutor() {
+        return null;
     }
 
     abstract boolean isConnected();
@@ -162,9 +232,23 @@ abstract class ClientCnxnSocket {
 
     abstract void enableReadWriteOnly();
 
-    abstract void doTransport(int waitTimeOut, List<Packet> pendingQueue,
-            LinkedList<Packet> outgoingQueue) throws IOException,
+    abstract void doTransport(int waitTimeOut, Map<Integer, Packet> pendingQueue,
+            OutgoingQueue outgoingQueue) throws IOException,
             InterruptedException;
 
+    /**
+     * @return whether there is a packet to send and it may be sent now,
+     *         which it may not while ClientCnxn.maxInFlight requests are
+     *         waiting for their responses
+     */
+    boolean canSend(Map<Integer, Packet> pendingQueue,
+            OutgoingQueue outgoingQueue) {
+        if (outgoingQueue.isEmpty()) {
+            return false;
+        }
+        return ClientCnxn.maxInFlight <= 0
+            || pendingQueue.size() < ClientCnxn.maxInFlight;
+    }
+
     abstract void testableCloseSocket() throws IOException;
 }
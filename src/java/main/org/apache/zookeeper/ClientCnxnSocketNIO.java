@@ -25,13 +25,13 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.zookeeper.ClientCnxn.EndOfStreamException;
+import org.apache.zookeeper.ClientCnxn.OutgoingQueue;
 import org.apache.zookeeper.ClientCnxn.Packet;
 import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.ZooKeeper.States;
@@ -58,7 +58,7 @@ public class ClientCnxnSocketNIO extends ClientCnxnSocket {
      * @throws InterruptedException
      * @throws IOException
      */
-    boolean doIO(List<Packet> pendingQueue, LinkedList<Packet> outgoingQueue) throws InterruptedException, IOException {
+    boolean doIO(Map<Integer, Packet> pendingQueue, OutgoingQueue outgoingQueue) throws InterruptedException, IOException {
         boolean packetReceived = false;
         SocketChannel sock = (SocketChannel) sockKey.channel();
         if (sock == null) {
@@ -95,27 +95,25 @@ public class ClientCnxnSocketNIO extends ClientCnxnSocket {
                 }
             }
         }
-        if (sockKey.isWritable()) {
-            synchronized (outgoingQueue) {
-                if (!outgoingQueue.isEmpty()) {
-                    ByteBuffer pbb = outgoingQueue.getFirst().bb;
-                    sock.write(pbb);
-                    if (!pbb.hasRemaining()) {
-                        sentCount++;
-                        Packet p = outgoingQueue.removeFirst();
-                        if (p.requestHeader != null
-                                && p.requestHeader.getType() != OpCode.ping
-                                && p.requestHeader.getType() != OpCode.auth) {
-                            pendingQueue.add(p);
-                        }
+        if (sockKey.isWritable() && canSend(pendingQueue, outgoingQueue)) {
+            Packet p = outgoingQueue.peek();
+            sock.write(p.bb);
+            if (!p.bb.hasRemaining()) {
+                sentCount++;
+                outgoingQueue.remove();
+                if (p.requestHeader != null
+                        && p.requestHeader.getType() != OpCode.ping
+                        && p.requestHeader.getType() != OpCode.auth) {
+                    synchronized (pendingQueue) {
+                        pendingQueue.put(p.requestHeader.getXid(), p);
                     }
                 }
             }
         }
-        if (outgoingQueue.isEmpty()) {
-            disableWrite();
-        } else {
+        if (canSend(pendingQueue, outgoingQueue)) {
             enableWrite();
+        } else {
+            disableWrite();
         }
         return packetReceived;
     }
@@ -239,12 +237,12 @@ public class ClientCnxnSocketNIO extends ClientCnxnSocket {
     }
 
     @Override
-    synchronized void wakeupCnxn() {
+    void wakeupCnxn() {
         selector.wakeup();
     }
     
     @Override
-    void doTransport(int waitTimeOut, List<Packet> pendingQueue, LinkedList<Packet> outgoingQueue )
+    void doTransport(int waitTimeOut, Map<Integer, Packet> pendingQueue, OutgoingQueue outgoingQueue )
             throws IOException, InterruptedException {
         selector.select(waitTimeOut);
         Set<SelectionKey> selected;
@@ -263,7 +261,7 @@ public class ClientCnxnSocketNIO extends ClientCnxnSocket {
                     sendThread.primeConnection();
                 }
             } else if ((k.readyOps() & (SelectionKey.OP_READ | SelectionKey.OP_WRITE)) != 0) {
-                if (outgoingQueue.size() > 0) {
+                if (!outgoingQueue.isEmpty()) {
                     // We have something to send so it's the same
                     // as if we do the send now.
                     updateLastSend();
@@ -274,7 +272,7 @@ public class ClientCnxnSocketNIO extends ClientCnxnSocket {
             }
         }
         if (sendThread.getZkState().isConnected()) {
-            if (outgoingQueue.size() > 0) {
+            if (canSend(pendingQueue, outgoingQueue)) {
                 enableWrite();
             } else {
                 disableWrite();
@@ -0,0 +1,351 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.ClientCnxn.EndOfStreamException;
+import org.apache.zookeeper.ClientCnxn.OutgoingQueue;
+import org.apache.zookeeper.ClientCnxn.Packet;
+import org.apache.zookeeper.ZooDefs.OpCode;
+
+/**
+ * A non-blocking ClientCnxnSocket which doesn't need threads of its own: the
+ * loop of its SendThread is run by an event loop of a
+ * ClientCnxnEventLoopGroup, shared with other connections, and its callbacks
+ * and watchers are called on the callback threads of the group. Set
+ * zookeeper.clientCnxnSocket to this class to use the default group, so
+ * that an application with hundreds of ZooKeeper handles doesn't need
+ * hundreds of threads and selectors.
+ */
+public class ClientCnxnSocketShared extends ClientCnxnSocket {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ClientCnxnSocketShared.class);
+
+    private final ClientCnxnEventLoopGroup group;
+
+    private final ClientCnxnEventLoopGroup.EventLoop loop;
+
+    private SelectionKey sockKey;
+
+    private ClientCnxn.SendThread driven;
+
+    private boolean started = false;
+
+    /*
+     * The fields below are only used by the event loop
+     */
+
+    /**
+     * Operations the socket was found ready for since the last step
+     */
+    int readyOps = 0;
+
+    /**
+     * Time after which the loop must be run again even if nothing happens
+     */
+    long deadline = 0;
+
+    /**
+     * Set while the socket is queued to be run by the event loop
+     */
+    final AtomicBoolean woken = new AtomicBoolean(false);
+
+    ClientCnxnSocketShared() throws IOException {
+        this(ClientCnxnEventLoopGroup.getDefault());
+    }
+
+    ClientCnxnSocketShared(ClientCnxnEventLoopGroup group) {
+        this.group = group;
+        this.loop = group.nextLoop();
+    }
+
+    @Override
+    void start(ClientCnxn.SendThread sendThread) {
+        driven = sendThread;
+        loop.wakeup(this);
+    }
+
+    /**
+     * Runs the loop of the SendThread once, on the event loop.
+     *
+     * @return false once the loop is over
+     */
+    boolean step() {
+        if (!started) {
+            started = true;
+            driven.startLoop();
+        }
+        // the time out was computed against the time of the last step
+        updateNow();
+        if (driven.runOnce()) {
+            return true;
+        }
+        driven.finishLoop();
+        return false;
+    }
+
+    @Override
+    boolean isBlocking() {
+        return false;
+    }
+
+    @Override
+    void wakeupAfter(int ms) {
+        deadline = System.currentTimeMillis() + ms;
+    }
+
+    @Override
+    void runBlocking(Runnable task) {
+        group.getBlockingExecutor().execute(task);
+    }
+
+    @Override
+    Executor getCallbackExecutor() {
+        return group.getCallbackExecutor();
+    }
+
+    @Override
+    boolean isConnected() {
+        return sockKey != null;
+    }
+
+    /**
+     * @return true if a packet was received
+     */
+    private boolean doIO(int ops, Map<Integer, Packet> pendingQueue,
+            OutgoingQueue outgoingQueue) throws IOException {
+        boolean packetReceived = false;
+        SocketChannel sock = (SocketChannel) sockKey.channel();
+        if ((ops & SelectionKey.OP_READ) != 0) {
+            // read everything there is, the loop won't come back for it
+            // before the next select
+            while (true) {
+                int rc = sock.read(incomingBuffer);
+                if (rc < 0) {
+                    throw new EndOfStreamException(
+                            "Unable to read additional data from server sessionid 0x"
+                                    + Long.toHexString(sessionId)
+                                    + ", likely server has closed socket");
+                }
+                if (incomingBuffer.hasRemaining()) {
+                    break;
+                }
+                incomingBuffer.flip();
+                if (incomingBuffer == lenBuffer) {
+                    recvCount++;
+                    readLength();
+                } else if (!initialized) {
+                    readConnectResult();
+                    enableRead();
+                    if (!outgoingQueue.isEmpty()) {
+                        enableWrite();
+                    }
+                    lenBuffer.clear();
+                    incomingBuffer = lenBuffer;
+                    packetReceived = true;
+                    initialized = true;
+                } else {
+                    sendThread.readResponse(incomingBuffer);
+                    lenBuffer.clear();
+                    incomingBuffer = lenBuffer;
+                    packetReceived = true;
+                }
+            }
+        }
+        if ((ops & SelectionKey.OP_WRITE) != 0) {
+            while (canSend(pendingQueue, outgoingQueue)) {
+                Packet p = outgoingQueue.peek();
+                sock.write(p.bb);
+                if (p.bb.hasRemaining()) {
+                    break;
+                }
+                sentCount++;
+                outgoingQueue.remove();
+                if (p.requestHeader != null
+                        && p.requestHeader.getType() != OpCode.ping
+                        && p.requestHeader.getType() != OpCode.auth) {
+                    synchronized (pendingQueue) {
+                        pendingQueue.put(p.requestHeader.getXid(), p);
+                    }
+                }
+            }
+        }
+        return packetReceived;
+    }
+
+    @Override
+    void doTransport(int waitTimeOut, Map<Integer, Packet> pendingQueue,
+            OutgoingQueue outgoingQueue) throws IOException {
+        int ops = readyOps;
+        readyOps = 0;
+        deadline = now + waitTimeOut;
+        SocketChannel sc = (SocketChannel) sockKey.channel();
+        if ((ops & SelectionKey.OP_CONNECT) != 0) {
+            if (sc.finishConnect()) {
+                updateLastSendAndHeard();
+                sendThread.primeConnection();
+            }
+        } else if ((ops & (SelectionKey.OP_READ | SelectionKey.OP_WRITE)) != 0) {
+            if (!outgoingQueue.isEmpty()) {
+                // We have something to send so it's the same
+                // as if we do the send now.
+                updateLastSend();
+            }
+            if (doIO(ops, pendingQueue, outgoingQueue)) {
+                updateLastHeard();
+            }
+        }
+        if (sendThread.getZkState().isConnected()) {
+            if (canSend(pendingQueue, outgoingQueue)) {
+                enableWrite();
+            } else {
+                disableWrite();
+            }
+        }
+    }
+
+    @Override
+    void cleanup() {
+        if (sockKey != null) {
+            SocketChannel sock = (SocketChannel) sockKey.channel();
+            sockKey.cancel();
+            try {
+                sock.socket().shutdownInput();
+            } catch (IOException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Ignoring exception during shutdown input", e);
+                }
+            }
+            try {
+                sock.socket().shutdownOutput();
+            } catch (IOException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Ignoring exception during shutdown output",
+                            e);
+                }
+            }
+            try {
+                sock.close();
+            } catch (IOException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Ignoring exception during channel close", e);
+                }
+            }
+        }
+        // unlike ClientCnxnSocketNIO we can't sleep here, the next
+        // connection attempt is delayed by the SendThread instead
+        sockKey = null;
+        readyOps = 0;
+    }
+
+    @Override
+    void close() {
+        // the selector belongs to the event loop
+    }
+
+    @Override
+    void connect(InetSocketAddress addr) throws IOException {
+        SocketChannel sock;
+        sock = SocketChannel.open();
+        sock.configureBlocking(false);
+        sock.socket().setSoLinger(false, -1);
+        sock.socket().setTcpNoDelay(true);
+        // this runs on the event loop, so it can't block on the selector
+        sockKey = sock.register(loop.selector, SelectionKey.OP_CONNECT, this);
+        if (sock.connect(addr)) {
+            sendThread.primeConnection();
+        }
+        initialized = false;
+
+        /*
+         * Reset incomingBuffer
+         */
+        lenBuffer.clear();
+        incomingBuffer = lenBuffer;
+    }
+
+    @Override
+    SocketAddress getRemoteSocketAddress() {
+        try {
+            return ((SocketChannel) sockKey.channel()).socket()
+                    .getRemoteSocketAddress();
+        } catch (NullPointerException e) {
+            return null;
+        }
+    }
+
+    @Override
+    SocketAddress getLocalSocketAddress() {
+        try {
+            return ((SocketChannel) sockKey.channel()).socket()
+                    .getLocalSocketAddress();
+        } catch (NullPointerException e) {
+            return null;
+        }
+    }
+
+    @Override
+    void wakeupCnxn() {
+        loop.wakeup(this);
+    }
+
+    @Override
+    void testableCloseSocket() throws IOException {
+        LOG.info("testableCloseSocket() called");
+        ((SocketChannel) sockKey.channel()).socket().close();
+    }
+
+    @Override
+    synchronized void enableWrite() {
+        int i = sockKey.interestOps();
+        if ((i & SelectionKey.OP_WRITE) == 0) {
+            sockKey.interestOps(i | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private synchronized void disableWrite() {
+        int i = sockKey.interestOps();
+        if ((i & SelectionKey.OP_WRITE) != 0) {
+            sockKey.interestOps(i & (~SelectionKey.OP_WRITE));
+        }
+    }
+
+    private synchronized void enableRead() {
+        int i = sockKey.interestOps();
+        if ((i & SelectionKey.OP_READ) == 0) {
+            sockKey.interestOps(i | SelectionKey.OP_READ);
+        }
+    }
+
+    @Override
+    synchronized void enableReadWriteOnly() {
+        sockKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+}
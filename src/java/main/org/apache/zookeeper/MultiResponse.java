@@ -21,6 +21,9 @@ import org.apache.jute.InputArchive;
 import org.apache.jute.OutputArchive;
 import org.apache.jute.Record;
 import org.apache.zookeeper.proto.CreateResponse;
+import org.apache.zookeeper.proto.ExistsResponse;
+import org.apache.zookeeper.proto.GetChildrenResponse;
+import org.apache.zookeeper.proto.GetDataResponse;
 import org.apache.zookeeper.proto.MultiHeader;
 import org.apache.zookeeper.proto.SetDataResponse;
 import org.apache.zookeeper.proto.ErrorResponse;
@@ -75,6 +78,16 @@ public class MultiResponse implements Record, Iterable<OpResult> {
                 case ZooDefs.OpCode.check:
                     new SetDataResponse(((OpResult.CheckResult) result).getStat()).serialize(archive, tag);
                     break;
+                case ZooDefs.OpCode.getData:
+                    OpResult.GetDataResult gdr = (OpResult.GetDataResult) result;
+                    new GetDataResponse(gdr.getData(), gdr.getStat()).serialize(archive, tag);
+                    break;
+                case ZooDefs.OpCode.getChildren:
+                    new GetChildrenResponse(((OpResult.GetChildrenResult) result).getChildren()).serialize(archive, tag);
+                    break;
+                case ZooDefs.OpCode.exists:
+                    new ExistsResponse(((OpResult.ExistsResult) result).getStat()).serialize(archive, tag);
+                    break;
                 case ZooDefs.OpCode.error:
                     new ErrorResponse(((OpResult.ErrorResult) result).getErr()).serialize(archive, tag);
                     break;
@@ -117,6 +130,24 @@ public class MultiResponse implements Record, Iterable<OpResult> {
                     results.add(new OpResult.CheckResult(sdr.getStat()));
                     break;
 
+                case ZooDefs.OpCode.getData:
+                    GetDataResponse gdr = new GetDataResponse();
+                    gdr.deserialize(archive, tag);
+                    results.add(new OpResult.GetDataResult(gdr.getData(), gdr.getStat()));
+                    break;
+
+                case ZooDefs.OpCode.getChildren:
+                    GetChildrenResponse gcr = new GetChildrenResponse();
+                    gcr.deserialize(archive, tag);
+                    results.add(new OpResult.GetChildrenResult(gcr.getChildren()));
+                    break;
+
+                case ZooDefs.OpCode.exists:
+                    ExistsResponse exr = new ExistsResponse();
+                    exr.deserialize(archive, tag);
+                    results.add(new OpResult.ExistsResult(exr.getStat()));
+                    break;
+
                 case ZooDefs.OpCode.error:
                     //FIXME: need way to more cleanly serialize/deserialize exceptions
                     ErrorResponse er = new ErrorResponse();
@@ -79,6 +79,11 @@ public class MultiTransactionRecord implements Record, Iterable<Op> {
                 case ZooDefs.OpCode.check:
                     op.toRequestRecord().serialize(archive, tag);
                     break;
+                case ZooDefs.OpCode.getData:
+                case ZooDefs.OpCode.getChildren:
+                case ZooDefs.OpCode.exists:
+                    op.toRequestRecord().serialize(archive, tag);
+                    break;
                 default:
                     throw new IOException("Invalid type of op");
             }
@@ -115,6 +120,21 @@ public class MultiTransactionRecord implements Record, Iterable<Op> {
                     cvr.deserialize(archive, tag);
                     add(Op.check(cvr.getPath(), cvr.getVersion()));
                     break;
+                case ZooDefs.OpCode.getData:
+                    GetDataRequest gdr = new GetDataRequest();
+                    gdr.deserialize(archive, tag);
+                    add(Op.getData(gdr.getPath()));
+                    break;
+                case ZooDefs.OpCode.getChildren:
+                    GetChildrenRequest gcr = new GetChildrenRequest();
+                    gcr.deserialize(archive, tag);
+                    add(Op.getChildren(gcr.getPath()));
+                    break;
+                case ZooDefs.OpCode.exists:
+                    ExistsRequest er = new ExistsRequest();
+                    er.deserialize(archive, tag);
+                    add(Op.exists(er.getPath()));
+                    break;
                 default:
                     throw new IOException("Invalid type of op");
             }
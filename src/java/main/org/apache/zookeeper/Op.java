@@ -22,6 +22,9 @@ import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.proto.CheckVersionRequest;
 import org.apache.zookeeper.proto.CreateRequest;
 import org.apache.zookeeper.proto.DeleteRequest;
+import org.apache.zookeeper.proto.ExistsRequest;
+import org.apache.zookeeper.proto.GetChildrenRequest;
+import org.apache.zookeeper.proto.GetDataRequest;
 import org.apache.zookeeper.proto.SetDataRequest;
 
 import java.util.Arrays;
@@ -32,6 +35,9 @@ import java.util.List;
  * Represents a single operation in a multi-operation transaction.  Each operation can be a create, update
  * or delete or can just be a version check.
  *
+ * Read operations (getData, getChildren and exists) can't be mixed with these, they are sent together
+ * in a single round trip with {@link ZooKeeper#multiRead(Iterable)}.
+ *
  * Sub-classes of Op each represent each detailed type but should not normally be referenced except via
  * the provided factory methods.
  *
@@ -131,6 +137,44 @@ public abstract class Op {
         return new Check(path, version);
     }
 
+    /**
+     * Constructs a read of the data and stat of a node.  Only valid in a
+     * {@link ZooKeeper#multiRead(Iterable)}; no watch is left on the node.
+     * @see ZooKeeper#getData(String, boolean, org.apache.zookeeper.data.Stat)
+     *
+     * @param path
+     *                the path of the node
+     */
+    public static Op getData(String path) {
+        return new GetData(path);
+    }
+
+    /**
+     * Constructs a read of the children of a node.  Only valid in a
+     * {@link ZooKeeper#multiRead(Iterable)}; no watch is left on the node.
+     * @see ZooKeeper#getChildren(String, boolean)
+     *
+     * @param path
+     *                the path of the node
+     */
+    public static Op getChildren(String path) {
+        return new GetChildren(path);
+    }
+
+    /**
+     * Constructs a read of the stat of a node.  Only valid in a
+     * {@link ZooKeeper#multiRead(Iterable)}; no watch is left on the node.
+     * A node that doesn't exist is reported as an error result with
+     * {@link KeeperException.Code#NONODE}.
+     * @see ZooKeeper#exists(String, boolean)
+     *
+     * @param path
+     *                the path of the node
+     */
+    public static Op exists(String path) {
+        return new Exists(path);
+    }
+
     /**
      * Gets the integer type code for an Op.  This code should be as from ZooDefs.OpCode
      * @see ZooDefs.OpCode
@@ -146,6 +190,22 @@ public abstract class Op {
      */
     public abstract Record toRequestRecord() ;
 
+    /**
+     * Tells whether an op only reads the tree, in which case it can only be
+     * sent as part of a {@link ZooKeeper#multiRead(Iterable)}.
+     * @return true for getData, getChildren and exists ops.
+     */
+    public boolean isRead() {
+        switch (type) {
+            case ZooDefs.OpCode.getData:
+            case ZooDefs.OpCode.getChildren:
+            case ZooDefs.OpCode.exists:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     //////////////////
     // these internal classes are public, but should not generally be referenced.
     //
@@ -300,4 +360,103 @@ public abstract class Op {
             return new CheckVersionRequest(path, version);
         }
     }
+
+    public static class GetData extends Op {
+        private String path;
+
+        private GetData(String path) {
+            super(ZooDefs.OpCode.getData);
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof GetData)) return false;
+
+            GetData op = (GetData) o;
+
+            return getType() == op.getType() && path.equals(op.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.getType() + path.hashCode();
+        }
+
+        @Override
+        public Record toRequestRecord() {
+            return new GetDataRequest(path, false);
+        }
+    }
+
+    public static class GetChildren extends Op {
+        private String path;
+
+        private GetChildren(String path) {
+            super(ZooDefs.OpCode.getChildren);
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof GetChildren)) return false;
+
+            GetChildren op = (GetChildren) o;
+
+            return getType() == op.getType() && path.equals(op.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.getType() + path.hashCode();
+        }
+
+        @Override
+        public Record toRequestRecord() {
+            return new GetChildrenRequest(path, false);
+        }
+    }
+
+    public static class Exists extends Op {
+        private String path;
+
+        private Exists(String path) {
+            super(ZooDefs.OpCode.exists);
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Exists)) return false;
+
+            Exists op = (Exists) o;
+
+            return getType() == op.getType() && path.equals(op.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.getType() + path.hashCode();
+        }
+
+        @Override
+        public Record toRequestRecord() {
+            return new ExistsRequest(path, false);
+        }
+    }
 }
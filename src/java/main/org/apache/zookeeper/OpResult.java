@@ -18,6 +18,9 @@
 package org.apache.zookeeper;
 
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.zookeeper.data.Stat;
 
 /**
@@ -158,6 +161,106 @@ public class OpResult {
         }
     }
 
+    /**
+     * A result from a getData operation in a multiRead.  This kind of result
+     * provides access to the data and the Stat structure of the znode.
+     */
+    public static class GetDataResult extends OpResult {
+        private byte[] data;
+        private Stat stat;
+
+        public GetDataResult(byte[] data, Stat stat) {
+            super(ZooDefs.OpCode.getData);
+            this.data = data;
+            this.stat = stat;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public Stat getStat() {
+            return stat;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof OpResult)) return false;
+
+            GetDataResult other = (GetDataResult) o;
+            return getType() == other.getType() && stat.getMzxid() == other.stat.getMzxid()
+                    && Arrays.equals(data, other.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (getType() * 35 + stat.getMzxid() + Arrays.hashCode(data));
+        }
+    }
+
+    /**
+     * A result from a getChildren operation in a multiRead.  This kind of
+     * result provides access to the unordered list of children of the znode.
+     */
+    public static class GetChildrenResult extends OpResult {
+        private List<String> children;
+
+        public GetChildrenResult(List<String> children) {
+            super(ZooDefs.OpCode.getChildren);
+            this.children = children;
+        }
+
+        public List<String> getChildren() {
+            return children;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof OpResult)) return false;
+
+            GetChildrenResult other = (GetChildrenResult) o;
+            return getType() == other.getType() && children.equals(other.children);
+        }
+
+        @Override
+        public int hashCode() {
+            return getType() * 35 + children.hashCode();
+        }
+    }
+
+    /**
+     * A result from an exists operation in a multiRead.  This kind of result
+     * provides access to the Stat structure of the znode.
+     */
+    public static class ExistsResult extends OpResult {
+        private Stat stat;
+
+        public ExistsResult(Stat stat) {
+            super(ZooDefs.OpCode.exists);
+            this.stat = stat;
+        }
+
+        public Stat getStat() {
+            return stat;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof OpResult)) return false;
+
+            ExistsResult other = (ExistsResult) o;
+            return getType() == other.getType() && stat.getMzxid() == other.stat.getMzxid();
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (getType() * 35 + stat.getMzxid());
+        }
+    }
+
     /**
      * An error result from any kind of operation.  The point of error results
      * is that they contain an error code which helps understand what happened.
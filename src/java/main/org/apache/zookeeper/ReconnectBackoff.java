@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.Random;
+
+/**
+ * How long the client waits before each attempt to reconnect, so that
+ * clients that lost their servers at the same time do not all come back at
+ * the same time.
+ *
+ * Each wait is random between the base delay and three times the previous
+ * wait, the first one counting the base delay as previous, and at most the
+ * maximum ("decorrelated jitter"): clients that keep failing spread out
+ * further with every attempt, each on its own, without retrying in
+ * lockstep with the others.
+ *
+ * The delays come from the zookeeper.client.reconnectBackoffBase and
+ * zookeeper.client.reconnectBackoffMax system properties, in milliseconds,
+ * 100 and 1000 by default: no wait is longer than a second, as it has
+ * always been. Raising the maximum protects the ensemble from clients
+ * reconnecting all at once, at the cost of slower reconnects.
+ */
+class ReconnectBackoff {
+    public static final String BASE = "zookeeper.client.reconnectBackoffBase";
+
+    public static final String MAX = "zookeeper.client.reconnectBackoffMax";
+
+    private final int base;
+
+    private final int max;
+
+    private final Random random;
+
+    /** The previous delay, the base delay after a reset */
+    private long previous;
+
+    ReconnectBackoff() {
+        this(Integer.getInteger(BASE, 100), Integer.getInteger(MAX, 1000),
+                new Random());
+    }
+
+    ReconnectBackoff(int base, int max, Random random) {
+        if (base <= 0 || max < base) {
+            throw new IllegalArgumentException("Invalid reconnect backoff "
+                    + base + " to " + max + "ms");
+        }
+        this.base = base;
+        this.max = max;
+        this.random = random;
+        previous = base;
+    }
+
+    /**
+     * @return the milliseconds to wait before the next attempt
+     */
+    long nextDelay() {
+        previous = Math.min(max,
+                base + (long) (random.nextDouble() * (previous * 3 - base)));
+        return previous;
+    }
+
+    /**
+     * Starts over once connected.
+     */
+    void reset() {
+        previous = base;
+    }
+}
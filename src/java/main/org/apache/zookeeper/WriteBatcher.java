@@ -0,0 +1,431 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jute.BinaryInputArchive;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.OpResult.CreateResult;
+import org.apache.zookeeper.OpResult.SetDataResult;
+import org.apache.zookeeper.common.PathUtils;
+import org.apache.zookeeper.data.ACL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the asynchronous writes of a {@link ZooKeeper} handle into
+ * multi requests, so that a bulk load takes one round trip and one
+ * transaction per batch rather than per write.
+ * <p>
+ * A batch is sent when it holds maxBatchSize writes, when another write
+ * would take it past maxBatchBytes, when windowMs have passed since its
+ * first write was queued, or when {@link #flush()} is called. The
+ * callbacks of the writes get the same results the matching methods of
+ * ZooKeeper would give them, in the order the writes were queued.
+ * <p>
+ * A multi either applies all of its ops or none, so if any write of a
+ * batch fails the batch is sent again as individual requests, in order,
+ * and each write gets its own result. This keeps the writes independent
+ * of each other at the cost of a second round trip for a batch that
+ * fails. So that the writes of a failed batch are sent again before the
+ * writes queued after them, a batch is only sent once the batch before
+ * it has completed. If the request itself fails, e.g. with
+ * CONNECTIONLOSS, all of the writes of the batch get that error.
+ * <p>
+ * Writes are held back for up to windowMs, so requests sent directly on
+ * the handle in the meantime may overtake them. Writes queued on the same
+ * batcher stay in order.
+ */
+public class WriteBatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBatcher.class);
+
+    private final ZooKeeper zk;
+
+    private final int maxBatchSize;
+
+    private final int maxBatchBytes;
+
+    private final long windowMs;
+
+    private final ScheduledExecutorService timer;
+
+    private List<Write> pending = new ArrayList<Write>();
+
+    // roughly how large the pending writes are once serialized
+    private int pendingBytes;
+
+    /**
+     * Batches waiting for the batch in flight to complete, oldest first
+     */
+    private final LinkedList<List<Write>> ready = new LinkedList<List<Write>>();
+
+    private boolean batchInFlight;
+
+    private ScheduledFuture<?> windowTimeout;
+
+    private boolean closed;
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong batchedOpCount = new AtomicLong();
+
+    private final AtomicLong retriedBatchCount = new AtomicLong();
+
+    /**
+     * Batches are kept to half of jute.maxbuffer, the largest request a
+     * server reads, which leaves room for the size of a write to be
+     * underestimated.
+     *
+     * @param zk the handle to send the writes on
+     * @param maxBatchSize the most writes sent in one multi
+     * @param windowMs how long the first write of a batch may wait for
+     *                 others to join it
+     */
+    public WriteBatcher(ZooKeeper zk, int maxBatchSize, long windowMs) {
+        this(zk, maxBatchSize, BinaryInputArchive.maxBuffer / 2, windowMs);
+    }
+
+    /**
+     * @param zk the handle to send the writes on
+     * @param maxBatchSize the most writes sent in one multi
+     * @param maxBatchBytes roughly the most bytes of writes sent in one
+     *                      multi, a larger write is sent on its own
+     * @param windowMs how long the first write of a batch may wait for
+     *                 others to join it
+     */
+    public WriteBatcher(ZooKeeper zk, int maxBatchSize, int maxBatchBytes,
+            long windowMs)
+    {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("maxBatchBytes must be positive");
+        }
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("windowMs must not be negative");
+        }
+        this.zk = zk;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.windowMs = windowMs;
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "zk-write-batcher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Queue a create.
+     *
+     * @see ZooKeeper#create(String, byte[], List, CreateMode, StringCallback, Object)
+     */
+    public void create(String path, byte[] data, List<ACL> acl,
+            CreateMode createMode, StringCallback cb, Object ctx)
+    {
+        PathUtils.validatePath(path, createMode.isSequential());
+        String serverPath = zk.prependChroot(path);
+        add(new Write(Op.create(serverPath, data, acl, createMode),
+                path, data, acl, createMode, -1,
+                estimateSize(serverPath, data, acl), cb, ctx));
+    }
+
+    /**
+     * Queue a delete.
+     *
+     * @see ZooKeeper#delete(String, int, VoidCallback, Object)
+     */
+    public void delete(String path, int version, VoidCallback cb, Object ctx) {
+        PathUtils.validatePath(path);
+        String serverPath = zk.prependChroot(path);
+        add(new Write(Op.delete(serverPath, version),
+                path, null, null, null, version,
+                estimateSize(serverPath, null, null), cb, ctx));
+    }
+
+    /**
+     * Queue a setData.
+     *
+     * @see ZooKeeper#setData(String, byte[], int, StatCallback, Object)
+     */
+    public void setData(String path, byte[] data, int version,
+            StatCallback cb, Object ctx)
+    {
+        PathUtils.validatePath(path);
+        String serverPath = zk.prependChroot(path);
+        add(new Write(Op.setData(serverPath, data, version),
+                path, data, null, null, version,
+                estimateSize(serverPath, data, null), cb, ctx));
+    }
+
+    /**
+     * Send the writes queued so far without waiting for the window to end.
+     */
+    public synchronized void flush() {
+        // batches have to be queued on the handle in the order they were
+        // taken, so they are sent while holding the lock
+        send(takePending());
+    }
+
+    /**
+     * Send the writes queued so far and stop the timer. Writes queued
+     * after this are sent as individual requests, still after the batches
+     * before them. The handle is not closed.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        timer.shutdown();
+    }
+
+    /**
+     * @return the number of multi requests sent
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return the number of writes sent as part of a multi request
+     */
+    public long getBatchedOpCount() {
+        return batchedOpCount.get();
+    }
+
+    /**
+     * @return the number of batches that were sent again as individual
+     *         requests because one of their writes failed
+     */
+    public long getRetriedBatchCount() {
+        return retriedBatchCount.get();
+    }
+
+    private synchronized void add(Write write) {
+        if (!pending.isEmpty() && pendingBytes + write.size > maxBatchBytes) {
+            // the multi might not fit in one request
+            send(takePending());
+        }
+        pending.add(write);
+        pendingBytes += write.size;
+        if (closed || pending.size() >= maxBatchSize) {
+            send(takePending());
+        } else if (windowTimeout == null) {
+            windowTimeout = timer.schedule(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private List<Write> takePending() {
+        if (windowTimeout != null) {
+            windowTimeout.cancel(false);
+            windowTimeout = null;
+        }
+        if (pending.isEmpty()) {
+            return null;
+        }
+        List<Write> batch = pending;
+        pending = new ArrayList<Write>();
+        pendingBytes = 0;
+        return batch;
+    }
+
+    /**
+     * Send a batch, or hold it back until the batch in flight completes.
+     * Called holding the lock.
+     */
+    private void send(final List<Write> batch) {
+        if (batch == null) {
+            return;
+        }
+        if (batchInFlight) {
+            ready.add(batch);
+            return;
+        }
+        if (batch.size() == 1) {
+            // a multi of one would only add overhead
+            batch.get(0).sendAlone();
+            return;
+        }
+        List<Op> ops = new ArrayList<Op>(batch.size());
+        for (Write write : batch) {
+            ops.add(write.op);
+        }
+        batchCount.incrementAndGet();
+        batchedOpCount.addAndGet(batch.size());
+        batchInFlight = true;
+        zk.multi(ops, new MultiCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    List<OpResult> opResults)
+            {
+                if (rc == Code.OK.intValue()) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).complete(opResults.get(i));
+                    }
+                    batchDone(null);
+                } else if (opResults != null) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Batch of " + batch.size() + " writes failed with "
+                                + Code.get(rc) + ", sending them individually");
+                    }
+                    retriedBatchCount.incrementAndGet();
+                    batchDone(batch);
+                } else {
+                    for (Write write : batch) {
+                        write.fail(rc);
+                    }
+                    batchDone(null);
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * Send the writes of a failed batch individually, if any, then the
+     * batches held back meanwhile.
+     */
+    private synchronized void batchDone(List<Write> retry) {
+        if (retry != null) {
+            for (Write write : retry) {
+                write.sendAlone();
+            }
+        }
+        batchInFlight = false;
+        while (!batchInFlight && !ready.isEmpty()) {
+            send(ready.removeFirst());
+        }
+    }
+
+    /**
+     * Roughly the bytes an op takes up in a multi, erring on the large side
+     */
+    private static int estimateSize(String path, byte[] data, List<ACL> acl) {
+        // the op header, version and flags, and up to 3 bytes a char
+        int size = 32 + 3 * path.length();
+        if (data != null) {
+            size += data.length;
+        }
+        if (acl != null) {
+            for (ACL a : acl) {
+                size += 16 + 3 * (a.getId().getScheme().length()
+                        + a.getId().getId().length());
+            }
+        }
+        return size;
+    }
+
+    private class Write {
+        final Op op;
+        final String path;
+        final byte[] data;
+        final List<ACL> acl;
+        final CreateMode createMode;
+        final int version;
+        final int size;
+        final AsyncCallback cb;
+        final Object ctx;
+
+        Write(Op op, String path, byte[] data, List<ACL> acl,
+                CreateMode createMode, int version, int size,
+                AsyncCallback cb, Object ctx)
+        {
+            this.op = op;
+            this.path = path;
+            this.data = data;
+            this.acl = acl;
+            this.createMode = createMode;
+            this.version = version;
+            this.size = size;
+            this.cb = cb;
+            this.ctx = ctx;
+        }
+
+        void sendAlone() {
+            switch (op.getType()) {
+            case ZooDefs.OpCode.create:
+                zk.create(path, data, acl, createMode, (StringCallback) cb, ctx);
+                break;
+            case ZooDefs.OpCode.delete:
+                zk.delete(path, version, (VoidCallback) cb, ctx);
+                break;
+            default:
+                zk.setData(path, data, version, (StatCallback) cb, ctx);
+                break;
+            }
+        }
+
+        void complete(OpResult result) {
+            if (cb == null) {
+                return;
+            }
+            int rc = Code.OK.intValue();
+            switch (op.getType()) {
+            case ZooDefs.OpCode.create:
+                ((StringCallback) cb).processResult(rc, path, ctx,
+                        zk.stripChroot(((CreateResult) result).getPath()));
+                break;
+            case ZooDefs.OpCode.delete:
+                ((VoidCallback) cb).processResult(rc, path, ctx);
+                break;
+            default:
+                ((StatCallback) cb).processResult(rc, path, ctx,
+                        ((SetDataResult) result).getStat());
+                break;
+            }
+        }
+
+        void fail(int rc) {
+            if (cb == null) {
+                return;
+            }
+            switch (op.getType()) {
+            case ZooDefs.OpCode.create:
+                ((StringCallback) cb).processResult(rc, path, ctx, null);
+                break;
+            case ZooDefs.OpCode.delete:
+                ((VoidCallback) cb).processResult(rc, path, ctx);
+                break;
+            default:
+                ((StatCallback) cb).processResult(rc, path, ctx, null);
+                break;
+            }
+        }
+    }
+}
@@ -54,6 +54,12 @@ public class ZooDefs {
 
         public final int multi = 14;
 
+        public final int multiRead = 15;
+
+        public final int getChildrenWithData = 16;
+
+        public final int getChildrenPage = 17;
+
         public final int auth = 100;
 
         public final int setWatches = 101;
@@ -32,8 +32,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * This is the main class of ZooKeeper client library. To use a ZooKeeper
@@ -79,6 +82,7 @@ import java.util.*;
 public class ZooKeeper {
     private static final Logger LOG;
     public static final String ZOOKEEPER_CLIENT_CNXN_SOCKET = "zookeeper.clientCnxnSocket";
+    public static final String ZOOKEEPER_HOST_PROVIDER = "zookeeper.hostProvider";
 
     static {
         LOG = LoggerFactory.getLogger(ZooKeeper.class);
@@ -119,6 +123,13 @@ public class ZooKeeper {
 
         private volatile Watcher defaultWatcher;
 
+        /**
+         * Watchers told of the changes of the connection state, as the
+         * default watcher is, whatever watches are set
+         */
+        private final Set<Watcher> stateWatchers =
+            new CopyOnWriteArraySet<Watcher>();
+
         final private void addTo(Set<Watcher> from, Set<Watcher> to) {
             if (from != null) {
                 to.addAll(from);
@@ -138,6 +149,7 @@ public class ZooKeeper {
             switch (type) {
             case None:
                 result.add(defaultWatcher);
+                result.addAll(stateWatchers);
                 for(Set<Watcher> ws: dataWatches.values()) {
                     result.addAll(ws);
                 }
@@ -420,7 +432,7 @@ public class ZooKeeper {
 
         ConnectStringParser connectStringParser = new ConnectStringParser(
                 connectString);
-        HostProvider hostProvider = new StaticHostProvider(
+        HostProvider hostProvider = getHostProvider(
                 connectStringParser.getServerAddresses());
         cnxn = new ClientCnxn(connectStringParser.getChrootPath(),
                 hostProvider, sessionTimeout, this, watchManager,
@@ -561,7 +573,7 @@ public class ZooKeeper {
 
         ConnectStringParser connectStringParser = new ConnectStringParser(
                 connectString);
-        HostProvider hostProvider = new StaticHostProvider(
+        HostProvider hostProvider = getHostProvider(
                 connectStringParser.getServerAddresses());
         cnxn = new ClientCnxn(connectStringParser.getChrootPath(),
                 hostProvider, sessionTimeout, this, watchManager,
@@ -621,6 +633,34 @@ public class ZooKeeper {
         cnxn.addAuthInfo(scheme, auth);
     }
 
+    /**
+     * Replace the servers this client connects to, when servers join or
+     * leave the ensemble.
+     *
+     * Clients spread evenly over the old servers end up spread evenly over
+     * the new ones: each client decides at random whether it moves, so that
+     * only as many of them move as needed. A client that moves reconnects
+     * to one of the servers that need more clients at a random time within
+     * the zookeeper.client.migrationWindow system property (milliseconds,
+     * 10000 by default), so that they do not all reconnect at once. Its
+     * watcher sees Disconnected and then SyncConnected as it moves; the
+     * session is kept.
+     *
+     * @param connectString
+     *            comma separated host:port pairs, as given to the
+     *            constructor; a chroot suffix is ignored, the chroot can't
+     *            be changed
+     * @throws IOException
+     *             if a host can't be resolved
+     * @throws IllegalArgumentException
+     *             if the connect string holds no server
+     */
+    public void updateServerList(String connectString) throws IOException {
+        ConnectStringParser connectStringParser = new ConnectStringParser(
+                connectString);
+        cnxn.updateServerList(connectStringParser.getServerAddresses());
+    }
+
     /**
      * Specify the default watcher for the connection (overrides the one
      * specified during construction).
@@ -631,6 +671,28 @@ public class ZooKeeper {
         watchManager.defaultWatcher = watcher;
     }
 
+    /**
+     * Tell watcher of the changes of the connection state along with the
+     * default watcher, on the event thread. Unlike a watch on a node it
+     * stays set whether or not watches are reset on reconnect, so that
+     * caches and recipes layered on the handle can follow the connection
+     * without taking over the default watcher.
+     *
+     * @param watcher
+     */
+    public void addStateWatcher(Watcher watcher) {
+        watchManager.stateWatchers.add(watcher);
+    }
+
+    /**
+     * Stop telling watcher of the changes of the connection state.
+     *
+     * @param watcher
+     */
+    public void removeStateWatcher(Watcher watcher) {
+        watchManager.stateWatchers.remove(watcher);
+    }
+
     /**
      * Close this client object. Once the client is closed, its session becomes
      * invalid. All the ephemeral nodes in the ZooKeeper server associated with
@@ -669,7 +731,7 @@ public class ZooKeeper {
      * @param clientPath path to the node
      * @return server view of the path (chroot prepended to client path)
      */
-    private String prependChroot(String clientPath) {
+    String prependChroot(String clientPath) {
         if (cnxn.chrootPath != null) {
             // handle clientPath = "/"
             if (clientPath.length() == 1) {
@@ -681,6 +743,18 @@ public class ZooKeeper {
         }
     }
 
+    /**
+     * Strip the chroot from a path returned by the server (if present).
+     * @param serverPath path as seen by the server
+     * @return client view of the path
+     */
+    String stripChroot(String serverPath) {
+        if (cnxn.chrootPath == null) {
+            return serverPath;
+        }
+        return serverPath.substring(cnxn.chrootPath.length());
+    }
+
     /**
      * Create a node with the given path. The node data will be the given data,
      * and node acl will be the given acl.
@@ -901,8 +975,35 @@ public class ZooKeeper {
         return multi_internal(request, results);
     }
 
+    /**
+     * The Asynchronous version of multi. The callback gets the error of the
+     * first op that failed, if any, along with the results of all the ops.
+     *
+     * @see #multi(Iterable)
+     */
+    public void multi(Iterable<Op> ops, MultiCallback cb, Object ctx) {
+        MultiTransactionRecord request = new MultiTransactionRecord(ops);
+        for (Op op : request) {
+            if (op.isRead()) {
+                throw new IllegalArgumentException("Read op of type "
+                        + op.getType() + " can only be used in multiRead");
+            }
+        }
+        RequestHeader h = new RequestHeader();
+        h.setType(ZooDefs.OpCode.multi);
+        MultiResponse response = new MultiResponse();
+        cnxn.queuePacket(h, new ReplyHeader(), request, response, cb,
+                null, null, ctx, null);
+    }
+
     protected List<OpResult> multi_internal(MultiTransactionRecord request, List<OpResult> results_out)
         throws InterruptedException, KeeperException {
+        for (Op op : request) {
+            if (op.isRead()) {
+                throw new IllegalArgumentException("Read op of type "
+                        + op.getType() + " can only be used in multiRead");
+            }
+        }
         RequestHeader h = new RequestHeader();
         h.setType(ZooDefs.OpCode.multi);
         MultiResponse response = new MultiResponse();
@@ -932,6 +1033,68 @@ public class ZooKeeper {
         return results;
     }
 
+    /**
+     * Executes multiple read operations in a single round trip to the server.
+     * The ops are created with {@link Op#getData(String)},
+     * {@link Op#getChildren(String)} and {@link Op#exists(String)}; no
+     * watches are left by them.
+     * <p>
+     * Unlike {@link #multi(Iterable)}, each op succeeds or fails on its own:
+     * the returned list has one result per op, in order, and a failed op
+     * (for example a node that doesn't exist, or one the client may not
+     * read) is represented by an {@link OpResult.ErrorResult} carrying the
+     * error code instead of causing an exception. All the ops are served
+     * by the same server from the same view of the tree, with no write
+     * applied in between.
+     *
+     * @param ops  An iterable that contains the read operations to be done.
+     * @return A list of results, one for each op.
+     * @throws InterruptedException If the server transaction is interrupted.
+     * @throws KeeperException If the request as a whole could not be
+     *  completed, for example on connection loss.
+     * @throws IllegalArgumentException if an op isn't a read op or an invalid
+     *  path is specified
+     */
+    public List<OpResult> multiRead(Iterable<Op> ops)
+        throws InterruptedException, KeeperException
+    {
+        MultiTransactionRecord request = new MultiTransactionRecord();
+        for (Op op : ops) {
+            switch (op.getType()) {
+            case ZooDefs.OpCode.getData: {
+                String clientPath = ((Op.GetData) op).getPath();
+                PathUtils.validatePath(clientPath);
+                request.add(Op.getData(prependChroot(clientPath)));
+                break;
+            }
+            case ZooDefs.OpCode.getChildren: {
+                String clientPath = ((Op.GetChildren) op).getPath();
+                PathUtils.validatePath(clientPath);
+                request.add(Op.getChildren(prependChroot(clientPath)));
+                break;
+            }
+            case ZooDefs.OpCode.exists: {
+                String clientPath = ((Op.Exists) op).getPath();
+                PathUtils.validatePath(clientPath);
+                request.add(Op.exists(prependChroot(clientPath)));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Op of type "
+                        + op.getType() + " can't be used in multiRead");
+            }
+        }
+
+        RequestHeader h = new RequestHeader();
+        h.setType(ZooDefs.OpCode.multiRead);
+        MultiResponse response = new MultiResponse();
+        ReplyHeader r = cnxn.submitRequest(h, request, response, null);
+        if (r.getErr() != 0) {
+            throw KeeperException.create(KeeperException.Code.get(r.getErr()));
+        }
+        return response.getResultList();
+    }
+
     public Transaction transaction() {
         return new Transaction(this);
     }
@@ -1737,6 +1900,282 @@ public class ZooKeeper {
         getChildren(path, watch ? watchManager.defaultWatcher : null, cb, ctx);
     }
 
+    /**
+     * For the given znode path return a page of the names of its children,
+     * so that nodes with very many children can be read a bit at a time.
+     * <p>
+     * The children are sorted by name. Only children whose names sort after
+     * startAfter are returned, at most maxChildren of them. To read all the
+     * children pass {@link ChildNamesPage#getLastName()} of a page as the
+     * startAfter of the next call, until {@link ChildNamesPage#hasMore()}
+     * returns false. The server may return fewer than maxChildren children
+     * to keep the response within its size limit.
+     * <p>
+     * If the watcher is non-null and the call is successful (no exception is
+     * thrown), a watch will be left on the node with the given path, just as
+     * for {@link #getChildren(String, Watcher)}.
+     * <p>
+     * A KeeperException with error code KeeperException.NoNode will be thrown
+     * if no node with the given path exists.
+     *
+     * @since 3.4.0
+     *
+     * @param path
+     * @param watcher explicit watcher
+     * @param startAfter return only children sorting after this name, null
+     *                or empty for the first page
+     * @param maxChildren return at most this many children, no limit if not
+     *                positive
+     * @return a page of the children of the node with the given path
+     * @throws InterruptedException If the server transaction is interrupted.
+     * @throws KeeperException If the server signals an error with a non-zero error code.
+     * @throws IllegalArgumentException if an invalid path is specified
+     */
+    public ChildNamesPage getChildren(final String path, Watcher watcher,
+            String startAfter, int maxChildren)
+        throws KeeperException, InterruptedException
+    {
+        final String clientPath = path;
+        PathUtils.validatePath(clientPath);
+
+        // the watch contains the un-chroot path
+        WatchRegistration wcb = null;
+        if (watcher != null) {
+            wcb = new ChildWatchRegistration(watcher, clientPath);
+        }
+
+        final String serverPath = prependChroot(clientPath);
+
+        RequestHeader h = new RequestHeader();
+        h.setType(ZooDefs.OpCode.getChildrenPage);
+        GetChildrenPageRequest request = new GetChildrenPageRequest(serverPath,
+                watcher != null, startAfter == null ? "" : startAfter,
+                maxChildren);
+        GetChildrenPageResponse response = new GetChildrenPageResponse();
+        ReplyHeader r = cnxn.submitRequest(h, request, response, wcb);
+        if (r.getErr() != 0) {
+            throw KeeperException.create(KeeperException.Code.get(r.getErr()),
+                    clientPath);
+        }
+        return new ChildNamesPage(response.getChildren(), response.getStat(),
+                response.getHasMore());
+    }
+
+    /**
+     * For the given znode path return a page of the names of its children.
+     * <p>
+     * If the watch is true and the call is successful (no exception is
+     * thrown), a watch will be left on the node with the given path.
+     *
+     * @since 3.4.0
+     *
+     * @see #getChildren(String, Watcher, String, int)
+     */
+    public ChildNamesPage getChildren(String path, boolean watch,
+            String startAfter, int maxChildren)
+        throws KeeperException, InterruptedException
+    {
+        return getChildren(path, watch ? watchManager.defaultWatcher : null,
+                startAfter, maxChildren);
+    }
+
+    /**
+     * The Asynchronous version of the paged getChildren. The request doesn't
+     * actually until the asynchronous callback is called.
+     *
+     * @since 3.4.0
+     *
+     * @see #getChildren(String, Watcher, String, int)
+     */
+    public void getChildren(final String path, Watcher watcher,
+            String startAfter, int maxChildren, ChildNamesPageCallback cb,
+            Object ctx)
+    {
+        final String clientPath = path;
+        PathUtils.validatePath(clientPath);
+
+        // the watch contains the un-chroot path
+        WatchRegistration wcb = null;
+        if (watcher != null) {
+            wcb = new ChildWatchRegistration(watcher, clientPath);
+        }
+
+        final String serverPath = prependChroot(clientPath);
+
+        RequestHeader h = new RequestHeader();
+        h.setType(ZooDefs.OpCode.getChildrenPage);
+        GetChildrenPageRequest request = new GetChildrenPageRequest(serverPath,
+                watcher != null, startAfter == null ? "" : startAfter,
+                maxChildren);
+        GetChildrenPageResponse response = new GetChildrenPageResponse();
+        cnxn.queuePacket(h, new ReplyHeader(), request, response, cb,
+                clientPath, serverPath, ctx, wcb);
+    }
+
+    /**
+     * The Asynchronous version of the paged getChildren. The request doesn't
+     * actually until the asynchronous callback is called.
+     *
+     * @since 3.4.0
+     *
+     * @see #getChildren(String, boolean, String, int)
+     */
+    public void getChildren(String path, boolean watch, String startAfter,
+            int maxChildren, ChildNamesPageCallback cb, Object ctx)
+    {
+        getChildren(path, watch ? watchManager.defaultWatcher : null,
+                startAfter, maxChildren, cb, ctx);
+    }
+
+    /**
+     * For the given znode path return a page of its children along with the
+     * stat and, optionally, the data of each child, saving a getData or
+     * exists call per child.
+     * <p>
+     * The children are sorted by name. Only children whose names sort after
+     * startAfter are returned, at most maxChildren of them. To read all the
+     * children pass {@link ChildrenPage#getLastName()} of a page as the
+     * startAfter of the next call, until {@link ChildrenPage#hasMore()}
+     * returns false. The server may return fewer than maxChildren children
+     * to keep the response within its size limit.
+     * <p>
+     * The data of a child is only returned if includeData is set and the
+     * client has READ permission on the child, otherwise it is null.
+     * <p>
+     * If the watcher is non-null and the call is successful (no exception is
+     * thrown), a watch will be left on the node with the given path, just as
+     * for {@link #getChildren(String, Watcher)}. No watches are left on the
+     * children.
+     * <p>
+     * A KeeperException with error code KeeperException.NoNode will be thrown
+     * if no node with the given path exists.
+     *
+     * @since 3.4.0
+     *
+     * @param path
+     * @param watcher explicit watcher
+     * @param includeData return the data of the children as well
+     * @param startAfter return only children sorting after this name, null
+     *                or empty for the first page
+     * @param maxChildren return at most this many children, no limit if not
+     *                positive
+     * @return a page of children of the node with the given path
+     * @throws InterruptedException If the server transaction is interrupted.
+     * @throws KeeperException If the server signals an error with a non-zero error code.
+     * @throws IllegalArgumentException if an invalid path is specified
+     */
+    public ChildrenPage getChildrenWithData(final String path, Watcher watcher,
+            boolean includeData, String startAfter, int maxChildren)
+        throws KeeperException, InterruptedException
+    {
+        final String clientPath = path;
+        PathUtils.validatePath(clientPath);
+
+        // the watch contains the un-chroot path
+        WatchRegistration wcb = null;
+        if (watcher != null) {
+            wcb = new ChildWatchRegistration(watcher, clientPath);
+        }
+
+        final String serverPath = prependChroot(clientPath);
+
+        RequestHeader h = new RequestHeader();
+        h.setType(ZooDefs.OpCode.getChildrenWithData);
+        GetChildrenWithDataRequest request = newGetChildrenWithDataRequest(
+                serverPath, watcher != null, includeData, startAfter,
+                maxChildren);
+        GetChildrenWithDataResponse response = new GetChildrenWithDataResponse();
+        ReplyHeader r = cnxn.submitRequest(h, request, response, wcb);
+        if (r.getErr() != 0) {
+            throw KeeperException.create(KeeperException.Code.get(r.getErr()),
+                    clientPath);
+        }
+        return new ChildrenPage(response.getChildren(), response.getStat(),
+                response.getHasMore());
+    }
+
+    /**
+     * For the given znode path return a page of its children along with the
+     * stat and, optionally, the data of each child.
+     * <p>
+     * If the watch is true and the call is successful (no exception is
+     * thrown), a watch will be left on the node with the given path.
+     *
+     * @since 3.4.0
+     *
+     * @see #getChildrenWithData(String, Watcher, boolean, String, int)
+     */
+    public ChildrenPage getChildrenWithData(String path, boolean watch,
+            boolean includeData, String startAfter, int maxChildren)
+        throws KeeperException, InterruptedException
+    {
+        return getChildrenWithData(path,
+                watch ? watchManager.defaultWatcher : null, includeData,
+                startAfter, maxChildren);
+    }
+
+    /**
+     * The Asynchronous version of getChildrenWithData. The request doesn't
+     * actually until the asynchronous callback is called.
+     *
+     * @since 3.4.0
+     *
+     * @see #getChildrenWithData(String, Watcher, boolean, String, int)
+     */
+    public void getChildrenWithData(final String path, Watcher watcher,
+            boolean includeData, String startAfter, int maxChildren,
+            ChildrenPageCallback cb, Object ctx)
+    {
+        final String clientPath = path;
+        PathUtils.validatePath(clientPath);
+
+        // the watch contains the un-chroot path
+        WatchRegistration wcb = null;
+        if (watcher != null) {
+            wcb = new ChildWatchRegistration(watcher, clientPath);
+        }
+
+        final String serverPath = prependChroot(clientPath);
+
+        RequestHeader h = new RequestHeader();
+        h.setType(ZooDefs.OpCode.getChildrenWithData);
+        GetChildrenWithDataRequest request = newGetChildrenWithDataRequest(
+                serverPath, watcher != null, includeData, startAfter,
+                maxChildren);
+        GetChildrenWithDataResponse response = new GetChildrenWithDataResponse();
+        cnxn.queuePacket(h, new ReplyHeader(), request, response, cb,
+                clientPath, serverPath, ctx, wcb);
+    }
+
+    /**
+     * The Asynchronous version of getChildrenWithData. The request doesn't
+     * actually until the asynchronous callback is called.
+     *
+     * @since 3.4.0
+     *
+     * @see #getChildrenWithData(String, boolean, boolean, String, int)
+     */
+    public void getChildrenWithData(String path, boolean watch,
+            boolean includeData, String startAfter, int maxChildren,
+            ChildrenPageCallback cb, Object ctx)
+    {
+        getChildrenWithData(path, watch ? watchManager.defaultWatcher : null,
+                includeData, startAfter, maxChildren, cb, ctx);
+    }
+
+    private static GetChildrenWithDataRequest newGetChildrenWithDataRequest(
+            String serverPath, boolean watch, boolean includeData,
+            String startAfter, int maxChildren)
+    {
+        GetChildrenWithDataRequest request = new GetChildrenWithDataRequest();
+        request.setPath(serverPath);
+        request.setWatch(watch);
+        request.setIncludeData(includeData);
+        request.setStartAfter(startAfter == null ? "" : startAfter);
+        request.setMaxChildren(maxChildren);
+        return request;
+    }
+
     /**
      * Asynchronous sync. Flushes channel between process and leader.
      * @param path
@@ -1852,4 +2291,34 @@ public class ZooKeeper {
             throw ioe;
         }
     }
+
+    private static HostProvider getHostProvider(
+            Collection<InetSocketAddress> serverAddresses) throws IOException {
+        String hostProviderName = System.getProperty(ZOOKEEPER_HOST_PROVIDER);
+        if (hostProviderName == null) {
+            return new StaticHostProvider(serverAddresses);
+        }
+        try {
+            return (HostProvider) Class.forName(hostProviderName)
+                    .getConstructor(Collection.class)
+                    .newInstance(serverAddresses);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            IOException ioe = new IOException("Couldn't instantiate "
+                    + hostProviderName);
+            ioe.initCause(cause);
+            throw ioe;
+        } catch (Exception e) {
+            IOException ioe = new IOException("Couldn't instantiate "
+                    + hostProviderName);
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The result of a request made through {@link AsyncZooKeeper}. It is
+ * completed by the callback of the request; cancelling it only stops
+ * waiting for the result, the request itself can't be called back.
+ * <p>
+ * Listeners run once the future is done, on the executor they were added
+ * with, so that dependent requests can be made without blocking a thread
+ * on {@link #get()}.
+ */
+public class ZooKeeperFuture<T> extends FutureTask<T> {
+    private static final Logger LOG =
+        LoggerFactory.getLogger(ZooKeeperFuture.class);
+
+    private static final Callable<Object> NOTHING = new Callable<Object>() {
+        public Object call() {
+            throw new IllegalStateException(
+                    "A ZooKeeperFuture is completed by its request");
+        }
+    };
+
+    /**
+     * Runs listeners on the thread completing the future
+     */
+    static final Executor DIRECT = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Executor defaultExecutor;
+
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    @SuppressWarnings("unchecked")
+    ZooKeeperFuture(Executor defaultExecutor) {
+        super((Callable<T>) NOTHING);
+        this.defaultExecutor = defaultExecutor;
+    }
+
+    @Override
+    public void run() {
+        // completed by the request only
+    }
+
+    void complete(T result) {
+        set(result);
+    }
+
+    void fail(KeeperException e) {
+        setException(e);
+    }
+
+    /**
+     * Adds a listener run by the completion executor of the
+     * AsyncZooKeeper that made the request.
+     */
+    public void addListener(Runnable listener) {
+        addListener(listener, defaultExecutor);
+    }
+
+    /**
+     * Adds a listener run by executor once this future is done, or right
+     * away if it is done already.
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    executor.execute(listener);
+                } catch (RuntimeException e) {
+                    LOG.error("Unable to run listener " + listener, e);
+                }
+            }
+        };
+        synchronized (this) {
+            if (listeners != null) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    @Override
+    protected void done() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            toRun = listeners;
+            listeners = null;
+        }
+        for (Runnable task : toRun) {
+            task.run();
+        }
+    }
+
+    /**
+     * Waits for the result like {@link #get()}, but throws the
+     * KeeperException the request failed with as it is.
+     */
+    public T getResult() throws KeeperException, InterruptedException {
+        try {
+            return get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KeeperException) {
+                throw (KeeperException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
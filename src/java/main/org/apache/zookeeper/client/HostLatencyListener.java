@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Implemented by a {@link HostProvider} that wants to know how the servers
+ * it hands out perform. The client reports on the server it is connected
+ * to, from its send thread.
+ */
+public interface HostLatencyListener {
+    /**
+     * A round trip to the server took latencyNs: establishing the session,
+     * or a ping.
+     */
+    public void onLatency(InetSocketAddress address, long latencyNs);
+
+    /**
+     * The connection to the server could not be established, or was lost.
+     */
+    public void onFailure(InetSocketAddress address);
+
+    /**
+     * Asked from time to time, at random intervals, while the client is
+     * connected to the server.
+     *
+     * @return true if the client should move away from the server because
+     *         the others answer faster
+     */
+    public boolean shouldMove(InetSocketAddress address);
+}
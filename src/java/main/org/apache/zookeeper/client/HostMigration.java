@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.client;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decides which clients move when the server list changes. Every client
+ * decides on its own at random, with probabilities such that if the
+ * clients were spread evenly over the old servers they end up spread
+ * evenly over the new ones, and only as many of them move as needed:
+ * 
+ * * Clients of a server that stays move only if the list grows, to an
+ * added server, with probability 1 - old size / new size.
+ * 
+ * * Clients of a removed server always move, to an added or to a kept
+ * server, in proportion to the clients each group still lacks.
+ */
+final class HostMigration {
+    private HostMigration() {
+    }
+
+    /**
+     * @return the servers the client connected to currentHost should move
+     *         to, or null if it should stay
+     */
+    static List<InetSocketAddress> targets(List<InetSocketAddress> oldServers,
+            List<InetSocketAddress> newServers, InetSocketAddress currentHost,
+            Random random) {
+        if (currentHost == null) {
+            return null;
+        }
+        List<InetSocketAddress> kept = new ArrayList<InetSocketAddress>();
+        List<InetSocketAddress> added = new ArrayList<InetSocketAddress>();
+        for (InetSocketAddress address : newServers) {
+            if (oldServers.contains(address)) {
+                kept.add(address);
+            } else {
+                added.add(address);
+            }
+        }
+        double oldSize = oldServers.size();
+        double newSize = newServers.size();
+
+        if (newServers.contains(currentHost)) {
+            if (newSize > oldSize
+                    && random.nextDouble() < 1 - oldSize / newSize) {
+                return added;
+            }
+            return null;
+        }
+
+        if (added.isEmpty()) {
+            return kept;
+        }
+        if (kept.isEmpty()) {
+            return added;
+        }
+        // shares of all clients the kept and the added servers still lack
+        // once the clients of kept servers have moved
+        double keptLack = 0;
+        double movedToAdded = 0;
+        if (newSize < oldSize) {
+            keptLack = kept.size() * (1 / newSize - 1 / oldSize);
+        } else {
+            movedToAdded = kept.size() * (1 / oldSize - 1 / newSize);
+        }
+        double addedLack = added.size() / newSize - movedToAdded;
+        if (random.nextDouble() * (keptLack + addedLack) < addedLack) {
+            return added;
+        }
+        return kept;
+    }
+}
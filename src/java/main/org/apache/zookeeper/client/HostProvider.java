@@ -19,6 +19,8 @@
 package org.apache.zookeeper.client;
 
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
 
 /**
  * A set of hosts a ZooKeeper client should connect to.
@@ -58,4 +60,25 @@ public interface HostProvider {
      * The HostProvider may use this notification to reset it's inner state.
      */
     public void onConnected();
+
+    /**
+     * Replace the hosts, when the ensemble membership changes.
+     * 
+     * Clients spread evenly over the old hosts should end up spread evenly
+     * over the new ones, with as few of them moving as possible. The
+     * HostProvider decides whether this client is one of those that move;
+     * if so, next() returns the hosts it should move to first.
+     * 
+     * @param serverAddresses
+     *            possibly unresolved addresses of the new hosts
+     * @param currentHost
+     *            the host the client is connected to, or null
+     * @return true if the client should move away from currentHost
+     * @throws UnknownHostException
+     * @throws IllegalArgumentException
+     *             if serverAddresses is empty or resolves to an empty list
+     */
+    public boolean updateServerList(
+            Collection<InetSocketAddress> serverAddresses,
+            InetSocketAddress currentHost) throws UnknownHostException;
 }
@@ -0,0 +1,320 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.client;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HostProvider that prefers the servers answering fastest. The client
+ * reports the time taken to establish each session and every ping round
+ * trip; this provider keeps a moving average of them per server. A server
+ * that is slow because it is far away or because it is loaded with clients
+ * therefore gets picked less often, and a restarted server that comes back
+ * empty (and fast) gets picked more often, so the ensemble rebalances as
+ * clients reconnect rather than all at once.
+ *
+ * Servers are picked at random, weighted by the inverse square of their
+ * expected latency. A server that failed is penalized until the client
+ * connects to it again. Each server is tried at most once per round; the
+ * provider sleeps spinDelay before starting a new round, like
+ * {@link StaticHostProvider}. Servers the client never reached are assumed
+ * to be as fast as the median known server. When the server list changes,
+ * a client that should move picks among the servers it should move to
+ * first.
+ *
+ * While connected, the client asks from time to time whether it should
+ * move anyway. It does so at random, the more likely the slower its
+ * server is than the average server, so that clients leave servers that
+ * became loaded, e.g. after a rolling restart, a few at a time.
+ */
+public final class LatencyAwareHostProvider implements HostProvider,
+        HostLatencyListener {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(LatencyAwareHostProvider.class);
+
+    /** Weight of a new sample in the moving average */
+    private static final double ALPHA = 0.3;
+
+    /** Samples older than this no longer describe the server */
+    private static final long STALE_NS = 5 * 60 * 1000000000L;
+
+    /** Each failure doubles the expected latency, up to 2^MAX_PENALTY */
+    private static final int MAX_PENALTY = 6;
+
+    private List<InetSocketAddress> serverAddresses;
+
+    /** Moving average latency in nanoseconds, 0 when not known */
+    private double[] latency;
+
+    private long[] sampleTimeNs;
+
+    private int[] failures;
+
+    private boolean[] tried;
+
+    /** The servers to move to after a server list update, or null */
+    private boolean[] preferred;
+
+    private final Random random = new Random();
+
+    private int triedCount = 0;
+
+    private int currentIndex = -1;
+
+    /**
+     * Constructs a LatencyAwareHostProvider.
+     * 
+     * @param serverAddresses
+     *            possibly unresolved ZooKeeper server addresses
+     * @throws UnknownHostException
+     * @throws IllegalArgumentException
+     *             if serverAddresses is empty or resolves to an empty list
+     */
+    public LatencyAwareHostProvider(
+            Collection<InetSocketAddress> serverAddresses)
+            throws UnknownHostException {
+        this.serverAddresses = StaticHostProvider.resolve(serverAddresses);
+        Collections.shuffle(this.serverAddresses);
+
+        int size = this.serverAddresses.size();
+        latency = new double[size];
+        sampleTimeNs = new long[size];
+        failures = new int[size];
+        tried = new boolean[size];
+    }
+
+    public synchronized int size() {
+        return serverAddresses.size();
+    }
+
+    public InetSocketAddress next(long spinDelay) {
+        boolean sleep = false;
+        InetSocketAddress address;
+        synchronized (this) {
+            if (triedCount == serverAddresses.size()) {
+                Arrays.fill(tried, false);
+                triedCount = 0;
+                sleep = spinDelay > 0;
+            }
+            currentIndex = pick();
+            tried[currentIndex] = true;
+            triedCount++;
+            address = serverAddresses.get(currentIndex);
+        }
+        if (sleep) {
+            try {
+                Thread.sleep(spinDelay);
+            } catch (InterruptedException e) {
+                LOG.warn("Unexpected exception", e);
+            }
+        }
+        return address;
+    }
+
+    public synchronized void onConnected() {
+        if (currentIndex >= 0) {
+            failures[currentIndex] = 0;
+        }
+        Arrays.fill(tried, false);
+        triedCount = 0;
+        if (currentIndex >= 0 && preferred != null && preferred[currentIndex]) {
+            // reached a server to move to, until then the client may still
+            // have to move
+            preferred = null;
+        }
+    }
+
+    /**
+     * Keeps what is known of the servers that stay.
+     */
+    public synchronized boolean updateServerList(
+            Collection<InetSocketAddress> serverAddresses,
+            InetSocketAddress currentHost) throws UnknownHostException {
+        List<InetSocketAddress> newServers = StaticHostProvider
+                .resolve(serverAddresses);
+        Collections.shuffle(newServers);
+        List<InetSocketAddress> targets = HostMigration.targets(
+                this.serverAddresses, newServers, currentHost, random);
+
+        int size = newServers.size();
+        double[] newLatency = new double[size];
+        long[] newSampleTimeNs = new long[size];
+        int[] newFailures = new int[size];
+        for (int i = 0; i < size; i++) {
+            int old = this.serverAddresses.indexOf(newServers.get(i));
+            if (old >= 0) {
+                newLatency[i] = latency[old];
+                newSampleTimeNs[i] = sampleTimeNs[old];
+                newFailures[i] = failures[old];
+            }
+        }
+        this.serverAddresses = newServers;
+        latency = newLatency;
+        sampleTimeNs = newSampleTimeNs;
+        failures = newFailures;
+        tried = new boolean[size];
+        triedCount = 0;
+        currentIndex = newServers.indexOf(currentHost);
+        if (targets == null) {
+            preferred = null;
+            return false;
+        }
+        preferred = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            preferred[i] = targets.contains(newServers.get(i));
+        }
+        return true;
+    }
+
+    public synchronized void onLatency(InetSocketAddress address,
+            long latencyNs) {
+        int i = serverAddresses.indexOf(address);
+        if (i < 0 || latencyNs < 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (latency[i] == 0 || now - sampleTimeNs[i] > STALE_NS) {
+            latency[i] = Math.max(latencyNs, 1);
+        } else {
+            latency[i] += ALPHA * (latencyNs - latency[i]);
+        }
+        sampleTimeNs[i] = now;
+    }
+
+    public synchronized void onFailure(InetSocketAddress address) {
+        int i = serverAddresses.indexOf(address);
+        if (i >= 0 && failures[i] < MAX_PENALTY) {
+            failures[i]++;
+        }
+    }
+
+    /**
+     * Moves with probability (1 - w / mean w) / 2, where w is the weight
+     * pick() gives the server and mean w the mean of the weights of all
+     * servers. A client stays on a server at least as fast as the average,
+     * and only some of the clients of a slow server leave it at a time.
+     */
+    public synchronized boolean shouldMove(InetSocketAddress address) {
+        int current = serverAddresses.indexOf(address);
+        if (current < 0 || !isKnown(current) || serverAddresses.size() < 2) {
+            return false;
+        }
+        double[] weights = weights();
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double stay = weights[current] * weights.length / total;
+        return random.nextDouble() < (1 - stay) / 2;
+    }
+
+    /**
+     * The weight of each server, 1/latency^2 of its expected latency.
+     */
+    private double[] weights() {
+        double known = knownLatency();
+        double[] weights = new double[serverAddresses.size()];
+        for (int i = 0; i < weights.length; i++) {
+            double expected = isKnown(i) ? latency[i] : known;
+            expected *= 1 << failures[i];
+            weights[i] = 1 / (expected * expected);
+        }
+        return weights;
+    }
+
+    /**
+     * Picks an untried server at random, weighted by 1/latency^2, among
+     * the preferred ones if any is left.
+     */
+    private int pick() {
+        boolean[] skip = tried.clone();
+        if (preferred != null) {
+            boolean left = false;
+            for (int i = 0; i < skip.length; i++) {
+                left |= preferred[i] && !tried[i];
+            }
+            for (int i = 0; i < skip.length && left; i++) {
+                skip[i] |= !preferred[i];
+            }
+        }
+        double[] weights = weights();
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (!skip[i]) {
+                total += weights[i];
+            }
+        }
+        double r = random.nextDouble() * total;
+        int last = -1;
+        for (int i = 0; i < weights.length; i++) {
+            if (skip[i]) {
+                continue;
+            }
+            last = i;
+            r -= weights[i];
+            if (r < 0) {
+                return i;
+            }
+        }
+        return last;
+    }
+
+    private boolean isKnown(int i) {
+        return latency[i] > 0
+                && System.nanoTime() - sampleTimeNs[i] <= STALE_NS;
+    }
+
+    /**
+     * The latency assumed for a server without recent samples: the median
+     * of the known servers, so that unknown servers are neither shunned nor
+     * flooded.
+     */
+    private double knownLatency() {
+        double[] known = new double[latency.length];
+        int count = 0;
+        for (int i = 0; i < latency.length; i++) {
+            if (isKnown(i)) {
+                known[count++] = latency[i];
+            }
+        }
+        if (count == 0) {
+            return 1;
+        }
+        Arrays.sort(known, 0, count);
+        return known[count / 2];
+    }
+
+    /**
+     * The expected latency of the given server in nanoseconds, or -1 when
+     * it is not known; for monitoring.
+     */
+    public synchronized long getLatency(InetSocketAddress address) {
+        int i = serverAddresses.indexOf(address);
+        return i >= 0 && isKnown(i) ? (long) latency[i] : -1;
+    }
+}
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,13 +39,14 @@ public final class StaticHostProvider implements HostProvider {
     private static final Logger LOG = LoggerFactory
             .getLogger(StaticHostProvider.class);
 
-    private final List<InetSocketAddress> serverAddresses = new ArrayList<InetSocketAddress>(
-            5);
+    private List<InetSocketAddress> serverAddresses;
 
     private int lastIndex = -1;
 
     private int currentIndex = -1;
 
+    private final Random random = new Random();
+
     /**
      * Constructs a SimpleHostSet.
      * 
@@ -56,46 +58,91 @@ public final class StaticHostProvider implements HostProvider {
      */
     public StaticHostProvider(Collection<InetSocketAddress> serverAddresses)
             throws UnknownHostException {
+        this.serverAddresses = resolve(serverAddresses);
+        Collections.shuffle(this.serverAddresses);
+    }
+
+    /**
+     * Resolves all the addresses of each server.
+     * 
+     * @throws IllegalArgumentException
+     *             if serverAddresses resolves to an empty list
+     */
+    static List<InetSocketAddress> resolve(
+            Collection<InetSocketAddress> serverAddresses)
+            throws UnknownHostException {
+        List<InetSocketAddress> resolved = new ArrayList<InetSocketAddress>(5);
         for (InetSocketAddress address : serverAddresses) {
             InetAddress resolvedAddresses[] = InetAddress.getAllByName(address
                     .getHostName());
             for (InetAddress resolvedAddress : resolvedAddresses) {
-                this.serverAddresses.add(new InetSocketAddress(resolvedAddress
+                resolved.add(new InetSocketAddress(resolvedAddress
                         .getHostAddress(), address.getPort()));
             }
         }
 
-        if (this.serverAddresses.isEmpty()) {
+        if (resolved.isEmpty()) {
             throw new IllegalArgumentException(
                     "A HostProvider may not be empty!");
         }
-        Collections.shuffle(this.serverAddresses);
+        return resolved;
     }
 
-    public int size() {
+    public synchronized int size() {
         return serverAddresses.size();
     }
 
     public InetSocketAddress next(long spinDelay) {
-        ++currentIndex;
-        if (currentIndex == serverAddresses.size()) {
-            currentIndex = 0;
+        boolean sleep = false;
+        InetSocketAddress address;
+        synchronized (this) {
+            ++currentIndex;
+            if (currentIndex == serverAddresses.size()) {
+                currentIndex = 0;
+            }
+            if (currentIndex == lastIndex && spinDelay > 0) {
+                sleep = true;
+            } else if (lastIndex == -1) {
+                // We don't want to sleep on the first ever connect attempt.
+                lastIndex = 0;
+            }
+            address = serverAddresses.get(currentIndex);
         }
-        if (currentIndex == lastIndex && spinDelay > 0) {
+        if (sleep) {
             try {
                 Thread.sleep(spinDelay);
             } catch (InterruptedException e) {
                 LOG.warn("Unexpected exception", e);
             }
-        } else if (lastIndex == -1) {
-            // We don't want to sleep on the first ever connect attempt.
-            lastIndex = 0;
         }
+        return address;
+    }
 
-        return serverAddresses.get(currentIndex);
+    public synchronized void onConnected() {
+        lastIndex = currentIndex;
     }
 
-    public void onConnected() {
+    /**
+     * Shuffles the new servers. A client that moves tries the servers it
+     * should move to first, then the others.
+     */
+    public synchronized boolean updateServerList(
+            Collection<InetSocketAddress> serverAddresses,
+            InetSocketAddress currentHost) throws UnknownHostException {
+        List<InetSocketAddress> newServers = resolve(serverAddresses);
+        Collections.shuffle(newServers);
+        List<InetSocketAddress> targets = HostMigration.targets(
+                this.serverAddresses, newServers, currentHost, random);
+        this.serverAddresses = newServers;
+        if (targets != null) {
+            newServers.removeAll(targets);
+            newServers.addAll(0, targets);
+            lastIndex = -1;
+            currentIndex = -1;
+            return true;
+        }
+        currentIndex = newServers.indexOf(currentHost);
         lastIndex = currentIndex;
+        return false;
     }
 }
@@ -29,6 +29,14 @@ public class ByteBufferInputStream extends InputStream {
         this.bb = bb;
     }
 
+    /**
+     * Read from bb from now on, so that this stream, and the archive
+     * reading from it, can be used for more than one buffer.
+     */
+    public void setByteBuffer(ByteBuffer bb) {
+        this.bb = bb;
+    }
+
     @Override
     public int read() throws IOException {
         if (bb.remaining() == 0) {
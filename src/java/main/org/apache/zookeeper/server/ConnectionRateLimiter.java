@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits how fast a connection factory accepts connections, so that a
+ * storm of clients reconnecting at once, each creating or revalidating its
+ * session, does not knock the server over again. The connections over the
+ * limit are closed right away; the clients retry later, backing off.
+ *
+ * A token bucket: the zookeeper.connectionAcceptRate system property sets
+ * how many connections are accepted per second on average, 0 (the default)
+ * meaning no limit, and zookeeper.connectionAcceptBurst how many may be
+ * accepted at once, a second's worth by default.
+ */
+class ConnectionRateLimiter {
+    private static final Logger LOG =
+        LoggerFactory.getLogger(ConnectionRateLimiter.class);
+
+    public static final String RATE = "zookeeper.connectionAcceptRate";
+
+    public static final String BURST = "zookeeper.connectionAcceptBurst";
+
+    private final int rate;
+
+    private final int burst;
+
+    private double tokens;
+
+    private long lastRefillNs;
+
+    /** Connections refused since the last one accepted */
+    private long refused;
+
+    private long totalRefused;
+
+    ConnectionRateLimiter() {
+        this(Integer.getInteger(RATE, 0), Integer.getInteger(BURST, 0));
+    }
+
+    /**
+     * @param rate connections per second, 0 for no limit
+     * @param burst connections accepted at once, 0 for rate
+     */
+    ConnectionRateLimiter(int rate, int burst) {
+        this.rate = Math.max(rate, 0);
+        this.burst = burst > 0 ? burst : Math.max(this.rate, 1);
+        tokens = this.burst;
+        lastRefillNs = System.nanoTime();
+    }
+
+    /**
+     * @return whether to accept a new connection
+     */
+    boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    synchronized boolean tryAcquire(long nowNs) {
+        if (rate == 0) {
+            return true;
+        }
+        tokens = Math.min(burst,
+                tokens + (nowNs - lastRefillNs) * rate / 1000000000.0);
+        lastRefillNs = nowNs;
+        if (tokens >= 1) {
+            tokens--;
+            if (refused > 0) {
+                LOG.info("Refused " + refused
+                        + " connections over the accept rate of " + rate
+                        + "/s");
+                refused = 0;
+            }
+            return true;
+        }
+        if (refused++ == 0) {
+            LOG.warn("Accepting connections faster than " + rate
+                    + "/s, refusing some");
+        }
+        totalRefused++;
+        return false;
+    }
+
+    synchronized long getRefusedCount() {
+        return totalRefused;
+    }
+}
@@ -19,8 +19,13 @@
 package org.apache.zookeeper.server;
 
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.jute.InputArchive;
 import org.apache.jute.OutputArchive;
@@ -59,6 +64,16 @@ public class DataNode implements Record {
      */
     private Set<String> children = null;
 
+    /**
+     * the children in sorted order, used to serve pages of children. It is
+     * only built when a page is asked for, so that nodes that are never
+     * paged through don't pay for it, and then kept in step with children.
+     * It is held softly so that the collector drops it when it is not paged
+     * through for a while or memory runs short, and rebuilt by the next
+     * page. Guarded by this.
+     */
+    private SoftReference<TreeSet<String>> sortedChildren = null;
+
     /**
      * default constructor for the datanode
      */
@@ -97,6 +112,10 @@ public class DataNode implements Record {
             // let's be conservative on the typical number of children
             children = new HashSet<String>(8);
         }
+        TreeSet<String> sorted = getSortedChildren();
+        if (sorted != null) {
+            sorted.add(child);
+        }
         return children.add(child);
     }
 
@@ -110,6 +129,10 @@ public class DataNode implements Record {
         if (children == null) {
             return false;
         }
+        TreeSet<String> sorted = getSortedChildren();
+        if (sorted != null) {
+            sorted.remove(child);
+        }
         return children.remove(child);
     }
 
@@ -120,6 +143,7 @@ public class DataNode implements Record {
      */
     public synchronized void setChildren(HashSet<String> children) {
         this.children = children;
+        this.sortedChildren = null;
     }
 
     /**
@@ -131,6 +155,58 @@ public class DataNode implements Record {
         return children;
     }
 
+    /**
+     * Get a page of the children of this datanode in sorted order, without
+     * copying or sorting all of them.
+     *
+     * @param startAfter
+     *            only children sorting after this name, all children if null
+     *            or empty
+     * @param maxChildren
+     *            at most this many children, no limit if not positive
+     * @return the sorted page of children
+     */
+    public synchronized List<String> getChildrenPage(String startAfter,
+            int maxChildren) {
+        if (children == null || children.isEmpty()) {
+            return new ArrayList<String>(0);
+        }
+        TreeSet<String> sorted = getSortedChildren();
+        if (sorted == null) {
+            sorted = new TreeSet<String>(children);
+            sortedChildren = new SoftReference<TreeSet<String>>(sorted);
+        }
+        Set<String> tail = sorted;
+        boolean after = startAfter != null && startAfter.length() > 0;
+        if (after) {
+            tail = sorted.tailSet(startAfter);
+        }
+        List<String> page = new ArrayList<String>(maxChildren > 0
+                ? Math.min(maxChildren, children.size()) : children.size());
+        Iterator<String> it = tail.iterator();
+        while (it.hasNext()
+                && (maxChildren <= 0 || page.size() < maxChildren)) {
+            String child = it.next();
+            // the tail set includes startAfter itself
+            if (after && page.isEmpty() && child.equals(startAfter)) {
+                continue;
+            }
+            page.add(child);
+        }
+        return page;
+    }
+
+    private TreeSet<String> getSortedChildren() {
+        if (sortedChildren == null) {
+            return null;
+        }
+        TreeSet<String> sorted = sortedChildren.get();
+        if (sorted == null) {
+            sortedChildren = null;
+        }
+        return sorted;
+    }
+
     synchronized public void copyStat(Stat to) {
         to.setAversion(stat.getAversion());
         to.setCtime(stat.getCtime());
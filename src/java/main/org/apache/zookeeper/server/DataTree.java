@@ -685,6 +685,39 @@ public class DataTree {
         }
     }
 
+    /**
+     * Return a page of the children of a node, sorted by name.
+     *
+     * @param path the path of the node
+     * @param stat filled in with the stat of the node, if not null
+     * @param watcher a child watch to set on the node, if not null
+     * @param startAfter only return children sorting after this name, all
+     *            children if null or empty
+     * @param maxChildren return at most this many children, no limit if
+     *            not positive
+     * @return the sorted children
+     * @throws KeeperException.NoNodeException
+     */
+    public List<String> getChildren(String path, Stat stat, Watcher watcher,
+            String startAfter, int maxChildren)
+            throws KeeperException.NoNodeException {
+        DataNode n = nodes.get(path);
+        if (n == null) {
+            throw new KeeperException.NoNodeException();
+        }
+        synchronized (n) {
+            if (stat != null) {
+                n.copyStat(stat);
+            }
+            List<String> children = n.getChildrenPage(startAfter, maxChildren);
+
+            if (watcher != null) {
+                childWatches.addWatch(path, watcher);
+            }
+            return children;
+        }
+    }
+
     public Stat setACL(String path, List<ACL> acl, int version)
             throws KeeperException.NoNodeException {
         Stat stat = new Stat();
@@ -892,7 +925,7 @@ public class DataTree {
              rc.err = e.code().intValue();
         } catch (IOException e) {
             LOG.warn("Failed:" + debug, e);
-            rc.err = e.code().intValue();
+            rc.err = Code.MARSHALLINGERROR.intValue();
         }
         return rc;
     }
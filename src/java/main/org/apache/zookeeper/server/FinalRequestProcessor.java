@@ -20,8 +20,10 @@ package org.apache.zookeeper.server;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.Record;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +34,7 @@ import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.KeeperException.SessionMovedException;
 import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.ChildEntry;
 import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.proto.CreateResponse;
 import org.apache.zookeeper.proto.ExistsRequest;
@@ -40,7 +43,11 @@ import org.apache.zookeeper.proto.GetACLRequest;
 import org.apache.zookeeper.proto.GetACLResponse;
 import org.apache.zookeeper.proto.GetChildren2Request;
 import org.apache.zookeeper.proto.GetChildren2Response;
+import org.apache.zookeeper.proto.GetChildrenPageRequest;
+import org.apache.zookeeper.proto.GetChildrenPageResponse;
 import org.apache.zookeeper.proto.GetChildrenRequest;
+import org.apache.zookeeper.proto.GetChildrenWithDataRequest;
+import org.apache.zookeeper.proto.GetChildrenWithDataResponse;
 import org.apache.zookeeper.proto.GetChildrenResponse;
 import org.apache.zookeeper.proto.GetDataRequest;
 import org.apache.zookeeper.proto.GetDataResponse;
@@ -61,6 +68,9 @@ import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.OpResult.CheckResult;
 import org.apache.zookeeper.OpResult.CreateResult;
 import org.apache.zookeeper.OpResult.DeleteResult;
+import org.apache.zookeeper.OpResult.ExistsResult;
+import org.apache.zookeeper.OpResult.GetChildrenResult;
+import org.apache.zookeeper.OpResult.GetDataResult;
 import org.apache.zookeeper.OpResult.SetDataResult;
 import org.apache.zookeeper.OpResult.ErrorResult;
 
@@ -148,7 +158,17 @@ public class FinalRequestProcessor implements RequestProcessor {
             return;
         }
         ServerCnxn cnxn = request.cnxn;
+        try {
+            sendReply(request, cnxn, rc);
+        } finally {
+            // only now that the reply is queued may a later read of this
+            // connection be answered without waiting for the processors
+            cnxn.requestCompleted(request);
+        }
+    }
 
+    private void sendReply(Request request, ServerCnxn cnxn,
+            ProcessTxnResult rc) {
         String lastOp = "NA";
         zks.decInProcess();
         Code err = Code.OK;
@@ -223,6 +243,23 @@ public class FinalRequestProcessor implements RequestProcessor {
 
                 break;
             }
+            case OpCode.multiRead: {
+                lastOp = "MLTR";
+                MultiTransactionRecord multiReadRecord = new MultiTransactionRecord();
+                ZooKeeperServer.byteBuffer2Record(request.request,
+                        multiReadRecord);
+                rsp = new MultiResponse();
+                for (Op readOp : multiReadRecord) {
+                    OpResult subResult;
+                    try {
+                        subResult = processReadOp(readOp, request);
+                    } catch (KeeperException e) {
+                        subResult = new ErrorResult(e.code().intValue());
+                    }
+                    ((MultiResponse)rsp).add(subResult);
+                }
+                break;
+            }
             case OpCode.create: {
                 lastOp = "CREA";
                 rsp = new CreateResponse(rc.path);
@@ -373,6 +410,59 @@ public class FinalRequestProcessor implements RequestProcessor {
                 rsp = new GetChildren2Response(children, stat);
                 break;
             }
+            case OpCode.getChildrenPage: {
+                lastOp = "GETP";
+                GetChildrenPageRequest getChildrenPageRequest =
+                    new GetChildrenPageRequest();
+                ZooKeeperServer.byteBuffer2Record(request.request,
+                        getChildrenPageRequest);
+                String path = getChildrenPageRequest.getPath();
+                DataNode n = zks.getZKDatabase().getNode(path);
+                if (n == null) {
+                    throw new KeeperException.NoNodeException();
+                }
+                Long aclG;
+                synchronized(n) {
+                    aclG = n.acl;
+                }
+                PrepRequestProcessor.checkACL(zks, zks.getZKDatabase().convertLong(aclG),
+                        ZooDefs.Perms.READ,
+                        request.authInfo);
+                int max = getChildrenPageRequest.getMaxChildren();
+                Stat stat = new Stat();
+                // ask for one more child than needed to learn if there are more
+                List<String> children = zks.getZKDatabase().getChildren(path,
+                        stat, getChildrenPageRequest.getWatch() ? cnxn : null,
+                        getChildrenPageRequest.getStartAfter(),
+                        max > 0 ? max + 1 : 0);
+                boolean hasMore = false;
+                if (max > 0 && children.size() > max) {
+                    children = children.subList(0, max);
+                    hasMore = true;
+                }
+                // cut the page short rather than exceed the client buffer
+                int budget = BinaryInputArchive.maxBuffer / 2;
+                for (int i = 0; i < children.size(); i++) {
+                    budget -= children.get(i).length() + 4;
+                    if (budget < 0 && i > 0) {
+                        children = children.subList(0, i);
+                        hasMore = true;
+                        break;
+                    }
+                }
+                rsp = new GetChildrenPageResponse(children, stat, hasMore);
+                break;
+            }
+            case OpCode.getChildrenWithData: {
+                lastOp = "GETW";
+                GetChildrenWithDataRequest getChildrenWithDataRequest =
+                    new GetChildrenWithDataRequest();
+                ZooKeeperServer.byteBuffer2Record(request.request,
+                        getChildrenWithDataRequest);
+                rsp = getChildrenWithData(getChildrenWithDataRequest, request,
+                        cnxn);
+                break;
+            }
             }
         } catch (SessionMovedException e) {
             // session moved is a connection level error, we need to tear
@@ -418,6 +508,132 @@ public class FinalRequestProcessor implements RequestProcessor {
         }
     }
 
+    /**
+     * Serve a single read op of a multiRead. No watches are set.
+     *
+     * @return the result of the op
+     * @throws KeeperException if the node is missing or may not be read,
+     *         the caller reports this as an error result for the op alone
+     */
+    private OpResult processReadOp(Op op, Request request)
+        throws KeeperException
+    {
+        String path;
+        switch (op.getType()) {
+        case OpCode.getData:
+            path = ((Op.GetData) op).getPath();
+            break;
+        case OpCode.getChildren:
+            path = ((Op.GetChildren) op).getPath();
+            break;
+        case OpCode.exists:
+            path = ((Op.Exists) op).getPath();
+            break;
+        default:
+            throw new KeeperException.BadArgumentsException();
+        }
+        if (path.indexOf('\0') != -1) {
+            throw new KeeperException.BadArgumentsException(path);
+        }
+        if (op.getType() == OpCode.exists) {
+            // TODO we need to figure out the security requirement for this!
+            return new ExistsResult(zks.getZKDatabase().statNode(path, null));
+        }
+        DataNode n = zks.getZKDatabase().getNode(path);
+        if (n == null) {
+            throw new KeeperException.NoNodeException(path);
+        }
+        Long acl;
+        synchronized(n) {
+            acl = n.acl;
+        }
+        PrepRequestProcessor.checkACL(zks, zks.getZKDatabase().convertLong(acl),
+                ZooDefs.Perms.READ,
+                request.authInfo);
+        if (op.getType() == OpCode.getData) {
+            Stat stat = new Stat();
+            byte b[] = zks.getZKDatabase().getData(path, stat, null);
+            return new GetDataResult(b, stat);
+        }
+        return new GetChildrenResult(
+                zks.getZKDatabase().getChildren(path, null, null));
+    }
+
+    /**
+     * Serve a page of children along with their stats and, if asked for,
+     * their data. The data of a child is only returned if the client may
+     * read that child. The page is cut short so that the response stays
+     * well below the buffer limit of the client.
+     */
+    private GetChildrenWithDataResponse getChildrenWithData(
+            GetChildrenWithDataRequest req, Request request, ServerCnxn cnxn)
+        throws KeeperException
+    {
+        String path = req.getPath();
+        ZKDatabase db = zks.getZKDatabase();
+        DataNode n = db.getNode(path);
+        if (n == null) {
+            throw new KeeperException.NoNodeException();
+        }
+        Long aclG;
+        synchronized(n) {
+            aclG = n.acl;
+        }
+        PrepRequestProcessor.checkACL(zks, db.convertLong(aclG),
+                ZooDefs.Perms.READ,
+                request.authInfo);
+        int max = req.getMaxChildren();
+        Stat stat = new Stat();
+        // ask for one more child than needed to learn if there are more
+        List<String> names = db.getChildren(path, stat,
+                req.getWatch() ? cnxn : null, req.getStartAfter(),
+                max > 0 ? max + 1 : 0);
+        boolean hasMore = false;
+        if (max > 0 && names.size() > max) {
+            names = names.subList(0, max);
+            hasMore = true;
+        }
+        String prefix = path.equals("/") ? path : path + "/";
+        int budget = BinaryInputArchive.maxBuffer / 2;
+        List<ChildEntry> children = new ArrayList<ChildEntry>(names.size());
+        for (String name : names) {
+            DataNode child = db.getNode(prefix + name);
+            if (child == null) {
+                // deleted since the names were listed
+                continue;
+            }
+            ChildEntry entry = new ChildEntry();
+            entry.setName(name);
+            entry.setStat(new Stat());
+            byte data[];
+            Long aclC;
+            synchronized(child) {
+                child.copyStat(entry.getStat());
+                data = child.data;
+                aclC = child.acl;
+            }
+            if (req.getIncludeData() && data != null) {
+                try {
+                    PrepRequestProcessor.checkACL(zks, db.convertLong(aclC),
+                            ZooDefs.Perms.READ, request.authInfo);
+                    entry.setData(data);
+                } catch (KeeperException.NoAuthException e) {
+                    // leave the data out, the name and stat are still
+                    // visible through the parent
+                }
+            }
+            // name, stat (68 bytes) and data, each with a length prefix
+            budget -= name.length() + 76
+                + (entry.getData() == null ? 0 : entry.getData().length);
+            if (budget < 0 && !children.isEmpty()) {
+                hasMore = true;
+                break;
+            }
+            children.add(entry);
+        }
+        return new GetChildrenWithDataResponse(children, stat, hasMore);
+    }
+
     public void shutdown() {
         // we are the final link in the chain
         LOG.info("shutdown of request processor complete");
@@ -193,6 +193,12 @@ public class NIOServerCnxnFactory extends ServerCnxnFactory implements Runnable
                             LOG.warn("Too many connections from " + ia
                                      + " - max is " + maxClientCnxns );
                             sc.close();
+                        } else if (!acceptRateLimiter.tryAcquire()) {
+                            if (LOG.isDebugEnabled()) {
+                                LOG.debug("Refusing connection from " + ia
+                                          + " over the accept rate");
+                            }
+                            sc.close();
                         } else {
                             LOG.info("Accepted socket connection from "
                                      + sc.socket().getRemoteSocketAddress());
@@ -82,6 +82,15 @@ public class NettyServerCnxnFactory extends ServerCnxnFactory {
             if (LOG.isTraceEnabled()) {
                 LOG.trace("Channel connected " + e);
             }
+            if (!acceptRateLimiter.tryAcquire()) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Refusing connection from "
+                            + ctx.getChannel().getRemoteAddress()
+                            + " over the accept rate");
+                }
+                ctx.getChannel().close();
+                return;
+            }
             allChannels.add(ctx.getChannel());
             NettyServerCnxn cnxn = new NettyServerCnxn(ctx.getChannel(),
                     zkServer, NettyServerCnxnFactory.this);
@@ -395,6 +395,10 @@ public class PrepRequestProcessor extends Thread implements RequestProcessor {
                 version = currentVersion + 1;
                 request.txn = new CheckVersionTxn(path, version);
                 break;
+            default:
+                // read ops only reach here when sent as part of a multi,
+                // they belong in a multiRead instead
+                throw new KeeperException.BadArgumentsException();
         }
     }
 
@@ -509,6 +513,9 @@ public class PrepRequestProcessor extends Thread implements RequestProcessor {
             case OpCode.getACL:
             case OpCode.getChildren:
             case OpCode.getChildren2:
+            case OpCode.multiRead:
+            case OpCode.getChildrenWithData:
+            case OpCode.getChildrenPage:
             case OpCode.ping:
             case OpCode.setWatches:
                 zks.sessionTracker.checkSession(request.sessionId,
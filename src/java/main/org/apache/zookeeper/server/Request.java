@@ -108,12 +108,15 @@ public class Request {
         case OpCode.getData:
         case OpCode.check:
         case OpCode.multi:
+        case OpCode.multiRead:
         case OpCode.setData:
         case OpCode.sync:
         case OpCode.getACL:
         case OpCode.setACL:
         case OpCode.getChildren:
         case OpCode.getChildren2:
+        case OpCode.getChildrenWithData:
+        case OpCode.getChildrenPage:
         case OpCode.ping:
         case OpCode.closeSession:
         case OpCode.setWatches:
@@ -130,6 +133,9 @@ public class Request {
         case OpCode.getChildren:
         case OpCode.getChildren2:
         case OpCode.getData:
+        case OpCode.multiRead:
+        case OpCode.getChildrenWithData:
+        case OpCode.getChildrenPage:
             return false;
         case OpCode.error:
         case OpCode.closeSession:
@@ -146,6 +152,26 @@ public class Request {
         }
     }
     
+    /**
+     * @return true if the type is a read that only needs the local data tree
+     *         to be answered
+     */
+    static boolean isRead(int type) {
+        switch (type) {
+        case OpCode.exists:
+        case OpCode.getACL:
+        case OpCode.getChildren:
+        case OpCode.getChildren2:
+        case OpCode.getData:
+        case OpCode.multiRead:
+        case OpCode.getChildrenWithData:
+        case OpCode.getChildrenPage:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     static String op2String(int op) {
         switch (op) {
         case OpCode.notification:
@@ -164,6 +190,12 @@ public class Request {
             return "check";
         case OpCode.multi:
             return "multi";
+        case OpCode.multiRead:
+            return "multiRead";
+        case OpCode.getChildrenWithData:
+            return "getChildrenWithData";
+        case OpCode.getChildrenPage:
+            return "getChildrenPage";
         case OpCode.setData:
             return "setData";
         case OpCode.sync:
@@ -28,6 +28,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.jute.Record;
@@ -55,6 +56,58 @@ public abstract class ServerCnxn implements Stats, Watcher {
      */
     boolean isOldClient = true;
 
+    /**
+     * Set when the client asked, during session establishment, to accept
+     * replies to read requests out of order. Replies to writes are always
+     * sent in order, and a read is never answered before a write the same
+     * client submitted earlier.
+     */
+    boolean outOfOrderReads = false;
+
+    /**
+     * @return true if replies to reads may be sent to this client out of
+     *         order
+     */
+    public boolean isOutOfOrderReads() {
+        return outOfOrderReads;
+    }
+
+    /**
+     * Requests from this connection that were submitted to the server and
+     * have not been answered yet, and how many of them are not reads.
+     */
+    private final AtomicInteger submittedRequests = new AtomicInteger();
+    private final AtomicInteger submittedWrites = new AtomicInteger();
+
+    void requestSubmitted(Request request) {
+        submittedRequests.incrementAndGet();
+        if (!Request.isRead(request.type)) {
+            submittedWrites.incrementAndGet();
+        }
+    }
+
+    void requestCompleted(Request request) {
+        submittedRequests.decrementAndGet();
+        if (!Request.isRead(request.type)) {
+            submittedWrites.decrementAndGet();
+        }
+    }
+
+    /**
+     * A read can be answered right away, without going through the request
+     * processors, if that cannot reorder it with an earlier request of this
+     * connection: there must be nothing in flight, or only other reads if
+     * the client accepts replies to reads out of order.
+     *
+     * @return true if a read submitted now may skip the queued requests
+     */
+    boolean canAnswerReadDirectly() {
+        if (outOfOrderReads) {
+            return submittedWrites.get() == 0;
+        }
+        return submittedRequests.get() == 0;
+    }
+
     abstract int getSessionTimeout();
 
     abstract void close();
@@ -44,6 +44,17 @@ public abstract class ServerCnxnFactory {
      */
     static final ByteBuffer closeConn = ByteBuffer.allocate(0);
 
+    /**
+     * Limits how fast new connections are accepted.
+     */
+    final ConnectionRateLimiter acceptRateLimiter =
+        new ConnectionRateLimiter();
+
+    /** Number of connections refused for coming in over the accept rate */
+    public long getRefusedConnectionCount() {
+        return acceptRateLimiter.getRefusedCount();
+    }
+
     public abstract int getLocalPort();
     
     public abstract Iterable<ServerCnxn> getConnections();
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import java.io.IOException;
+
+import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
+import org.apache.zookeeper.server.quorum.Leader.Proposal;
+import org.apache.zookeeper.txn.TxnHeader;
+
+/**
+ * Reads txns from the txn logs as proposals one at a time, so that a
+ * learner can be sent a diff from the logs without holding it in memory.
+ */
+public class TxnLogProposalIterator {
+    private final TxnIterator itr;
+
+    /**
+     * @param itr an iterator on the txn before the first one to return
+     */
+    TxnLogProposalIterator(TxnIterator itr) {
+        this.itr = itr;
+    }
+
+    /**
+     * read the next txn from the logs
+     * @return the next txn as a proposal, or null at the end of the logs
+     * @throws IOException if the logs can't be read
+     */
+    public Proposal next() throws IOException {
+        if (!itr.next()) {
+            return null;
+        }
+        TxnHeader hdr = itr.getHeader();
+        Proposal p = new Proposal();
+        p.packet = ZKDatabase.proposalPacket(hdr, itr.getTxn());
+        return p;
+    }
+
+    /**
+     * close the txn log files
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        itr.close();
+    }
+}
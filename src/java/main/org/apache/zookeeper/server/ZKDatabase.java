@@ -19,7 +19,10 @@
 package org.apache.zookeeper.server;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.HashSet;
@@ -29,7 +32,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.zip.Adler32;
+import java.util.zip.CheckedInputStream;
 
+import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.BinaryOutputArchive;
 import org.apache.jute.InputArchive;
 import org.apache.jute.OutputArchive;
@@ -42,8 +48,11 @@ import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.server.DataTree.ProcessTxnResult;
+import org.apache.zookeeper.server.persistence.FileHeader;
+import org.apache.zookeeper.server.persistence.FileSnap;
 import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
 import org.apache.zookeeper.server.persistence.FileTxnSnapLog.PlayBackListener;
+import org.apache.zookeeper.server.persistence.TxnLog.TxnIterator;
 import org.apache.zookeeper.server.quorum.Leader;
 import org.apache.zookeeper.server.quorum.Leader.Proposal;
 import org.apache.zookeeper.server.quorum.QuorumPacket;
@@ -68,7 +77,16 @@ public class ZKDatabase {
     protected ConcurrentHashMap<Long, Integer> sessionsWithTimeouts;
     protected FileTxnSnapLog snapLog;
     protected long minCommittedLog, maxCommittedLog;
-    public static final int commitLogCount = 500;
+    public static final int commitLogCount =
+        Integer.getInteger("zookeeper.commitLogCount", 500);
+    /**
+     * A learner too far behind for the committed log in memory is sent a
+     * diff read from the txn logs if that takes fewer bytes than this
+     * fraction of the size of the data tree, and a snapshot otherwise. A
+     * negative value always sends a snapshot.
+     */
+    public static final double snapshotSizeFactor = Double.parseDouble(
+            System.getProperty("zookeeper.snapshotSizeFactor", "0.33"));
     protected static int commitLogBuffer = 700;
     protected LinkedList<Proposal> committedLog = new LinkedList<Proposal>();
     protected ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
@@ -225,6 +243,29 @@ public class ZKDatabase {
         return zxid;
     }
     
+    /**
+     * Told of each proposal added to the committed log
+     */
+    public interface CommittedLogListener {
+        /**
+         * Called while the committed log is locked for writing, so a reader
+         * holding the read lock sees each proposal either in the committed
+         * log or through this call, never both or neither. It must not
+         * block.
+         * @param p the proposal just added
+         */
+        void proposalCommitted(Proposal p);
+    }
+
+    private volatile CommittedLogListener committedLogListener;
+
+    /**
+     * @param listener told of the proposals committed from now on, or null
+     */
+    public void setCommittedLogListener(CommittedLogListener listener) {
+        committedLogListener = listener;
+    }
+
     /**
      * maintains a list of last <i>committedLog</i>
      *  or so committed requests. This is used for
@@ -244,29 +285,101 @@ public class ZKDatabase {
                 maxCommittedLog = request.zxid;
             }
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            BinaryOutputArchive boa = BinaryOutputArchive.getArchive(baos);
-            try {
-                request.hdr.serialize(boa, "hdr");
-                if (request.txn != null) {
-                    request.txn.serialize(boa, "txn");
-                }
-                baos.close();
-            } catch (IOException e) {
-                LOG.error("This really should be impossible", e);
-            }
-            QuorumPacket pp = new QuorumPacket(Leader.PROPOSAL, request.zxid,
-                    baos.toByteArray(), null);
             Proposal p = new Proposal();
-            p.packet = pp;
+            p.packet = proposalPacket(request.hdr, request.txn);
             p.request = request;
             committedLog.add(p);
             maxCommittedLog = p.packet.getZxid();
+            CommittedLogListener listener = committedLogListener;
+            if (listener != null) {
+                listener.proposalCommitted(p);
+            }
         } finally {
             wl.unlock();
         }
     }
 
+    static QuorumPacket proposalPacket(TxnHeader hdr, Record txn) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryOutputArchive boa = BinaryOutputArchive.getArchive(baos);
+        try {
+            hdr.serialize(boa, "hdr");
+            if (txn != null) {
+                txn.serialize(boa, "txn");
+            }
+            baos.close();
+        } catch (IOException e) {
+            LOG.error("This really should be impossible", e);
+        }
+        return new QuorumPacket(Leader.PROPOSAL, hdr.getZxid(),
+                baos.toByteArray(), null);
+    }
+
+    /**
+     * open the txn logs after the given zxid, for learners that are too far
+     * behind for the committed log in memory. The logs are scanned up to
+     * lastZxid first to check that the diff isn't too large, without
+     * keeping the txns. This doesn't take the log lock, so that commits
+     * carry on while the logs are read.
+     * @param peerZxid the last zxid the learner has seen, which must still
+     * be in the txn logs
+     * @param lastZxid scan the logs up to the txn with this zxid
+     * @param sizeLimit give up if the txns up to lastZxid take more bytes
+     * than this
+     * @return an iterator over the txns after peerZxid as proposals, to be
+     * closed by the caller; null if the logs don't go back to peerZxid or
+     * reach lastZxid, the txns would take more than sizeLimit bytes or the
+     * logs can't be read
+     */
+    public TxnLogProposalIterator getProposalsFromTxnLog(long peerZxid,
+            long lastZxid, long sizeLimit) {
+        TxnIterator itr = null;
+        try {
+            itr = snapLog.readTxnLog(peerZxid);
+            TxnHeader hdr = itr.getHeader();
+            if (hdr == null || hdr.getZxid() != peerZxid) {
+                // the logs have been purged past the learner, or it has a
+                // txn that we never saw
+                return null;
+            }
+            long size = 0;
+            while (hdr.getZxid() < lastZxid) {
+                if (!itr.next()) {
+                    return null;
+                }
+                hdr = itr.getHeader();
+                size += proposalPacket(hdr, itr.getTxn()).getData().length;
+                if (size > sizeLimit) {
+                    return null;
+                }
+            }
+            itr.close();
+            itr = snapLog.readTxnLog(peerZxid);
+            TxnLogProposalIterator proposals = new TxnLogProposalIterator(itr);
+            itr = null;
+            return proposals;
+        } catch (IOException e) {
+            LOG.warn("Unable to read the txn logs from 0x"
+                    + Long.toHexString(peerZxid), e);
+            return null;
+        } finally {
+            if (itr != null) {
+                try {
+                    itr.close();
+                } catch (IOException e) {
+                    LOG.warn("Error closing txn log iterator", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an approximation of the size of the data tree in bytes
+     */
+    public long approximateDataSize() {
+        return dataTree.approximateDataSize();
+    }
+
     
     /**
      * remove a cnxn from the datatree
@@ -408,6 +521,23 @@ public class ZKDatabase {
         return dataTree.getChildren(path, stat, watcher);
     }
 
+    /**
+     * get a page of the children of this path, sorted by name
+     * @param path the path of the node
+     * @param stat the stat of the node
+     * @param watcher the watcher function for this path
+     * @param startAfter only children sorting after this name
+     * @param maxChildren at most this many children, no limit if not positive
+     * @return the sorted page of children for this path
+     * @throws KeeperException.NoNodeException
+     */
+    public List<String> getChildren(String path, Stat stat, Watcher watcher,
+            String startAfter, int maxChildren)
+    throws KeeperException.NoNodeException {
+        return dataTree.getChildren(path, stat, watcher, startAfter,
+                maxChildren);
+    }
+
     /**
      * check if the path is special or not
      * @param path the input path
@@ -460,6 +590,55 @@ public class ZKDatabase {
         SerializeUtils.serializeSnapshot(getDataTree(), oa, getSessionWithTimeOuts());
     }
 
+    /**
+     * serialize the snapshot in the format of the snapshot files
+     * @param os the stream to which the snapshot needs to be serialized
+     * @throws IOException
+     */
+    public void serializeSnapshotFile(OutputStream os) throws IOException {
+        FileSnap.serialize(getDataTree(), getSessionWithTimeOuts(), os);
+    }
+
+    /**
+     * deserialize a snapshot in the format of the snapshot files, checking
+     * its header and checksum
+     * @param is the stream holding the snapshot file
+     * @throws IOException
+     */
+    public void deserializeSnapshotFile(InputStream is) throws IOException {
+        CheckedInputStream crcIn = new CheckedInputStream(is, new Adler32());
+        InputArchive ia = BinaryInputArchive.getArchive(crcIn);
+        FileHeader header = new FileHeader();
+        header.deserialize(ia, "fileheader");
+        if (header.getMagic() != FileSnap.SNAP_MAGIC) {
+            throw new IOException("mismatching magic headers "
+                    + header.getMagic() + " !=  " + FileSnap.SNAP_MAGIC);
+        }
+        deserializeSnapshot(ia);
+        long checkSum = crcIn.getChecksum().getValue();
+        long val = ia.readLong("val");
+        if (val != checkSum) {
+            throw new IOException("CRC corruption in snapshot");
+        }
+    }
+
+    /**
+     * the most recent snapshot file that looks complete
+     * @return the snapshot file or null if there is none
+     * @throws IOException
+     */
+    public File findMostRecentSnapshot() throws IOException {
+        return snapLog.findMostRecentSnapshot();
+    }
+
+    /**
+     * the directory the snapshots are written to
+     * @return the snap dir
+     */
+    public File getSnapDir() {
+        return snapLog.getSnapDir();
+    }
+
     /**
      * append to the underlying transaction log 
      * @param si the request to append
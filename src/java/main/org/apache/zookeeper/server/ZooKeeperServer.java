@@ -31,6 +31,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.BinaryOutputArchive;
@@ -111,6 +112,8 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
     static final private long superSecret = 0XB3415C00L;
 
     int requestsInProcess;
+    /** reads answered without going through firstProcessor */
+    private final AtomicLong directReadCount = new AtomicLong();
     final List<ChangeRecord> outstandingChanges = new ArrayList<ChangeRecord>();
     // this data structure must be accessed under the outstandingChanges lock
     final HashMap<String, ChangeRecord> outstandingChangesForPath =
@@ -454,6 +457,13 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
         return requestsInProcess;
     }
 
+    /**
+     * @return the number of reads answered on the thread that submitted them
+     */
+    public long getDirectReadCount() {
+        return directReadCount.get();
+    }
+
     /**
      * This structure is used to facilitate information sharing between PrepRP
      * and FinalRP.
@@ -564,6 +574,10 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
             if (!cnxn.isOldClient) {
                 bos.writeBool(
                         this instanceof ReadOnlyZooKeeperServer, "readOnly");
+                // only clients that asked for it know to read this flag
+                if (cnxn.outOfOrderReads) {
+                    bos.writeBool(true, "outOfOrderReads");
+                }
             }
             baos.close();
             ByteBuffer bb = ByteBuffer.wrap(baos.toByteArray());
@@ -631,10 +645,26 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
             touch(si.cnxn);
             boolean validpacket = Request.isValid(si.type);
             if (validpacket) {
-                firstProcessor.processRequest(si);
+                RequestProcessor readProcessor = null;
+                if (si.cnxn != null && Request.isRead(si.type)
+                        && si.cnxn.canAnswerReadDirectly()) {
+                    readProcessor = getDirectReadProcessor();
+                }
                 if (si.cnxn != null) {
+                    si.cnxn.requestSubmitted(si);
                     incInProcess();
                 }
+                if (readProcessor != null) {
+                    directReadCount.incrementAndGet();
+                    // committed txns are applied under this lock, so the
+                    // read cannot see a change before the watch events the
+                    // change triggered have been queued
+                    synchronized (outstandingChanges) {
+                        readProcessor.processRequest(si);
+                    }
+                } else {
+                    firstProcessor.processRequest(si);
+                }
             } else {
                 LOG.warn("Dropping packet at server of type " + si.type);
                 // if invalid packet drop the packet.
@@ -646,6 +676,19 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
         }
     }
 
+    /**
+     * Servers whose request processors only hand reads over from thread to
+     * thread before answering them can instead have them answered on the
+     * thread that submits them, when that cannot reorder them with earlier
+     * requests of the same connection.
+     *
+     * @return the processor that answers such reads, or null to always go
+     *         through firstProcessor
+     */
+    protected RequestProcessor getDirectReadProcessor() {
+        return null;
+    }
+
     static public void byteBuffer2Record(ByteBuffer bb, Record record)
             throws IOException {
         BinaryInputArchive ia;
@@ -770,6 +813,9 @@ public class ZooKeeperServer implements SessionExpirer, ServerStats.Provider {
         try {
             readOnly = bia.readBool("readOnly");
             cnxn.isOldClient = false;
+            if (incomingBuffer.hasRemaining()) {
+                cnxn.outOfOrderReads = bia.readBool("outOfOrderReads");
+            }
         } catch (IOException e) {
             // this is ok -- just a packet from an old client which
             // doesn't contain readOnly field
@@ -213,6 +213,27 @@ public class FileSnap implements SnapShot {
         SerializeUtils.serializeSnapshot(dt,oa,sessions);
     }
 
+    /**
+     * serialize the datatree and sessions to a stream in the format of a
+     * snapshot file
+     * @param dt the datatree to be serialized
+     * @param sessions the sessions to be serialized
+     * @param os the stream to write to
+     * @throws IOException
+     */
+    public static void serialize(DataTree dt, Map<Long, Integer> sessions,
+            OutputStream os) throws IOException {
+        CheckedOutputStream crcOut = new CheckedOutputStream(os, new Adler32());
+        OutputArchive oa = BinaryOutputArchive.getArchive(crcOut);
+        FileHeader header = new FileHeader(SNAP_MAGIC, VERSION, dbId);
+        header.serialize(oa, "fileheader");
+        SerializeUtils.serializeSnapshot(dt, oa, sessions);
+        long val = crcOut.getChecksum().getValue();
+        oa.writeLong(val, "val");
+        oa.writeString("/", "path");
+        crcOut.flush();
+    }
+
     /**
      * serialize the datatree and session into the file snapshot
      * @param dt the datatree to be serialized
@@ -160,6 +160,18 @@ public class FileTxnSnapLog {
         return highestZxid;
     }
     
+    /**
+     * read the transaction logs from the given zxid on, for instance to
+     * send a diff to a learner
+     * @param zxid the zxid to start reading from
+     * @return an iterator positioned at the first txn with a zxid of at
+     * least the given zxid
+     * @throws IOException
+     */
+    public TxnIterator readTxnLog(long zxid) throws IOException {
+        return txnLog.read(zxid);
+    }
+
     /**
      * process the transaction on the datatree
      * @param hdr the hdr of the transaction
@@ -65,6 +65,21 @@ public class FastLeaderElection implements Election {
 
     final static int maxNotificationInterval = 60000;
 
+    /**
+     * Upper bound on the time between two notification checks when
+     * fastElection is set.
+     */
+    final static int fastMaxNotificationInterval = 2000;
+
+    /**
+     * If set (zookeeper.fastElection=true), a round ends as soon as a quorum
+     * agrees with our vote, unless a better vote is already queued, rather
+     * than after finalizeWait without a better one. The backoff between
+     * notification checks stops at fastMaxNotificationInterval, and
+     * connections to the other peers are opened in parallel.
+     */
+    final boolean fastElection = Boolean.getBoolean("zookeeper.fastElection");
+
     /**
      * Connection manager. Fast leader election uses TCP for
      * communication between peers, and QuorumCnxManager manages
@@ -434,6 +449,7 @@ public class FastLeaderElection implements Election {
     public FastLeaderElection(QuorumPeer self, QuorumCnxManager manager){
         this.stop = false;
         this.manager = manager;
+        manager.setAsyncConnect(fastElection);
         starter(self, manager);
     }
 
@@ -704,9 +720,11 @@ public class FastLeaderElection implements Election {
                     /*
                      * Exponential backoff
                      */
+                    int maxInterval = fastElection ?
+                            fastMaxNotificationInterval : maxNotificationInterval;
                     int tmpTimeOut = notTimeout*2;
-                    notTimeout = (tmpTimeOut < maxNotificationInterval?
-                            tmpTimeOut : maxNotificationInterval);
+                    notTimeout = (tmpTimeOut < maxInterval?
+                            tmpTimeOut : maxInterval);
                     LOG.info("Notification time out: " + notTimeout);
                 }
                 else if(self.getVotingView().containsKey(n.sid)) {
@@ -753,8 +771,11 @@ public class FastLeaderElection implements Election {
                                 new Vote(proposedLeader, proposedZxid,
                                         logicalclock))) {
 
-                            // Verify if there is any change in the proposed leader
-                            while((n = recvqueue.poll(finalizeWait,
+                            // Verify if there is any change in the proposed
+                            // leader. A fast election only looks at the votes
+                            // that are already in.
+                            while((n = recvqueue.poll(
+                                    fastElection ? 0 : finalizeWait,
                                     TimeUnit.MILLISECONDS)) != null){
                                 if(totalOrderPredicate(n.leader, n.zxid,
                                         proposedLeader, proposedZxid)){
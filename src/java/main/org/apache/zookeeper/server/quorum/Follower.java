@@ -21,6 +21,7 @@ package org.apache.zookeeper.server.quorum;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.Record;
@@ -107,24 +108,26 @@ public class Follower extends Learner{
     protected void processPacket(QuorumPacket qp) throws IOException{
         switch (qp.getType()) {
         case Leader.PING:            
+            if (piggybackCommits && qp.getData() != null
+                    && qp.getData().length == 8) {
+                fzk.commitUpTo(ByteBuffer.wrap(qp.getData()).getLong());
+            }
             ping(qp);            
             break;
         case Leader.PROPOSAL:            
-            TxnHeader hdr = new TxnHeader();
-            BinaryInputArchive ia = BinaryInputArchive
-            .getArchive(new ByteArrayInputStream(qp.getData()));
-            Record txn = SerializeUtils.deserializeTxn(ia, hdr);
-            if (hdr.getZxid() != lastQueued + 1) {
-                LOG.warn("Got zxid 0x"
-                        + Long.toHexString(hdr.getZxid())
-                        + " expected 0x"
-                        + Long.toHexString(lastQueued + 1));
-            }
-            lastQueued = hdr.getZxid();
-            fzk.logRequest(hdr, txn);
+            logProposal(new ByteArrayInputStream(qp.getData()));
+            break;
+        case Leader.COMMITANDPROPOSAL:
+            byte data[] = qp.getData();
+            fzk.commitUpTo(ByteBuffer.wrap(data).getLong());
+            logProposal(new ByteArrayInputStream(data, 8, data.length - 8));
             break;
         case Leader.COMMIT:
-            fzk.commit(qp.getZxid());
+            if (piggybackCommits) {
+                fzk.commitUpTo(qp.getZxid());
+            } else {
+                fzk.commit(qp.getZxid());
+            }
             break;
         case Leader.UPTODATE:
             LOG.error("Received an UPTODATE message after Follower started");
@@ -138,6 +141,21 @@ public class Follower extends Learner{
         }
     }
 
+    private void logProposal(ByteArrayInputStream txnBytes)
+            throws IOException {
+        TxnHeader hdr = new TxnHeader();
+        BinaryInputArchive ia = BinaryInputArchive.getArchive(txnBytes);
+        Record txn = SerializeUtils.deserializeTxn(ia, hdr);
+        if (hdr.getZxid() != lastQueued + 1) {
+            LOG.warn("Got zxid 0x"
+                    + Long.toHexString(hdr.getZxid())
+                    + " expected 0x"
+                    + Long.toHexString(lastQueued + 1));
+        }
+        lastQueued = hdr.getZxid();
+        fzk.logRequest(hdr, txn);
+    }
+
     /**
      * The zxid of the last operation seen
      * @return zxid
@@ -47,4 +47,8 @@ public class FollowerBean extends ZooKeeperServerBean implements FollowerMXBean
     public int getPendingRevalidationCount() {
         return follower.getPendingRevalidationsCount();
     }
+
+    public long getDirectReadCount() {
+        return zks.getDirectReadCount();
+    }
 }
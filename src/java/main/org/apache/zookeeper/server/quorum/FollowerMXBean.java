@@ -38,4 +38,10 @@ public interface FollowerMXBean extends ZooKeeperServerMXBean {
      * @return count of pending revalidations
      */
     public int getPendingRevalidationCount();
+
+    /**
+     * @return count of reads answered without going through the request
+     *         processors
+     */
+    public long getDirectReadCount();
 }
@@ -44,8 +44,18 @@ public class FollowerZooKeeperServer extends LearnerZooKeeperServer {
     private static final Logger LOG =
         LoggerFactory.getLogger(FollowerZooKeeperServer.class);
 
+    /**
+     * If true, reads from connections with nothing else in flight are
+     * answered by the thread that received them instead of being passed
+     * through the FollowerRequestProcessor and CommitProcessor threads.
+     */
+    volatile boolean directReads = System.getProperty(
+            "zookeeper.follower.directReads", "true").equals("true");
+
     CommitProcessor commitProcessor;
 
+    RequestProcessor finalProcessor;
+
     SyncRequestProcessor syncProcessor;
 
     /*
@@ -71,7 +81,7 @@ public class FollowerZooKeeperServer extends LearnerZooKeeperServer {
 
     @Override
     protected void setupRequestProcessors() {
-        RequestProcessor finalProcessor = new FinalRequestProcessor(this);
+        finalProcessor = new FinalRequestProcessor(this);
         commitProcessor = new CommitProcessor(finalProcessor,
                 Long.toString(getServerId()), true);
         commitProcessor.start();
@@ -82,6 +92,16 @@ public class FollowerZooKeeperServer extends LearnerZooKeeperServer {
         syncProcessor.start();
     }
 
+    /**
+     * Reads never leave the follower and the processors in front of the
+     * FinalRequestProcessor only pass them along, so they can be answered
+     * right away when nothing of the same connection is queued before them.
+     */
+    @Override
+    protected RequestProcessor getDirectReadProcessor() {
+        return directReads && running ? finalProcessor : null;
+    }
+
     LinkedBlockingQueue<Request> pendingTxns = new LinkedBlockingQueue<Request>();
 
     public void logRequest(TxnHeader hdr, Record txn) {
@@ -119,6 +139,18 @@ public class FollowerZooKeeperServer extends LearnerZooKeeperServer {
         commitProcessor.commit(request);
     }
     
+    /**
+     * Commit all the pending txns up to and including the given zxid. A
+     * leader that piggybacks its commits only sends the latest one.
+     * @param zxid - the last zxid to commit
+     */
+    public void commitUpTo(long zxid) {
+        Request request;
+        while ((request = pendingTxns.peek()) != null && request.zxid <= zxid) {
+            commit(request.zxid);
+        }
+    }
+
     synchronized public void sync(){
         if(pendingSyncs.size() ==0){
             LOG.warn("Not expecting a sync.");
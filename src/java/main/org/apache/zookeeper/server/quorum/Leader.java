@@ -25,16 +25,20 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.jute.BinaryOutputArchive;
 import org.slf4j.Logger;
@@ -55,11 +59,120 @@ public class Leader {
         LOG.info("TCP NoDelay set to: " + nodelay);
     }
 
+    /**
+     * How long a LearnerHandler waits for more packets before it flushes what
+     * it has written to its learner, so that the proposals and commits of
+     * concurrent writes leave in a single write. The default of 0 flushes as
+     * soon as the queue of the handler runs empty.
+     */
+    static final long batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(
+            Long.getLong("zookeeper.leader.batchWindowMicros", 0));
+    static {
+        LOG.info("Learner batch window set to: "
+                + (batchWindowNanos / 1000) + "us");
+    }
+
+    /**
+     * Learners that can read a chunked snapshot get it in chunks of this
+     * many bytes, deflated if compressSnapshots is set. If snapshotsFromDisk
+     * is set and the txn logs reach back to the last snapshot on disk, that
+     * file is sent followed by the txns since, so that the data tree isn't
+     * walked while the learner reads it.
+     */
+    static final int snapshotChunkSize = Integer.getInteger(
+            "zookeeper.leader.snapshotChunkSize", 64 * 1024);
+
+    static final boolean compressSnapshots = Boolean.getBoolean(
+            "zookeeper.leader.compressSnapshots");
+
+    static final boolean snapshotsFromDisk = System.getProperty(
+            "zookeeper.leader.snapshotsFromDisk", "true").equals("true");
+
+    /**
+     * A packet that goes out to many learners. It is serialized once when it
+     * is created, so that each LearnerHandler only has to copy the bytes to
+     * its socket. It must not be modified after it is created.
+     */
+    static class BroadcastPacket extends QuorumPacket {
+        private final byte[] serialized;
+
+        BroadcastPacket(int type, long zxid, byte[] data) {
+            super(type, zxid, data, null);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                    data == null ? 24 : data.length + 24);
+            BinaryOutputArchive boa = BinaryOutputArchive.getArchive(baos);
+            try {
+                boa.writeRecord(this, "packet");
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                        "Serializing to memory cannot fail", e);
+            }
+            serialized = baos.toByteArray();
+        }
+
+        byte[] getSerialized() {
+            return serialized;
+        }
+
+        /**
+         * The last COMMITANDPROPOSAL made of this proposal, shared by the
+         * learners that piggyback the same commit on it
+         */
+        private volatile BroadcastPacket withCommit;
+
+        /**
+         * @return this proposal with the commit of commitZxid piggybacked,
+         *         serialized once for all the learners that send the same
+         *         commit with it
+         */
+        BroadcastPacket withCommit(long commitZxid) {
+            BroadcastPacket p = withCommit;
+            if (p == null
+                    || ByteBuffer.wrap(p.getData()).getLong() != commitZxid) {
+                p = new BroadcastPacket(COMMITANDPROPOSAL, getZxid(),
+                        commitAndProposal(commitZxid, getData()));
+                withCommit = p;
+            }
+            return p;
+        }
+    }
+
+    /**
+     * @return the data of a COMMITANDPROPOSAL: the zxid of the commit
+     *         followed by the txn of the proposal
+     */
+    static byte[] commitAndProposal(long commitZxid, byte[] txn) {
+        ByteBuffer data = ByteBuffer.allocate(8 + txn.length);
+        data.putLong(commitZxid);
+        data.put(txn);
+        return data.array();
+    }
+
     static public class Proposal {
         public QuorumPacket packet;
 
+        /**
+         * Acks of servers that have no bit in ackBits. Guarded by this
+         * proposal, use Leader.addAck to add to it.
+         */
         public HashSet<Long> ackSet = new HashSet<Long>();
 
+        /**
+         * Acks of the voters, one bit per voter as numbered by the leader
+         */
+        final AtomicLong ackBits = new AtomicLong();
+
+        /**
+         * Number of acks in ackSet, so that voter acks can tell without
+         * locking that ackBits holds all the acks
+         */
+        final AtomicInteger otherAcks = new AtomicInteger();
+
+        /**
+         * Set by the ack that gives this proposal its quorum
+         */
+        final AtomicBoolean hasQuorum = new AtomicBoolean();
+
         public Request request;
 
         @Override
@@ -86,12 +199,79 @@ public class Leader {
     protected final HashSet<LearnerHandler> observingLearners =
         new HashSet<LearnerHandler>();
         
-    //Pending sync requests
-    public final HashMap<Long,List<LearnerSyncRequest>> pendingSyncs =
-        new HashMap<Long,List<LearnerSyncRequest>>();
+    //Pending sync requests, of learners and of clients of the leader
+    public final HashMap<Long,List<Request>> pendingSyncs =
+        new HashMap<Long,List<Request>>();
+
+    /**
+     * If set, syncs are answered without waiting for the outstanding
+     * proposals while this leader holds a lease (see hasLease), and syncs of
+     * clients of the leader wait for the txns committed before them to be
+     * applied, so that reads after a sync are linearizable on the leader
+     * too.
+     */
+    final boolean leaseReads = Boolean.getBoolean("zookeeper.leader.leaseReads");
+
+    // how long a ping answered by a follower holds up the lease
+    private final long leaseNanos;
+
+    // syncs answered right away thanks to the lease
+    private final AtomicLong leaseSyncCount = new AtomicLong();
     
     //Follower counter
     final AtomicLong followerCounter = new AtomicLong(-1);
+
+    // flushes of the LearnerHandlers and the packets they carried
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong batchedPackets = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+
+    /**
+     * Called by a LearnerHandler each time it flushes packets to its learner
+     *
+     * @param size the number of packets flushed
+     */
+    void recordBatch(int size) {
+        batchCount.incrementAndGet();
+        batchedPackets.addAndGet(size);
+        long max = maxBatchSize.get();
+        while (size > max && !maxBatchSize.compareAndSet(max, size)) {
+            max = maxBatchSize.get();
+        }
+    }
+
+    /**
+     * @return the average number of packets sent to a learner per flush
+     */
+    long getAvgBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : batchedPackets.get() / batches;
+    }
+
+    /**
+     * @return the largest number of packets sent to a learner in one flush
+     */
+    long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    void resetBatchStats() {
+        batchCount.set(0);
+        batchedPackets.set(0);
+        maxBatchSize.set(0);
+    }
+
+    /**
+     * Takes turns among the learners that need a snapshot
+     */
+    final LearnerSyncScheduler syncScheduler = new LearnerSyncScheduler();
+
+    /**
+     * Set once a diff from the txn logs couldn't be sent, so that learners
+     * retrying aren't sent one again
+     */
+    volatile boolean txnLogDiffFailed = false;
+
     /**
      * Adds peer to the leader.
      * 
@@ -126,8 +306,60 @@ public class Leader {
     
     ServerSocket ss;
 
+    /**
+     * The most voters that can be numbered for Proposal.ackBits
+     */
+    static final int MAX_ACK_BITS = 64;
+
+    /**
+     * The most voters for which the quorums of all the combinations of
+     * ackBits are worked out up front
+     */
+    static final int MAX_QUORUM_TABLE_BITS = 16;
+
+    /**
+     * The bit of each voter in Proposal.ackBits, null if there are too many
+     * voters. Read only once the leader is created.
+     */
+    private final HashMap<Long, Long> voterBits;
+
+    /**
+     * The voter of each bit in Proposal.ackBits
+     */
+    private final long[] bitVoters;
+
+    /**
+     * Whether each combination of ackBits is a quorum, null if there are
+     * too many voters to work them all out
+     */
+    private final boolean[] quorumTable;
+
     Leader(QuorumPeer self,LeaderZooKeeperServer zk) throws IOException {
         this.self = self;
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(
+                (long) self.tickTime * self.syncLimit / 2);
+        List<Long> voters = new ArrayList<Long>(self.getVotingView().keySet());
+        Collections.sort(voters);
+        if (voters.size() <= MAX_ACK_BITS) {
+            voterBits = new HashMap<Long, Long>();
+            bitVoters = new long[voters.size()];
+            for (int i = 0; i < voters.size(); i++) {
+                voterBits.put(voters.get(i), 1L << i);
+                bitVoters[i] = voters.get(i);
+            }
+        } else {
+            voterBits = null;
+            bitVoters = null;
+        }
+        if (voters.size() <= MAX_QUORUM_TABLE_BITS) {
+            quorumTable = new boolean[1 << voters.size()];
+            for (int bits = 0; bits < quorumTable.length; bits++) {
+                quorumTable[bits] = self.getQuorumVerifier().containsQuorum(
+                        sidsOf(bits, null));
+            }
+        } else {
+            quorumTable = null;
+        }
         try {
             ss = new ServerSocket(self.getQuorumAddress().getPort());
         } catch (BindException e) {
@@ -152,11 +384,27 @@ public class Leader {
      * This is for follower to download the snapshots
      */
     final static int SNAP = 15;
+
+    /**
+     * Flags in the data of a SNAP packet sent to a learner that can read a
+     * chunked snapshot: whether the chunks are deflated, and whether they
+     * hold a snapshot file rather than the serialized data tree
+     */
+    final static int SNAP_COMPRESSED = 0x1;
+
+    final static int SNAP_FILE = 0x2;
     
     /**
      * This tells the leader that the connecting peer is actually an observer
      */
     final static int OBSERVERINFO = 16;
+
+    /**
+     * This message type is sent by a leader to followers that asked for
+     * piggybacked commits. It commits all proposals up to the zxid in the
+     * first 8 bytes of its data and proposes the txn in the rest of it.
+     */
+    final static int COMMITANDPROPOSAL = 17;
     
     /**
      * This message type is sent by the leader to indicate it's zxid and if
@@ -281,6 +529,7 @@ public class Leader {
         try {
             self.tick = 0;
             zk.loadData();
+            syncScheduler.startup(zk.getZKDatabase().getSnapDir());
             
             long epoch = self.getLastLoggedZxid() >> 32L;
             epoch++;
@@ -308,14 +557,16 @@ public class Leader {
             // We have to get at least a majority of servers in sync with
             // us. We do this by waiting for the NEWLEADER packet to get
             // acknowledged
-            newLeaderProposal.ackSet.add(self.getId());
-            while (!self.getQuorumVerifier().containsQuorum(newLeaderProposal.ackSet)){
+            if (addAck(newLeaderProposal, self.getId())) {
+                newLeaderCommitted(newLeaderProposal.packet.getZxid());
+            }
+            while (!newLeaderProposal.hasQuorum.get()){
             //while (newLeaderProposal.ackCount <= self.quorumPeers.size() / 2) {
                 if (self.tick > self.initLimit) {
                     // Followers aren't syncing fast enough,
                     // renounce leadership!
                     StringBuilder ackToString = new StringBuilder();
-                    for(Long id : newLeaderProposal.ackSet)
+                    for(Long id : ackedSids(newLeaderProposal))
                         ackToString.append(id + ": ");
                     
                     shutdown("Waiting for a quorum of followers, only synced with: " + ackToString);
@@ -429,15 +680,15 @@ public class Leader {
 
     /**
      * Keep a count of acks that are received by the leader for a particular
-     * proposal
+     * proposal. This is called by every LearnerHandler as well as by the
+     * local AckRequestProcessor, so acks are counted without locking and
+     * only the ack that completes a quorum goes on to commit.
      * 
      * @param zxid
      *                the zxid of the proposal sent out
      * @param followerAddr
      */
-    synchronized public void processAck(long sid, long zxid, SocketAddress followerAddr) {
-        boolean first = true;
-        
+    public void processAck(long sid, long zxid, SocketAddress followerAddr) {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Ack zxid: 0x" + Long.toHexString(zxid));
             for (Proposal p : outstandingProposals.values()) {
@@ -454,63 +705,175 @@ public class Leader {
             }
             return;
         }
-        if (lastCommitted >= zxid) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("proposal has already been committed, pzxid:"
-                        + lastCommitted
-                        + " zxid: 0x" + Long.toHexString(zxid));
-            }
-            // The proposal has already been committed
-            return;
-        }
         Proposal p = outstandingProposals.get(zxid);
         if (p == null) {
+            if (lastCommitted >= zxid) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("proposal has already been committed, pzxid:"
+                            + lastCommitted
+                            + " zxid: 0x" + Long.toHexString(zxid));
+                }
+                // The proposal has already been committed
+                return;
+            }
             LOG.warn("Trying to commit future proposal: zxid 0x"
                     + Long.toHexString(zxid) + " from " + followerAddr);
             return;
         }
         
-        p.ackSet.add(sid);
+        boolean quorum = addAck(p, sid);
         if (LOG.isDebugEnabled()) {
             LOG.debug("Count for zxid: 0x" + Long.toHexString(zxid)
-                    + " is " + p.ackSet.size());
-        }
-        if (self.getQuorumVerifier().containsQuorum(p.ackSet)){             
-            if (zxid != lastCommitted+1) {
-                LOG.warn("Commiting zxid 0x" + Long.toHexString(zxid)
-                        + " from " + followerAddr + " not first!");
-                LOG.warn("First is "
-                        + (lastCommitted+1));
+                    + " is " + ackedSids(p).size());
+        }
+        if (!quorum) {
+            return;
+        }
+        // We don't commit the new leader proposal
+        if ((zxid & 0xffffffffL) == 0) {
+            newLeaderCommitted(zxid);
+            return;
+        }
+        if (zxid != lastCommitted+1 && LOG.isDebugEnabled()) {
+            LOG.debug("Quorum for zxid 0x" + Long.toHexString(zxid)
+                    + " from " + followerAddr + " before 0x"
+                    + Long.toHexString(lastCommitted+1)
+                    + ", holding it back");
+        }
+        commitInOrder();
+    }
+
+    /**
+     * Record the ack of a server for a proposal.
+     * 
+     * @return true if this ack gave the proposal its quorum, which is the
+     *         case for exactly one ack of each proposal
+     */
+    boolean addAck(Proposal p, long sid) {
+        Long bit = voterBits == null ? null : voterBits.get(sid);
+        if (bit == null) {
+            synchronized (p) {
+                if (!p.ackSet.add(sid)) {
+                    return false;
+                }
+                p.otherAcks.incrementAndGet();
             }
+        } else {
+            long bits;
+            do {
+                bits = p.ackBits.get();
+                if ((bits & bit) != 0) {
+                    // a duplicate ack
+                    return false;
+                }
+            } while (!p.ackBits.compareAndSet(bits, bits | bit));
+        }
+        // acks only ever get added, so once a quorum is seen it stays and
+        // the first ack to see it takes it
+        boolean quorum;
+        if (quorumTable != null && p.otherAcks.get() == 0) {
+            quorum = quorumTable[(int) p.ackBits.get()];
+        } else {
+            quorum = self.getQuorumVerifier().containsQuorum(ackedSids(p));
+        }
+        return quorum && p.hasQuorum.compareAndSet(false, true);
+    }
+
+    /**
+     * @return the servers that have acked the proposal so far
+     */
+    HashSet<Long> ackedSids(Proposal p) {
+        HashSet<Long> sids;
+        synchronized (p) {
+            sids = new HashSet<Long>(p.ackSet);
+        }
+        return sidsOf(p.ackBits.get(), sids);
+    }
+
+    private HashSet<Long> sidsOf(long bits, HashSet<Long> sids) {
+        if (sids == null) {
+            sids = new HashSet<Long>();
+        }
+        for (int i = 0; bits != 0; i++, bits >>>= 1) {
+            if ((bits & 1) != 0) {
+                sids.add(bitVoters[i]);
+            }
+        }
+        return sids;
+    }
+
+    /**
+     * The number of threads that want to commit proposals, the first of them
+     * commits on behalf of the others.
+     */
+    private final AtomicInteger committers = new AtomicInteger();
+
+    /**
+     * Commit the proposals that have a quorum, in zxid order. Only one
+     * thread commits at a time; any thread calling this while another one
+     * commits just makes that one look again for proposals to commit.
+     */
+    private void commitInOrder() {
+        if (committers.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (true) {
+                Proposal p = outstandingProposals.get(lastCommitted + 1);
+                if (p == null || !p.hasQuorum.get()) {
+                    break;
+                }
+                commitProposal(p);
+            }
+            missed = committers.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void commitProposal(Proposal p) {
+        long zxid = p.packet.getZxid();
+        // startForwarding and processSync must see the proposal either
+        // outstanding or committed
+        synchronized (this) {
             outstandingProposals.remove(zxid);
             if (p.request != null) {
                 toBeApplied.add(p);
+            } else {
+                LOG.warn("Going to commmit null: " + p);
             }
-            // We don't commit the new leader proposal
-            if ((zxid & 0xffffffffL) != 0) {
-                if (p.request == null) {
-                    LOG.warn("Going to commmit null: " + p);
-                }
-                commit(zxid);
-                inform(p);
-                zk.commitProcessor.commit(p.request);
-                if(pendingSyncs.containsKey(zxid)){
-                    for(LearnerSyncRequest r: pendingSyncs.remove(zxid)) {
-                        sendSync(r);
+            commit(zxid);
+            inform(p);
+            // within the lock, processLocalSync must not hand a sync to the
+            // CommitProcessor ahead of a txn that is already committed
+            zk.commitProcessor.commit(p.request);
+            // the syncs waiting for this txn are answered before the lock
+            // is released, so that processSync and processLocalSync can't
+            // answer a later sync ahead of them
+            List<Request> syncs = pendingSyncs.remove(zxid);
+            if (syncs != null) {
+                for (Request r : syncs) {
+                    if (r instanceof LearnerSyncRequest) {
+                        sendSync((LearnerSyncRequest) r);
+                    } else {
+                        zk.commitProcessor.commit(r);
                     }
                 }
-                return;
-            } else {
-                lastCommitted = zxid;
-                if(LOG.isInfoEnabled()){
-                    LOG.info("Have quorum of supporters; starting up and setting last processed zxid: " + zk.getZxid());
-                }
-                zk.startup();
-                zk.getZKDatabase().setlastProcessedZxid(zk.getZxid());
             }
         }
     }
 
+    private void newLeaderCommitted(long zxid) {
+        outstandingProposals.remove(zxid);
+        synchronized (this) {
+            lastCommitted = zxid;
+        }
+        if(LOG.isInfoEnabled()){
+            LOG.info("Have quorum of supporters; starting up and setting last processed zxid: " + zk.getZxid());
+        }
+        zk.startup();
+        zk.getZKDatabase().setlastProcessedZxid(zk.getZxid());
+    }
+
     static class ToBeAppliedRequestProcessor implements RequestProcessor {
         private RequestProcessor next;
 
@@ -590,7 +953,7 @@ public class Leader {
         }
     }
 
-    long lastCommitted = -1;
+    volatile long lastCommitted = -1;
 
     /**
      * Create a commit packet and send it to all the members of the quorum
@@ -601,7 +964,7 @@ public class Leader {
         synchronized(this){
             lastCommitted = zxid;
         }
-        QuorumPacket qp = new QuorumPacket(Leader.COMMIT, zxid, null, null);
+        QuorumPacket qp = new BroadcastPacket(Leader.COMMIT, zxid, null);
         sendPacket(qp);
     }
     
@@ -611,8 +974,8 @@ public class Leader {
      * @param proposal
      */
     public void inform(Proposal proposal) {   
-        QuorumPacket qp = new QuorumPacket(Leader.INFORM, proposal.request.zxid, 
-                                            proposal.packet.getData(), null);
+        QuorumPacket qp = new BroadcastPacket(Leader.INFORM,
+                proposal.request.zxid, proposal.packet.getData());
         sendObserverPacket(qp);
     }
 
@@ -646,8 +1009,8 @@ public class Leader {
         } catch (IOException e) {
             LOG.warn("This really should be impossible", e);
         }
-        QuorumPacket pp = new QuorumPacket(Leader.PROPOSAL, request.zxid, 
-                baos.toByteArray(), null);
+        QuorumPacket pp = new BroadcastPacket(Leader.PROPOSAL, request.zxid,
+                baos.toByteArray());
         
         Proposal p = new Proposal();
         p.packet = pp;
@@ -671,16 +1034,78 @@ public class Leader {
      */
     
     synchronized public void processSync(LearnerSyncRequest r){
-        if(outstandingProposals.isEmpty()){
+        if(syncNow()){
             sendSync(r);
         } else {
-            List<LearnerSyncRequest> l = pendingSyncs.get(lastProposed);
-            if (l == null) {
-                l = new ArrayList<LearnerSyncRequest>();
+            addPendingSync(r);
+        }
+    }
+
+    /**
+     * Process a sync of a client of the leader when leaseReads is set. The
+     * CommitProcessor holds it, and the reads after it, until it is
+     * committed here.
+     *
+     * @param r the request
+     */
+    synchronized void processLocalSync(Request r) {
+        if (syncNow()) {
+            zk.commitProcessor.commit(r);
+        } else {
+            addPendingSync(r);
+        }
+    }
+
+    /**
+     * A sync can be answered once the txns committed so far have been sent
+     * to the learner, or applied by the leader, which the order of the
+     * queues takes care of. Without a lease, it waits for the last proposal
+     * to commit, proving this is still the leader.
+     */
+    private boolean syncNow() {
+        if (leaseReads && hasLease()) {
+            leaseSyncCount.incrementAndGet();
+            return true;
+        }
+        return outstandingProposals.isEmpty();
+    }
+
+    private void addPendingSync(Request r) {
+        List<Request> l = pendingSyncs.get(lastProposed);
+        if (l == null) {
+            l = new ArrayList<Request>();
+        }
+        l.add(r);
+        pendingSyncs.put(lastProposed, l);
+    }
+
+    /**
+     * A follower only gives up on the leader after syncLimit ticks without
+     * hearing from it, and no other leader can commit anything before a
+     * quorum has. The leader holds a lease while a quorum of followers
+     * answered pings written less than half that time ago.
+     *
+     * @return true if no other leader can have committed a txn
+     */
+    boolean hasLease() {
+        long since = System.nanoTime() - leaseNanos;
+        HashSet<Long> ids = new HashSet<Long>();
+        ids.add(self.getId());
+        synchronized (forwardingFollowers) {
+            for (LearnerHandler f : forwardingFollowers) {
+                if (f.pingAnsweredSince(since)) {
+                    ids.add(f.getSid());
+                }
             }
-            l.add(r);
-            pendingSyncs.put(lastProposed, l);
         }
+        return self.getQuorumVerifier().containsQuorum(ids);
+    }
+
+    /**
+     * @return the number of syncs answered right away thanks to the lease
+     */
+    long getLeaseSyncCount() {
+        return leaseSyncCount.get();
     }
         
     /**
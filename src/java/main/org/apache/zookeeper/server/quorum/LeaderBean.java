@@ -50,4 +50,40 @@ public class LeaderBean extends ZooKeeperServerBean implements LeaderMXBean {
         return sb.toString();
     }
 
+    public long getAvgBatchSize() {
+        return leader.getAvgBatchSize();
+    }
+
+    public long getMaxBatchSize() {
+        return leader.getMaxBatchSize();
+    }
+
+    public void resetBatchStats() {
+        leader.resetBatchStats();
+    }
+
+    public int getMaxConcurrentSnapSyncs() {
+        return leader.syncScheduler.getMaxConcurrentSnapSyncs();
+    }
+
+    public int getQueuedSnapSyncs() {
+        return leader.syncScheduler.getQueuedSnapSyncs();
+    }
+
+    public int getSnapSyncsInProgress() {
+        return leader.syncScheduler.getSnapSyncsInProgress();
+    }
+
+    public long getCompletedSnapSyncs() {
+        return leader.syncScheduler.getCompletedSnapSyncs();
+    }
+
+    public long getSnapSyncBytesSent() {
+        return leader.syncScheduler.getSnapSyncBytesSent();
+    }
+
+    public long getLeaseSyncCount() {
+        return leader.getLeaseSyncCount();
+    }
+
 }
@@ -33,4 +33,50 @@ public interface LeaderMXBean extends ZooKeeperServerMXBean {
      * @return information on current followers
      */
     public String followerInfo();
+
+    /**
+     * @return average number of packets sent to a learner per flush
+     */
+    public long getAvgBatchSize();
+
+    /**
+     * @return largest number of packets sent to a learner in one flush
+     */
+    public long getMaxBatchSize();
+
+    /**
+     * Reset the batch size statistics
+     */
+    public void resetBatchStats();
+
+    /**
+     * @return the most learners sent a snapshot at a time
+     */
+    public int getMaxConcurrentSnapSyncs();
+
+    /**
+     * @return number of learners waiting for their turn to get a snapshot
+     */
+    public int getQueuedSnapSyncs();
+
+    /**
+     * @return number of learners being sent a snapshot
+     */
+    public int getSnapSyncsInProgress();
+
+    /**
+     * @return number of snapshots sent to learners
+     */
+    public long getCompletedSnapSyncs();
+
+    /**
+     * @return bytes of snapshots sent to learners in chunks
+     */
+    public long getSnapSyncBytesSent();
+
+    /**
+     * @return number of syncs answered without waiting for the outstanding
+     *         proposals, thanks to the lease
+     */
+    public long getLeaseSyncCount();
 }
@@ -24,6 +24,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -31,6 +32,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.BinaryOutputArchive;
@@ -43,6 +45,7 @@ import org.apache.zookeeper.server.Request;
 import org.apache.zookeeper.server.ServerCnxn;
 import org.apache.zookeeper.server.ZooTrace;
 import org.apache.zookeeper.server.quorum.QuorumPeer.QuorumServer;
+import org.apache.zookeeper.server.util.ChunkedInputStream;
 import org.apache.zookeeper.server.util.SerializeUtils;
 import org.apache.zookeeper.txn.TxnHeader;
 
@@ -80,6 +83,26 @@ public class Learner {
     static {
         LOG.info("TCP NoDelay set to: " + nodelay);
     }   
+
+    /**
+     * Whether a follower asks the leader to fold its commits into the
+     * proposals and pings that follow them
+     */
+    static final boolean piggybackCommitsEnabled = System.getProperty(
+            "zookeeper.piggybackCommits", "true").equals("true");
+
+    /**
+     * True if we asked the leader to piggyback its commits, in which case a
+     * commit also commits all the proposals before it
+     */
+    protected boolean piggybackCommits = false;
+
+    /**
+     * Whether a learner tells the leader it can read a snapshot sent in
+     * chunks
+     */
+    static final boolean chunkedSnapshotsEnabled = System.getProperty(
+            "zookeeper.chunkedSnapshots", "true").equals("true");
     
     final ConcurrentHashMap<Long, ServerCnxn> pendingRevalidations =
         new ConcurrentHashMap<Long, ServerCnxn>();
@@ -261,6 +284,14 @@ public class Learner {
         ByteArrayOutputStream bsid = new ByteArrayOutputStream();
         DataOutputStream dsid = new DataOutputStream(bsid);
         dsid.writeLong(self.getId());
+        // older leaders only read the sid, and for followers whether
+        // commits are piggybacked
+        piggybackCommits = pktType == Leader.FOLLOWERINFO
+                && piggybackCommitsEnabled;
+        dsid.writeBoolean(piggybackCommits);
+        dsid.writeBoolean(chunkedSnapshotsEnabled);
+        // we ignore the pings sent while we wait for our turn to be synced
+        dsid.writeBoolean(true);
         qp.setData(bsid.toByteArray());
         
         writePacket(qp, true);
@@ -285,6 +316,10 @@ public class Learner {
         QuorumPacket qp = new QuorumPacket();
         
         readPacket(qp);   
+        while (qp.getType() == Leader.PING) {
+            // keeps us from timing out while the leader has us wait
+            readPacket(qp);
+        }
         LinkedList<PacketInFlight> packetsNotCommitted = new LinkedList<PacketInFlight>();
         synchronized (zk) {
             if (qp.getType() == Leader.DIFF) {
@@ -295,11 +330,10 @@ public class Learner {
                 // The leader is going to dump the database
                 // clear our own database and read
                 zk.getZKDatabase().clear();
-                zk.getZKDatabase().deserializeSnapshot(leaderIs);
-                String signature = leaderIs.readString("signature");
-                if (!signature.equals("BenWasHere")) {
-                    LOG.error("Missing signature. Got " + signature);
-                    throw new IOException("Missing signature");                   
+                if (qp.getData() != null && qp.getData().length > 0) {
+                    readChunkedSnapshot(qp.getData()[0]);
+                } else {
+                    readSnapshot(leaderIs);
                 }
             } else if (qp.getType() == Leader.TRUNC) {
                 //we need to truncate the log to the lastzxid of the leader
@@ -379,6 +413,36 @@ public class Learner {
         }
     }
     
+    /**
+     * Reads a snapshot sent in chunks by the leader, leaving the stream from
+     * the leader just after it.
+     * @param flags the flags sent in the SNAP packet
+     */
+    private void readChunkedSnapshot(int flags) throws IOException {
+        ChunkedInputStream chunks = new ChunkedInputStream(leaderIs);
+        InputStream in = chunks;
+        if ((flags & Leader.SNAP_COMPRESSED) != 0) {
+            in = new InflaterInputStream(in);
+        }
+        in = new BufferedInputStream(in);
+        if ((flags & Leader.SNAP_FILE) != 0) {
+            LOG.info("Reading snapshot file from leader");
+            zk.getZKDatabase().deserializeSnapshotFile(in);
+        } else {
+            readSnapshot(BinaryInputArchive.getArchive(in));
+        }
+        chunks.close();
+    }
+
+    private void readSnapshot(InputArchive ia) throws IOException {
+        zk.getZKDatabase().deserializeSnapshot(ia);
+        String signature = ia.readString("signature");
+        if (!signature.equals("BenWasHere")) {
+            LOG.error("Missing signature. Got " + signature);
+            throw new IOException("Missing signature");
+        }
+    }
+
     protected void revalidate(QuorumPacket qp) throws IOException {
         ByteArrayInputStream bis = new ByteArrayInputStream(qp
                 .getData());
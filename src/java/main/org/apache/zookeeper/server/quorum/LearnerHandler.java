@@ -24,13 +24,20 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
+import java.util.zip.DeflaterOutputStream;
 
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.BinaryOutputArchive;
@@ -40,9 +47,13 @@ import org.slf4j.LoggerFactory;
 import org.apache.zookeeper.KeeperException.SessionExpiredException;
 import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.server.Request;
+import org.apache.zookeeper.server.TxnLogProposalIterator;
+import org.apache.zookeeper.server.ZKDatabase;
 import org.apache.zookeeper.server.ZooTrace;
+import org.apache.zookeeper.server.persistence.Util;
 import org.apache.zookeeper.server.quorum.Leader.Proposal;
 import org.apache.zookeeper.server.quorum.QuorumPeer.LearnerType;
+import org.apache.zookeeper.server.util.ChunkedOutputStream;
 import org.apache.zookeeper.server.util.SerializeUtils;
 import org.apache.zookeeper.txn.TxnHeader;
 
@@ -85,6 +96,55 @@ public class LearnerHandler extends Thread {
 
     private BufferedOutputStream bufferedOutput;
 
+    /**
+     * Number of flushes of the output to the learner and the packets they
+     * carried, only written by the sender thread
+     */
+    private volatile long batchCount = 0;
+
+    private volatile long batchedPackets = 0;
+
+    /**
+     * Packets written since the last flush, and when the first of them was
+     * written, only used by the sender thread
+     */
+    private int batchSize = 0;
+
+    private long batchStart = 0;
+
+    /**
+     * True if the learner asked for its commits to be piggybacked on the
+     * proposals and pings that follow them
+     */
+    private boolean piggybackCommits = false;
+
+    /**
+     * True if the learner can read a snapshot sent in chunks
+     */
+    private boolean chunkedSnapshots = false;
+
+    /**
+     * True if the learner ignores the pings sent before it is synced, so
+     * that it can be kept alive while it waits for its turn
+     */
+    private boolean pingsBeforeSync = false;
+
+    /**
+     * True while this handler holds one of the turns of the sync scheduler
+     */
+    private boolean holdsSnapSync = false;
+
+    /**
+     * The shared snapshot got from the sync scheduler, if any
+     */
+    private LearnerSyncScheduler.SharedSnapshot sharedSnap = null;
+
+    /**
+     * The txns from the txn logs to send after the DIFF packet or the
+     * snapshot file, if any
+     */
+    private TxnLogProposalIterator txnLogProposals = null;
+
     LearnerHandler(Socket sock, Leader leader) throws IOException {
         super("LearnerHandler-" + sock.getRemoteSocketAddress());
         this.sock = sock;
@@ -99,6 +159,9 @@ public class LearnerHandler extends Thread {
         sb.append(" tickOfLastAck:").append(tickOfLastAck());
         sb.append(" synced?:").append(synced());
         sb.append(" queuedPacketLength:").append(queuedPackets.size());
+        long batches = batchCount;
+        sb.append(" avgBatchSize:").append(
+                batches == 0 ? 0 : batchedPackets / batches);
         return sb.toString();
     }
 
@@ -112,6 +175,25 @@ public class LearnerHandler extends Thread {
         return learnerType;
     }
 
+    /**
+     * When each ping the learner has yet to answer was written, oldest
+     * first. Learners answer every ping they get once they are up to date.
+     */
+    private final ConcurrentLinkedQueue<Long> pingsWritten =
+        new ConcurrentLinkedQueue<Long>();
+
+    // when the last ping the learner answered was written, 0 if none
+    private volatile long lastPingAnswered;
+
+    /**
+     * @param time a System.nanoTime value
+     * @return true if the learner answered a ping written after time
+     */
+    boolean pingAnsweredSince(long time) {
+        long answered = lastPingAnswered;
+        return answered != 0 && answered - time > 0;
+    }
+
     /**
      * This method will use the thread to send packets added to the
      * queuedPackets list
@@ -119,13 +201,38 @@ public class LearnerHandler extends Thread {
      * @throws InterruptedException
      */
     private void sendPackets() throws InterruptedException {
-        long traceMask = ZooTrace.SERVER_PACKET_TRACE_MASK;
+        // the latest commit held back to go out with the next proposal or
+        // ping, -1 if none
+        long heldCommit = -1;
+        // commits are only held back once the learner is done syncing
+        boolean upToDate = false;
         while (true) {
             try {
                 QuorumPacket p;
                 p = queuedPackets.poll();
+                if (p == null && batchSize > 0 && Leader.batchWindowNanos > 0) {
+                    // give the next proposal or commit a chance to go out
+                    // in the same write
+                    long wait = batchStart + Leader.batchWindowNanos
+                        - System.nanoTime();
+                    if (wait > 0) {
+                        p = queuedPackets.poll(wait, TimeUnit.NANOSECONDS);
+                    }
+                }
                 if (p == null) {
+                    if (heldCommit != -1) {
+                        // nothing to piggyback on, send it by itself
+                        writePacket(new QuorumPacket(Leader.COMMIT,
+                                heldCommit, null, null));
+                        heldCommit = -1;
+                    }
                     bufferedOutput.flush();
+                    if (batchSize > 0) {
+                        batchCount++;
+                        batchedPackets += batchSize;
+                        leader.recordBatch(batchSize);
+                        batchSize = 0;
+                    }
                     p = queuedPackets.take();
                 }
 
@@ -133,13 +240,41 @@ public class LearnerHandler extends Thread {
                     // Packet of death!
                     break;
                 }
-                if (p.getType() == Leader.PING) {
-                    traceMask = ZooTrace.SERVER_PING_TRACE_MASK;
+                if (piggybackCommits && upToDate) {
+                    switch (p.getType()) {
+                    case Leader.COMMIT:
+                        // a commit stands for all the ones before it
+                        heldCommit = p.getZxid();
+                        continue;
+                    case Leader.PROPOSAL:
+                        if (heldCommit != -1) {
+                            p = commitAndProposal(heldCommit, p);
+                            heldCommit = -1;
+                        }
+                        break;
+                    case Leader.PING:
+                        if (heldCommit != -1) {
+                            p.setData(zxidToBytes(heldCommit));
+                            heldCommit = -1;
+                        }
+                        break;
+                    default:
+                        if (heldCommit != -1) {
+                            // a SYNC for instance must not overtake the
+                            // commits before it
+                            writePacket(new QuorumPacket(Leader.COMMIT,
+                                    heldCommit, null, null));
+                            heldCommit = -1;
+                        }
+                    }
                 }
-                if (LOG.isTraceEnabled()) {
-                    ZooTrace.logQuorumPacket(LOG, traceMask, 'o', p);
+                if (upToDate && p.getType() == Leader.PING) {
+                    pingsWritten.add(System.nanoTime());
+                }
+                writePacket(p);
+                if (p.getType() == Leader.UPTODATE) {
+                    upToDate = true;
                 }
-                oa.writeRecord(p, "packet");
             } catch (IOException e) {
                 if (!sock.isClosed()) {
                     LOG.warn("Unexpected exception at " + this, e);
@@ -157,6 +292,38 @@ public class LearnerHandler extends Thread {
         }
     }
 
+    private void writePacket(QuorumPacket p) throws IOException {
+        if (LOG.isTraceEnabled()) {
+            long traceMask = p.getType() == Leader.PING
+                ? ZooTrace.SERVER_PING_TRACE_MASK
+                : ZooTrace.SERVER_PACKET_TRACE_MASK;
+            ZooTrace.logQuorumPacket(LOG, traceMask, 'o', p);
+        }
+        if (p instanceof Leader.BroadcastPacket) {
+            // serialized once by the leader for all the learners
+            bufferedOutput.write(((Leader.BroadcastPacket) p).getSerialized());
+        } else {
+            oa.writeRecord(p, "packet");
+        }
+        if (batchSize++ == 0) {
+            batchStart = System.nanoTime();
+        }
+    }
+
+    private static QuorumPacket commitAndProposal(long commitZxid,
+            QuorumPacket proposal) {
+        if (proposal instanceof Leader.BroadcastPacket) {
+            // usually the same commit goes out with it to every follower
+            return ((Leader.BroadcastPacket) proposal).withCommit(commitZxid);
+        }
+        return new QuorumPacket(Leader.COMMITANDPROPOSAL, proposal.getZxid(),
+                Leader.commitAndProposal(commitZxid, proposal.getData()), null);
+    }
+
+    private static byte[] zxidToBytes(long zxid) {
+        return ByteBuffer.allocate(8).putLong(zxid).array();
+    }
+
     static public String packetToString(QuorumPacket p) {
         if (true)
             return null;
@@ -243,6 +410,17 @@ public class LearnerHandler extends Thread {
             if (qp.getData() != null) {
             	ByteBuffer bbsid = ByteBuffer.wrap(qp.getData());
                 this.sid = bbsid.getLong();
+                if (bbsid.hasRemaining()) {
+                    boolean piggyback = bbsid.get() != 0;
+                    piggybackCommits = piggyback
+                            && qp.getType() == Leader.FOLLOWERINFO;
+                }
+                if (bbsid.hasRemaining()) {
+                    chunkedSnapshots = bbsid.get() != 0;
+                }
+                if (bbsid.hasRemaining()) {
+                    pingsBeforeSync = bbsid.get() != 0;
+                }
             } else {
             	this.sid = leader.followerCounter.getAndDecrement();
             }
@@ -253,6 +431,19 @@ public class LearnerHandler extends Thread {
             if (qp.getType() == Leader.OBSERVERINFO) {
                   learnerType = LearnerType.OBSERVER;
             }            
+
+            /* the learner only takes the epoch from NEWLEADER, so it can
+             * be sent before the learner may have to wait for its turn to
+             * be synced
+             */
+            long newLeaderZxid;
+            synchronized (leader) {
+                newLeaderZxid = leader.lastProposed;
+            }
+            QuorumPacket newLeaderQP = new QuorumPacket(Leader.NEWLEADER,
+                    newLeaderZxid, null, null);
+            oa.writeRecord(newLeaderQP, "packet");
+            bufferedOutput.flush();
             
             long peerLastZxid = qp.getZxid();
             /* the default to send to the follower */
@@ -262,33 +453,125 @@ public class LearnerHandler extends Thread {
             /** the packets that the follower needs to get updates from **/
             long updates = peerLastZxid;
             
+            /* a learner too far behind for the proposals in memory may
+             * still be sent a diff read from the txn logs on disk. They are
+             * scanned before taking the log lock so that commits aren't
+             * held up meanwhile, and streamed to the learner after the DIFF
+             * packet.
+             */
+            ZKDatabase zkDb = leader.zk.getZKDatabase();
+            if (ZKDatabase.snapshotSizeFactor >= 0 && !leader.txnLogDiffFailed
+                    && peerLastZxid < zkDb.getminCommittedLog()) {
+                long sizeLimit = (long) (ZKDatabase.snapshotSizeFactor
+                        * zkDb.approximateDataSize());
+                txnLogProposals = zkDb.getProposalsFromTxnLog(peerLastZxid,
+                        zkDb.getmaxCommittedLog(), sizeLimit);
+            }
+            boolean sendTxnLogDiff = false;
+
+            /* a learner that will likely need a snapshot waits for its
+             * turn to be sent one, pinged every tick meanwhile. Learners
+             * that would time out waiting don't wait.
+             */
+            if (pingsBeforeSync && txnLogProposals == null
+                    && (peerLastZxid < zkDb.getminCommittedLog()
+                        || zkDb.getmaxCommittedLog() == 0)) {
+                leader.syncScheduler.beginSnapSync(leader.self.tickTime,
+                        new LearnerSyncScheduler.KeepAlive() {
+                            public void ping() throws IOException {
+                                pingBeforeSync();
+                            }
+                        });
+                holdsSnapSync = true;
+            }
+
+            /* the last snapshot on disk may be sent instead of the live
+             * data tree, followed by the txns after it.
+             */
+            File snapFile = null;
+            long snapZxid = -1;
+            if (chunkedSnapshots && Leader.snapshotsFromDisk
+                    && txnLogProposals == null && !leader.txnLogDiffFailed
+                    && peerLastZxid < zkDb.getminCommittedLog()) {
+                snapFile = zkDb.findMostRecentSnapshot();
+                if (snapFile != null) {
+                    snapZxid = Util.getZxidFromName(snapFile.getName(),
+                            "snapshot");
+                    if (snapZxid < zkDb.getminCommittedLog()) {
+                        txnLogProposals = zkDb.getProposalsFromTxnLog(
+                                snapZxid, zkDb.getmaxCommittedLog(),
+                                zkDb.approximateDataSize());
+                    }
+                }
+            }
+            boolean sendSnapFile = false;
+
+            /* or else one serialized for the learners syncing now
+             */
+            if (holdsSnapSync && chunkedSnapshots
+                    && peerLastZxid < zkDb.getminCommittedLog()
+                    && (snapFile == null
+                    || (snapZxid < zkDb.getminCommittedLog()
+                        && txnLogProposals == null))) {
+                sharedSnap = leader.syncScheduler.getSharedSnapshot(zkDb,
+                        Leader.compressSnapshots);
+            }
+            boolean sendSharedSnap = false;
+
             /* we are sending the diff check if we have proposals in memory to be able to 
              * send a diff to the 
              */ 
-            ReentrantReadWriteLock lock = leader.zk.getZKDatabase().getLogLock();
+            long txnLogEnd = 0;
+            ReentrantReadWriteLock lock = zkDb.getLogLock();
             ReadLock rl = lock.readLock();
             try {
                 rl.lock();        
-                final long maxCommittedLog = leader.zk.getZKDatabase().getmaxCommittedLog();
-                final long minCommittedLog = leader.zk.getZKDatabase().getminCommittedLog();
-                LinkedList<Proposal> proposals = leader.zk.getZKDatabase().getCommittedLog();
+                final long maxCommittedLog = zkDb.getmaxCommittedLog();
+                final long minCommittedLog = zkDb.getminCommittedLog();
+                LinkedList<Proposal> proposals = zkDb.getCommittedLog();
                 if (proposals.size() != 0) {
                     if ((maxCommittedLog >= peerLastZxid)
                             && (minCommittedLog <= peerLastZxid)) {
                         packetToSend = Leader.DIFF;
                         zxidToSend = maxCommittedLog;
-                        for (Proposal propose: proposals) {
-                            if (propose.packet.getZxid() > peerLastZxid) {
-                                queuePacket(propose.packet);
-                                QuorumPacket qcommit = new QuorumPacket(Leader.COMMIT, propose.packet.getZxid(),
-                                        null, null);
-                                queuePacket(qcommit);
-                            }
-                        }
+                        queueDiff(proposals, peerLastZxid);
                     } else if (peerLastZxid > maxCommittedLog) {
                         packetToSend = Leader.TRUNC;
                         zxidToSend = maxCommittedLog;
                         updates = zxidToSend;
+                    } else if (txnLogProposals != null && snapFile == null) {
+                        // the txns from disk up to the ones in memory are
+                        // sent before these
+                        LOG.info("Sending diff from the txn logs to learner"
+                                + " at 0x" + Long.toHexString(peerLastZxid));
+                        packetToSend = Leader.DIFF;
+                        zxidToSend = maxCommittedLog;
+                        sendTxnLogDiff = true;
+                        txnLogEnd = minCommittedLog;
+                        queueDiff(proposals, peerLastZxid);
+                    } else if (snapFile != null && snapZxid <= maxCommittedLog
+                            && (snapZxid >= minCommittedLog
+                                || txnLogProposals != null)) {
+                        LOG.info("Sending snapshot " + snapFile
+                                + " to learner at 0x"
+                                + Long.toHexString(peerLastZxid));
+                        sendSnapFile = true;
+                        zxidToSend = snapZxid;
+                        if (snapZxid < minCommittedLog) {
+                            sendTxnLogDiff = true;
+                            txnLogEnd = minCommittedLog;
+                        }
+                        queueDiff(proposals, snapZxid);
+                    } else if (sharedSnap != null
+                            && sharedSnap.zxid >= minCommittedLog
+                            && sharedSnap.zxid <= maxCommittedLog) {
+                        LOG.info("Sending shared snapshot 0x"
+                                + Long.toHexString(sharedSnap.zxid)
+                                + " to learner at 0x"
+                                + Long.toHexString(peerLastZxid));
+                        sendSharedSnap = true;
+                        zxidToSend = sharedSnap.zxid;
+                        queueDiff(proposals, sharedSnap.zxid);
                     }
                 } else {
                     // just let the state transfer happen
@@ -303,17 +586,31 @@ public class LearnerHandler extends Thread {
             } finally {
                 rl.unlock();
             }
+            if (!sendTxnLogDiff) {
+                closeTxnLog();
+            }
 
-            QuorumPacket newLeaderQP = new QuorumPacket(Leader.NEWLEADER,
-                    leaderLastZxid, null, null);
-            oa.writeRecord(newLeaderQP, "packet");
-            bufferedOutput.flush();
             //Need to set the zxidToSend to the latest zxid
+            byte[] snapFlags = null;
             if (packetToSend == Leader.SNAP) {
-                zxidToSend = leader.zk.getZKDatabase().getDataTreeLastProcessedZxid();
+                if (!sendSnapFile && !sendSharedSnap) {
+                    zxidToSend = leader.zk.getZKDatabase().getDataTreeLastProcessedZxid();
+                }
+                if (chunkedSnapshots) {
+                    int flags = sendSnapFile || sendSharedSnap
+                            ? Leader.SNAP_FILE : 0;
+                    if (sendSharedSnap ? sharedSnap.compressed
+                            : Leader.compressSnapshots) {
+                        flags |= Leader.SNAP_COMPRESSED;
+                    }
+                    snapFlags = new byte[] { (byte) flags };
+                }
             }
-            oa.writeRecord(new QuorumPacket(packetToSend, zxidToSend, null, null), "packet");
+            oa.writeRecord(new QuorumPacket(packetToSend, zxidToSend, snapFlags, null), "packet");
             bufferedOutput.flush();
+            if (sendTxnLogDiff && !sendSnapFile) {
+                sendTxnLogDiff(txnLogEnd);
+            }
             
             /* if we are not truncating or sending a diff just send a snapshot */
             if (packetToSend == Leader.SNAP) {
@@ -323,11 +620,26 @@ public class LearnerHandler extends Thread {
                         + Long.toHexString(leaderLastZxid)
                         + "sent zxid of db as 0x" 
                         + Long.toHexString(zxidToSend));
-                // Dump data to peer
-                leader.zk.getZKDatabase().serializeSnapshot(oa);
-                oa.writeString("BenWasHere", "signature");
+                if (snapFlags != null) {
+                    if (sendSnapFile) {
+                        sendChunkedSnapshot(snapFile, false, snapFlags[0]);
+                        if (sendTxnLogDiff) {
+                            sendTxnLogDiff(txnLogEnd);
+                        }
+                    } else if (sendSharedSnap) {
+                        sendChunkedSnapshot(sharedSnap.file,
+                                sharedSnap.compressed, snapFlags[0]);
+                    } else {
+                        sendChunkedSnapshot(null, false, snapFlags[0]);
+                    }
+                } else {
+                    // Dump data to peer
+                    leader.zk.getZKDatabase().serializeSnapshot(oa);
+                    oa.writeString("BenWasHere", "signature");
+                }
             }
             bufferedOutput.flush();
+            endSnapSync();
             
             // Mutation packets will be queued during the serialize,
             // so we need to mark when the peer can actually start
@@ -400,6 +712,10 @@ public class LearnerHandler extends Thread {
                     leader.processAck(this.sid, qp.getZxid(), sock.getLocalSocketAddress());
                     break;
                 case Leader.PING:
+                    Long written = pingsWritten.poll();
+                    if (written != null) {
+                        lastPingAnswered = written;
+                    }
                     // Process the touches
                     ByteArrayInputStream bis = new ByteArrayInputStream(qp
                             .getData());
@@ -481,10 +797,141 @@ public class LearnerHandler extends Thread {
             } catch (InterruptedException e) {
                 LOG.warn("Ignoring unexpected exception", e);
             }
+            endSnapSync();
+            closeTxnLog();
             shutdown();
         }
     }
 
+    /**
+     * Pings a learner waiting for its turn to be synced
+     */
+    private void pingBeforeSync() throws IOException {
+        long id;
+        synchronized(leader) {
+            id = leader.lastProposed;
+        }
+        oa.writeRecord(new QuorumPacket(Leader.PING, id, null, null),
+                "packet");
+        bufferedOutput.flush();
+    }
+
+    private void endSnapSync() {
+        if (sharedSnap != null) {
+            leader.syncScheduler.releaseSharedSnapshot(sharedSnap);
+            sharedSnap = null;
+        }
+        if (holdsSnapSync) {
+            holdsSnapSync = false;
+            leader.syncScheduler.endSnapSync();
+        }
+    }
+
+    /**
+     * Sends a snapshot to the learner in chunks, at the rate the sync
+     * scheduler allows. The snapshot file or the shared snapshot is copied
+     * from disk, otherwise the data tree is serialized as it would be
+     * straight to the learner.
+     * @param snapFile the snapshot file or shared snapshot to send, or null
+     * @param deflated whether snapFile is already deflated
+     * @param flags the flags sent in the SNAP packet
+     */
+    private void sendChunkedSnapshot(File snapFile, boolean deflated,
+            int flags) throws IOException, InterruptedException {
+        ChunkedOutputStream chunks = new ChunkedOutputStream(oa,
+                Leader.snapshotChunkSize);
+        OutputStream out = leader.syncScheduler.throttle(chunks);
+        DeflaterOutputStream deflater = null;
+        if (!deflated && (flags & Leader.SNAP_COMPRESSED) != 0) {
+            deflater = new DeflaterOutputStream(out);
+            out = deflater;
+        }
+        if (snapFile != null) {
+            InputStream in = new FileInputStream(snapFile);
+            try {
+                byte[] buf = new byte[Leader.snapshotChunkSize];
+                int len;
+                while ((len = in.read(buf)) > 0) {
+                    out.write(buf, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+        } else {
+            out = new BufferedOutputStream(out);
+            BinaryOutputArchive snapOa = BinaryOutputArchive.getArchive(out);
+            leader.zk.getZKDatabase().serializeSnapshot(snapOa);
+            snapOa.writeString("BenWasHere", "signature");
+            out.flush();
+        }
+        if (deflater != null) {
+            deflater.finish();
+        }
+        chunks.close();
+    }
+
+    /**
+     * Queue the proposals after the given zxid along with their commits
+     */
+    private void queueDiff(LinkedList<Proposal> proposals, long peerLastZxid) {
+        for (Proposal propose: proposals) {
+            if (propose.packet.getZxid() > peerLastZxid) {
+                queuePacket(propose.packet);
+                QuorumPacket qcommit = new QuorumPacket(Leader.COMMIT, propose.packet.getZxid(),
+                        null, null);
+                queuePacket(qcommit);
+            }
+        }
+    }
+
+    /**
+     * Sends the txns from the txn logs along with their commits, up to the
+     * first one in the committed log. The ones from the committed log are
+     * queued after them.
+     * @param minCommittedLog the first zxid in the committed log when the
+     * diff was queued
+     */
+    private void sendTxnLogDiff(long minCommittedLog) throws IOException {
+        long count = 0;
+        Proposal p = nextTxnLogProposal();
+        while (p != null && p.packet.getZxid() < minCommittedLog) {
+            oa.writeRecord(p.packet, "packet");
+            oa.writeRecord(new QuorumPacket(Leader.COMMIT,
+                    p.packet.getZxid(), null, null), "packet");
+            count++;
+            p = nextTxnLogProposal();
+        }
+        if (p == null || p.packet.getZxid() != minCommittedLog) {
+            leader.txnLogDiffFailed = true;
+            throw new IOException("The txn logs don't reach the committed log at 0x"
+                    + Long.toHexString(minCommittedLog));
+        }
+        bufferedOutput.flush();
+        closeTxnLog();
+        LOG.info("Sent " + count + " txns from the txn logs to learner "
+                + sid);
+    }
+
+    private Proposal nextTxnLogProposal() throws IOException {
+        try {
+            return txnLogProposals.next();
+        } catch (IOException e) {
+            leader.txnLogDiffFailed = true;
+            throw e;
+        }
+    }
+
+    private void closeTxnLog() {
+        if (txnLogProposals != null) {
+            try {
+                txnLogProposals.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing txn log iterator", e);
+            }
+            txnLogProposals = null;
+        }
+    }
+
     public void shutdown() {
         try {
             if (sock != null && !sock.isClosed()) {
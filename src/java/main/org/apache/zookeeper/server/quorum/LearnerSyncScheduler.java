@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.server.ZKDatabase;
+
+/**
+ * Schedules the snapshots the leader sends to its learners. At most
+ * maxConcurrentSnapSyncs learners are sent a snapshot at a time, the others
+ * wait for their turn. Together the snapshots are sent at no more than
+ * snapSyncBytesPerSec, and learners syncing at the same time share one
+ * snapshot serialized to a file in the snapshot directory rather than each
+ * walking the data tree.
+ */
+public class LearnerSyncScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(LearnerSyncScheduler.class);
+
+    static final int maxConcurrentSnapSyncs = Integer.getInteger(
+            "zookeeper.leader.maxConcurrentSnapSyncs", 10);
+
+    /**
+     * 0 doesn't limit the rate at which snapshots are sent
+     */
+    static final long snapSyncBytesPerSec = Long.getLong(
+            "zookeeper.leader.snapSyncBytesPerSec", 0);
+
+    /**
+     * Temporary files holding shared snapshots start with this, so that
+     * they are never taken for snapshot files
+     */
+    static final String SHARED_SNAPSHOT_PREFIX = "learnersync";
+
+    /**
+     * Keeps the connection to a learner waiting for its turn alive
+     */
+    interface KeepAlive {
+        void ping() throws IOException;
+    }
+
+    /**
+     * A snapshot serialized to a file in the format of the snapshot files,
+     * deflated if compressed is set. The data tree may already have had
+     * some of the txns after zxid applied when it was serialized.
+     */
+    static class SharedSnapshot {
+        final long zxid;
+
+        final File file;
+
+        final boolean compressed;
+
+        /**
+         * The syncs sending the snapshot, guarded by the sharedLock of the
+         * scheduler. The file is deleted once there are none and the
+         * snapshot is no longer shared.
+         */
+        int users = 0;
+
+        SharedSnapshot(long zxid, File file, boolean compressed) {
+            this.zxid = zxid;
+            this.file = file;
+            this.compressed = compressed;
+        }
+    }
+
+    private final int maxConcurrent;
+
+    private final long bytesPerSec;
+
+    private final Semaphore slots;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicInteger inProgress = new AtomicInteger();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final Object sharedLock = new Object();
+
+    /**
+     * The snapshot shared by the syncs in progress, guarded by sharedLock
+     */
+    private SharedSnapshot shared;
+
+    private final Object throttleLock = new Object();
+
+    /**
+     * When the bytes sent so far are due to have been sent at the
+     * throttled rate, guarded by throttleLock
+     */
+    private long sendDueNanos = 0;
+
+    LearnerSyncScheduler(int maxConcurrent, long bytesPerSec) {
+        this.maxConcurrent = maxConcurrent;
+        this.bytesPerSec = bytesPerSec;
+        this.slots = new Semaphore(maxConcurrent, true);
+    }
+
+    LearnerSyncScheduler() {
+        this(maxConcurrentSnapSyncs, snapSyncBytesPerSec);
+    }
+
+    /**
+     * Deletes the shared snapshots left in the snapshot directory by a
+     * leader that stopped while sending them, before any is serialized.
+     * @param snapDir the snapshot directory
+     */
+    void startup(File snapDir) {
+        File[] files = snapDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(SHARED_SNAPSHOT_PREFIX)
+                    && name.endsWith(".tmp")) {
+                if (f.delete()) {
+                    LOG.info("Deleted leftover shared snapshot " + f);
+                } else {
+                    LOG.warn("Couldn't delete leftover shared snapshot " + f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a learner's turn to be sent a snapshot. Each call must be
+     * followed by a call to {@link #endSnapSync()}.
+     */
+    void beginSnapSync() throws InterruptedException {
+        queued.incrementAndGet();
+        try {
+            slots.acquire();
+        } finally {
+            queued.decrementAndGet();
+        }
+        inProgress.incrementAndGet();
+    }
+
+    /**
+     * Waits for a learner's turn to be sent a snapshot, pinging it every
+     * pingInterval meanwhile so that it doesn't time out. If pinging fails
+     * the learner is no longer waiting and {@link #endSnapSync()} must not
+     * be called.
+     * @param pingInterval milliseconds between pings
+     * @param keepAlive pings the learner
+     */
+    void beginSnapSync(long pingInterval, KeepAlive keepAlive)
+            throws InterruptedException, IOException {
+        queued.incrementAndGet();
+        try {
+            while (!slots.tryAcquire(pingInterval, TimeUnit.MILLISECONDS)) {
+                keepAlive.ping();
+            }
+        } finally {
+            queued.decrementAndGet();
+        }
+        inProgress.incrementAndGet();
+    }
+
+    void endSnapSync() {
+        completed.incrementAndGet();
+        if (inProgress.decrementAndGet() == 0) {
+            synchronized (sharedLock) {
+                if (inProgress.get() == 0 && shared != null) {
+                    // nobody left to share it with
+                    if (shared.users == 0) {
+                        deleteSharedSnapshot(shared);
+                    }
+                    shared = null;
+                }
+            }
+        }
+        slots.release();
+    }
+
+    /**
+     * The snapshot serialized for the syncs in progress, serialized again
+     * if the committed log no longer reaches back to it. Learners that ask
+     * while it is being serialized wait for it. Each call must be followed
+     * by a call to {@link #releaseSharedSnapshot(SharedSnapshot)} once the
+     * snapshot has been sent.
+     * @param zkDb the database of the leader
+     * @param compress whether the snapshot should be deflated
+     */
+    SharedSnapshot getSharedSnapshot(ZKDatabase zkDb, boolean compress)
+            throws IOException {
+        synchronized (sharedLock) {
+            if (shared != null && shared.compressed == compress
+                    && shared.zxid >= zkDb.getminCommittedLog()) {
+                shared.users++;
+                return shared;
+            }
+            long zxid = zkDb.getDataTreeLastProcessedZxid();
+            File file = File.createTempFile(SHARED_SNAPSHOT_PREFIX, ".tmp",
+                    zkDb.getSnapDir());
+            OutputStream out = new FileOutputStream(file);
+            try {
+                DeflaterOutputStream deflater = null;
+                if (compress) {
+                    deflater = new DeflaterOutputStream(out);
+                    out = deflater;
+                }
+                out = new BufferedOutputStream(out);
+                zkDb.serializeSnapshotFile(out);
+                out.flush();
+                if (deflater != null) {
+                    deflater.finish();
+                }
+            } catch (IOException e) {
+                out.close();
+                if (!file.delete()) {
+                    LOG.warn("Couldn't delete " + file);
+                }
+                throw e;
+            }
+            out.close();
+            if (shared != null && shared.users == 0) {
+                deleteSharedSnapshot(shared);
+            }
+            shared = new SharedSnapshot(zxid, file, compress);
+            shared.users++;
+            LOG.info("Serialized snapshot 0x" + Long.toHexString(zxid)
+                    + " of " + file.length() + " bytes to " + file
+                    + " for learners");
+            return shared;
+        }
+    }
+
+    /**
+     * Tells that a snapshot got from
+     * {@link #getSharedSnapshot(ZKDatabase, boolean)} is no longer used
+     */
+    void releaseSharedSnapshot(SharedSnapshot snap) {
+        synchronized (sharedLock) {
+            snap.users--;
+            if (snap.users == 0 && snap != shared) {
+                deleteSharedSnapshot(snap);
+            }
+        }
+    }
+
+    private void deleteSharedSnapshot(SharedSnapshot snap) {
+        if (!snap.file.delete()) {
+            LOG.warn("Couldn't delete shared snapshot " + snap.file);
+        }
+    }
+
+    /**
+     * Waits until len more bytes can be sent at the throttled rate
+     */
+    void throttle(int len) throws InterruptedException {
+        bytesSent.addAndGet(len);
+        if (bytesPerSec <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (throttleLock) {
+            long now = System.nanoTime();
+            if (sendDueNanos < now) {
+                sendDueNanos = now;
+            }
+            waitNanos = sendDueNanos - now;
+            sendDueNanos += len * 1000000000L / bytesPerSec;
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        }
+    }
+
+    /**
+     * @return a stream that writes to out at the throttled rate
+     */
+    OutputStream throttle(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    throttle(len);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException(
+                            "Interrupted sending a snapshot");
+                }
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    int getMaxConcurrentSnapSyncs() {
+        return maxConcurrent;
+    }
+
+    int getQueuedSnapSyncs() {
+        return queued.get();
+    }
+
+    int getSnapSyncsInProgress() {
+        return inProgress.get();
+    }
+
+    long getCompletedSnapSyncs() {
+        return completed.get();
+    }
+
+    long getSnapSyncBytesSent() {
+        return bytesSent.get();
+    }
+}
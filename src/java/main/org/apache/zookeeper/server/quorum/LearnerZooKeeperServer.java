@@ -60,6 +60,16 @@ public abstract class LearnerZooKeeperServer extends QuorumZooKeeperServer {
         return new HashMap<Long, Integer>();
     }
     
+    /**
+     * Touches a session of an observer that relays through this server, so
+     * that the leader hears of it with our next ping
+     */
+    void touchRelayedSession(long sessionId, int sessionTimeout) {
+        if (sessionTracker != null) {
+            sessionTracker.touchSession(sessionId, sessionTimeout);
+        }
+    }
+
     /**
      * Returns the id of the associated QuorumPeer, which will do for a unique
      * id of this server. 
@@ -21,11 +21,16 @@ package org.apache.zookeeper.server.quorum;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
 
 import org.apache.jute.BinaryInputArchive;
 import org.apache.jute.Record;
+import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.server.ObserverBean;
 import org.apache.zookeeper.server.Request;
+import org.apache.zookeeper.server.quorum.QuorumPeer.QuorumServer;
 import org.apache.zookeeper.server.util.SerializeUtils;
 import org.apache.zookeeper.txn.TxnHeader;
 
@@ -40,6 +45,41 @@ import org.apache.zookeeper.txn.TxnHeader;
  */
 public class Observer extends Learner{      
 
+    /**
+     * Syncs and feeds the observers that relay through this one, while we
+     * are in sync ourselves
+     */
+    private volatile ObserverMaster observerMaster;
+
+    /**
+     * Where each sync sent to the leader came from, in the order they were
+     * sent: null for our own clients, else the observer that relayed it.
+     * The leader answers the syncs of a learner in order.
+     */
+    private final LinkedList<ObserverMaster.RelayHandler> syncOrigins =
+        new LinkedList<ObserverMaster.RelayHandler>();
+
+    /**
+     * The zxid of the last txn the leader informed us of, only used by the
+     * thread observing the leader
+     */
+    private long lastInformedZxid = 0;
+
+    /**
+     * The longest we wait before trying again to reach the observer we
+     * relay through, while we observe the leader because we couldn't
+     */
+    static final long relayRetryMaxMs = Long.getLong(
+            "zookeeper.observer.relayRetryMaxMs", 60000);
+
+    /**
+     * When to try the observer we relay through again, 0 unless we observe
+     * the leader because we couldn't reach it
+     */
+    private long relayRetryAt = 0;
+
+    private long relayRetryDelay;
+
     Observer(QuorumPeer self,ObserverZooKeeperServer observerZooKeeperServer) {
         this.self = self;
         this.zk=observerZooKeeperServer;
@@ -64,12 +104,15 @@ public class Observer extends Learner{
 
         try {
             InetSocketAddress addr = findLeader();
-            LOG.info("Observing " + addr);
             try {
-                connectToLeader(addr);
+                connectToLeaderOrRelay(addr);
                 long newLeaderZxid = registerWithLeader(Leader.OBSERVERINFO);
                 
                 syncWithLeader(newLeaderZxid);
+                if (self.getObserverRelays().containsValue(self.getId())) {
+                    observerMaster = new ObserverMaster(this, newLeaderZxid);
+                    observerMaster.start();
+                }
                 QuorumPacket qp = new QuorumPacket();
                 while (self.isRunning()) {
                     readPacket(qp);
@@ -87,9 +130,117 @@ public class Observer extends Learner{
                 pendingRevalidations.clear();
             }
         } finally {
+            if (observerMaster != null) {
+                observerMaster.shutdown();
+                observerMaster = null;
+            }
             zk.unregisterJMX(this);
         }
     }
+
+    ObserverMaster getObserverMaster() {
+        return observerMaster;
+    }
+
+    /**
+     * Connects to the observer this one is configured to relay through,
+     * or to the leader if there is none or it can't be reached.
+     */
+    private void connectToLeaderOrRelay(InetSocketAddress leaderAddr)
+            throws IOException, InterruptedException {
+        QuorumServer relay = getRelay();
+        if (relay != null) {
+            try {
+                LOG.info("Observing through observer " + relay.id + " at "
+                        + relay.addr);
+                connectToLeader(relay.addr);
+                return;
+            } catch (IOException e) {
+                LOG.warn("Couldn't reach observer " + relay.id
+                        + ", observing the leader instead", e);
+                relayRetryDelay = self.tickTime * self.syncLimit;
+                relayRetryAt = System.currentTimeMillis() + relayRetryDelay;
+            }
+        }
+        LOG.info("Observing " + leaderAddr);
+        connectToLeader(leaderAddr);
+    }
+
+    /**
+     * @return the observer this one is configured to relay through, or
+     *         null if there is none
+     */
+    private QuorumServer getRelay() {
+        Long relaySid = self.getObserverRelays().get(self.getId());
+        return relaySid == null ? null : self.getView().get(relaySid);
+    }
+
+    /**
+     * While we observe the leader because the observer we relay through
+     * couldn't be reached, checks now and then whether it can be again,
+     * waiting twice as long after each failed try. If it can, we stop
+     * observing the leader so that we observe through the relay again.
+     */
+    private void retryRelay() throws IOException {
+        if (relayRetryAt == 0 || System.currentTimeMillis() < relayRetryAt) {
+            return;
+        }
+        QuorumServer relay = getRelay();
+        if (relay == null) {
+            relayRetryAt = 0;
+            return;
+        }
+        Socket probe = new Socket();
+        try {
+            probe.connect(relay.addr, self.tickTime);
+        } catch (IOException e) {
+            relayRetryDelay = Math.min(relayRetryDelay * 2, relayRetryMaxMs);
+            relayRetryAt = System.currentTimeMillis() + relayRetryDelay;
+            return;
+        } finally {
+            probe.close();
+        }
+        throw new IOException("Observer " + relay.id
+                + " can be reached again, observing through it");
+    }
+
+    @Override
+    void request(Request request) throws IOException {
+        if (request.type == OpCode.sync) {
+            synchronized (syncOrigins) {
+                syncOrigins.add(null);
+                super.request(request);
+            }
+        } else {
+            super.request(request);
+        }
+    }
+
+    /**
+     * Sends a request from an observer that relays through this one on to
+     * the leader
+     */
+    void relayRequest(QuorumPacket qp, ObserverMaster.RelayHandler origin)
+            throws IOException {
+        // skip the session id and cxid to get to the type
+        int type = ByteBuffer.wrap(qp.getData()).getInt(12);
+        if (type == OpCode.sync) {
+            synchronized (syncOrigins) {
+                syncOrigins.add(origin);
+                writePacket(qp, true);
+            }
+        } else {
+            writePacket(qp, true);
+        }
+    }
+
+    @Override
+    protected void revalidate(QuorumPacket qp) throws IOException {
+        ObserverMaster master = observerMaster;
+        if (master == null || !master.relayRevalidation(qp)) {
+            super.revalidate(qp);
+        }
+    }
     
     /**
      * Controls the response of an observer to the receipt of a quorumpacket
@@ -100,6 +251,11 @@ public class Observer extends Learner{
         switch (qp.getType()) {
         case Leader.PING:
             ping(qp);
+            ObserverMaster master = observerMaster;
+            if (master != null) {
+                master.ping();
+            }
+            retryRelay();
             break;
         case Leader.PROPOSAL:
             LOG.warn("Ignoring proposal");
@@ -114,7 +270,21 @@ public class Observer extends Learner{
             revalidate(qp);
             break;
         case Leader.SYNC:
-            ((ObserverZooKeeperServer)zk).sync();
+            ObserverMaster.RelayHandler origin;
+            synchronized (syncOrigins) {
+                origin = syncOrigins.poll();
+            }
+            if (origin == null) {
+                ((ObserverZooKeeperServer)zk).sync();
+            } else {
+                master = observerMaster;
+                if (master != null) {
+                    // qp is reused for the next packet from the leader
+                    master.relaySync(origin, new QuorumPacket(qp.getType(),
+                            qp.getZxid(), qp.getData(), null),
+                            lastInformedZxid);
+                }
+            }
             break;
         case Leader.INFORM:            
             TxnHeader hdr = new TxnHeader();
@@ -126,6 +296,7 @@ public class Observer extends Learner{
                                            hdr.getType(), null, null);
             request.txn = txn;
             request.hdr = hdr;
+            lastInformedZxid = hdr.getZxid();
             ObserverZooKeeperServer obs = (ObserverZooKeeperServer)zk;
             obs.commitRequest(request);            
             break;
@@ -0,0 +1,433 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
+
+import org.apache.jute.BinaryInputArchive;
+import org.apache.jute.BinaryOutputArchive;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.server.ZKDatabase;
+import org.apache.zookeeper.server.quorum.Leader.BroadcastPacket;
+import org.apache.zookeeper.server.quorum.Leader.Proposal;
+
+/**
+ * Lets other observers sync from and be fed by this observer instead of the
+ * leader, so that the leader only has to send each txn to the first tier of
+ * a hierarchy of observers. An Observer starts one once it is in sync, if
+ * any observer is configured to relay through it. It listens on the quorum
+ * port of this observer, syncs the observers that connect from its
+ * committed log the way the leader would, and then sends them each txn
+ * committed here as an INFORM. Their requests, revalidations and session
+ * touches go on to the leader through this observer.
+ */
+public class ObserverMaster extends Thread
+        implements ZKDatabase.CommittedLogListener {
+    private static final Logger LOG = LoggerFactory.getLogger(ObserverMaster.class);
+
+    private final Observer observer;
+
+    private final QuorumPeer self;
+
+    /**
+     * the zxid the leader sent in its NEWLEADER, passed on to our observers
+     */
+    private final long newLeaderZxid;
+
+    private final ServerSocket ss;
+
+    /**
+     * The observers being synced or fed, guarded by itself
+     */
+    private final HashSet<RelayHandler> handlers = new HashSet<RelayHandler>();
+
+    /**
+     * Which observer is waiting to hear whether a session is still valid
+     */
+    private final ConcurrentHashMap<Long, RelayHandler> pendingRevalidations =
+        new ConcurrentHashMap<Long, RelayHandler>();
+
+    /**
+     * The zxid of the last txn sent on to our observers, guarded by
+     * handlers
+     */
+    private long lastRelayedZxid;
+
+    /**
+     * A sync answered by the leader, to be passed on once the txns the
+     * leader had informed us of before it have been
+     */
+    private static class PendingSync {
+        final long zxid;
+        final RelayHandler origin;
+        final QuorumPacket packet;
+
+        PendingSync(long zxid, RelayHandler origin, QuorumPacket packet) {
+            this.zxid = zxid;
+            this.origin = origin;
+            this.packet = packet;
+        }
+    }
+
+    /**
+     * The syncs waiting for txns to be relayed, in the order the leader
+     * answered them, guarded by handlers
+     */
+    private final LinkedList<PendingSync> pendingSyncs =
+        new LinkedList<PendingSync>();
+
+    private volatile boolean stopped = false;
+
+    ObserverMaster(Observer observer, long newLeaderZxid) throws IOException {
+        super("ObserverMaster-" + observer.self.getQuorumAddress());
+        setDaemon(true);
+        this.observer = observer;
+        this.self = observer.self;
+        this.newLeaderZxid = newLeaderZxid;
+        // we are in sync, the observers that sync from us get all of it
+        this.lastRelayedZxid =
+            observer.zk.getZKDatabase().getDataTreeLastProcessedZxid();
+        ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(new InetSocketAddress(self.getQuorumAddress().getPort()));
+    }
+
+    @Override
+    public void run() {
+        observer.zk.getZKDatabase().setCommittedLogListener(this);
+        try {
+            while (!stopped) {
+                Socket s = ss.accept();
+                s.setSoTimeout(self.tickTime * self.initLimit);
+                s.setTcpNoDelay(true);
+                new RelayHandler(s).start();
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                LOG.warn("Exception while accepting observers", e);
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Sends a txn committed here on to the observers in sync with us
+     */
+    public void proposalCommitted(Proposal p) {
+        QuorumPacket inform = new BroadcastPacket(Leader.INFORM,
+                p.packet.getZxid(), p.packet.getData());
+        synchronized (handlers) {
+            for (RelayHandler h : handlers) {
+                h.queuePacket(inform);
+            }
+            lastRelayedZxid = p.packet.getZxid();
+            while (!pendingSyncs.isEmpty()
+                    && pendingSyncs.getFirst().zxid <= lastRelayedZxid) {
+                PendingSync sync = pendingSyncs.removeFirst();
+                sync.origin.queuePacket(sync.packet);
+            }
+        }
+    }
+
+    /**
+     * Passes the answer of the leader to a sync on to the observer that
+     * asked for it, behind the txns the leader had informed us of before
+     * it, so that the observer applies those first.
+     * @param zxid the last txn the leader informed us of before the answer
+     */
+    void relaySync(RelayHandler origin, QuorumPacket qp, long zxid) {
+        synchronized (handlers) {
+            if (zxid <= lastRelayedZxid && pendingSyncs.isEmpty()) {
+                origin.queuePacket(qp);
+            } else {
+                pendingSyncs.add(new PendingSync(zxid, origin, qp));
+            }
+        }
+    }
+
+    /**
+     * Pings our observers, which answer with the sessions they have seen
+     * activity on
+     */
+    void ping() {
+        QuorumPacket ping = new QuorumPacket(Leader.PING,
+                observer.zk.getZKDatabase().getDataTreeLastProcessedZxid(),
+                null, null);
+        synchronized (handlers) {
+            for (RelayHandler h : handlers) {
+                h.queuePacket(ping);
+            }
+        }
+    }
+
+    /**
+     * Passes the answer of the leader to a revalidation on to the observer
+     * that asked for it
+     * @return false if none of our observers asked
+     */
+    boolean relayRevalidation(QuorumPacket qp) {
+        long sessionId = ByteBuffer.wrap(qp.getData()).getLong();
+        RelayHandler h = pendingRevalidations.remove(sessionId);
+        if (h == null) {
+            return false;
+        }
+        // qp is reused for the next packet from the leader
+        h.queuePacket(new QuorumPacket(qp.getType(), qp.getZxid(),
+                qp.getData(), null));
+        return true;
+    }
+
+    void shutdown() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        observer.zk.getZKDatabase().setCommittedLogListener(null);
+        try {
+            ss.close();
+        } catch (IOException e) {
+            LOG.warn("Ignoring unexpected exception during close", e);
+        }
+        synchronized (handlers) {
+            for (RelayHandler h : handlers) {
+                h.shutdown();
+            }
+            handlers.clear();
+            pendingSyncs.clear();
+        }
+    }
+
+    int getObserverCount() {
+        synchronized (handlers) {
+            return handlers.size();
+        }
+    }
+
+    /**
+     * Syncs and then feeds one of our observers
+     */
+    class RelayHandler extends Thread {
+        private final Socket sock;
+
+        private final LinkedBlockingQueue<QuorumPacket> queuedPackets =
+            new LinkedBlockingQueue<QuorumPacket>();
+
+        private final QuorumPacket packetOfDeath = new QuorumPacket();
+
+        private BinaryOutputArchive oa;
+
+        private BufferedOutputStream bufferedOutput;
+
+        private long sid = -1;
+
+        RelayHandler(Socket sock) {
+            super("RelayHandler-" + sock.getRemoteSocketAddress());
+            setDaemon(true);
+            this.sock = sock;
+        }
+
+        void queuePacket(QuorumPacket qp) {
+            queuedPackets.add(qp);
+        }
+
+        @Override
+        public void run() {
+            try {
+                BinaryInputArchive ia = BinaryInputArchive.getArchive(
+                        new BufferedInputStream(sock.getInputStream()));
+                bufferedOutput = new BufferedOutputStream(sock.getOutputStream());
+                oa = BinaryOutputArchive.getArchive(bufferedOutput);
+
+                QuorumPacket qp = new QuorumPacket();
+                ia.readRecord(qp, "packet");
+                if (qp.getType() != Leader.OBSERVERINFO) {
+                    LOG.error("First packet " + qp + " is not OBSERVERINFO");
+                    return;
+                }
+                if (qp.getData() != null) {
+                    sid = ByteBuffer.wrap(qp.getData()).getLong();
+                }
+                long peerLastZxid = qp.getZxid();
+                LOG.info("Relaying to observer " + sid + " at 0x"
+                        + Long.toHexString(peerLastZxid));
+
+                sync(peerLastZxid);
+                queuePacket(new QuorumPacket(Leader.UPTODATE, -1, null, null));
+                new Thread("RelaySender-" + sock.getRemoteSocketAddress()) {
+                    public void run() {
+                        sendPackets();
+                    }
+                }.start();
+
+                sock.setSoTimeout(self.tickTime * self.syncLimit);
+                while (!stopped) {
+                    qp = new QuorumPacket();
+                    ia.readRecord(qp, "packet");
+                    switch (qp.getType()) {
+                    case Leader.ACK:
+                        break;
+                    case Leader.PING:
+                        DataInputStream dis = new DataInputStream(
+                                new ByteArrayInputStream(qp.getData()));
+                        while (dis.available() > 0) {
+                            long sess = dis.readLong();
+                            int to = dis.readInt();
+                            observer.zk.touchRelayedSession(sess, to);
+                        }
+                        break;
+                    case Leader.REVALIDATE:
+                        long sessionId = ByteBuffer.wrap(qp.getData()).getLong();
+                        pendingRevalidations.put(sessionId, this);
+                        observer.writePacket(qp, true);
+                        break;
+                    case Leader.REQUEST:
+                        observer.relayRequest(qp, this);
+                        break;
+                    default:
+                        LOG.warn("Unexpected packet from observer " + sid
+                                + ": " + LearnerHandler.packetToString(qp));
+                    }
+                }
+            } catch (IOException e) {
+                if (!stopped && !sock.isClosed()) {
+                    LOG.warn("Exception relaying to observer " + sid, e);
+                }
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted relaying to observer " + sid, e);
+            } finally {
+                synchronized (handlers) {
+                    handlers.remove(this);
+                }
+                shutdown();
+            }
+        }
+
+        /**
+         * Sends the observer what it is missing the way the leader would,
+         * and from then on relays the txns committed here. Both happen
+         * under the committed log lock, so that no txn is missed or sent
+         * twice.
+         */
+        private void sync(long peerLastZxid)
+                throws IOException, InterruptedException {
+            ZKDatabase zkDb = observer.zk.getZKDatabase();
+            int packetToSend = Leader.SNAP;
+            long zxidToSend = 0;
+            ReadLock rl = zkDb.getLogLock().readLock();
+            rl.lock();
+            try {
+                long maxCommittedLog = zkDb.getmaxCommittedLog();
+                long minCommittedLog = zkDb.getminCommittedLog();
+                LinkedList<Proposal> proposals = zkDb.getCommittedLog();
+                if (proposals.size() != 0) {
+                    if (maxCommittedLog >= peerLastZxid
+                            && minCommittedLog <= peerLastZxid) {
+                        packetToSend = Leader.DIFF;
+                        zxidToSend = maxCommittedLog;
+                        for (Proposal p : proposals) {
+                            if (p.packet.getZxid() > peerLastZxid) {
+                                queuePacket(p.packet);
+                                queuePacket(new QuorumPacket(Leader.COMMIT,
+                                        p.packet.getZxid(), null, null));
+                            }
+                        }
+                    } else if (peerLastZxid > maxCommittedLog) {
+                        packetToSend = Leader.TRUNC;
+                        zxidToSend = maxCommittedLog;
+                    }
+                }
+                synchronized (handlers) {
+                    if (stopped) {
+                        throw new SocketException("Relay is shutting down");
+                    }
+                    handlers.add(this);
+                }
+            } finally {
+                rl.unlock();
+            }
+
+            oa.writeRecord(new QuorumPacket(Leader.NEWLEADER, newLeaderZxid,
+                    null, null), "packet");
+            if (packetToSend == Leader.SNAP) {
+                zxidToSend = zkDb.getDataTreeLastProcessedZxid();
+            }
+            oa.writeRecord(new QuorumPacket(packetToSend, zxidToSend, null,
+                    null), "packet");
+            if (packetToSend == Leader.SNAP) {
+                LOG.info("Sending snapshot 0x" + Long.toHexString(zxidToSend)
+                        + " to observer " + sid);
+                zkDb.serializeSnapshot(oa);
+                oa.writeString("BenWasHere", "signature");
+            }
+            bufferedOutput.flush();
+        }
+
+        private void sendPackets() {
+            try {
+                while (true) {
+                    QuorumPacket p = queuedPackets.poll();
+                    if (p == null) {
+                        bufferedOutput.flush();
+                        p = queuedPackets.take();
+                    }
+                    if (p == packetOfDeath) {
+                        break;
+                    }
+                    if (p instanceof BroadcastPacket) {
+                        bufferedOutput.write(((BroadcastPacket) p).getSerialized());
+                    } else {
+                        oa.writeRecord(p, "packet");
+                    }
+                }
+            } catch (IOException e) {
+                if (!sock.isClosed()) {
+                    LOG.warn("Exception sending to observer " + sid, e);
+                    shutdown();
+                }
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted sending to observer " + sid, e);
+            }
+        }
+
+        void shutdown() {
+            queuedPackets.add(packetOfDeath);
+            try {
+                sock.close();
+            } catch (IOException e) {
+                LOG.warn("Ignoring unexpected exception during close", e);
+            }
+        }
+    }
+}
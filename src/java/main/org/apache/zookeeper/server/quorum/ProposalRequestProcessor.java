@@ -20,6 +20,7 @@ package org.apache.zookeeper.server.quorum;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.server.Request;
 import org.apache.zookeeper.server.RequestProcessor;
 import org.apache.zookeeper.server.SyncRequestProcessor;
@@ -72,7 +73,10 @@ public class ProposalRequestProcessor implements RequestProcessor {
             zks.getLeader().processSync((LearnerSyncRequest)request);
         } else {
                 nextProcessor.processRequest(request);
-            if (request.hdr != null) {
+            if (request.type == OpCode.sync && zks.getLeader().leaseReads) {
+                // the CommitProcessor holds it until the leader commits it
+                zks.getLeader().processLocalSync(request);
+            } else if (request.hdr != null) {
                 // We need to sync and get consensus on any transactions
                 zks.getLeader().propose(request);
                 syncProcessor.processRequest(request);
@@ -20,6 +20,7 @@ package org.apache.zookeeper.server.quorum;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
@@ -27,10 +28,19 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.channels.UnresolvedAddressException;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -88,6 +98,28 @@ public class QuorumCnxManager {
      */
     
     private int cnxTO = 5000;
+
+    /*
+     * If set, connections to peers are opened by a thread per peer, so that
+     * a peer that doesn't answer holds up neither the caller nor the
+     * connections to the other peers for up to cnxTO each
+     */
+    private volatile boolean asyncConnect = false;
+
+    /*
+     * If set (zookeeper.quorumCnxNio), one SelectorWorker thread opens the
+     * channels to all peers and reads and writes on them, instead of a
+     * SendWorker and a RecvWorker thread per peer
+     */
+    final boolean nio;
+
+    final SelectorWorker selectorWorker;
+
+    /*
+     * Peers a connection thread is currently opening a channel to
+     */
+    private final Set<Long> connecting =
+        Collections.synchronizedSet(new HashSet<Long>());
     
     /*
      * Local IP address
@@ -98,6 +130,7 @@ public class QuorumCnxManager {
      * Mapping from Peer to Thread number
      */
     final ConcurrentHashMap<Long, SendWorker> senderWorkerMap;
+    final ConcurrentHashMap<Long, PeerChannel> peerChannelMap;
     final ConcurrentHashMap<Long, ArrayBlockingQueue<ByteBuffer>> queueSendMap;
     final ConcurrentHashMap<Long, ByteBuffer> lastMessageSent;
 
@@ -140,6 +173,7 @@ public class QuorumCnxManager {
         this.recvQueue = new ArrayBlockingQueue<Message>(RECV_CAPACITY);
         this.queueSendMap = new ConcurrentHashMap<Long, ArrayBlockingQueue<ByteBuffer>>();
         this.senderWorkerMap = new ConcurrentHashMap<Long, SendWorker>();
+        this.peerChannelMap = new ConcurrentHashMap<Long, PeerChannel>();
         this.lastMessageSent = new ConcurrentHashMap<Long, ByteBuffer>();
         
         String cnxToValue = System.getProperty("zookeeper.cnxTimeout");
@@ -149,6 +183,14 @@ public class QuorumCnxManager {
         
         this.self = self;
 
+        this.nio = Boolean.getBoolean("zookeeper.quorumCnxNio");
+        if (nio) {
+            selectorWorker = new SelectorWorker();
+            selectorWorker.start();
+        } else {
+            selectorWorker = null;
+        }
+
         // Starts listener thread that waits for connection requests 
         listener = new Listener();
     }
@@ -264,9 +306,20 @@ public class QuorumCnxManager {
              */
             LOG.debug("Create new connection to server: " + sid);
             closeSocket(sock);
-            connectOne(sid);
+            if (nio) {
+                selectorWorker.reconnect(sid);
+            } else {
+                startConnection(sid);
+            }
 
             // Otherwise start worker threads to receive data.
+        } else if (nio && sock.getChannel() != null) {
+            if (!queueSendMap.containsKey(sid)) {
+                queueSendMap.put(sid, new ArrayBlockingQueue<ByteBuffer>(
+                        SEND_CAPACITY));
+            }
+            selectorWorker.accepted(sid, sock.getChannel());
+            return true;
         } else {
             SendWorker sw = new SendWorker(sock, sid);
             RecvWorker rw = new RecvWorker(sock, sid, sw);
@@ -324,7 +377,7 @@ public class QuorumCnxManager {
                      LOG.error("No queue for server " + sid);
                  }
              }
-             connectOne(sid);
+             startConnection(sid);
                 
         }
     }
@@ -336,6 +389,55 @@ public class QuorumCnxManager {
      */
     
     synchronized void connectOne(long sid){
+        openChannel(sid);
+    }
+
+    /**
+     * Open channels one at a time with connectOne, or on a thread per peer
+     * if asyncConnect is set.
+     *
+     * @param sid   server id
+     */
+    void startConnection(final long sid) {
+        if (nio) {
+            selectorWorker.connect(sid);
+            return;
+        }
+        if (!asyncConnect) {
+            connectOne(sid);
+            return;
+        }
+        if (senderWorkerMap.get(sid) != null || !connecting.add(sid)) {
+            return;
+        }
+        Thread t = new Thread("QuorumConnectionThread-" + self.getId() + "-"
+                + sid) {
+            @Override
+            public void run() {
+                try {
+                    openChannel(sid);
+                } catch (RuntimeException e) {
+                    LOG.warn("Unexpected exception opening channel to " + sid,
+                            e);
+                } finally {
+                    connecting.remove(sid);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Open channels to several peers at once, see startConnection
+     *
+     * @param asyncConnect true to open channels on a thread per peer
+     */
+    void setAsyncConnect(boolean asyncConnect) {
+        this.asyncConnect = asyncConnect;
+    }
+
+    private void openChannel(long sid) {
         if (senderWorkerMap.get(sid) == null){
             InetSocketAddress electionAddr;
             if (self.quorumPeers.containsKey(sid)) {
@@ -385,7 +487,7 @@ public class QuorumCnxManager {
         for(Enumeration<Long> en = queueSendMap.keys();
             en.hasMoreElements();){
             sid = en.nextElement();
-            connectOne(sid);
+            startConnection(sid);
         }      
     }
     
@@ -411,6 +513,9 @@ public class QuorumCnxManager {
         shutdown = true;
         LOG.debug("Halting listener");
         listener.halt();
+        if (nio) {
+            selectorWorker.halt();
+        }
         
         softHalt();
     }
@@ -423,6 +528,9 @@ public class QuorumCnxManager {
             LOG.debug("Halting sender: " + sw);
             sw.finish();
         }
+        if (nio) {
+            selectorWorker.closeAll();
+        }
     }
 
     /**
@@ -478,7 +586,10 @@ public class QuorumCnxManager {
             int numRetries = 0;
             while((!shutdown) && (numRetries < 3)){
                 try {
-                    ss = new ServerSocket();
+                    // Sockets accepted through a channel can be handed
+                    // over to the SelectorWorker
+                    ss = nio ? ServerSocketChannel.open().socket()
+                            : new ServerSocket();
                     ss.setReuseAddress(true);
                     int port = self.quorumPeers.get(self.getId()).electionAddr
                             .getPort();
@@ -769,6 +880,401 @@ public class QuorumCnxManager {
         }
     }
 
+    /**
+     * State of a channel to a peer handled by the SelectorWorker.
+     */
+    class PeerChannel {
+        final long sid;
+        final SocketChannel channel;
+        SelectionKey key;
+        // set once the connect is done and this channel carries messages
+        boolean established = false;
+        // set if we lost the challenge: close once our id has been sent
+        boolean closeWhenSent = false;
+        // System.nanoTime() by which a pending connect must complete
+        long deadline;
+        // message to send again first, see SendWorker
+        ByteBuffer resend;
+        // bytes not yet written
+        ByteBuffer out;
+        final ByteBuffer lenBuffer = ByteBuffer.allocate(4);
+        ByteBuffer body;
+
+        PeerChannel(long sid, SocketChannel channel) {
+            this.sid = sid;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Thread that opens the channels to the peers and does all reading and
+     * writing on them through a single Selector. Used instead of the
+     * SendWorker and RecvWorker threads if zookeeper.quorumCnxNio is set, so
+     * the number of threads doesn't grow with the number of peers, and a peer
+     * that doesn't answer only holds up its own connect.
+     */
+    class SelectorWorker extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Long> toConnect =
+            new ConcurrentLinkedQueue<Long>();
+        private final ConcurrentLinkedQueue<Long> toReconnect =
+            new ConcurrentLinkedQueue<Long>();
+        private final ConcurrentLinkedQueue<PeerChannel> toRegister =
+            new ConcurrentLinkedQueue<PeerChannel>();
+        private volatile boolean closeAll = false;
+        private volatile boolean running = true;
+
+        SelectorWorker() {
+            super("QuorumCnxSelector-" + self.getId());
+            setDaemon(true);
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open selector", e);
+            }
+        }
+
+        /**
+         * Open a channel to sid unless there is one already, and send what
+         * is queued for it.
+         */
+        void connect(long sid) {
+            if (!peerChannelMap.containsKey(sid)) {
+                toConnect.add(sid);
+            }
+            selector.wakeup();
+        }
+
+        /**
+         * Close the channel to sid, if any, and open a new one.
+         */
+        void reconnect(long sid) {
+            toReconnect.add(sid);
+            selector.wakeup();
+        }
+
+        /**
+         * Take over a channel accepted by the listener, after the
+         * challenge.
+         */
+        void accepted(long sid, SocketChannel channel) {
+            toRegister.add(new PeerChannel(sid, channel));
+            selector.wakeup();
+        }
+
+        void closeAll() {
+            closeAll = true;
+            selector.wakeup();
+        }
+
+        void halt() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            threadCnt.incrementAndGet();
+            try {
+                while (running && !shutdown) {
+                    doQueued();
+                    selector.select(selectTimeout());
+                    Iterator<SelectionKey> it =
+                        selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey k = it.next();
+                        it.remove();
+                        PeerChannel pc = (PeerChannel) k.attachment();
+                        try {
+                            if (k.isValid() && k.isConnectable()) {
+                                if (pc.channel.finishConnect()) {
+                                    connected(pc);
+                                }
+                            }
+                            if (k.isValid() && k.isReadable()) {
+                                doRead(pc);
+                            }
+                            if (k.isValid() && k.isWritable()) {
+                                doWrite(pc);
+                            }
+                        } catch (IOException e) {
+                            LOG.warn("Connection broken for id " + pc.sid
+                                    + ", my id = " + self.getId()
+                                    + ", error = " + e);
+                            close(pc);
+                        }
+                    }
+                    expireConnects();
+                    sendQueued();
+                }
+            } catch (Exception e) {
+                LOG.error("Unexpected exception in selector thread", e);
+            } finally {
+                for (PeerChannel pc : peerChannelMap.values()) {
+                    close(pc);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    LOG.warn("Ignoring exception closing selector", e);
+                }
+                threadCnt.decrementAndGet();
+                LOG.info("Selector thread leaving");
+            }
+        }
+
+        private void doQueued() {
+            if (closeAll) {
+                closeAll = false;
+                for (PeerChannel pc : peerChannelMap.values()) {
+                    close(pc);
+                }
+            }
+            PeerChannel pc;
+            while ((pc = toRegister.poll()) != null) {
+                PeerChannel old = peerChannelMap.put(pc.sid, pc);
+                if (old != null) {
+                    close(old);
+                }
+                try {
+                    pc.channel.configureBlocking(false);
+                    pc.key = pc.channel.register(selector,
+                            SelectionKey.OP_READ, pc);
+                    established(pc);
+                } catch (IOException e) {
+                    LOG.warn("Unable to register channel of " + pc.sid, e);
+                    close(pc);
+                }
+            }
+            Long sid;
+            while ((sid = toReconnect.poll()) != null) {
+                PeerChannel old = peerChannelMap.get(sid);
+                if (old != null) {
+                    close(old);
+                }
+                open(sid);
+            }
+            while ((sid = toConnect.poll()) != null) {
+                open(sid);
+            }
+        }
+
+        private long selectTimeout() {
+            long timeout = 1000;
+            long now = System.nanoTime();
+            for (PeerChannel pc : peerChannelMap.values()) {
+                if (!pc.established && !pc.closeWhenSent) {
+                    timeout = Math.min(timeout,
+                            TimeUnit.NANOSECONDS.toMillis(pc.deadline - now));
+                }
+            }
+            return Math.max(timeout, 1);
+        }
+
+        private void open(long sid) {
+            if (peerChannelMap.containsKey(sid)) {
+                LOG.debug("There is a connection already for server " + sid);
+                return;
+            }
+            InetSocketAddress electionAddr;
+            if (self.quorumPeers.containsKey(sid)) {
+                electionAddr = self.quorumPeers.get(sid).electionAddr;
+            } else {
+                LOG.warn("Invalid server id: " + sid);
+                return;
+            }
+            PeerChannel pc = null;
+            try {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Opening channel to server " + sid);
+                }
+                SocketChannel channel = SocketChannel.open();
+                pc = new PeerChannel(sid, channel);
+                peerChannelMap.put(sid, pc);
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                pc.key = channel.register(selector, 0, pc);
+                pc.deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(cnxTO);
+                if (channel.connect(electionAddr)) {
+                    connected(pc);
+                } else {
+                    pc.key.interestOps(SelectionKey.OP_CONNECT);
+                }
+            } catch (UnresolvedAddressException e) {
+                LOG.warn("Cannot open channel to " + sid
+                        + " at election address " + electionAddr, e);
+                if (pc != null) {
+                    close(pc);
+                }
+            } catch (IOException e) {
+                LOG.warn("Cannot open channel to " + sid
+                        + " at election address " + electionAddr, e);
+                if (pc != null) {
+                    close(pc);
+                }
+            }
+        }
+
+        /**
+         * Sends our id and, as in initiateConnection, gives up on the
+         * channel if we lose the challenge.
+         */
+        private void connected(PeerChannel pc) throws IOException {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Connected to server " + pc.sid);
+            }
+            pc.out = ByteBuffer.allocate(8);
+            pc.out.putLong(self.getId());
+            pc.out.flip();
+            if (pc.sid > self.getId()) {
+                LOG.info("Have smaller server identifier, so dropping the " +
+                         "connection: (" + pc.sid + ", " + self.getId() + ")");
+                pc.closeWhenSent = true;
+                pc.key.interestOps(0);
+            } else {
+                pc.key.interestOps(SelectionKey.OP_READ);
+                established(pc);
+            }
+            doWrite(pc);
+        }
+
+        private void established(PeerChannel pc) {
+            pc.established = true;
+            ArrayBlockingQueue<ByteBuffer> bq = queueSendMap.get(pc.sid);
+            if (bq == null || isSendQueueEmpty(bq)) {
+                pc.resend = lastMessageSent.get(pc.sid);
+            }
+        }
+
+        private void expireConnects() {
+            long now = System.nanoTime();
+            for (PeerChannel pc : peerChannelMap.values()) {
+                if (!pc.established && !pc.closeWhenSent
+                        && now - pc.deadline >= 0) {
+                    LOG.warn("Cannot open channel to " + pc.sid
+                            + ": connect timed out after " + cnxTO + "ms");
+                    close(pc);
+                }
+            }
+        }
+
+        private void sendQueued() {
+            for (PeerChannel pc : peerChannelMap.values()) {
+                if (pc.established && pc.out == null) {
+                    try {
+                        doWrite(pc);
+                    } catch (IOException e) {
+                        LOG.warn("Exception when using channel: for id "
+                                + pc.sid + " my id = " + self.getId()
+                                + " error = " + e);
+                        close(pc);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes until the socket is full or there is nothing left to send.
+         */
+        private void doWrite(PeerChannel pc) throws IOException {
+            while (true) {
+                if (pc.out == null) {
+                    if (pc.closeWhenSent) {
+                        close(pc);
+                        return;
+                    }
+                    pc.out = nextMessage(pc);
+                    if (pc.out == null) {
+                        pc.key.interestOps(pc.key.interestOps()
+                                & ~SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                pc.channel.write(pc.out);
+                if (pc.out.hasRemaining()) {
+                    pc.key.interestOps(pc.key.interestOps()
+                            | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pc.out = null;
+            }
+        }
+
+        private ByteBuffer nextMessage(PeerChannel pc) {
+            if (!pc.established) {
+                return null;
+            }
+            ByteBuffer b = pc.resend;
+            pc.resend = null;
+            if (b == null) {
+                ArrayBlockingQueue<ByteBuffer> bq = queueSendMap.get(pc.sid);
+                if (bq == null) {
+                    return null;
+                }
+                b = bq.poll();
+                if (b == null) {
+                    return null;
+                }
+                lastMessageSent.put(pc.sid, b);
+            }
+            ByteBuffer frame = ByteBuffer.allocate(4 + b.capacity());
+            frame.putInt(b.capacity());
+            frame.put(b.array(), 0, b.capacity());
+            frame.flip();
+            return frame;
+        }
+
+        /**
+         * Reads whatever is available, queueing each complete message.
+         */
+        private void doRead(PeerChannel pc) throws IOException {
+            while (true) {
+                if (pc.body == null) {
+                    if (pc.channel.read(pc.lenBuffer) < 0) {
+                        throw new EOFException("Channel closed by peer");
+                    }
+                    if (pc.lenBuffer.hasRemaining()) {
+                        return;
+                    }
+                    pc.lenBuffer.flip();
+                    int length = pc.lenBuffer.getInt();
+                    pc.lenBuffer.clear();
+                    if (length <= 0 || length > PACKETMAXSIZE) {
+                        throw new IOException(
+                                "Received packet with invalid packet: "
+                                        + length);
+                    }
+                    pc.body = ByteBuffer.allocate(length);
+                }
+                if (pc.channel.read(pc.body) < 0) {
+                    throw new EOFException("Channel closed by peer");
+                }
+                if (pc.body.hasRemaining()) {
+                    return;
+                }
+                pc.body.flip();
+                addToRecvQueue(new Message(pc.body.duplicate(), pc.sid));
+                pc.body = null;
+            }
+        }
+
+        private void close(PeerChannel pc) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Closing channel to " + pc.sid);
+            }
+            peerChannelMap.remove(pc.sid, pc);
+            if (pc.key != null) {
+                pc.key.cancel();
+            }
+            try {
+                pc.channel.close();
+            } catch (IOException e) {
+                LOG.warn("Ignoring exception closing channel to " + pc.sid, e);
+            }
+        }
+    }
+
     /**
      * Inserts an element in the specified queue. If the Queue is full, this
      * method removes an element from the head of the Queue and then inserts
@@ -171,6 +171,12 @@ public class QuorumPeer extends Thread implements QuorumStats.Provider {
      * The servers that make up the cluster
      */
     protected Map<Long, QuorumServer> quorumPeers;
+
+    /**
+     * The observer each observer syncs from and is fed by instead of the
+     * leader, keyed by the sid of the observer
+     */
+    protected Map<Long, Long> observerRelays = new HashMap<Long, Long>();
     public int getQuorumSize(){
         return getVotingView().size();
     }
@@ -966,6 +972,14 @@ public class QuorumPeer extends Thread implements QuorumStats.Provider {
         this.quorumPeers = quorumPeers;
     }
 
+    public Map<Long, Long> getObserverRelays() {
+        return observerRelays;
+    }
+
+    public void setObserverRelays(Map<Long, Long> observerRelays) {
+        this.observerRelays = observerRelays;
+    }
+
     public int getClientPort() {
         return cnxnFactory.getLocalPort();
     }
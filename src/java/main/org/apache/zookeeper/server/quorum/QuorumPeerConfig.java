@@ -27,6 +27,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Map.Entry;
@@ -68,6 +69,7 @@ public class QuorumPeerConfig {
     protected HashMap<Long, Long> serverWeight = new HashMap<Long, Long>();
     protected HashMap<Long, Long> serverGroup = new HashMap<Long, Long>();
     protected int numGroups = 0;
+    protected HashMap<Long, Long> observerRelays = new HashMap<Long, Long>();
     protected QuorumVerifier quorumVerifier;
 
     protected LearnerType peerType = LearnerType.PARTICIPANT;
@@ -211,6 +213,10 @@ public class QuorumPeerConfig {
                 int dot = key.indexOf('.');
                 long sid = Long.parseLong(key.substring(dot + 1));
                 serverWeight.put(sid, Long.parseLong(value));
+            } else if (key.startsWith("relay.")) {
+                int dot = key.indexOf('.');
+                long sid = Long.parseLong(key.substring(dot + 1));
+                observerRelays.put(sid, Long.parseLong(value));
             } else {
                 System.setProperty("zookeeper." + key, value);
             }
@@ -314,6 +320,27 @@ public class QuorumPeerConfig {
                 quorumVerifier = new QuorumMaj(servers.size());
             }
 
+            /*
+             * Observers may only relay through other observers, without
+             * going round in circles
+             */
+            for (Entry<Long, Long> relay : observerRelays.entrySet()) {
+                long sid = relay.getKey();
+                if (!observers.containsKey(sid)
+                        || !observers.containsKey(relay.getValue())) {
+                    throw new ConfigException("Server " + sid
+                            + " can only relay through an observer if both"
+                            + " are observers");
+                }
+                HashSet<Long> seen = new HashSet<Long>();
+                for (Long s = sid; s != null; s = observerRelays.get(s)) {
+                    if (!seen.add(s)) {
+                        throw new ConfigException("Observer " + sid
+                                + " relays through itself");
+                    }
+                }
+            }
+
             // Now add observers to servers, once the quorums have been
             // figured out
             servers.putAll(observers);
@@ -374,6 +401,10 @@ public class QuorumPeerConfig {
 
     public long getServerId() { return serverId; }
 
+    public Map<Long, Long> getObserverRelays() {
+        return Collections.unmodifiableMap(observerRelays);
+    }
+
     public boolean isDistributed() { return servers.size() > 1; }
 
     public LearnerType getPeerType() {
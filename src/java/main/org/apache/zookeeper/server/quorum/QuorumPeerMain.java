@@ -129,6 +129,7 @@ public class QuorumPeerMain {
                       new File(config.getDataLogDir()),
                       new File(config.getDataDir())));
           quorumPeer.setQuorumPeers(config.getServers());
+          quorumPeer.setObserverRelays(config.getObserverRelays());
           quorumPeer.setElectionType(config.getElectionAlg());
           quorumPeer.setMyid(config.getServerId());
           quorumPeer.setTickTime(config.getTickTime());
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.jute.InputArchive;
+
+/**
+ * Reads a stream written by {@link ChunkedOutputStream}. Reaching the end
+ * of the stream never reads past the empty buffer that ends it, so the
+ * archive can be used again afterwards.
+ */
+public class ChunkedInputStream extends InputStream {
+    private final InputArchive ia;
+
+    private byte[] chunk = new byte[0];
+
+    private int pos = 0;
+
+    private boolean eof = false;
+
+    public ChunkedInputStream(InputArchive ia) {
+        this.ia = ia;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - pos;
+    }
+
+    /**
+     * Skips whatever is left of the stream, up to and including the empty
+     * buffer that ends it. The archive itself is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        while (fill()) {
+            pos = chunk.length;
+        }
+    }
+
+    /**
+     * @return false once the end of the stream has been read
+     */
+    private boolean fill() throws IOException {
+        while (pos == chunk.length) {
+            if (eof) {
+                return false;
+            }
+            chunk = ia.readBuffer("chunk");
+            pos = 0;
+            if (chunk == null || chunk.length == 0) {
+                chunk = new byte[0];
+                eof = true;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.jute.OutputArchive;
+
+/**
+ * Writes a stream to an archive as a series of buffers of at most chunkSize
+ * bytes, ended by an empty buffer. The reader can then tell where the
+ * stream ends without knowing its length up front. See
+ * {@link ChunkedInputStream}.
+ */
+public class ChunkedOutputStream extends OutputStream {
+    private final OutputArchive oa;
+
+    private final byte[] chunk;
+
+    private int count = 0;
+
+    private boolean closed = false;
+
+    public ChunkedOutputStream(OutputArchive oa, int chunkSize) {
+        this.oa = oa;
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == chunk.length) {
+            writeChunk();
+        }
+        chunk[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == chunk.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, chunk.length - count);
+            System.arraycopy(b, off, chunk, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Doesn't write a partial chunk, the bytes are held back until the
+     * chunk is full or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+    }
+
+    /**
+     * Writes what is left and the empty buffer that ends the stream. The
+     * archive itself is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (count > 0) {
+            writeChunk();
+        }
+        oa.writeBuffer(new byte[0], "chunk");
+    }
+
+    private void writeChunk() throws IOException {
+        if (count == chunk.length) {
+            oa.writeBuffer(chunk, "chunk");
+        } else {
+            byte[] last = new byte[count];
+            System.arraycopy(chunk, 0, last, 0, count);
+            oa.writeBuffer(last, "chunk");
+        }
+        count = 0;
+    }
+}
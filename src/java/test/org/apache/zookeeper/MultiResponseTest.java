@@ -27,6 +27,7 @@ import org.junit.Test;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class MultiResponseTest extends TestCase {
     public void testRoundTrip() throws IOException {
@@ -47,6 +48,24 @@ public class MultiResponseTest extends TestCase {
         assertEquals(response.hashCode(), decodedResponse.hashCode());
     }
 
+    @Test
+    public void testReadRoundTrip() throws IOException {
+        MultiResponse response = new MultiResponse();
+
+        Stat s = new Stat();
+        s.setMzxid(321);
+        response.add(new OpResult.GetDataResult("data".getBytes(), s));
+        response.add(new OpResult.GetChildrenResult(Arrays.asList("a", "b")));
+        response.add(new OpResult.ExistsResult(s));
+        response.add(new OpResult.ErrorResult(
+                KeeperException.Code.NONODE.intValue()));
+
+        MultiResponse decodedResponse = codeDecode(response);
+
+        assertEquals(response, decodedResponse);
+        assertEquals(response.hashCode(), decodedResponse.hashCode());
+    }
+
     @Test
     public void testEmptyRoundTrip() throws IOException {
         MultiResponse result = new MultiResponse();
@@ -25,6 +25,19 @@ public class MultiTransactionRecordTest extends TestCase {
         assertEquals(request.hashCode(), decodedRequest.hashCode());
     }
 
+    @Test
+    public void testReadRoundTrip() throws IOException {
+        MultiTransactionRecord request = new MultiTransactionRecord();
+        request.add(Op.getData("getData"));
+        request.add(Op.getChildren("getChildren"));
+        request.add(Op.exists("exists"));
+
+        MultiTransactionRecord decodedRequest = codeDecode(request);
+
+        assertEquals(request, decodedRequest);
+        assertEquals(request.hashCode(), decodedRequest.hashCode());
+    }
+
     @Test
     public void testEmptyRoundTrip() throws IOException {
         MultiTransactionRecord request = new MultiTransactionRecord();
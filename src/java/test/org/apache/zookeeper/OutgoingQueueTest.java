@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.zookeeper.ClientCnxn.OutgoingQueue;
+import org.apache.zookeeper.ClientCnxn.Packet;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.proto.RequestHeader;
+import org.junit.Test;
+
+public class OutgoingQueueTest extends ZKTestCase {
+    private static Packet packet(int type) {
+        Packet p = new Packet(new RequestHeader(0, type), null, null, null,
+                null);
+        p.needsXid = true;
+        return p;
+    }
+
+    @Test
+    public void testKeepsPacketsBeforeClose() {
+        OutgoingQueue queue = new OutgoingQueue();
+        Packet before = packet(OpCode.getData);
+        Packet close = packet(OpCode.closeSession);
+        queue.add(before);
+        queue.add(close);
+        assertFalse(queue.removeIfAfter(before, close));
+        assertSame(before, queue.peek());
+        assertSame(before, queue.remove());
+        assertSame(close, queue.peek());
+    }
+
+    @Test
+    public void testRemovesPacketsAfterClose() {
+        OutgoingQueue queue = new OutgoingQueue();
+        Packet close = packet(OpCode.closeSession);
+        Packet after = packet(OpCode.getData);
+        queue.add(close);
+        queue.add(after);
+        assertTrue(queue.removeIfAfter(after, close));
+        assertSame(close, queue.remove());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRemovesPacketsAfterSentClose() {
+        OutgoingQueue queue = new OutgoingQueue();
+        Packet close = packet(OpCode.closeSession);
+        queue.add(close);
+        assertSame(close, queue.peek());
+        assertSame(close, queue.remove());
+        Packet after = packet(OpCode.getData);
+        queue.add(after);
+        assertTrue(queue.removeIfAfter(after, close));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testXidsInQueueOrder() {
+        OutgoingQueue queue = new OutgoingQueue();
+        Packet first = packet(OpCode.getData);
+        Packet second = packet(OpCode.closeSession);
+        queue.add(first);
+        queue.add(second);
+        int xid = queue.peek().requestHeader.getXid();
+        queue.remove();
+        assertTrue(queue.peek().requestHeader.getXid() > xid);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ReconnectBackoffTest extends ZKTestCase {
+    private static final Logger LOG =
+        LoggerFactory.getLogger(ReconnectBackoffTest.class);
+
+    @Test
+    public void testFirstDelayFromBase() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1000,
+                new Random());
+        for (int i = 0; i < 1000; i++) {
+            long delay = backoff.nextDelay();
+            assertTrue(delay >= 100 && delay < 300);
+            backoff.reset();
+        }
+    }
+
+    @Test
+    public void testDelaysGrowWithinBounds() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1000,
+                new Random());
+        long first = 0;
+        long tenth = 0;
+        for (int run = 0; run < 1000; run++) {
+            backoff.reset();
+            long previous = 100;
+            for (int i = 0; i < 10; i++) {
+                long delay = backoff.nextDelay();
+                assertTrue(delay >= 100);
+                assertTrue(delay <= Math.min(1000, previous * 3));
+                previous = delay;
+                if (i == 0) {
+                    first += delay;
+                } else if (i == 9) {
+                    tenth += delay;
+                }
+            }
+        }
+        // about 200ms on average, and close to the maximum
+        assertTrue(first + " " + tenth, tenth > 3 * first);
+    }
+
+    @Test
+    public void testDefaultDelaysUpToASecond() {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        for (int i = 0; i < 1000; i++) {
+            long delay = backoff.nextDelay();
+            assertTrue(delay >= 100 && delay <= 1000);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new ReconnectBackoff(1000, 100, new Random());
+    }
+
+    /**
+     * Simulates 10000 clients losing their server at once. The server comes
+     * back right away but accepts only 1000 connections a second. Clients
+     * retrying every second hammer it with many more attempts than clients
+     * backing off from a second up to ten seconds.
+     */
+    @Test
+    public void testStorm() {
+        long[] fixed = storm(false);
+        long[] backingOff = storm(true);
+        LOG.info("Retrying every second: " + fixed[0] + " attempts, all"
+                + " connected after " + fixed[1] + "ms");
+        LOG.info("Backing off: " + backingOff[0] + " attempts, all"
+                + " connected after " + backingOff[1] + "ms");
+        assertTrue(backingOff[0] * 3 < fixed[0] * 2);
+        assertTrue(backingOff[1] < fixed[1] * 2);
+    }
+
+    /**
+     * @return the number of attempts, and when the last client connected
+     */
+    private long[] storm(boolean backOff) {
+        final int clients = 10000;
+        final int acceptPerSecond = 1000;
+        Random random = new Random(1);
+        ReconnectBackoff[] backoffs = new ReconnectBackoff[clients];
+        int max = backOff ? 10000 : 1000;
+        // attempts ordered by time, as time * clients + client
+        PriorityQueue<Long> attempts = new PriorityQueue<Long>();
+        for (int client = 0; client < clients; client++) {
+            backoffs[client] = new ReconnectBackoff(1000, max, random);
+            attempts.add(backoffs[client].nextDelay() * clients + client);
+        }
+        long count = 0;
+        long second = -1;
+        int accepted = 0;
+        long last = 0;
+        while (!attempts.isEmpty()) {
+            long attempt = attempts.poll();
+            long time = attempt / clients;
+            int client = (int) (attempt % clients);
+            count++;
+            if (time / 1000 != second) {
+                second = time / 1000;
+                accepted = 0;
+            }
+            if (accepted < acceptPerSecond) {
+                accepted++;
+                last = time;
+                continue;
+            }
+            attempts.add((time + backoffs[client].nextDelay()) * clients
+                    + client);
+        }
+        return new long[] { count, last };
+    }
+}
@@ -84,4 +84,12 @@ public class TestableZooKeeper extends ZooKeeper {
     public SocketAddress testableRemoteSocketAddress() {
         return super.testableRemoteSocketAddress();
     }
+
+    /**
+     * @return true if the server agreed to answer reads out of order on the
+     *         current connection
+     */
+    public boolean testableOutOfOrderReads() {
+        return cnxn.isOutOfOrderReads();
+    }
 }
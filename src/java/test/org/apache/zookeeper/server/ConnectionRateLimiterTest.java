@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.Test;
+
+public class ConnectionRateLimiterTest extends ZKTestCase {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void testUnlimited() {
+        ConnectionRateLimiter limiter = new ConnectionRateLimiter(0, 0);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(limiter.tryAcquire(0));
+        }
+        assertEquals(0, limiter.getRefusedCount());
+    }
+
+    @Test
+    public void testBurstThenRate() {
+        ConnectionRateLimiter limiter = new ConnectionRateLimiter(10, 5);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire(now));
+        }
+        assertFalse(limiter.tryAcquire(now));
+        assertFalse(limiter.tryAcquire(now + SECOND / 20));
+        assertTrue(limiter.tryAcquire(now + SECOND / 10));
+        assertFalse(limiter.tryAcquire(now + SECOND / 10));
+        assertEquals(3, limiter.getRefusedCount());
+
+        // a long pause refills up to the burst only
+        now += 10 * SECOND;
+        int accepted = 0;
+        while (limiter.tryAcquire(now)) {
+            accepted++;
+        }
+        assertEquals(5, accepted);
+    }
+
+    @Test
+    public void testBurstDefaultsToRate() {
+        ConnectionRateLimiter limiter = new ConnectionRateLimiter(20, 0);
+        long now = System.nanoTime();
+        int accepted = 0;
+        while (limiter.tryAcquire(now)) {
+            accepted++;
+        }
+        assertEquals(20, accepted);
+
+        // over ten seconds, 200 more
+        accepted = 0;
+        for (int ms = 1; ms <= 10000; ms++) {
+            while (limiter.tryAcquire(now + ms * (SECOND / 1000))) {
+                accepted++;
+            }
+        }
+        assertEquals(200, accepted, 1);
+    }
+}
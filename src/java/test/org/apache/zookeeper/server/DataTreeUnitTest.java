@@ -18,6 +18,8 @@
 
 package org.apache.zookeeper.server;
 
+import java.util.Arrays;
+
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZKTestCase;
@@ -57,4 +59,28 @@ public class DataTreeUnitTest extends ZKTestCase {
         Assert.assertFalse("Root node watch not triggered",!watcher.fired);
     }
 
+    @Test
+    public void testChildrenPage() throws Exception {
+        dt.createNode("/p", new byte[0], null, 0, 1, 1);
+        dt.createNode("/p/c", new byte[0], null, 0, 2, 1);
+        dt.createNode("/p/a", new byte[0], null, 0, 3, 1);
+        dt.createNode("/p/b", new byte[0], null, 0, 4, 1);
+
+        Assert.assertEquals(Arrays.asList("a", "b"),
+                dt.getChildren("/p", null, null, null, 2));
+        Assert.assertEquals(Arrays.asList("c"),
+                dt.getChildren("/p", null, null, "b", 2));
+        Assert.assertEquals(Arrays.asList("b", "c"),
+                dt.getChildren("/p", null, null, "a0", 0));
+
+        // the sorted index has been built, it must follow later changes
+        dt.deleteNode("/p/b", 5);
+        dt.createNode("/p/d", new byte[0], null, 0, 6, 1);
+        Assert.assertEquals(Arrays.asList("c", "d"),
+                dt.getChildren("/p", null, null, "a", 0));
+        Assert.assertTrue(dt.getChildren("/p", null, null, "d", 0).isEmpty());
+        Assert.assertTrue(dt.getChildren("/p/a", null, null, null, 0)
+                .isEmpty());
+    }
+
 }
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.apache.jute.BinaryInputArchive;
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.zookeeper.ZKTestCase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BroadcastPacketTest extends ZKTestCase {
+    private byte[] serialize(QuorumPacket qp) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BinaryOutputArchive.getArchive(baos).writeRecord(qp, "packet");
+        return baos.toByteArray();
+    }
+
+    private void check(Leader.BroadcastPacket bp) throws Exception {
+        QuorumPacket qp = new QuorumPacket(bp.getType(), bp.getZxid(),
+                bp.getData(), null);
+        Assert.assertArrayEquals(serialize(qp), bp.getSerialized());
+
+        QuorumPacket read = new QuorumPacket();
+        BinaryInputArchive.getArchive(
+                new ByteArrayInputStream(bp.getSerialized()))
+                .readRecord(read, "packet");
+        Assert.assertEquals(bp.getType(), read.getType());
+        Assert.assertEquals(bp.getZxid(), read.getZxid());
+        Assert.assertArrayEquals(bp.getData(), read.getData());
+    }
+
+    @Test
+    public void testSerializedOnce() throws Exception {
+        check(new Leader.BroadcastPacket(Leader.PROPOSAL, 0x100000001L,
+                "txn".getBytes()));
+        check(new Leader.BroadcastPacket(Leader.COMMIT, 0x100000001L, null));
+        check(new Leader.BroadcastPacket(Leader.INFORM, 0x100000002L,
+                new byte[0]));
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import static org.apache.zookeeper.test.ClientBase.CONNECTION_TIMEOUT;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads on a follower from connections with nothing else in flight are
+ * answered directly, without losing the ordering guarantees.
+ */
+public class FollowerDirectReadTest extends QuorumPeerTestBase {
+    protected static final Logger LOG =
+        LoggerFactory.getLogger(FollowerDirectReadTest.class);
+
+    private static final int SERVER_COUNT = 3;
+
+    private MainThread q[];
+    private int clientPorts[];
+    private int followerIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        clientPorts = new int[SERVER_COUNT];
+        q = startQuorum(clientPorts);
+        followerIndex = -1;
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            if (q[i].main.quorumPeer.follower != null) {
+                followerIndex = i;
+                break;
+            }
+        }
+        Assert.assertTrue("no follower", followerIndex >= 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            q[i].shutdown();
+        }
+    }
+
+    private FollowerZooKeeperServer getFollowerServer() {
+        return (FollowerZooKeeperServer)
+            q[followerIndex].main.quorumPeer.getActiveServer();
+    }
+
+    private ZooKeeper connectToFollower() throws Exception {
+        return connect(clientPorts[followerIndex]);
+    }
+
+    /**
+     * Reads on an idle connection are answered directly, and reads queued
+     * behind writes of the same session still see those writes.
+     */
+    @Test
+    public void testReadsSeeOwnWrites() throws Exception {
+        FollowerZooKeeperServer fzk = getFollowerServer();
+        ZooKeeper zk = connectToFollower();
+        try {
+            zk.create("/direct", "0".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            long before = fzk.getDirectReadCount();
+            for (int i = 0; i < 10; i++) {
+                Assert.assertNotNull(zk.exists("/direct", false));
+            }
+            Assert.assertEquals("idle reads are answered directly",
+                    before + 10, fzk.getDirectReadCount());
+
+            final int count = 200;
+            final AtomicInteger stale = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                final int version = i + 1;
+                zk.setData("/direct", Integer.toString(version).getBytes(),
+                        -1, new StatCallback() {
+                    public void processResult(int rc, String path,
+                            Object ctx, Stat stat) {
+                    }
+                }, null);
+                zk.getData("/direct", false, new DataCallback() {
+                    public void processResult(int rc, String path,
+                            Object ctx, byte[] data, Stat stat) {
+                        if (rc != 0 || stat.getVersion() < version) {
+                            stale.incrementAndGet();
+                        }
+                        done.countDown();
+                    }
+                }, null);
+            }
+            Assert.assertTrue(done.await(CONNECTION_TIMEOUT,
+                    TimeUnit.MILLISECONDS));
+            Assert.assertEquals("reads must see the writes before them",
+                    0, stale.get());
+        } finally {
+            zk.close();
+        }
+    }
+
+    /**
+     * Measures read latency on a follower that is busy applying writes,
+     * with and without direct reads.
+     */
+    @Test
+    public void testReadLatencyUnderLoad() throws Exception {
+        FollowerZooKeeperServer fzk = getFollowerServer();
+        ZooKeeper reader = connectToFollower();
+        ZooKeeper writer = connectToFollower();
+        try {
+            reader.create("/latency", new byte[100], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            WriteLoad load = new WriteLoad(writer, "/latency");
+            load.start();
+            try {
+                fzk.directReads = false;
+                long queued = p99ReadLatency(reader, 2000);
+                fzk.directReads = true;
+                long before = fzk.getDirectReadCount();
+                long direct = p99ReadLatency(reader, 2000);
+                Assert.assertTrue(fzk.getDirectReadCount() > before);
+                LOG.info("p99 read latency on a loaded follower: "
+                        + queued / 1000 + "us through the processors, "
+                        + direct / 1000 + "us direct");
+            } finally {
+                load.shutdown();
+            }
+        } finally {
+            writer.close();
+            reader.close();
+        }
+    }
+
+    private long p99ReadLatency(ZooKeeper zk, int count) throws Exception {
+        long latencies[] = new long[count];
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            zk.getData("/latency", false, null);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies[count * 99 / 100];
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.server.ZKDatabase;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LearnerSyncSchedulerTest extends ZKTestCase {
+    @Test
+    public void testConcurrentSyncs() throws Exception {
+        final LearnerSyncScheduler scheduler = new LearnerSyncScheduler(1, 0);
+        scheduler.beginSnapSync();
+        Assert.assertEquals(1, scheduler.getSnapSyncsInProgress());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    scheduler.beginSnapSync();
+                    started.countDown();
+                    scheduler.endSnapSync();
+                } catch (InterruptedException e) {
+                    // the test fails
+                }
+            }
+        };
+        waiter.start();
+        long end = System.currentTimeMillis() + 10000;
+        while (scheduler.getQueuedSnapSyncs() == 0
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, scheduler.getQueuedSnapSyncs());
+        Assert.assertFalse(started.await(100, TimeUnit.MILLISECONDS));
+
+        scheduler.endSnapSync();
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        waiter.join(10000);
+        Assert.assertEquals(0, scheduler.getQueuedSnapSyncs());
+        Assert.assertEquals(0, scheduler.getSnapSyncsInProgress());
+        Assert.assertEquals(2, scheduler.getCompletedSnapSyncs());
+    }
+
+    @Test
+    public void testThrottle() throws Exception {
+        LearnerSyncScheduler scheduler = new LearnerSyncScheduler(1, 100000);
+        OutputStream out = scheduler.throttle(new ByteArrayOutputStream());
+        long start = System.nanoTime();
+        byte[] chunk = new byte[10000];
+        for (int i = 0; i < 6; i++) {
+            out.write(chunk);
+        }
+        // the first chunk goes at once, the other five take 100ms each
+        Assert.assertTrue(System.nanoTime() - start
+                >= TimeUnit.MILLISECONDS.toNanos(450));
+        Assert.assertEquals(60000, scheduler.getSnapSyncBytesSent());
+    }
+
+    @Test
+    public void testPingWhileQueued() throws Exception {
+        final LearnerSyncScheduler scheduler = new LearnerSyncScheduler(1, 0);
+        scheduler.beginSnapSync();
+
+        final AtomicInteger pings = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Throwable> error =
+            new AtomicReference<Throwable>();
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    scheduler.beginSnapSync(10,
+                            new LearnerSyncScheduler.KeepAlive() {
+                                public void ping() {
+                                    pings.incrementAndGet();
+                                }
+                            });
+                    started.countDown();
+                    scheduler.endSnapSync();
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        };
+        waiter.start();
+        long end = System.currentTimeMillis() + 10000;
+        while (pings.get() < 3 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(pings.get() >= 3);
+        Assert.assertEquals(1, scheduler.getQueuedSnapSyncs());
+
+        scheduler.endSnapSync();
+        waiter.join(10000);
+        Assert.assertNull(error.get());
+        Assert.assertEquals(0, started.getCount());
+        Assert.assertEquals(0, scheduler.getSnapSyncsInProgress());
+
+        // a learner that can't be pinged no longer waits
+        scheduler.beginSnapSync();
+        try {
+            scheduler.beginSnapSync(10, new LearnerSyncScheduler.KeepAlive() {
+                public void ping() throws IOException {
+                    throw new IOException("learner went away");
+                }
+            });
+            Assert.fail("Should have failed to ping");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(0, scheduler.getQueuedSnapSyncs());
+        Assert.assertEquals(1, scheduler.getSnapSyncsInProgress());
+        scheduler.endSnapSync();
+    }
+
+    @Test
+    public void testSharedSnapshot() throws Exception {
+        File tmpDir = ClientBase.createTmpDir();
+        ZKDatabase zkDb = new ZKDatabase(new FileTxnSnapLog(tmpDir, tmpDir));
+        zkDb.getDataTree().createNode("/shared", "data".getBytes(),
+                Ids.OPEN_ACL_UNSAFE, 0, 1, 1);
+        zkDb.setlastProcessedZxid(1);
+
+        LearnerSyncScheduler scheduler = new LearnerSyncScheduler(2, 0);
+        scheduler.beginSnapSync();
+        scheduler.beginSnapSync();
+        LearnerSyncScheduler.SharedSnapshot snap =
+            scheduler.getSharedSnapshot(zkDb, true);
+        Assert.assertEquals(1, snap.zxid);
+        Assert.assertEquals(zkDb.getSnapDir(), snap.file.getParentFile());
+        Assert.assertNull(zkDb.findMostRecentSnapshot());
+        Assert.assertSame(snap, scheduler.getSharedSnapshot(zkDb, true));
+
+        ZKDatabase copy = new ZKDatabase(new FileTxnSnapLog(tmpDir, tmpDir));
+        InputStream in = new InflaterInputStream(
+                new FileInputStream(snap.file));
+        try {
+            copy.deserializeSnapshotFile(in);
+        } finally {
+            in.close();
+        }
+        Assert.assertArrayEquals("data".getBytes(),
+                copy.getData("/shared", new Stat(), null));
+
+        scheduler.releaseSharedSnapshot(snap);
+        scheduler.endSnapSync();
+        Assert.assertSame(snap, scheduler.getSharedSnapshot(zkDb, true));
+        scheduler.releaseSharedSnapshot(snap);
+        scheduler.releaseSharedSnapshot(snap);
+        Assert.assertTrue(snap.file.exists());
+        scheduler.endSnapSync();
+        // nobody is left to share it with
+        Assert.assertFalse(snap.file.exists());
+
+        scheduler.beginSnapSync();
+        LearnerSyncScheduler.SharedSnapshot next =
+            scheduler.getSharedSnapshot(zkDb, true);
+        Assert.assertNotSame(snap, next);
+        // replaced while still being sent
+        LearnerSyncScheduler.SharedSnapshot uncompressed =
+            scheduler.getSharedSnapshot(zkDb, false);
+        Assert.assertNotSame(next, uncompressed);
+        Assert.assertTrue(next.file.exists());
+        scheduler.releaseSharedSnapshot(next);
+        Assert.assertFalse(next.file.exists());
+        scheduler.releaseSharedSnapshot(uncompressed);
+        scheduler.endSnapSync();
+        Assert.assertFalse(uncompressed.file.exists());
+    }
+
+    @Test
+    public void testStartupDeletesLeftovers() throws Exception {
+        File tmpDir = ClientBase.createTmpDir();
+        File leftover = File.createTempFile(
+                LearnerSyncScheduler.SHARED_SNAPSHOT_PREFIX, ".tmp", tmpDir);
+        File other = new File(tmpDir, "snapshot.1");
+        Assert.assertTrue(other.createNewFile());
+
+        new LearnerSyncScheduler(1, 0).startup(tmpDir);
+        Assert.assertFalse(leftover.exists());
+        Assert.assertTrue(other.exists());
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import static org.apache.zookeeper.test.ClientBase.CONNECTION_TIMEOUT;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * With lease reads on, syncs are answered from the lease the leader gets
+ * from ping answers, and reads after a sync still see every write that
+ * completed before it, on the leader as well as on the followers.
+ */
+public class LeaseReadTest extends QuorumPeerTestBase {
+    protected static final Logger LOG =
+        LoggerFactory.getLogger(LeaseReadTest.class);
+
+    private static final int SERVER_COUNT = 3;
+
+    private MainThread q[];
+    private int clientPorts[];
+    private int leaderIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("zookeeper.leader.leaseReads", "true");
+        clientPorts = new int[SERVER_COUNT];
+        q = startQuorum(clientPorts);
+        leaderIndex = -1;
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            if (q[i].main.quorumPeer.leader != null) {
+                leaderIndex = i;
+                break;
+            }
+        }
+        Assert.assertTrue("no leader", leaderIndex >= 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            q[i].shutdown();
+        }
+        System.clearProperty("zookeeper.leader.leaseReads");
+    }
+
+    private Leader getLeader() {
+        return q[leaderIndex].main.quorumPeer.leader;
+    }
+
+    private void waitForLease(boolean held) throws InterruptedException {
+        long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (getLeader().hasLease() != held
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(held, getLeader().hasLease());
+    }
+
+    private static void sync(ZooKeeper zk, String path)
+        throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        zk.sync(path, new VoidCallback() {
+            public void processResult(int rc, String path, Object ctx) {
+                latch.countDown();
+            }
+        }, null);
+        Assert.assertTrue("sync timed out",
+                latch.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testLeaseFromPings() throws Exception {
+        waitForLease(true);
+        // one follower is enough for a quorum of three
+        int follower = (leaderIndex + 1) % SERVER_COUNT;
+        q[follower].shutdown();
+        Thread.sleep(q[leaderIndex].main.quorumPeer.tickTime
+                * q[leaderIndex].main.quorumPeer.syncLimit);
+        Assert.assertTrue(getLeader().hasLease());
+    }
+
+    @Test
+    public void testReadsAfterSync() throws Exception {
+        waitForLease(true);
+        ZooKeeper zk[] = new ZooKeeper[SERVER_COUNT];
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            zk[i] = connect(clientPorts[i]);
+        }
+        try {
+            zk[0].create("/lease", "0".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            long before = getLeader().getLeaseSyncCount();
+            for (int i = 1; i <= 30; i++) {
+                int writer = i % SERVER_COUNT;
+                zk[writer].setData("/lease", Integer.toString(i).getBytes(),
+                        -1);
+                for (int r = 0; r < SERVER_COUNT; r++) {
+                    if (r == writer) {
+                        continue;
+                    }
+                    sync(zk[r], "/lease");
+                    Stat stat = new Stat();
+                    zk[r].getData("/lease", false, stat);
+                    Assert.assertEquals("read on server " + (r + 1)
+                            + " after a sync", i, stat.getVersion());
+                }
+            }
+            Assert.assertTrue("syncs were answered from the lease",
+                    getLeader().getLeaseSyncCount() > before);
+        } finally {
+            for (int i = 0; i < SERVER_COUNT; i++) {
+                zk[i].close();
+            }
+        }
+    }
+
+    /**
+     * Syncs from a follower don't queue behind the proposals of a steady
+     * write load.
+     */
+    @Test
+    public void testSyncLatencyUnderLoad() throws Exception {
+        waitForLease(true);
+        int follower = (leaderIndex + 1) % SERVER_COUNT;
+        ZooKeeper writer = connect(clientPorts[leaderIndex]);
+        ZooKeeper reader = connect(clientPorts[follower]);
+        try {
+            writer.create("/load", new byte[100], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            WriteLoad load = new WriteLoad(writer, "/load");
+            load.start();
+            try {
+                long before = getLeader().getLeaseSyncCount();
+                int count = 500;
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    sync(reader, "/load");
+                }
+                long avg = (System.nanoTime() - start) / count;
+                LOG.info("average sync latency on a follower under load: "
+                        + avg / 1000 + "us");
+                Assert.assertEquals(count,
+                        getLeader().getLeaseSyncCount() - before);
+            } finally {
+                load.shutdown();
+            }
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+}
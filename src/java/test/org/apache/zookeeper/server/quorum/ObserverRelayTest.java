@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.server.quorum;
+
+import static org.apache.zookeeper.test.ClientBase.CONNECTION_TIMEOUT;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.PortAssignment;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * An observer configured to relay through another one syncs from it and
+ * gets its txns from it, rather than from the leader.
+ */
+public class ObserverRelayTest extends QuorumPeerTestBase {
+    private static final int SESSION_TIMEOUT = 4000;
+
+    @Test
+    public void testRelay() throws Exception {
+        ClientBase.setupTestEnv();
+        final int CLIENT_PORT[] = new int[4];
+        StringBuilder sb = new StringBuilder("electionAlg=3\nrelay.4=3\n");
+        for (int i = 0; i < 4; i++) {
+            CLIENT_PORT[i] = PortAssignment.unique();
+            sb.append("server." + (i + 1) + "=127.0.0.1:"
+                    + PortAssignment.unique() + ":" + PortAssignment.unique()
+                    + (i < 2 ? "\n" : ":observer\n"));
+        }
+        String quorumCfgSection = sb.toString();
+        String obsCfgSection = quorumCfgSection + "peerType=observer";
+
+        MainThread q[] = new MainThread[4];
+        for (int i = 0; i < 4; i++) {
+            q[i] = new MainThread(i + 1, CLIENT_PORT[i],
+                    i < 2 ? quorumCfgSection : obsCfgSection);
+        }
+        // the relay has to be up before the observer behind it
+        for (int i = 0; i < 3; i++) {
+            q[i].start();
+        }
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue("waiting for server " + (i + 1) + " being up",
+                    ClientBase.waitForServerUp("127.0.0.1:" + CLIENT_PORT[i],
+                            CONNECTION_TIMEOUT));
+        }
+        q[3].start();
+        Assert.assertTrue("waiting for server 4 being up",
+                ClientBase.waitForServerUp("127.0.0.1:" + CLIENT_PORT[3],
+                        CONNECTION_TIMEOUT));
+
+        try {
+            Leader leader = q[0].main.quorumPeer.leader;
+            if (leader == null) {
+                leader = q[1].main.quorumPeer.leader;
+            }
+            synchronized (leader.learners) {
+                Assert.assertEquals("the leader only feeds 2 and 3", 2,
+                        leader.learners.size());
+            }
+            Assert.assertEquals(1, q[2].main.quorumPeer.observer
+                    .getObserverMaster().getObserverCount());
+
+            ZooKeeper zk = new ZooKeeper("127.0.0.1:" + CLIENT_PORT[3],
+                    SESSION_TIMEOUT, this);
+            try {
+                zk.create("/relay", "test".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT);
+                zk.create("/relay/ephemeral", new byte[0],
+                        Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                Assert.assertEquals("test",
+                        new String(zk.getData("/relay", null, null)));
+
+                ZooKeeper zk1 = new ZooKeeper("127.0.0.1:" + CLIENT_PORT[0],
+                        CONNECTION_TIMEOUT, this);
+                try {
+                    zk1.setData("/relay", "test2".getBytes(), -1);
+                } finally {
+                    zk1.close();
+                }
+                // the answer to the sync comes after the txns before it
+                final CountDownLatch synced = new CountDownLatch(1);
+                zk.sync("/relay", new VoidCallback() {
+                    public void processResult(int rc, String path,
+                            Object ctx) {
+                        synced.countDown();
+                    }
+                }, null);
+                Assert.assertTrue(synced.await(CONNECTION_TIMEOUT,
+                        TimeUnit.MILLISECONDS));
+                Assert.assertEquals("test2",
+                        new String(zk.getData("/relay", null, null)));
+                zk.setData("/relay", "test3".getBytes(), -1);
+                Assert.assertEquals("test3",
+                        new String(zk.getData("/relay", null, null)));
+
+                // the session is kept alive through the relay
+                Thread.sleep(SESSION_TIMEOUT * 3);
+                Assert.assertNotNull(zk.exists("/relay/ephemeral", false));
+            } finally {
+                zk.close();
+            }
+        } finally {
+            for (int i = 3; i >= 0; i--) {
+                q[i].shutdown();
+            }
+        }
+    }
+
+    /**
+     * An observer that couldn't reach its relay observes the leader, and
+     * goes back to the relay once it is up.
+     */
+    @Test
+    public void testRetryRelay() throws Exception {
+        ClientBase.setupTestEnv();
+        final int CLIENT_PORT[] = new int[4];
+        StringBuilder sb = new StringBuilder("electionAlg=3\nrelay.4=3\n");
+        for (int i = 0; i < 4; i++) {
+            CLIENT_PORT[i] = PortAssignment.unique();
+            sb.append("server." + (i + 1) + "=127.0.0.1:"
+                    + PortAssignment.unique() + ":" + PortAssignment.unique()
+                    + (i < 2 ? "\n" : ":observer\n"));
+        }
+        String quorumCfgSection = sb.toString();
+        String obsCfgSection = quorumCfgSection + "peerType=observer";
+
+        MainThread q[] = new MainThread[4];
+        for (int i = 0; i < 4; i++) {
+            q[i] = new MainThread(i + 1, CLIENT_PORT[i],
+                    i < 2 ? quorumCfgSection : obsCfgSection);
+        }
+        for (int i : new int[] { 0, 1, 3 }) {
+            q[i].start();
+        }
+        try {
+            for (int i : new int[] { 0, 1, 3 }) {
+                Assert.assertTrue("waiting for server " + (i + 1) + " being up",
+                        ClientBase.waitForServerUp("127.0.0.1:" + CLIENT_PORT[i],
+                                CONNECTION_TIMEOUT));
+            }
+
+            q[2].start();
+            Assert.assertTrue("waiting for server 3 being up",
+                    ClientBase.waitForServerUp("127.0.0.1:" + CLIENT_PORT[2],
+                            CONNECTION_TIMEOUT));
+            long end = System.currentTimeMillis() + 2 * CONNECTION_TIMEOUT;
+            while (true) {
+                Observer relay = q[2].main.quorumPeer.observer;
+                ObserverMaster master =
+                    relay == null ? null : relay.getObserverMaster();
+                if (master != null && master.getObserverCount() == 1) {
+                    break;
+                }
+                Assert.assertTrue("observer 4 did not go back to its relay",
+                        System.currentTimeMillis() < end);
+                Thread.sleep(100);
+            }
+            Assert.assertTrue("waiting for server 4 being up",
+                    ClientBase.waitForServerUp("127.0.0.1:" + CLIENT_PORT[3],
+                            CONNECTION_TIMEOUT));
+        } finally {
+            for (int i = 3; i >= 0; i--) {
+                q[i].shutdown();
+            }
+        }
+    }
+}
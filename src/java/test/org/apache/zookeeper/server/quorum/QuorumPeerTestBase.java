@@ -21,17 +21,25 @@
  */
 package org.apache.zookeeper.server.quorum;
 
+import static org.apache.zookeeper.test.ClientBase.CONNECTION_TIMEOUT;
+
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.PortAssignment;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 import org.apache.zookeeper.test.ClientBase;
 import org.apache.zookeeper.test.QuorumBase;
+import org.junit.Assert;
 
 /**
  * Has some common functionality for tests that work with QuorumPeers.
@@ -45,6 +53,89 @@ public class QuorumPeerTestBase extends ZKTestCase implements Watcher {
         // ignore for this test
     }
 
+    /**
+     * Starts a quorum of as many servers as there are clientPorts, assigns
+     * their client ports into clientPorts and waits for them to be up.
+     */
+    protected static MainThread[] startQuorum(int clientPorts[])
+        throws IOException
+    {
+        ClientBase.setupTestEnv();
+        StringBuilder sb = new StringBuilder("electionAlg=3\n");
+        for (int i = 0; i < clientPorts.length; i++) {
+            clientPorts[i] = PortAssignment.unique();
+            sb.append("server." + (i + 1) + "=127.0.0.1:"
+                    + PortAssignment.unique() + ":"
+                    + PortAssignment.unique() + "\n");
+        }
+        MainThread q[] = new MainThread[clientPorts.length];
+        for (int i = 0; i < clientPorts.length; i++) {
+            q[i] = new MainThread(i + 1, clientPorts[i], sb.toString());
+            q[i].start();
+        }
+        for (int i = 0; i < clientPorts.length; i++) {
+            Assert.assertTrue("waiting for server " + (i + 1) + " being up",
+                    ClientBase.waitForServerUp("127.0.0.1:" + clientPorts[i],
+                            CONNECTION_TIMEOUT));
+        }
+        return q;
+    }
+
+    /**
+     * Connects to the server at clientPort and waits for the session to be
+     * established.
+     */
+    protected ZooKeeper connect(int clientPort) throws Exception {
+        ZooKeeper zk = new ZooKeeper("127.0.0.1:" + clientPort,
+                CONNECTION_TIMEOUT, this);
+        long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (zk.getState() != ZooKeeper.States.CONNECTED
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(ZooKeeper.States.CONNECTED, zk.getState());
+        return zk;
+    }
+
+    /**
+     * Keeps up a steady load of asynchronous writes to a node, with at
+     * most 100 of them in flight, until stopped.
+     */
+    public static class WriteLoad extends Thread {
+        private final ZooKeeper zk;
+        private final String path;
+        private final Semaphore inFlight = new Semaphore(100);
+        private volatile boolean stop = false;
+
+        public WriteLoad(ZooKeeper zk, String path) {
+            super("writeLoad");
+            this.zk = zk;
+            this.path = path;
+        }
+
+        public void run() {
+            StatCallback cb = new StatCallback() {
+                public void processResult(int rc, String path, Object ctx,
+                        Stat stat) {
+                    inFlight.release();
+                }
+            };
+            try {
+                while (!stop) {
+                    inFlight.acquire();
+                    zk.setData(path, new byte[100], -1, cb, null);
+                }
+            } catch (InterruptedException e) {
+                LOG.warn("write load interrupted", e);
+            }
+        }
+
+        public void shutdown() throws InterruptedException {
+            stop = true;
+            join(CONNECTION_TIMEOUT);
+        }
+    }
+
     public static  class TestQPMain extends QuorumPeerMain {
         public void shutdown() {
             // ensure it closes - in particular wait for thread to exit
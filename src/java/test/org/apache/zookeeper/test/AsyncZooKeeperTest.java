@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncZooKeeper;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooKeeperFuture;
+import org.apache.zookeeper.OpResult.ErrorResult;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncZooKeeperTest extends ClientBase {
+    private ZooKeeper zk;
+    private AsyncZooKeeper async;
+    private ExecutorService executor;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        zk = createClient();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "completion");
+            }
+        });
+        async = new AsyncZooKeeper(zk, executor);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        zk.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testOperations() throws Exception {
+        Assert.assertEquals("/a", async.create("/a", "x".getBytes(),
+                Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT).get());
+        Stat stat = new Stat();
+        Assert.assertEquals("x",
+                new String(async.getData("/a", false, stat).get()));
+        Assert.assertEquals(0, stat.getVersion());
+        Assert.assertEquals(1,
+                async.setData("/a", "y".getBytes(), 0).get().getVersion());
+        Assert.assertNotNull(async.exists("/a", false).get());
+        Assert.assertNull(async.exists("/b", false).get());
+        async.create("/a/c", null, Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT).get();
+        Assert.assertEquals(Arrays.asList("c"),
+                async.getChildren("/a", false, stat).get());
+        Assert.assertEquals(1, stat.getNumChildren());
+        Assert.assertEquals(Ids.OPEN_ACL_UNSAFE,
+                async.getACL("/a", stat).get());
+        async.sync("/a").get();
+        async.delete("/a/c", -1).get();
+
+        ZooKeeperFuture<Void> failed = async.delete("/a", 5);
+        try {
+            failed.get();
+            Assert.fail("deleted with a bad version");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause()
+                    instanceof KeeperException.BadVersionException);
+        }
+        try {
+            async.getData("/b", false, null).getResult();
+            Assert.fail("got data of a missing node");
+        } catch (KeeperException.NoNodeException e) {
+            Assert.assertEquals("/b", e.getPath());
+        }
+    }
+
+    @Test
+    public void testMulti() throws Exception {
+        List<OpResult> results = async.multi(Arrays.asList(
+                Op.create("/m", null, Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT),
+                Op.create("/m/1", null, Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT))).get();
+        Assert.assertEquals(2, results.size());
+        Assert.assertNotNull(zk.exists("/m/1", false));
+
+        results = new ArrayList<OpResult>();
+        try {
+            async.multi(Arrays.asList(
+                    Op.create("/m/2", null, Ids.OPEN_ACL_UNSAFE,
+                            CreateMode.PERSISTENT),
+                    Op.delete("/m/missing", -1)), results).getResult();
+            Assert.fail("multi with a failing op succeeded");
+        } catch (KeeperException.NoNodeException e) {
+            // expected
+        }
+        Assert.assertEquals(2, results.size());
+        Assert.assertTrue(results.get(1) instanceof ErrorResult);
+        Assert.assertNull(zk.exists("/m/2", false));
+    }
+
+    /**
+     * Chains requests through listeners, which run on the completion
+     * executor rather than on the event thread.
+     */
+    @Test
+    public void testListeners() throws Exception {
+        final ZooKeeperFuture<String> created = async.create("/l",
+                "v".getBytes(), Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        final CountDownLatch done = new CountDownLatch(1);
+        final String result[] = new String[2];
+        created.addListener(new Runnable() {
+            public void run() {
+                result[0] = Thread.currentThread().getName();
+                try {
+                    final ZooKeeperFuture<byte[]> data =
+                        async.getData(created.get(), false, null);
+                    data.addListener(new Runnable() {
+                        public void run() {
+                            try {
+                                result[1] = new String(data.get());
+                            } catch (Exception e) {
+                                LOG.error("getData failed", e);
+                            }
+                            done.countDown();
+                        }
+                    });
+                } catch (Exception e) {
+                    LOG.error("create failed", e);
+                    done.countDown();
+                }
+            }
+        });
+        Assert.assertTrue(done.await(CONNECTION_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+        Assert.assertEquals("completion", result[0]);
+        Assert.assertEquals("v", result[1]);
+
+        // a listener added once the future is done runs right away
+        final CountDownLatch late = new CountDownLatch(1);
+        created.addListener(new Runnable() {
+            public void run() {
+                late.countDown();
+            }
+        });
+        Assert.assertTrue(late.await(CONNECTION_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testManyOutstanding() throws Exception {
+        final int count = 5000;
+        async.create("/many", null, Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        List<ZooKeeperFuture<String>> futures =
+            new ArrayList<ZooKeeperFuture<String>>();
+        for (int i = 0; i < count; i++) {
+            futures.add(async.create("/many/n", null, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT_SEQUENTIAL));
+        }
+        for (ZooKeeperFuture<String> f : futures) {
+            Assert.assertTrue(f.get(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .startsWith("/many/n"));
+        }
+        Assert.assertEquals(count, zk.exists("/many", false).getNumChildren());
+    }
+}
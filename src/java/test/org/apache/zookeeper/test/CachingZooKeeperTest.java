@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.zookeeper.CachingZooKeeper;
+import org.apache.zookeeper.ClientCnxn;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CachingZooKeeperTest extends ClientBase {
+    private static final Logger LOG = LoggerFactory.getLogger(CachingZooKeeperTest.class);
+
+    private CountdownWatcher watcher;
+    private ZooKeeper zk;
+    private ZooKeeper other;
+    private CachingZooKeeper cache;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        watcher = new CountdownWatcher();
+        zk = createClient(watcher, hostPort);
+        other = createClient();
+        cache = new CachingZooKeeper(zk);
+        zk.create("/a", "1".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        other.close();
+        zk.close();
+        super.tearDown();
+    }
+
+    private void waitForData(String path, String expected) throws Exception {
+        long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (!expected.equals(new String(cache.getData(path, null)))) {
+            if (System.currentTimeMillis() > end) {
+                Assert.fail("cache did not see " + expected + " in " + path);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitForChildren(String path, List<String> expected)
+        throws Exception
+    {
+        long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (true) {
+            List<String> children = cache.getChildren(path);
+            Collections.sort(children);
+            if (expected.equals(children)) {
+                return;
+            }
+            if (System.currentTimeMillis() > end) {
+                Assert.fail("cache did not see " + expected + " in " + path);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testHits() throws Exception {
+        Stat stat = new Stat();
+        Assert.assertEquals("1", new String(cache.getData("/a", stat)));
+        byte[] data = cache.getData("/a", stat);
+        Assert.assertEquals("1", new String(data));
+        Assert.assertEquals(0, stat.getVersion());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        // the cached copy can't be changed through a returned one
+        data[0] = '2';
+        Assert.assertEquals("1", new String(cache.getData("/a", null)));
+
+        Assert.assertEquals(Collections.emptyList(), cache.getChildren("/a"));
+        cache.getChildren("/a").add("b");
+        Assert.assertEquals(Collections.emptyList(), cache.getChildren("/a"));
+        Assert.assertEquals(4, cache.getHitCount());
+        Assert.assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void testMissingNode() throws Exception {
+        try {
+            cache.getData("/b", null);
+            Assert.fail("read a node that doesn't exist");
+        } catch (KeeperException.NoNodeException e) {
+            // expected
+        }
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        cache.getData("/a", null);
+        cache.getChildren("/a");
+
+        other.setData("/a", "2".getBytes(), -1);
+        waitForData("/a", "2");
+        other.create("/a/b", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        waitForChildren("/a", Arrays.asList("b"));
+
+        other.delete("/a/b", -1);
+        waitForChildren("/a", Collections.<String>emptyList());
+        other.delete("/a", -1);
+        long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (cache.getSize() != 0) {
+            Assert.assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(cache.getInvalidationCount() >= 4);
+    }
+
+    @Test
+    public void testReadOwnWrites() throws Exception {
+        cache.getData("/a", null);
+        cache.getChildren("/a");
+        cache.getChildren("/");
+        for (int i = 0; i < 100; i++) {
+            cache.setData("/a", Integer.toString(i).getBytes(), -1);
+            Assert.assertEquals(Integer.toString(i),
+                    new String(cache.getData("/a", null)));
+        }
+        cache.create("/a/b", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        Assert.assertEquals(Arrays.asList("b"), cache.getChildren("/a"));
+        cache.delete("/a/b", -1);
+        Assert.assertEquals(Collections.emptyList(), cache.getChildren("/a"));
+        cache.delete("/a", -1);
+        Assert.assertFalse(cache.getChildren("/").contains("a"));
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        cache.getData("/a", null);
+        cache.getChildren("/a");
+
+        stopServer();
+        watcher.waitForDisconnected(CONNECTION_TIMEOUT);
+        // once the cache has processed the disconnect it doesn't serve
+        // what it has
+        long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (true) {
+            try {
+                cache.getData("/a", null);
+            } catch (KeeperException.ConnectionLossException e) {
+                break;
+            }
+            Assert.assertTrue("served a cached node while disconnected",
+                    System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        startServer();
+        watcher.waitForConnected(CONNECTION_TIMEOUT);
+
+        // the watches were set again on reconnect
+        waitForData("/a", "1");
+        other.setData("/a", "2".getBytes(), -1);
+        waitForData("/a", "2");
+        long hits = cache.getHitCount();
+        cache.getData("/a", null);
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+    }
+
+    @Test
+    public void testReconnectWithoutWatchReset() throws Exception {
+        ClientCnxn.setDisableAutoResetWatch(true);
+        try {
+            cache.getData("/a", null);
+
+            stopServer();
+            watcher.waitForDisconnected(CONNECTION_TIMEOUT);
+            startServer();
+            watcher.waitForConnected(CONNECTION_TIMEOUT);
+            zk.setData("/a", "2".getBytes(), -1);
+            waitForData("/a", "2");
+
+            // the cache serves nodes again although no watch was left on
+            // the handle to tell it of the reconnect
+            long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+            while (true) {
+                long hits = cache.getHitCount();
+                Assert.assertEquals("2", new String(cache.getData("/a", null)));
+                if (cache.getHitCount() > hits) {
+                    break;
+                }
+                Assert.assertTrue("cache did not serve nodes again",
+                        System.currentTimeMillis() < end);
+                Thread.sleep(10);
+            }
+
+            // and the watch set since then still invalidates the node
+            zk.setData("/a", "3".getBytes(), -1);
+            waitForData("/a", "3");
+        } finally {
+            ClientCnxn.setDisableAutoResetWatch(false);
+        }
+    }
+
+    @Test
+    public void testHotReads() throws Exception {
+        final int count = 20000;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            zk.getData("/a", false, null);
+        }
+        long direct = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            cache.getData("/a", null);
+        }
+        long cached = System.nanoTime() - start;
+
+        LOG.info(count + " reads of one node: " + (direct / 1000000)
+                + "ms from the server, " + (cached / 1000000)
+                + "ms through the cache, hit ratio " + cache.getHitRatio());
+        Assert.assertEquals(count - 1, cache.getHitCount());
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Semaphore;
+
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures what the client allocates to receive a response, by counting the
+ * bytes allocated by the send thread while it reads getData responses.
+ */
+public class ClientAllocationTest extends ClientBase {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientAllocationTest.class);
+
+    private static final int WINDOW = 1000;
+
+    private static Thread findSendThread() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().contains("-SendThread(")) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    private long getData(ZooKeeper zk, int count) throws InterruptedException {
+        final Semaphore window = new Semaphore(WINDOW);
+        DataCallback cb = new DataCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    byte[] data, Stat stat) {
+                window.release();
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            window.acquire();
+            zk.getData("/node", false, cb, null);
+        }
+        window.acquire(WINDOW);
+        window.release(WINDOW);
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void testResponseAllocation() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mxBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mxBean.isThreadAllocatedMemorySupported());
+        mxBean.setThreadAllocatedMemoryEnabled(true);
+
+        ZooKeeper zk = createClient();
+        try {
+            zk.create("/node", new byte[16], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            Thread sendThread = findSendThread();
+            Assert.assertNotNull(sendThread);
+
+            // warm up
+            getData(zk, 20000);
+
+            final int count = 100000;
+            long before = mxBean.getThreadAllocatedBytes(sendThread.getId());
+            long time = getData(zk, count);
+            long allocated =
+                mxBean.getThreadAllocatedBytes(sendThread.getId()) - before;
+
+            long perResponse = allocated / count;
+            LOG.info(count + " getData in " + time / 1000000 + "ms ("
+                    + (count * 1000000000L / time) + "/s), send thread"
+                    + " allocated " + perResponse + " bytes per response");
+            // the send thread also writes the requests, and the Stat and
+            // data of each response are handed to the callback
+            Assert.assertTrue("allocated " + perResponse
+                    + " bytes per response", perResponse < 512);
+        } finally {
+            zk.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Many threads sending requests on one handle, as an application server
+ * sharing a handle between its request threads does.
+ */
+public class ClientThroughputTest extends ClientBase {
+    private static final Logger LOG = LoggerFactory.getLogger(ClientThroughputTest.class);
+
+    private static final int MAX_IN_FLIGHT = 1000;
+
+    static {
+        // read when the first handle is created
+        System.setProperty("zookeeper.client.maxInFlight",
+                Integer.toString(MAX_IN_FLIGHT));
+    }
+
+    /** Requests each thread has outstanding at most */
+    private static final int WINDOW = 100;
+
+    private static final Pattern PENDING = Pattern.compile("pendingresp:(\\d+)");
+
+    /**
+     * Run threads that each send count getData requests, keeping up to
+     * WINDOW of them outstanding and checking their responses come back in
+     * the order they were sent.
+     * @return the time it took in ns
+     */
+    private long run(final ZooKeeper zk, int threadCount, final int count)
+        throws Exception
+    {
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            threads.add(new Thread("caller-" + i) {
+                int next;
+
+                @Override
+                public void run() {
+                    final Semaphore window = new Semaphore(WINDOW);
+                    DataCallback cb = new DataCallback() {
+                        public void processResult(int rc, String path,
+                                Object ctx, byte[] data, Stat stat) {
+                            if (rc != Code.OK.intValue()
+                                    || (Integer) ctx != next++) {
+                                errors.incrementAndGet();
+                            }
+                            window.release();
+                        }
+                    };
+                    try {
+                        for (int j = 0; j < count; j++) {
+                            window.acquire();
+                            zk.getData("/node", false, cb, j);
+                        }
+                        window.acquire(WINDOW);
+                    } catch (InterruptedException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(CONNECTION_TIMEOUT * 4);
+            Assert.assertFalse(t.isAlive());
+        }
+        long time = System.nanoTime() - start;
+        Assert.assertEquals(0, errors.get());
+        return time;
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        ZooKeeper zk = createClient();
+        try {
+            zk.create("/node", new byte[16], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            // warm up
+            run(zk, 4, 5000);
+
+            final int total = 128000;
+            for (int threads : new int[] {1, 4, 16, 64}) {
+                long time = run(zk, threads, total / threads);
+                LOG.info(threads + " threads: " + total + " getData in "
+                        + time / 1000000 + "ms, "
+                        + (total * 1000000000L / time) + "/s");
+            }
+        } finally {
+            zk.close();
+        }
+    }
+
+    @Test
+    public void testInFlightWindow() throws Exception {
+        final ZooKeeper zk = createClient();
+        try {
+            zk.create("/node", new byte[16], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            final AtomicInteger maxPending = new AtomicInteger();
+            final Thread caller = Thread.currentThread();
+            Thread monitor = new Thread("monitor") {
+                @Override
+                public void run() {
+                    while (caller.isAlive() && !isInterrupted()) {
+                        Matcher m = PENDING.matcher(zk.toString());
+                        if (m.find()) {
+                            int pending = Integer.parseInt(m.group(1));
+                            if (pending > maxPending.get()) {
+                                maxPending.set(pending);
+                            }
+                        }
+                    }
+                }
+            };
+            monitor.start();
+            try {
+                run(zk, 64, 2000);
+            } finally {
+                monitor.interrupt();
+                monitor.join();
+            }
+            LOG.info("At most " + maxPending.get() + " requests in flight");
+            Assert.assertTrue(maxPending.get() > 0);
+            Assert.assertTrue(maxPending.get() <= MAX_IN_FLIGHT);
+        } finally {
+            zk.close();
+        }
+    }
+}
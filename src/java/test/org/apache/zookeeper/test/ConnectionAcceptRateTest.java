@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.NettyServerCnxnFactory;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.junit.Test;
+
+public class ConnectionAcceptRateTest extends ClientBase {
+    static {
+        System.setProperty("zookeeper.connectionAcceptRate", "5");
+    }
+
+    @Test
+    public void testNIORefusesConnectionsOverRate() throws Exception {
+        assertRefusesConnectionsOverRate();
+    }
+
+    @Test
+    public void testNettyRefusesConnectionsOverRate() throws Exception {
+        System.setProperty(ServerCnxnFactory.ZOOKEEPER_SERVER_CNXN_FACTORY,
+                NettyServerCnxnFactory.class.getName());
+        try {
+            stopServer();
+            startServer();
+            assertRefusesConnectionsOverRate();
+        } finally {
+            System.clearProperty(
+                    ServerCnxnFactory.ZOOKEEPER_SERVER_CNXN_FACTORY);
+        }
+    }
+
+    private void assertRefusesConnectionsOverRate() throws Exception {
+        // let the bucket fill up again after the server start checks
+        Thread.sleep(1100);
+        int port = Integer.parseInt(hostPort.split(":")[1]);
+        int answered = 0;
+        for (int i = 0; i < 20; i++) {
+            if (ruok(port)) {
+                answered++;
+            }
+        }
+        assertTrue("answered " + answered, answered >= 5 && answered <= 7);
+        assertTrue(serverFactory.getRefusedConnectionCount() >= 13);
+
+        // refused clients get in once they come back later
+        ZooKeeper zk = createClient();
+        try {
+            assertEquals(ZooKeeper.States.CONNECTED, zk.getState());
+        } finally {
+            zk.close();
+        }
+    }
+
+    private static boolean ruok(int port) throws Exception {
+        Socket sock = new Socket("127.0.0.1", port);
+        try {
+            sock.setSoTimeout(5000);
+            OutputStream out = sock.getOutputStream();
+            out.write("ruok".getBytes());
+            out.flush();
+            InputStream in = sock.getInputStream();
+            byte[] answer = new byte[4];
+            int read = 0;
+            while (read < 4) {
+                int n = in.read(answer, read, 4 - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return "imok".equals(new String(answer));
+        } catch (SocketException e) {
+            // reset by the server closing it
+            return false;
+        } finally {
+            sock.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.PortAssignment;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.server.quorum.QuorumPeer;
+import org.apache.zookeeper.server.quorum.QuorumPeer.QuorumServer;
+import org.apache.zookeeper.server.quorum.QuorumPeer.ServerState;
+import org.apache.zookeeper.server.quorum.Vote;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how long leader election takes, with and without
+ * zookeeper.fastElection, in ensembles of 3 to 9 peers that start at random
+ * times and include a peer that never answers connection attempts.
+ */
+public class FLEConvergenceTest extends ZKTestCase {
+    protected static final Logger LOG =
+        LoggerFactory.getLogger(FLEConvergenceTest.class);
+
+    private static final int MAX_START_DELAY = 1000;
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    private final List<QuorumPeer> peers = new ArrayList<QuorumPeer>();
+    private final List<ServerSocket> deadPeers = new ArrayList<ServerSocket>();
+    private final List<Socket> backlog = new ArrayList<Socket>();
+
+    @After
+    public void tearDown() throws Exception {
+        shutdownAll();
+        System.clearProperty("zookeeper.fastElection");
+        System.clearProperty("zookeeper.cnxTimeout");
+    }
+
+    private void shutdownAll() throws IOException {
+        for (QuorumPeer peer : peers) {
+            QuorumBase.shutdown(peer);
+        }
+        peers.clear();
+        for (Socket s : backlog) {
+            s.close();
+        }
+        backlog.clear();
+        for (ServerSocket ss : deadPeers) {
+            ss.close();
+        }
+        deadPeers.clear();
+    }
+
+    /**
+     * A listening socket that doesn't accept, with a full backlog, so that
+     * connection attempts hang until they time out, as they do for a host
+     * that is down.
+     */
+    private InetSocketAddress deadPeer() throws IOException {
+        ServerSocket ss = new ServerSocket(0, 1);
+        deadPeers.add(ss);
+        InetSocketAddress addr =
+            new InetSocketAddress("127.0.0.1", ss.getLocalPort());
+        for (int i = 0; i < 3; i++) {
+            Socket s = new Socket();
+            backlog.add(s);
+            try {
+                s.connect(addr, 100);
+            } catch (IOException e) {
+                // the backlog is full
+                break;
+            }
+        }
+        return addr;
+    }
+
+    /**
+     * Runs an election among size peers. The peer with the highest id is
+     * dead, the others start leader election after a random delay.
+     *
+     * @return the time from the first peer starting until all the live
+     *         peers agreed on a leader, in ms
+     */
+    private long electionTime(int size, boolean fast, long seed)
+        throws Exception
+    {
+        System.setProperty("zookeeper.fastElection", Boolean.toString(fast));
+        System.setProperty("zookeeper.cnxTimeout",
+                Integer.toString(CONNECT_TIMEOUT));
+        HashMap<Long, QuorumServer> view = new HashMap<Long, QuorumServer>();
+        for (long i = 0; i < size; i++) {
+            InetSocketAddress electionAddr = i == size - 1 ? deadPeer()
+                    : new InetSocketAddress("127.0.0.1",
+                            PortAssignment.unique());
+            view.put(i, new QuorumServer(i,
+                    new InetSocketAddress("127.0.0.1", PortAssignment.unique()),
+                    electionAddr));
+        }
+        int live = size - 1;
+        for (int i = 0; i < live; i++) {
+            File tmpdir = ClientBase.createTmpDir();
+            peers.add(new QuorumPeer(view, tmpdir, tmpdir,
+                    PortAssignment.unique(), 3, i, 1000, 2, 2));
+        }
+
+        Random rand = new Random(seed);
+        final Vote votes[] = new Vote[live];
+        final CountDownLatch done = new CountDownLatch(live);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < live; i++) {
+            final int index = i;
+            final QuorumPeer peer = peers.get(i);
+            final int delay = rand.nextInt(MAX_START_DELAY);
+            new Thread("election-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(delay);
+                        peer.startLeaderElection();
+                        peer.setPeerState(ServerState.LOOKING);
+                        Vote v = peer.getElectionAlg().lookForLeader();
+                        // a running peer would set it when it starts
+                        // leading or following
+                        peer.setCurrentVote(v);
+                        votes[index] = v;
+                    } catch (InterruptedException e) {
+                        LOG.warn("Election interrupted", e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        Assert.assertTrue("election did not end",
+                done.await(120, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - start;
+        for (int i = 0; i < live; i++) {
+            Assert.assertNotNull("peer " + i + " has no leader", votes[i]);
+            Assert.assertEquals("peer " + i + " disagrees",
+                    votes[0].id, votes[i].id);
+        }
+        Assert.assertTrue("elected the dead peer", votes[0].id < live);
+        shutdownAll();
+        return elapsed;
+    }
+
+    @Test
+    public void testElectionTimes() throws Exception {
+        StringBuilder report = new StringBuilder("election times in ms:");
+        for (int size = 3; size <= 9; size += 2) {
+            long seed = System.currentTimeMillis();
+            long classic = electionTime(size, false, seed);
+            long fast = electionTime(size, true, seed);
+            report.append("\n  " + size + " peers: " + classic
+                    + " default, " + fast + " fast");
+        }
+        LOG.info(report.toString());
+    }
+}
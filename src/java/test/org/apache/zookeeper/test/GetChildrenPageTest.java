@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.ChildNamesPageCallback;
+import org.apache.zookeeper.ChildNamesPage;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GetChildrenPageTest extends ClientBase {
+    private ZooKeeper zk;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        zk = createClient();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+
+        zk.close();
+    }
+
+    @Test
+    public void testPagingSequentialChildren() throws Exception {
+        zk.create("/queue", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            String path = zk.create("/queue/item-", new byte[0],
+                    Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
+            expected.add(path.substring("/queue/".length()));
+        }
+
+        List<String> names = new ArrayList<String>();
+        String cursor = null;
+        ChildNamesPage page;
+        do {
+            page = zk.getChildren("/queue", false, cursor, 7);
+            Assert.assertTrue(page.getChildren().size() <= 7);
+            names.addAll(page.getChildren());
+            Assert.assertEquals(50, page.getStat().getNumChildren());
+            cursor = page.getLastName();
+        } while (page.hasMore());
+        Assert.assertEquals(expected, names);
+
+        // consume from the head, as a queue would
+        zk.delete("/queue/" + expected.get(0), -1);
+        page = zk.getChildren("/queue", false, null, 1);
+        Assert.assertEquals(expected.subList(1, 2), page.getChildren());
+        Assert.assertTrue(page.hasMore());
+
+        page = zk.getChildren("/queue", false, null, 0);
+        Assert.assertEquals(expected.subList(1, 50), page.getChildren());
+        Assert.assertFalse(page.hasMore());
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        zk.create("/async", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/async/a", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/async/b", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        final CountDownLatch latch = new CountDownLatch(2);
+        final ChildNamesPage pages[] = new ChildNamesPage[1];
+        final int rcs[] = new int[2];
+        zk.getChildren("/async", false, null, 1,
+                new ChildNamesPageCallback() {
+                    public void processResult(int rc, String path, Object ctx,
+                            ChildNamesPage page) {
+                        rcs[0] = rc;
+                        pages[0] = page;
+                        latch.countDown();
+                    }
+                }, null);
+        zk.getChildren("/async/missing", false, null, 1,
+                new ChildNamesPageCallback() {
+                    public void processResult(int rc, String path, Object ctx,
+                            ChildNamesPage page) {
+                        rcs[1] = rc;
+                        latch.countDown();
+                    }
+                }, null);
+        Assert.assertTrue(latch.await(CONNECTION_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+
+        Assert.assertEquals(KeeperException.Code.OK.intValue(), rcs[0]);
+        Assert.assertEquals("a", pages[0].getLastName());
+        Assert.assertTrue(pages[0].hasMore());
+        Assert.assertEquals(KeeperException.Code.NONODE.intValue(), rcs[1]);
+    }
+}
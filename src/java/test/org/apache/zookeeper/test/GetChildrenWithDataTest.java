@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.ChildrenPageCallback;
+import org.apache.zookeeper.ChildrenPage;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.ChildEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GetChildrenWithDataTest extends ClientBase {
+    private ZooKeeper zk;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        zk = createClient();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+
+        zk.close();
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        zk.create("/parent", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        List<String> expected = new ArrayList<String>();
+        // created in reverse so the server has to sort them
+        for (int i = 24; i >= 0; i--) {
+            String name = String.format("child%02d", i);
+            zk.create("/parent/" + name, name.getBytes(), Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            expected.add(0, name);
+        }
+
+        List<String> names = new ArrayList<String>();
+        String cursor = null;
+        int pages = 0;
+        ChildrenPage page;
+        do {
+            page = zk.getChildrenWithData("/parent", false, true, cursor, 10);
+            pages++;
+            Assert.assertTrue(page.getChildren().size() <= 10);
+            for (ChildEntry entry : page.getChildren()) {
+                names.add(entry.getName());
+                Assert.assertEquals(entry.getName(),
+                        new String(entry.getData()));
+                Assert.assertEquals(
+                        zk.exists("/parent/" + entry.getName(), false),
+                        entry.getStat());
+            }
+            Assert.assertEquals(zk.exists("/parent", false), page.getStat());
+            cursor = page.getLastName();
+        } while (page.hasMore());
+
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(expected, names);
+
+        page = zk.getChildrenWithData("/parent", false, false, null, 0);
+        Assert.assertEquals(25, page.getChildren().size());
+        Assert.assertFalse(page.hasMore());
+        Assert.assertNull(page.getChildren().get(0).getData());
+
+        page = zk.getChildrenWithData("/parent", false, false, "child24", 10);
+        Assert.assertTrue(page.getChildren().isEmpty());
+        Assert.assertFalse(page.hasMore());
+        Assert.assertNull(page.getLastName());
+    }
+
+    @Test
+    public void testNoReadOnChild() throws Exception {
+        List<ACL> noRead = new ArrayList<ACL>();
+        noRead.add(new ACL(ZooDefs.Perms.WRITE, Ids.ANYONE_ID_UNSAFE));
+        zk.create("/acl", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/acl/public", "public".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/acl/secret", "secret".getBytes(), noRead,
+                CreateMode.PERSISTENT);
+
+        List<ChildEntry> children =
+            zk.getChildrenWithData("/acl", false, true, null, 0).getChildren();
+        Assert.assertEquals(2, children.size());
+        Assert.assertEquals("public", new String(children.get(0).getData()));
+        Assert.assertEquals("secret", children.get(1).getName());
+        Assert.assertNull(children.get(1).getData());
+
+        try {
+            zk.getChildrenWithData("/acl/secret", false, true, null, 0);
+            Assert.fail("children of unreadable node returned");
+        } catch (KeeperException.NoAuthException e) {
+            // expected
+        }
+        try {
+            zk.getChildrenWithData("/missing", false, true, null, 0);
+            Assert.fail("children of missing node returned");
+        } catch (KeeperException.NoNodeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWatchAndChroot() throws Exception {
+        zk.create("/chroot", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/chroot/node", "node".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        ZooKeeper chrootZk = createClient(hostPort + "/chroot");
+        try {
+            final LinkedBlockingQueue<WatchedEvent> events =
+                new LinkedBlockingQueue<WatchedEvent>();
+            ChildrenPage page = chrootZk.getChildrenWithData("/",
+                    new Watcher() {
+                        public void process(WatchedEvent event) {
+                            events.add(event);
+                        }
+                    }, true, null, 0);
+            Assert.assertEquals("node", page.getLastName());
+            Assert.assertEquals("node",
+                    new String(page.getChildren().get(0).getData()));
+
+            zk.create("/chroot/other", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            WatchedEvent event = events.poll(CONNECTION_TIMEOUT,
+                    TimeUnit.MILLISECONDS);
+            Assert.assertNotNull(event);
+            Assert.assertEquals(EventType.NodeChildrenChanged, event.getType());
+            Assert.assertEquals("/", event.getPath());
+        } finally {
+            chrootZk.close();
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        zk.create("/async", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/async/a", "a".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/async/b", "b".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        final CountDownLatch latch = new CountDownLatch(2);
+        final ChildrenPage pages[] = new ChildrenPage[1];
+        final int rcs[] = new int[2];
+        zk.getChildrenWithData("/async", false, true, "a", 1,
+                new ChildrenPageCallback() {
+                    public void processResult(int rc, String path, Object ctx,
+                            ChildrenPage page) {
+                        rcs[0] = rc;
+                        pages[0] = page;
+                        latch.countDown();
+                    }
+                }, null);
+        zk.getChildrenWithData("/async/missing", false, true, null, 0,
+                new ChildrenPageCallback() {
+                    public void processResult(int rc, String path, Object ctx,
+                            ChildrenPage page) {
+                        rcs[1] = rc;
+                        latch.countDown();
+                    }
+                }, null);
+        Assert.assertTrue(latch.await(CONNECTION_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+
+        Assert.assertEquals(KeeperException.Code.OK.intValue(), rcs[0]);
+        Assert.assertEquals(1, pages[0].getChildren().size());
+        Assert.assertEquals("b", pages[0].getLastName());
+        Assert.assertFalse(pages[0].hasMore());
+        Assert.assertEquals(KeeperException.Code.NONODE.intValue(), rcs[1]);
+    }
+}
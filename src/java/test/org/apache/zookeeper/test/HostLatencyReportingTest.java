@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.client.HostLatencyListener;
+import org.apache.zookeeper.client.HostProvider;
+import org.apache.zookeeper.client.LatencyAwareHostProvider;
+import org.junit.Test;
+
+public class HostLatencyReportingTest extends ClientBase {
+    /**
+     * Runs a real client with a recording provider: it hears of the session
+     * establishment round trip and of the lost connection.
+     */
+    @Test
+    public void testClientReportsToProvider() throws Exception {
+        System.setProperty(ZooKeeper.ZOOKEEPER_HOST_PROVIDER,
+                RecordingHostProvider.class.getName());
+        ZooKeeper zk = null;
+        try {
+            RecordingHostProvider.reset();
+            zk = createClient();
+            assertTrue(RecordingHostProvider.latency.await(CONNECTION_TIMEOUT,
+                    TimeUnit.MILLISECONDS));
+            assertEquals(0, RecordingHostProvider.failures.get());
+
+            stopServer();
+            assertTrue(RecordingHostProvider.failure.await(CONNECTION_TIMEOUT,
+                    TimeUnit.MILLISECONDS));
+            startServer();
+        } finally {
+            System.clearProperty(ZooKeeper.ZOOKEEPER_HOST_PROVIDER);
+            if (zk != null) {
+                zk.close();
+            }
+        }
+    }
+
+    public static class RecordingHostProvider implements HostProvider,
+            HostLatencyListener {
+        static CountDownLatch latency;
+        static CountDownLatch failure;
+        static AtomicInteger failures;
+
+        private final LatencyAwareHostProvider hostProvider;
+
+        static void reset() {
+            latency = new CountDownLatch(1);
+            failure = new CountDownLatch(1);
+            failures = new AtomicInteger();
+        }
+
+        public RecordingHostProvider(
+                Collection<InetSocketAddress> serverAddresses)
+                throws UnknownHostException {
+            hostProvider = new LatencyAwareHostProvider(serverAddresses);
+        }
+
+        public int size() {
+            return hostProvider.size();
+        }
+
+        public InetSocketAddress next(long spinDelay) {
+            return hostProvider.next(spinDelay);
+        }
+
+        public void onConnected() {
+            hostProvider.onConnected();
+        }
+
+        public boolean updateServerList(
+                Collection<InetSocketAddress> serverAddresses,
+                InetSocketAddress currentHost) throws UnknownHostException {
+            return hostProvider.updateServerList(serverAddresses,
+                    currentHost);
+        }
+
+        public void onLatency(InetSocketAddress address, long latencyNs) {
+            assertTrue(latencyNs > 0);
+            hostProvider.onLatency(address, latencyNs);
+            latency.countDown();
+        }
+
+        public void onFailure(InetSocketAddress address) {
+            hostProvider.onFailure(address);
+            failures.incrementAndGet();
+            failure.countDown();
+        }
+
+        public boolean shouldMove(InetSocketAddress address) {
+            return hostProvider.shouldMove(address);
+        }
+    }
+}
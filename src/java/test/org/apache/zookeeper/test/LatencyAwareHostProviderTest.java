@@ -0,0 +1,357 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.client.HostLatencyListener;
+import org.apache.zookeeper.client.HostProvider;
+import org.apache.zookeeper.client.LatencyAwareHostProvider;
+import org.apache.zookeeper.client.StaticHostProvider;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LatencyAwareHostProviderTest extends ZKTestCase {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(LatencyAwareHostProviderTest.class);
+    private static final long MS = 1000000L;
+
+    @Test
+    public void testNextGoesRound() throws UnknownHostException {
+        HostProvider hostProvider = getHostProvider(3);
+        List<InetSocketAddress> seen = new ArrayList<InetSocketAddress>();
+        for (int i = 0; i < 3; i++) {
+            InetSocketAddress address = hostProvider.next(0);
+            assertTrue(!seen.contains(address));
+            seen.add(address);
+        }
+        assertTrue(seen.contains(hostProvider.next(0)));
+    }
+
+    @Test
+    public void testSleepsOncePerRound() throws UnknownHostException {
+        HostProvider hostProvider = getHostProvider(2);
+        long start = System.currentTimeMillis();
+        hostProvider.next(1000);
+        hostProvider.next(1000);
+        assertTrue(System.currentTimeMillis() - start < 900);
+        hostProvider.next(1000);
+        assertTrue(System.currentTimeMillis() - start >= 900);
+        hostProvider.onConnected();
+        start = System.currentTimeMillis();
+        hostProvider.next(1000);
+        assertTrue(System.currentTimeMillis() - start < 900);
+    }
+
+    @Test
+    public void testPrefersFastServers() throws UnknownHostException {
+        LatencyAwareHostProvider hostProvider = getHostProvider(3);
+        InetSocketAddress slow = address(0);
+        hostProvider.onLatency(slow, 10 * MS);
+        hostProvider.onLatency(address(1), 1 * MS);
+        hostProvider.onLatency(address(2), 1 * MS);
+        assertEquals(10 * MS, hostProvider.getLatency(slow));
+
+        int slowFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (hostProvider.next(0).equals(slow)) {
+                slowFirst++;
+            }
+            hostProvider.onConnected();
+        }
+        // weights are 1/100, 1 and 1
+        assertTrue("slow server picked " + slowFirst + " times",
+                slowFirst < 30);
+    }
+
+    @Test
+    public void testPenalizesFailures() throws UnknownHostException {
+        LatencyAwareHostProvider hostProvider = getHostProvider(2);
+        InetSocketAddress failed = address(0);
+        hostProvider.onLatency(failed, MS);
+        hostProvider.onLatency(address(1), MS);
+        hostProvider.onFailure(failed);
+        hostProvider.onFailure(failed);
+
+        int failedFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (hostProvider.next(0).equals(failed)) {
+                failedFirst++;
+            }
+            // a new round starts without connecting to either
+            hostProvider.next(0);
+        }
+        // weights are 1/16 and 1
+        assertTrue("failed server picked " + failedFirst + " times",
+                failedFirst > 20 && failedFirst < 120);
+
+        // connecting to it clears the penalty
+        while (!hostProvider.next(0).equals(failed)) {
+            hostProvider.onConnected();
+        }
+        hostProvider.onConnected();
+        failedFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (hostProvider.next(0).equals(failed)) {
+                failedFirst++;
+            }
+            // a new round starts without connecting to either
+            hostProvider.next(0);
+        }
+        assertTrue("failed server picked " + failedFirst + " times",
+                failedFirst > 400 && failedFirst < 600);
+    }
+
+    @Test
+    public void testMovingAverage() throws UnknownHostException {
+        LatencyAwareHostProvider hostProvider = getHostProvider(1);
+        InetSocketAddress address = address(0);
+        assertEquals(-1, hostProvider.getLatency(address));
+        hostProvider.onLatency(address, 10 * MS);
+        hostProvider.onLatency(address, 20 * MS);
+        assertEquals(13 * MS, hostProvider.getLatency(address));
+        hostProvider.onLatency(new InetSocketAddress("10.10.10.99", 1234),
+                MS);
+        assertEquals(13 * MS, hostProvider.getLatency(address));
+    }
+
+    @Test
+    public void testUpdateServerList() throws UnknownHostException {
+        LatencyAwareHostProvider hostProvider = getHostProvider(2);
+        hostProvider.onLatency(address(0), 10 * MS);
+        hostProvider.onLatency(address(1), 1 * MS);
+        List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+        servers.add(address(1));
+        servers.add(address(2));
+        servers.add(address(3));
+
+        // the client of a removed server moves to the added ones first,
+        // even though the kept one is known to be fast
+        assertTrue(hostProvider.updateServerList(servers, address(0)));
+        assertEquals(-1, hostProvider.getLatency(address(0)));
+        assertEquals(1 * MS, hostProvider.getLatency(address(1)));
+        // the connection to the removed server was in flight, the client
+        // still moves once connected
+        hostProvider.onConnected();
+        assertTrue(!hostProvider.next(0).equals(address(1)));
+        assertTrue(!hostProvider.next(0).equals(address(1)));
+        assertEquals(address(1), hostProvider.next(0));
+        hostProvider.onConnected();
+
+        // a client of a kept server stays if the list does not grow
+        servers.remove(address(3));
+        assertFalse(hostProvider.updateServerList(servers, address(1)));
+    }
+
+    @Test
+    public void testShouldMove() throws UnknownHostException {
+        LatencyAwareHostProvider hostProvider = getHostProvider(3);
+        assertFalse(hostProvider.shouldMove(address(0)));
+        hostProvider.onLatency(address(0), 10 * MS);
+        hostProvider.onLatency(address(1), 1 * MS);
+        hostProvider.onLatency(address(2), 1 * MS);
+
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (hostProvider.shouldMove(address(0))) {
+                moved++;
+            }
+            // the fast servers are above the average
+            assertFalse(hostProvider.shouldMove(address(1)));
+        }
+        // weights are 1/100, 1 and 1, so about half of the clients of the
+        // slow server move at each check
+        assertTrue("moved " + moved + " times", moved > 400 && moved < 600);
+    }
+
+    /**
+     * Simulates clients of a five server ensemble, one of them far away,
+     * whose latency grows with the number of clients connected. Clients
+     * reconnect now and then; midway one server restarts, dropping all its
+     * clients. Compares how the clients spread with the latency aware and
+     * the static provider.
+     */
+    @Test
+    public void testLoadDistributionSimulation() throws Exception {
+        Simulation latencyAware = new Simulation(true);
+        Simulation staticHosts = new Simulation(false);
+        latencyAware.run();
+        staticHosts.run();
+
+        // the distant server carries a fifth of the clients with static
+        // selection, much less when latency counts
+        assertTrue(staticHosts.beforeRestart[Simulation.DISTANT]
+                > Simulation.CLIENTS / 7);
+        assertTrue(latencyAware.beforeRestart[Simulation.DISTANT]
+                < staticHosts.beforeRestart[Simulation.DISTANT] / 2);
+        assertTrue(latencyAware.meanLatency < staticHosts.meanLatency);
+
+        // the restarted server fills up again, but not all at once
+        int share = Simulation.CLIENTS / Simulation.SERVERS;
+        assertTrue(latencyAware.afterRestart[Simulation.RESTARTED] < share / 4);
+        assertTrue(latencyAware.recovered[Simulation.RESTARTED] > share / 2);
+    }
+
+    private static class Simulation {
+        static final int SERVERS = 5;
+        static final int CLIENTS = 1000;
+        static final int DISTANT = 4;
+        static final int RESTARTED = 0;
+        static final int ROUNDS = 1000;
+        static final int RECOVERY_ROUNDS = 50;
+        static final double CHURN = 0.02;
+
+        final boolean latencyAware;
+        final Random random = new Random(1);
+        final InetSocketAddress[] addresses = new InetSocketAddress[SERVERS];
+        final int[] connections = new int[SERVERS];
+        final boolean[] down = new boolean[SERVERS];
+        final HostProvider[] providers = new HostProvider[CLIENTS];
+        final int[] connectedTo = new int[CLIENTS];
+
+        int[] beforeRestart;
+        int[] afterRestart;
+        int[] recovered;
+        double meanLatency;
+
+        Simulation(boolean latencyAware) throws UnknownHostException {
+            this.latencyAware = latencyAware;
+            List<InetSocketAddress> list = new ArrayList<InetSocketAddress>();
+            for (int i = 0; i < SERVERS; i++) {
+                addresses[i] = address(i);
+                list.add(addresses[i]);
+            }
+            for (int i = 0; i < CLIENTS; i++) {
+                providers[i] = latencyAware ? new LatencyAwareHostProvider(list)
+                        : new StaticHostProvider(list);
+            }
+        }
+
+        long latency(int server) {
+            long base = server == DISTANT ? 10 * MS : MS;
+            return base + connections[server] * 20000L;
+        }
+
+        void connect(int client) {
+            HostProvider provider = providers[client];
+            while (true) {
+                InetSocketAddress address = provider.next(0);
+                int server = Arrays.asList(addresses).indexOf(address);
+                if (down[server]) {
+                    failure(client, server);
+                    continue;
+                }
+                connections[server]++;
+                connectedTo[client] = server;
+                provider.onConnected();
+                latency(client, server);
+                return;
+            }
+        }
+
+        void latency(int client, int server) {
+            if (latencyAware) {
+                ((HostLatencyListener) providers[client]).onLatency(
+                        addresses[server], latency(server));
+            }
+        }
+
+        void failure(int client, int server) {
+            if (latencyAware) {
+                ((HostLatencyListener) providers[client])
+                        .onFailure(addresses[server]);
+            }
+        }
+
+        void round() {
+            for (int client = 0; client < CLIENTS; client++) {
+                int server = connectedTo[client];
+                if (random.nextDouble() < CHURN) {
+                    connections[server]--;
+                    connect(client);
+                } else {
+                    latency(client, server);
+                }
+            }
+        }
+
+        void run() {
+            for (int client = 0; client < CLIENTS; client++) {
+                connect(client);
+            }
+            for (int i = 0; i < ROUNDS; i++) {
+                round();
+            }
+            beforeRestart = connections.clone();
+            long total = 0;
+            for (int client = 0; client < CLIENTS; client++) {
+                total += latency(connectedTo[client]);
+            }
+            meanLatency = (double) total / CLIENTS / MS;
+
+            down[RESTARTED] = true;
+            for (int client = 0; client < CLIENTS; client++) {
+                if (connectedTo[client] == RESTARTED) {
+                    connections[RESTARTED]--;
+                    failure(client, RESTARTED);
+                    connect(client);
+                }
+            }
+            down[RESTARTED] = false;
+            round();
+            afterRestart = connections.clone();
+            for (int i = 1; i < RECOVERY_ROUNDS; i++) {
+                round();
+            }
+            recovered = connections.clone();
+
+            String name = latencyAware ? "latency aware" : "static";
+            LOG.info(name + " before restart: "
+                    + Arrays.toString(beforeRestart) + ", mean latency "
+                    + meanLatency + "ms");
+            LOG.info(name + " after restart: " + Arrays.toString(afterRestart));
+            LOG.info(name + " " + RECOVERY_ROUNDS + " rounds later: "
+                    + Arrays.toString(recovered));
+        }
+    }
+
+    private static InetSocketAddress address(int i) {
+        return new InetSocketAddress("10.10.10." + (i + 1), 1234 + i);
+    }
+
+    private LatencyAwareHostProvider getHostProvider(int size)
+            throws UnknownHostException {
+        List<InetSocketAddress> list = new ArrayList<InetSocketAddress>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(address(i));
+        }
+        return new LatencyAwareHostProvider(list);
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.OpResult.ErrorResult;
+import org.apache.zookeeper.OpResult.ExistsResult;
+import org.apache.zookeeper.OpResult.GetChildrenResult;
+import org.apache.zookeeper.OpResult.GetDataResult;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MultiReadTest extends ClientBase {
+    private ZooKeeper zk;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        zk = createClient();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+
+        zk.close();
+    }
+
+    @Test
+    public void testMultiRead() throws Exception {
+        zk.create("/multi", "parent".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/multi/a", "a".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/multi/b", "b".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        List<OpResult> results = zk.multiRead(Arrays.asList(
+                Op.getData("/multi/a"),
+                Op.getChildren("/multi"),
+                Op.exists("/multi/b"),
+                Op.getData("/multi/missing"),
+                Op.exists("/multi/missing"),
+                Op.getData("/multi/b")));
+
+        Assert.assertEquals(6, results.size());
+
+        Stat stat = new Stat();
+        byte[] data = zk.getData("/multi/a", false, stat);
+        GetDataResult a = (GetDataResult) results.get(0);
+        Assert.assertEquals(new String(data), new String(a.getData()));
+        Assert.assertEquals(stat, a.getStat());
+
+        List<String> children = new ArrayList<String>(
+                ((GetChildrenResult) results.get(1)).getChildren());
+        Collections.sort(children);
+        Assert.assertEquals(Arrays.asList("a", "b"), children);
+
+        Assert.assertEquals(zk.exists("/multi/b", false),
+                ((ExistsResult) results.get(2)).getStat());
+
+        Assert.assertEquals(KeeperException.Code.NONODE.intValue(),
+                ((ErrorResult) results.get(3)).getErr());
+        Assert.assertEquals(KeeperException.Code.NONODE.intValue(),
+                ((ErrorResult) results.get(4)).getErr());
+
+        Assert.assertEquals("b",
+                new String(((GetDataResult) results.get(5)).getData()));
+    }
+
+    @Test
+    public void testMultiReadNoAuth() throws Exception {
+        List<ACL> noRead = new ArrayList<ACL>();
+        noRead.add(new ACL(ZooDefs.Perms.WRITE, Ids.ANYONE_ID_UNSAFE));
+        zk.create("/secret", "secret".getBytes(), noRead,
+                CreateMode.PERSISTENT);
+        zk.create("/public", "public".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        List<OpResult> results = zk.multiRead(Arrays.asList(
+                Op.getData("/secret"), Op.getData("/public")));
+
+        Assert.assertEquals(KeeperException.Code.NOAUTH.intValue(),
+                ((ErrorResult) results.get(0)).getErr());
+        Assert.assertEquals("public",
+                new String(((GetDataResult) results.get(1)).getData()));
+    }
+
+    @Test
+    public void testMultiReadChroot() throws Exception {
+        zk.create("/chroot", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/chroot/node", "node".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        ZooKeeper chrootZk = createClient(hostPort + "/chroot");
+        try {
+            List<OpResult> results = chrootZk.multiRead(Arrays.asList(
+                    Op.getData("/node"), Op.getChildren("/")));
+            Assert.assertEquals("node",
+                    new String(((GetDataResult) results.get(0)).getData()));
+            Assert.assertEquals(Arrays.asList("node"),
+                    ((GetChildrenResult) results.get(1)).getChildren());
+        } finally {
+            chrootZk.close();
+        }
+    }
+
+    @Test
+    public void testMixedOpsRejected() throws Exception {
+        try {
+            zk.multiRead(Arrays.asList(Op.getData("/"),
+                    Op.delete("/foo", -1)));
+            Assert.fail("write op accepted by multiRead");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            zk.multi(Arrays.asList(Op.getData("/"),
+                    Op.delete("/foo", -1)));
+            Assert.fail("read op accepted by multi");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
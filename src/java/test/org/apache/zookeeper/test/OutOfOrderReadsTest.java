@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.zookeeper.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.ClientCnxn;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.TestableZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutOfOrderReadsTest extends ClientBase {
+
+    @Override
+    public void tearDown() throws Exception {
+        System.clearProperty(ClientCnxn.OUT_OF_ORDER_READS);
+        super.tearDown();
+    }
+
+    @Test
+    public void testNotRequested() throws Exception {
+        TestableZooKeeper zk = createClient();
+        try {
+            Assert.assertFalse(zk.testableOutOfOrderReads());
+            zk.create("/foo", "foo".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            Assert.assertEquals("foo", new String(zk.getData("/foo", false, null)));
+        } finally {
+            zk.close();
+        }
+    }
+
+    @Test
+    public void testRequested() throws Exception {
+        System.setProperty(ClientCnxn.OUT_OF_ORDER_READS, "true");
+        TestableZooKeeper zk = createClient();
+        try {
+            Assert.assertTrue(zk.testableOutOfOrderReads());
+
+            final int count = 100;
+            final CountDownLatch latch = new CountDownLatch(2 * count);
+            final AtomicInteger failures = new AtomicInteger();
+            StringCallback createCb = new StringCallback() {
+                public void processResult(int rc, String path, Object ctx,
+                        String name) {
+                    if (rc != Code.OK.intValue()) {
+                        failures.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            };
+            DataCallback dataCb = new DataCallback() {
+                public void processResult(int rc, String path, Object ctx,
+                        byte[] data, Stat stat) {
+                    if (rc != Code.OK.intValue()
+                            || !path.equals(new String(data))) {
+                        failures.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            };
+            for (int i = 0; i < count; i++) {
+                String path = "/node" + i;
+                zk.create(path, path.getBytes(), Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT, createCb, null);
+                // a read is never answered before an earlier write
+                zk.getData(path, false, dataCb, null);
+            }
+            Assert.assertTrue(latch.await(CONNECTION_TIMEOUT,
+                    TimeUnit.MILLISECONDS));
+            Assert.assertEquals(0, failures.get());
+
+            Stat stat = new Stat();
+            Assert.assertEquals("/node0",
+                    new String(zk.getData("/node0", false, stat)));
+            Assert.assertEquals(0, stat.getVersion());
+        } finally {
+            zk.close();
+        }
+    }
+}
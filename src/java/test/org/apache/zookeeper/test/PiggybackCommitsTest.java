@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Pipelined writes make the leader fold commits into the proposals that
+ * follow them, every server must still end up with every write.
+ */
+public class PiggybackCommitsTest extends QuorumBase {
+    private static final int COUNT = 500;
+
+    @Test
+    public void testPipelinedWrites() throws Exception {
+        int ports[] = new int[] { port1, port2, port3, port4, port5 };
+        ZooKeeper zk = createClient("127.0.0.1:" + port1);
+        try {
+            zk.create("/piggyback", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            final CountDownLatch created = new CountDownLatch(COUNT);
+            for (int i = 0; i < COUNT; i++) {
+                zk.create("/piggyback/node-", new byte[100],
+                        Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL,
+                        new StringCallback() {
+                            public void processResult(int rc, String path,
+                                    Object ctx, String name) {
+                                if (rc == KeeperException.Code.OK.intValue()) {
+                                    created.countDown();
+                                }
+                            }
+                        }, null);
+            }
+            Assert.assertTrue(created.await(CONNECTION_TIMEOUT,
+                    TimeUnit.MILLISECONDS));
+        } finally {
+            zk.close();
+        }
+
+        for (int port : ports) {
+            zk = createClient("127.0.0.1:" + port);
+            try {
+                final CountDownLatch synced = new CountDownLatch(1);
+                zk.sync("/piggyback", new VoidCallback() {
+                    public void processResult(int rc, String path, Object ctx) {
+                        synced.countDown();
+                    }
+                }, null);
+                Assert.assertTrue(synced.await(CONNECTION_TIMEOUT,
+                        TimeUnit.MILLISECONDS));
+                Assert.assertEquals("server on port " + port, COUNT,
+                        zk.getChildren("/piggyback", false).size());
+            } finally {
+                zk.close();
+            }
+        }
+    }
+}
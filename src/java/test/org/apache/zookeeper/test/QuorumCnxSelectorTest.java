@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.PortAssignment;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.server.quorum.QuorumCnxManager;
+import org.apache.zookeeper.server.quorum.QuorumCnxManager.Message;
+import org.apache.zookeeper.server.quorum.QuorumPeer;
+import org.apache.zookeeper.server.quorum.QuorumPeer.QuorumServer;
+import org.apache.zookeeper.server.quorum.QuorumPeer.ServerState;
+import org.apache.zookeeper.server.quorum.Vote;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the selector based transport of QuorumCnxManager
+ * (zookeeper.quorumCnxNio).
+ */
+public class QuorumCnxSelectorTest extends ZKTestCase {
+    protected static final Logger LOG =
+        LoggerFactory.getLogger(QuorumCnxSelectorTest.class);
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final List<QuorumPeer> peers = new ArrayList<QuorumPeer>();
+    private final List<QuorumCnxManager> managers =
+        new ArrayList<QuorumCnxManager>();
+    private ServerSocket deadPeer;
+    private final List<Socket> backlog = new ArrayList<Socket>();
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("zookeeper.quorumCnxNio", "true");
+        System.setProperty("zookeeper.cnxTimeout",
+                Integer.toString(CONNECT_TIMEOUT));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (QuorumCnxManager m : managers) {
+            m.halt();
+        }
+        for (QuorumPeer peer : peers) {
+            QuorumBase.shutdown(peer);
+        }
+        for (Socket s : backlog) {
+            s.close();
+        }
+        if (deadPeer != null) {
+            deadPeer.close();
+        }
+        System.clearProperty("zookeeper.quorumCnxNio");
+        System.clearProperty("zookeeper.cnxTimeout");
+    }
+
+    /**
+     * A listening socket that doesn't accept, with a full backlog, so that
+     * connection attempts hang until they time out.
+     */
+    private InetSocketAddress deadPeer() throws IOException {
+        deadPeer = new ServerSocket(0, 1);
+        InetSocketAddress addr =
+            new InetSocketAddress("127.0.0.1", deadPeer.getLocalPort());
+        for (int i = 0; i < 3; i++) {
+            Socket s = new Socket();
+            backlog.add(s);
+            try {
+                s.connect(addr, 100);
+            } catch (IOException e) {
+                // the backlog is full
+                break;
+            }
+        }
+        return addr;
+    }
+
+    /**
+     * View of size peers, the one with the highest id being dead.
+     */
+    private HashMap<Long, QuorumServer> view(int size) throws IOException {
+        HashMap<Long, QuorumServer> view = new HashMap<Long, QuorumServer>();
+        for (long i = 0; i < size; i++) {
+            InetSocketAddress electionAddr = i == size - 1 ? deadPeer()
+                    : new InetSocketAddress("127.0.0.1",
+                            PortAssignment.unique());
+            view.put(i, new QuorumServer(i,
+                    new InetSocketAddress("127.0.0.1", PortAssignment.unique()),
+                    electionAddr));
+        }
+        return view;
+    }
+
+    private ByteBuffer createMsg(long leader) {
+        ByteBuffer b = ByteBuffer.wrap(new byte[28]);
+        b.putInt(ServerState.LOOKING.ordinal());
+        b.putLong(leader);
+        b.putLong(-1);
+        b.putLong(1);
+        return b;
+    }
+
+    /**
+     * A message to a peer that doesn't answer must neither block the caller
+     * nor hold up messages to the other peers.
+     */
+    @Test
+    public void testDeadPeerDoesNotStallOthers() throws Exception {
+        HashMap<Long, QuorumServer> view = view(3);
+        for (int i = 0; i < 2; i++) {
+            File tmpdir = ClientBase.createTmpDir();
+            QuorumPeer peer = new QuorumPeer(view, tmpdir, tmpdir,
+                    PortAssignment.unique(), 3, i, 1000, 2, 2);
+            peers.add(peer);
+            QuorumCnxManager m = new QuorumCnxManager(peer);
+            managers.add(m);
+            m.listener.start();
+        }
+
+        long start = System.currentTimeMillis();
+        managers.get(0).toSend(2L, createMsg(2));
+        managers.get(0).toSend(1L, createMsg(0));
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue("toSend blocked for " + elapsed + "ms",
+                elapsed < CONNECT_TIMEOUT / 2);
+
+        Message m = managers.get(1).pollRecvQueue(CONNECT_TIMEOUT / 2,
+                TimeUnit.MILLISECONDS);
+        Assert.assertNotNull("message held up by the dead peer", m);
+
+        // and the answer comes back over the same channel
+        managers.get(1).toSend(0L, createMsg(1));
+        m = managers.get(0).pollRecvQueue(CONNECT_TIMEOUT / 2,
+                TimeUnit.MILLISECONDS);
+        Assert.assertNotNull("no answer", m);
+        Assert.assertEquals(1, managers.get(0).getThreadCount());
+    }
+
+    /**
+     * Elects a leader among 9 peers, one of them dead, with one I/O thread
+     * per peer for all its channels.
+     */
+    @Test
+    public void testElection() throws Exception {
+        final int size = 9;
+        HashMap<Long, QuorumServer> view = view(size);
+        final int live = size - 1;
+        for (int i = 0; i < live; i++) {
+            File tmpdir = ClientBase.createTmpDir();
+            peers.add(new QuorumPeer(view, tmpdir, tmpdir,
+                    PortAssignment.unique(), 3, i, 1000, 2, 2));
+        }
+
+        final Vote votes[] = new Vote[live];
+        final CountDownLatch done = new CountDownLatch(live);
+        for (int i = 0; i < live; i++) {
+            final int index = i;
+            final QuorumPeer peer = peers.get(i);
+            new Thread("election-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        peer.startLeaderElection();
+                        peer.setPeerState(ServerState.LOOKING);
+                        Vote v = peer.getElectionAlg().lookForLeader();
+                        peer.setCurrentVote(v);
+                        votes[index] = v;
+                    } catch (InterruptedException e) {
+                        LOG.warn("Election interrupted", e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        Assert.assertTrue("election did not end",
+                done.await(60, TimeUnit.SECONDS));
+        for (int i = 0; i < live; i++) {
+            Assert.assertNotNull("peer " + i + " has no leader", votes[i]);
+            Assert.assertEquals("peer " + i + " disagrees",
+                    votes[0].id, votes[i].id);
+        }
+        Assert.assertEquals(live - 1, votes[0].id);
+        for (QuorumPeer peer : peers) {
+            Assert.assertEquals(1, peer.getQuorumCnxManager()
+                    .getThreadCount());
+        }
+    }
+}
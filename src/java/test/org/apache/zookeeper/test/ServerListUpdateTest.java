@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.TestableZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.Test;
+
+public class ServerListUpdateTest extends QuorumBase {
+    static {
+        // move within a second rather than ten
+        System.setProperty("zookeeper.client.migrationWindow", "1000");
+    }
+
+    @Test
+    public void testClientMovesOffRemovedServer() throws Exception {
+        CountdownWatcher watcher = new CountdownWatcher();
+        TestableZooKeeper zk = createClient(watcher, "127.0.0.1:" + port1);
+        try {
+            long sessionId = zk.getSessionId();
+            zk.create("/ephemeral", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.EPHEMERAL);
+            assertEquals(port1, remotePort(zk));
+
+            zk.updateServerList("127.0.0.1:" + port2 + ",127.0.0.1:" + port3);
+            long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+            while (remotePort(zk) == port1
+                    && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            watcher.waitForConnected(CONNECTION_TIMEOUT);
+            int port = remotePort(zk);
+            assertTrue("connected to " + port, port == port2 || port == port3);
+            assertEquals(sessionId, zk.getSessionId());
+            assertNotNull(zk.exists("/ephemeral", false));
+        } finally {
+            zk.close();
+        }
+    }
+
+    @Test
+    public void testClientStaysOnKeptServer() throws Exception {
+        CountdownWatcher watcher = new CountdownWatcher();
+        TestableZooKeeper zk = createClient(watcher, "127.0.0.1:" + port1
+                + ",127.0.0.1:" + port2);
+        try {
+            int port = remotePort(zk);
+            // the list does not grow, so no client of a kept server moves
+            zk.updateServerList("127.0.0.1:" + port + ",127.0.0.1:" + port3);
+            Thread.sleep(2000);
+            assertTrue(watcher.isConnected());
+            assertEquals(port, remotePort(zk));
+        } finally {
+            zk.close();
+        }
+    }
+
+    private static int remotePort(TestableZooKeeper zk) {
+        InetSocketAddress address = (InetSocketAddress) zk
+                .testableRemoteSocketAddress();
+        return address == null ? -1 : address.getPort();
+    }
+}
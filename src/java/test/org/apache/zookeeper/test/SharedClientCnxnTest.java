@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.ClientCnxnSocketNIO;
+import org.apache.zookeeper.ClientCnxnSocketShared;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests clients sharing event loops through ClientCnxnSocketShared, and
+ * compares the threads and memory used by 1000 handles with those of
+ * ClientCnxnSocketNIO.
+ */
+public class SharedClientCnxnTest extends ClientBase {
+    protected static final Logger LOG =
+        LoggerFactory.getLogger(SharedClientCnxnTest.class);
+
+    private static final int HANDLES = 1000;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        System.setProperty(ZooKeeper.ZOOKEEPER_CLIENT_CNXN_SOCKET,
+                ClientCnxnSocketShared.class.getName());
+        super.setUp();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+        System.clearProperty(ZooKeeper.ZOOKEEPER_CLIENT_CNXN_SOCKET);
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        CountdownWatcher watcher = new CountdownWatcher();
+        ZooKeeper zk = createClient(watcher, hostPort);
+        long sessionId = zk.getSessionId();
+        zk.create("/shared", "a".getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        stopServer();
+        watcher.waitForDisconnected(CONNECTION_TIMEOUT);
+        startServer();
+        watcher.waitForConnected(CONNECTION_TIMEOUT);
+
+        Assert.assertEquals(sessionId, zk.getSessionId());
+        final CountDownLatch done = new CountDownLatch(1);
+        final String result[] = new String[1];
+        zk.getData("/shared", false, new DataCallback() {
+            public void processResult(int rc, String path, Object ctx,
+                    byte[] data, Stat stat) {
+                result[0] = Thread.currentThread().getName() + ":"
+                    + new String(data);
+                done.countDown();
+            }
+        }, null);
+        Assert.assertTrue(done.await(CONNECTION_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+        Assert.assertTrue(result[0],
+                result[0].startsWith("zk-client-callback-"));
+        Assert.assertTrue(result[0], result[0].endsWith(":a"));
+    }
+
+    /**
+     * Opens HANDLES handles and logs the threads and heap they take.
+     *
+     * @return the number of threads they added
+     */
+    private int openHandles(String transport) throws Exception {
+        System.setProperty(ZooKeeper.ZOOKEEPER_CLIENT_CNXN_SOCKET, transport);
+        int threads = settledThreadCount();
+        System.gc();
+        long heap = usedHeap();
+        long start = System.currentTimeMillis();
+
+        final CountDownLatch connected = new CountDownLatch(HANDLES);
+        Watcher watcher = new Watcher() {
+            public void process(WatchedEvent event) {
+                if (event.getState() == KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        };
+        List<ZooKeeper> handles = new ArrayList<ZooKeeper>();
+        try {
+            for (int i = 0; i < HANDLES; i++) {
+                handles.add(new ZooKeeper(hostPort, 30000, watcher));
+            }
+            Assert.assertTrue("handles did not connect",
+                    connected.await(60, TimeUnit.SECONDS));
+            long elapsed = System.currentTimeMillis() - start;
+            System.gc();
+            int addedThreads =
+                ManagementFactory.getThreadMXBean().getThreadCount() - threads;
+            long addedHeap = usedHeap() - heap;
+            LOG.info(HANDLES + " handles with " + transport + ": "
+                    + addedThreads + " threads, "
+                    + (addedHeap / 1024) + "KB heap, connected in "
+                    + elapsed + "ms");
+            return addedThreads;
+        } finally {
+            for (ZooKeeper zk : handles) {
+                zk.close();
+            }
+        }
+    }
+
+    /**
+     * @return the thread count once threads of closed handles have exited
+     */
+    private static int settledThreadCount() throws InterruptedException {
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(200);
+            int now = ManagementFactory.getThreadMXBean().getThreadCount();
+            if (now == threads) {
+                break;
+            }
+            threads = now;
+        }
+        return threads;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    @Test
+    public void testManyHandles() throws Exception {
+        int nioThreads = openHandles(ClientCnxnSocketNIO.class.getName());
+        int sharedThreads =
+            openHandles(ClientCnxnSocketShared.class.getName());
+        Assert.assertTrue(nioThreads + " threads",
+                nioThreads >= 2 * HANDLES);
+        // event loops and callback threads
+        int processors = Runtime.getRuntime().availableProcessors();
+        Assert.assertTrue(sharedThreads + " threads",
+                sharedThreads <= 2 * processors + 2);
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.jute.BinaryInputArchive;
+import org.apache.jute.BinaryOutputArchive;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.server.SyncRequestProcessor;
+import org.apache.zookeeper.server.ZKDatabase;
+import org.apache.zookeeper.server.quorum.QuorumPeer;
+import org.apache.zookeeper.server.quorum.QuorumPeer.ServerState;
+import org.apache.zookeeper.server.util.ChunkedInputStream;
+import org.apache.zookeeper.server.util.ChunkedOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A follower that comes back too far behind for a diff is sent a snapshot
+ * in chunks, from disk when the txn logs reach back to it.
+ */
+public class SnapshotTransferTest extends QuorumBase {
+    private static final int COUNT = ZKDatabase.commitLogCount * 3;
+
+    private int snapCount;
+
+    @Override
+    public void setUp() throws Exception {
+        // snapshots are taken as the servers start to log
+        snapCount = SyncRequestProcessor.getSnapCount();
+        SyncRequestProcessor.setSnapCount(100);
+        super.setUp();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        SyncRequestProcessor.setSnapCount(snapCount);
+        super.tearDown();
+    }
+
+    @Test
+    public void testChunkedStreams() throws Exception {
+        byte[] data = new byte[10000];
+        new Random().nextBytes(data);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BinaryOutputArchive oa = BinaryOutputArchive.getArchive(bos);
+        ChunkedOutputStream chunks = new ChunkedOutputStream(oa, 1000);
+        chunks.write(data, 0, 10);
+        chunks.write(data, 10, data.length - 10);
+        chunks.close();
+        chunks = new ChunkedOutputStream(oa, 1000);
+        DeflaterOutputStream deflater = new DeflaterOutputStream(chunks);
+        deflater.write(data);
+        deflater.finish();
+        chunks.close();
+        oa.writeString("after", "signature");
+
+        BinaryInputArchive ia = BinaryInputArchive.getArchive(
+                new ByteArrayInputStream(bos.toByteArray()));
+        ChunkedInputStream in = new ChunkedInputStream(ia);
+        byte[] read = new byte[data.length];
+        int off = 0;
+        int len;
+        while ((len = in.read(read, off, read.length - off)) > 0) {
+            off += len;
+        }
+        Assert.assertEquals(data.length, off);
+        Assert.assertEquals(-1, in.read());
+        Assert.assertArrayEquals(data, read);
+
+        in = new ChunkedInputStream(ia);
+        InflaterInputStream inflater = new InflaterInputStream(in);
+        Assert.assertEquals(data[0], (byte) inflater.read());
+        // the rest is skipped
+        in.close();
+        Assert.assertEquals("after", ia.readString("signature"));
+    }
+
+    @Test
+    public void testSnapshotToFollower() throws Exception {
+        syncFollower(false);
+    }
+
+    /**
+     * The last snapshot on disk is older than the committed log, so the
+     * txns after it are streamed from the txn logs.
+     */
+    @Test
+    public void testSnapshotAndTxnLogToFollower() throws Exception {
+        syncFollower(true);
+    }
+
+    private void syncFollower(boolean snapshotBefore) throws Exception {
+        QuorumPeer peers[] = new QuorumPeer[] { s1, s2, s3, s4, s5 };
+        int ports[] = new int[] { port1, port2, port3, port4, port5 };
+        int follower = 0;
+        while (peers[follower].getPeerState() != ServerState.FOLLOWING) {
+            follower++;
+        }
+        int leader = 0;
+        while (peers[leader].getPeerState() != ServerState.LEADING) {
+            leader++;
+        }
+        String followerHp = "127.0.0.1:" + ports[follower];
+        shutdown(peers[follower]);
+        Assert.assertTrue("waiting for server down",
+                ClientBase.waitForServerDown(followerHp, CONNECTION_TIMEOUT));
+
+        ZooKeeper zk = createClient("127.0.0.1:" + ports[leader]);
+        try {
+            zk.create("/snap", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT);
+            if (snapshotBefore) {
+                SyncRequestProcessor.setSnapCount(Integer.MAX_VALUE);
+                int after = ZKDatabase.commitLogCount + 100;
+                createNodes(zk, COUNT - after);
+                peers[leader].getActiveServer().takeSnapshot();
+                createNodes(zk, after);
+            } else {
+                createNodes(zk, COUNT);
+            }
+        } finally {
+            zk.close();
+        }
+
+        setupServer(follower + 1);
+        peers = new QuorumPeer[] { s1, s2, s3, s4, s5 };
+        peers[follower].start();
+        Assert.assertTrue("waiting for server up",
+                ClientBase.waitForServerUp(followerHp, CONNECTION_TIMEOUT));
+
+        zk = createClient(followerHp);
+        try {
+            final CountDownLatch synced = new CountDownLatch(1);
+            zk.sync("/snap", new VoidCallback() {
+                public void processResult(int rc, String path, Object ctx) {
+                    synced.countDown();
+                }
+            }, null);
+            Assert.assertTrue(synced.await(CONNECTION_TIMEOUT,
+                    TimeUnit.MILLISECONDS));
+            Assert.assertEquals(COUNT,
+                    zk.getChildren("/snap", false).size());
+        } finally {
+            zk.close();
+        }
+    }
+
+    private void createNodes(ZooKeeper zk, int count) throws Exception {
+        final CountDownLatch created = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            zk.create("/snap/node-", new byte[100],
+                    Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL,
+                    new StringCallback() {
+                        public void processResult(int rc, String path,
+                                Object ctx, String name) {
+                            if (rc == KeeperException.Code.OK.intValue()) {
+                                created.countDown();
+                            }
+                        }
+                    }, null);
+        }
+        Assert.assertTrue(created.await(CONNECTION_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.zookeeper.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
@@ -26,11 +27,17 @@ import org.apache.zookeeper.ZKTestCase;
 import org.apache.zookeeper.client.HostProvider;
 import org.apache.zookeeper.client.StaticHostProvider;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class StaticHostProviderTest extends ZKTestCase {
+    private static final Logger LOG = LoggerFactory
+            .getLogger(StaticHostProviderTest.class);
 
     @Test
     public void testNextGoesRound() throws UnknownHostException {
@@ -85,6 +92,105 @@ public class StaticHostProviderTest extends ZKTestCase {
         assertNotSame(first, second);
     }
 
+    @Test
+    public void testUpdateServerListGrowing() throws UnknownHostException {
+        int[] counts = migrate(1, 3, 1, 5);
+        // 2 of 5 clients move
+        assertEquals(2400, counts[0], 150);
+        for (int server = 1; server <= 5; server++) {
+            assertEquals(1200, counts[server], 150);
+        }
+    }
+
+    @Test
+    public void testUpdateServerListShrinking() throws UnknownHostException {
+        int[] counts = migrate(1, 5, 1, 3);
+        // exactly the clients of the removed servers move
+        assertEquals(2400, counts[0]);
+        for (int server = 1; server <= 3; server++) {
+            assertEquals(2000, counts[server], 150);
+        }
+    }
+
+    @Test
+    public void testUpdateServerListReplacing() throws UnknownHostException {
+        int[] counts = migrate(1, 3, 2, 4);
+        assertEquals(2000, counts[0]);
+        for (int server = 2; server <= 4; server++) {
+            assertEquals(2000, counts[server]);
+        }
+    }
+
+    @Test
+    public void testUpdateServerListGrowingAndReplacing()
+            throws UnknownHostException {
+        int[] counts = migrate(1, 3, 2, 6);
+        for (int server = 2; server <= 6; server++) {
+            assertEquals(1200, counts[server], 150);
+        }
+    }
+
+    @Test
+    public void testUpdateServerListTriesTargetsFirst()
+            throws UnknownHostException {
+        HostProvider hostProvider = getHostProvider(2);
+        assertTrue(hostProvider.updateServerList(servers(2, 3),
+                address(1)));
+        assertEquals(address(3), hostProvider.next(0));
+        assertEquals(address(2), hostProvider.next(0));
+        assertEquals(2, hostProvider.size());
+    }
+
+    @Test
+    public void testUpdateServerListWhenNotConnected()
+            throws UnknownHostException {
+        HostProvider hostProvider = getHostProvider(2);
+        assertFalse(hostProvider.updateServerList(servers(3, 4), null));
+        assertEquals(2, hostProvider.size());
+        assertTrue(servers(3, 4).contains(hostProvider.next(0)));
+    }
+
+    /**
+     * Updates the server lists of clients spread evenly over the servers
+     * oldFirst to oldLast to the servers newFirst to newLast. Returns how
+     * many clients moved, then how many each server ends up with.
+     */
+    private int[] migrate(int oldFirst, int oldLast, int newFirst,
+            int newLast) throws UnknownHostException {
+        List<InetSocketAddress> oldServers = servers(oldFirst, oldLast);
+        List<InetSocketAddress> newServers = servers(newFirst, newLast);
+        int[] counts = new int[newLast + 1];
+        for (int client = 0; client < 6000; client++) {
+            HostProvider hostProvider = new StaticHostProvider(oldServers);
+            InetSocketAddress current = oldServers.get(client
+                    % oldServers.size());
+            InetSocketAddress server = current;
+            if (hostProvider.updateServerList(newServers, current)) {
+                counts[0]++;
+                server = hostProvider.next(0);
+                assertFalse(server.equals(current));
+                assertFalse(oldServers.contains(server)
+                        && newServers.size() > oldServers.size());
+            }
+            assertTrue(newServers.contains(server));
+            counts[server.getAddress().getAddress()[3]]++;
+        }
+        LOG.info("Clients moved and per server: " + Arrays.toString(counts));
+        return counts;
+    }
+
+    private static InetSocketAddress address(int i) {
+        return new InetSocketAddress("10.10.10." + i, 1234);
+    }
+
+    private static List<InetSocketAddress> servers(int first, int last) {
+        List<InetSocketAddress> list = new ArrayList<InetSocketAddress>();
+        for (int i = first; i <= last; i++) {
+            list.add(address(i));
+        }
+        return list;
+    }
+
     private StaticHostProvider getHostProvider(int size)
             throws UnknownHostException {
         ArrayList<InetSocketAddress> list = new ArrayList<InetSocketAddress>(
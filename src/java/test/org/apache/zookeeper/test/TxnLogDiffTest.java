@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.io.File;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.PortAssignment;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZKTestCase;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.TxnLogProposalIterator;
+import org.apache.zookeeper.server.ZKDatabase;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.apache.zookeeper.server.quorum.Leader.Proposal;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Learners too far behind for the committed log in memory can be sent a
+ * diff read from the txn logs.
+ */
+public class TxnLogDiffTest extends ZKTestCase implements Watcher {
+    private static String HOSTPORT = "127.0.0.1:" + PortAssignment.unique();
+    private static final int CONNECTION_TIMEOUT = 3000;
+
+    @Test
+    public void testProposalsFromTxnLog() throws Exception {
+        File tmpDir = ClientBase.createTmpDir();
+        ClientBase.setupTestEnv();
+        ZooKeeperServer zks = new ZooKeeperServer(tmpDir, tmpDir, 3000);
+        final int PORT = Integer.parseInt(HOSTPORT.split(":")[1]);
+        ServerCnxnFactory f = ServerCnxnFactory.createFactory(PORT, -1);
+        f.startup(zks);
+        Assert.assertTrue("waiting for server being up ",
+                ClientBase.waitForServerUp(HOSTPORT,CONNECTION_TIMEOUT));
+        ZooKeeper zk = new ZooKeeper(HOSTPORT, CONNECTION_TIMEOUT, this);
+        try {
+            for (int i = 0; i < ZKDatabase.commitLogCount * 3; i++) {
+                zk.create("/txnlogdiff-" + i, new byte[10],
+                        Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            }
+        } finally {
+            zk.close();
+        }
+        f.shutdown();
+        Assert.assertTrue("waiting for server to shutdown",
+                ClientBase.waitForServerDown(HOSTPORT, CONNECTION_TIMEOUT));
+
+        zks = new ZooKeeperServer(tmpDir, tmpDir, 3000);
+        zks.startdata();
+        ZKDatabase zkDb = zks.getZKDatabase();
+        long min = zkDb.getminCommittedLog();
+        long max = zkDb.getmaxCommittedLog();
+        long peer = min - ZKDatabase.commitLogCount;
+        Assert.assertTrue("committed log starts at 0x"
+                + Long.toHexString(min), peer > 0);
+
+        TxnLogProposalIterator proposals =
+            zkDb.getProposalsFromTxnLog(peer, max, Long.MAX_VALUE);
+        Assert.assertNotNull(proposals);
+        long zxid = peer;
+        Proposal p;
+        while ((p = proposals.next()) != null) {
+            Assert.assertEquals(++zxid, p.packet.getZxid());
+        }
+        Assert.assertEquals(max, zxid);
+        proposals.close();
+
+        // too large, a snapshot is cheaper
+        Assert.assertNull(zkDb.getProposalsFromTxnLog(peer, max, 100));
+        // the logs don't reach that far
+        Assert.assertNull(zkDb.getProposalsFromTxnLog(peer, max + 1,
+                Long.MAX_VALUE));
+        // the peer has a zxid we never logged
+        Assert.assertNull(zkDb.getProposalsFromTxnLog(max + 1, max + 2,
+                Long.MAX_VALUE));
+        zks.shutdown();
+    }
+
+    public void process(WatchedEvent event) {
+        // do nothing
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WriteBatcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class WriteBatcherTest extends ClientBase {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBatcherTest.class);
+
+    private ZooKeeper zk;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        zk = createClient();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        zk.close();
+        super.tearDown();
+    }
+
+    /**
+     * Records the results of the writes in the order they arrive
+     */
+    private static class Results implements StringCallback, VoidCallback,
+            StatCallback
+    {
+        final List<String> results =
+            Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch;
+
+        Results(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        public void processResult(int rc, String path, Object ctx, String name) {
+            results.add(ctx + " " + Code.get(rc) + " " + name);
+            latch.countDown();
+        }
+
+        public void processResult(int rc, String path, Object ctx) {
+            results.add(ctx + " " + Code.get(rc));
+            latch.countDown();
+        }
+
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            results.add(ctx + " " + Code.get(rc)
+                    + (stat == null ? "" : " " + stat.getVersion()));
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            Assert.assertTrue("timed out waiting for the results",
+                    latch.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        WriteBatcher batcher = new WriteBatcher(zk, 10, 60000);
+        Results results = new Results(100);
+        for (int i = 0; i < 100; i++) {
+            batcher.create("/node-", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT_SEQUENTIAL, results, i);
+        }
+        results.await();
+        batcher.close();
+
+        Assert.assertEquals(10, batcher.getBatchCount());
+        Assert.assertEquals(100, batcher.getBatchedOpCount());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(String.format("%d OK /node-%010d", i, i),
+                    results.results.get(i));
+        }
+        Assert.assertEquals(100, zk.getChildren("/", false).size() - 1);
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        WriteBatcher batcher = new WriteBatcher(zk, 1000, 50);
+        Results results = new Results(3);
+        batcher.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT, results, "create");
+        batcher.setData("/a", "x".getBytes(), 0, results, "setData");
+        batcher.delete("/a", 1, results, "delete");
+        results.await();
+
+        Assert.assertEquals(1, batcher.getBatchCount());
+        Assert.assertEquals("[create OK /a, setData OK 1, delete OK]",
+                results.results.toString());
+        Assert.assertNull(zk.exists("/a", false));
+        batcher.close();
+    }
+
+    @Test
+    public void testFailedWrite() throws Exception {
+        zk.create("/b", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        WriteBatcher batcher = new WriteBatcher(zk, 1000, 60000);
+        Results results = new Results(4);
+        batcher.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT, results, "create /a");
+        batcher.create("/b", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT, results, "create /b");
+        batcher.setData("/a", "x".getBytes(), 0, results, "setData /a");
+        batcher.delete("/c", -1, results, "delete /c");
+        batcher.flush();
+        results.await();
+
+        // the failed writes don't take the others down with them
+        Assert.assertEquals(1, batcher.getRetriedBatchCount());
+        Assert.assertEquals("[create /a OK /a, create /b NODEEXISTS null, "
+                + "setData /a OK 1, delete /c NONODE]",
+                results.results.toString());
+        Assert.assertEquals("x", new String(zk.getData("/a", false, null)));
+        batcher.close();
+    }
+
+    @Test
+    public void testFailedBatchBeforeAnother() throws Exception {
+        zk.create("/b", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        WriteBatcher batcher = new WriteBatcher(zk, 3, 60000);
+        Results results = new Results(6);
+        batcher.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT, results, "create /a");
+        batcher.create("/b", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT, results, "create /b");
+        batcher.setData("/a", "1".getBytes(), 0, results, "setData /a 1");
+        // the second batch writes the node the failed one creates
+        batcher.setData("/a", "2".getBytes(), 1, results, "setData /a 2");
+        batcher.setData("/a", "3".getBytes(), 2, results, "setData /a 3");
+        batcher.delete("/b", -1, results, "delete /b");
+        results.await();
+
+        Assert.assertEquals(2, batcher.getBatchCount());
+        Assert.assertEquals(1, batcher.getRetriedBatchCount());
+        Assert.assertEquals("[create /a OK /a, create /b NODEEXISTS null, "
+                + "setData /a 1 OK 1, setData /a 2 OK 2, "
+                + "setData /a 3 OK 3, delete /b OK]",
+                results.results.toString());
+        Assert.assertEquals("3", new String(zk.getData("/a", false, null)));
+        Assert.assertNull(zk.exists("/b", false));
+        batcher.close();
+    }
+
+    @Test
+    public void testBatchBytes() throws Exception {
+        // together the writes are well over what a server reads in one
+        // request
+        final int count = 20;
+        byte[] data = new byte[200 * 1024];
+        WriteBatcher batcher = new WriteBatcher(zk, 1000, 60000);
+        Results results = new Results(count);
+        for (int i = 0; i < count; i++) {
+            batcher.create("/big-" + i, data, Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT, results, i);
+        }
+        batcher.flush();
+        results.await();
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i + " OK /big-" + i, results.results.get(i));
+        }
+        Assert.assertEquals(count / 2, batcher.getBatchCount());
+        Assert.assertEquals(count, batcher.getBatchedOpCount());
+
+        // a write larger than a batch may be is sent on its own
+        batcher = new WriteBatcher(zk, 1000, 1024, 60000);
+        results = new Results(3);
+        batcher.create("/small-0", new byte[10], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT, results, 0);
+        batcher.create("/large", new byte[2048], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT, results, 1);
+        batcher.create("/small-1", new byte[10], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT, results, 2);
+        batcher.flush();
+        results.await();
+        Assert.assertEquals("[0 OK /small-0, 1 OK /large, 2 OK /small-1]",
+                results.results.toString());
+        Assert.assertEquals(0, batcher.getBatchCount());
+        batcher.close();
+    }
+
+    @Test
+    public void testChroot() throws Exception {
+        zk.create("/chroot", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        ZooKeeper chrootZk = createClient(hostPort + "/chroot");
+        try {
+            WriteBatcher batcher = new WriteBatcher(chrootZk, 1000, 60000);
+            Results results = new Results(2);
+            batcher.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT, results, 0);
+            batcher.create("/a/b-", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT_SEQUENTIAL, results, 1);
+            batcher.close();
+            results.await();
+
+            Assert.assertEquals(1, batcher.getBatchCount());
+            Assert.assertEquals("[0 OK /a, 1 OK /a/b-0000000000]",
+                    results.results.toString());
+            Assert.assertNotNull(zk.exists("/chroot/a/b-0000000000", false));
+        } finally {
+            chrootZk.close();
+        }
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        final int count = 5000;
+        zk.create("/single", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/batched", new byte[0], Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+
+        Results results = new Results(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            zk.create("/single/" + i, new byte[100], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT, results, i);
+        }
+        results.await();
+        long single = System.nanoTime() - start;
+
+        WriteBatcher batcher = new WriteBatcher(zk, 100, 10);
+        results = new Results(count);
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            batcher.create("/batched/" + i, new byte[100], Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.PERSISTENT, results, i);
+        }
+        batcher.flush();
+        results.await();
+        long batched = System.nanoTime() - start;
+        batcher.close();
+
+        LOG.info(count + " creates: " + (single / 1000000) + "ms as single"
+                + " requests, " + (batched / 1000000) + "ms in "
+                + batcher.getBatchCount() + " batches");
+        Assert.assertEquals(count, zk.getChildren("/batched", false).size());
+    }
+}
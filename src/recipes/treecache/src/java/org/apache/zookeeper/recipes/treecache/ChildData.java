@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.recipes.treecache;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * A node of the tree as it was last read. Instances are never changed;
+ * a newer version of the node is a new instance.
+ */
+public class ChildData {
+    private final String path;
+    private final byte[] data;
+    private final Stat stat;
+
+    public ChildData(String path, byte[] data, Stat stat) {
+        this.path = path;
+        this.data = data;
+        this.stat = stat;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the data of the node, which is shared with the cache and
+     *         must not be changed
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public Stat getStat() {
+        return stat;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + (data == null ? "null" : new String(data));
+    }
+}
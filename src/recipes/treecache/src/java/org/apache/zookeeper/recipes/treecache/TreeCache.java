@@ -0,0 +1,432 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.recipes.treecache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.ClientCnxn;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.common.PathUtils;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a copy of the subtree under a root node in memory.
+ * <p>
+ * {@link #start()} reads the root and sends the reads of the children of
+ * each node as soon as it knows them, without waiting for the responses
+ * of the others, so loading the subtree takes about one round trip per
+ * level rather than two per node. Each read leaves a watch, and when a
+ * watch fires only that node, or its list of children, is read again.
+ * <p>
+ * After a reconnect the handle sets the watches again and the server
+ * fires those of nodes that changed while it was away, so only those are
+ * read again; reads that failed because of the disconnect are retried.
+ * If watches are not reset on reconnect the whole subtree is read again.
+ * If the session expires the cache is emptied and stays empty; start a
+ * new cache on a new handle.
+ * <p>
+ * The cache follows the connection through a state watcher on the handle,
+ * which stays set when the watches on nodes are dropped on disconnect,
+ * until {@link #close()}.
+ * <p>
+ * The cache is updated on the event thread of the handle, and reads of it
+ * from other threads see the updates as they are made.
+ */
+public class TreeCache {
+    private static final Logger LOG = LoggerFactory.getLogger(TreeCache.class);
+
+    private final ZooKeeper zk;
+
+    private final String root;
+
+    private static class TreeNode {
+        volatile ChildData data;
+        final Set<String> children =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    private final ConcurrentHashMap<String, TreeNode> nodes =
+        new ConcurrentHashMap<String, TreeNode>();
+
+    private final List<TreeCacheListener> listeners =
+        new CopyOnWriteArrayList<TreeCacheListener>();
+
+    /** Nodes whose reads failed because the handle was disconnected */
+    private final Set<String> retries = new HashSet<String>();
+
+    /** Reads sent but not yet answered, until the subtree is loaded */
+    private final AtomicInteger loading = new AtomicInteger();
+
+    private final CountDownLatch initialized = new CountDownLatch(1);
+
+    private final AtomicLong reads = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private final Watcher watcher = new Watcher() {
+        public void process(WatchedEvent event) {
+            if (closed) {
+                return;
+            }
+            String path = event.getPath();
+            switch (event.getType()) {
+            case NodeCreated:
+                if (path.equals(root)) {
+                    load(root);
+                }
+                break;
+            case NodeDataChanged:
+                readData(path);
+                break;
+            case NodeChildrenChanged:
+                readChildren(path);
+                break;
+            case NodeDeleted:
+                remove(path);
+                break;
+            default:
+                // the connection state is followed by connectionWatcher
+                break;
+            }
+        }
+    };
+
+    private final Watcher connectionWatcher = new Watcher() {
+        public void process(WatchedEvent event) {
+            if (!closed && event.getType() == Event.EventType.None) {
+                stateChanged(event.getState());
+            }
+        }
+    };
+
+    /**
+     * @param zk the handle to read the subtree with
+     * @param root the root node of the subtree, which need not exist yet
+     */
+    public TreeCache(ZooKeeper zk, String root) {
+        PathUtils.validatePath(root);
+        this.zk = zk;
+        this.root = root;
+        zk.addStateWatcher(connectionWatcher);
+    }
+
+    public void addListener(TreeCacheListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TreeCacheListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start loading the subtree. The listeners are told when it has been
+     * loaded.
+     */
+    public void start() {
+        load(root);
+    }
+
+    /**
+     * Wait for the subtree to be loaded for the first time.
+     * @return false if the time ran out first
+     */
+    public boolean waitForInitialized(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return initialized.await(timeout, unit);
+    }
+
+    /**
+     * Stop following changes and the connection state of the handle. The
+     * watches left by the cache are ignored when they fire; the handle is
+     * not closed.
+     */
+    public void close() {
+        closed = true;
+        zk.removeStateWatcher(connectionWatcher);
+    }
+
+    /**
+     * @return the node at path, or null if it is not in the cache
+     */
+    public ChildData getCurrentData(String path) {
+        TreeNode node = nodes.get(path);
+        return node == null ? null : node.data;
+    }
+
+    /**
+     * @return the sorted names of the children of path, or null if it is
+     *         not in the cache
+     */
+    public List<String> getChildren(String path) {
+        TreeNode node = nodes.get(path);
+        if (node == null) {
+            return null;
+        }
+        List<String> children = new ArrayList<String>(node.children);
+        Collections.sort(children);
+        return children;
+    }
+
+    /**
+     * @return the number of nodes in the cache
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return the number of reads sent to the server
+     */
+    public long getReadCount() {
+        return reads.get();
+    }
+
+    private String childPath(String parent, String name) {
+        return parent.equals("/") ? "/" + name : parent + "/" + name;
+    }
+
+    private String parentPath(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash == 0 ? "/" : path.substring(0, lastSlash);
+    }
+
+    /**
+     * Add path to the cache and read it, unless it is already there.
+     */
+    private void load(String path) {
+        if (nodes.putIfAbsent(path, new TreeNode()) != null) {
+            return;
+        }
+        if (!path.equals(root)) {
+            TreeNode parent = nodes.get(parentPath(path));
+            if (parent != null) {
+                parent.children.add(path.substring(path.lastIndexOf('/') + 1));
+            }
+        }
+        readData(path);
+        readChildren(path);
+    }
+
+    private void readData(String path) {
+        reads.incrementAndGet();
+        loading.incrementAndGet();
+        zk.getData(path, watcher, dataCallback, null);
+    }
+
+    private void readChildren(String path) {
+        reads.incrementAndGet();
+        loading.incrementAndGet();
+        zk.getChildren(path, watcher, childrenCallback, null);
+    }
+
+    /**
+     * Handle an error of a read; responses to reads of nodes that have
+     * been removed from the cache are ignored.
+     * @return the node the read is for, or null if there is nothing more
+     *         to do
+     */
+    private TreeNode checkResult(int rc, String path) {
+        if (closed) {
+            return null;
+        }
+        switch (Code.get(rc)) {
+        case OK:
+            return nodes.get(path);
+        case NONODE:
+            remove(path);
+            return null;
+        case CONNECTIONLOSS:
+        case OPERATIONTIMEOUT:
+            retries.add(path);
+            return null;
+        case SESSIONEXPIRED:
+            return null;
+        default:
+            LOG.warn("Could not read " + path + ": " + Code.get(rc));
+            return null;
+        }
+    }
+
+    private final DataCallback dataCallback = new DataCallback() {
+        public void processResult(int rc, String path, Object ctx,
+                byte[] data, Stat stat) {
+            TreeNode node = checkResult(rc, path);
+            if (node != null) {
+                ChildData previous = node.data;
+                if (previous == null) {
+                    node.data = new ChildData(path, data, stat);
+                    for (TreeCacheListener listener : listeners) {
+                        listener.nodeAdded(node.data);
+                    }
+                } else if (previous.getStat().getMzxid() < stat.getMzxid()) {
+                    node.data = new ChildData(path, data, stat);
+                    for (TreeCacheListener listener : listeners) {
+                        listener.nodeUpdated(node.data);
+                    }
+                }
+            }
+            loaded();
+        }
+    };
+
+    private final ChildrenCallback childrenCallback = new ChildrenCallback() {
+        public void processResult(int rc, String path, Object ctx,
+                List<String> children) {
+            TreeNode node = checkResult(rc, path);
+            if (node != null) {
+                Set<String> current = new HashSet<String>(children);
+                for (String name : node.children) {
+                    if (!current.contains(name)) {
+                        remove(childPath(path, name));
+                    }
+                }
+                for (String name : children) {
+                    load(childPath(path, name));
+                }
+            }
+            loaded();
+        }
+    };
+
+    /**
+     * Count down a read, and tell the listeners once the subtree has been
+     * loaded for the first time.
+     */
+    private void loaded() {
+        // reads that failed before the subtree was loaded are sent again
+        // after the reconnect, and the subtree is not loaded until then
+        if (loading.decrementAndGet() == 0 && retries.isEmpty()
+                && initialized.getCount() > 0 && !closed)
+        {
+            initialized.countDown();
+            for (TreeCacheListener listener : listeners) {
+                listener.initialized();
+            }
+        }
+    }
+
+    /**
+     * Remove path and everything below it from the cache.
+     */
+    private void remove(String path) {
+        TreeNode node = nodes.remove(path);
+        if (node == null) {
+            return;
+        }
+        for (String name : node.children) {
+            remove(childPath(path, name));
+        }
+        if (path.equals(root)) {
+            // find out when it is created again
+            if (!closed) {
+                reads.incrementAndGet();
+                loading.incrementAndGet();
+                zk.exists(root, watcher, existsCallback, null);
+            }
+        } else {
+            TreeNode parent = nodes.get(parentPath(path));
+            if (parent != null) {
+                parent.children.remove(path.substring(path.lastIndexOf('/') + 1));
+            }
+        }
+        if (node.data != null) {
+            for (TreeCacheListener listener : listeners) {
+                listener.nodeRemoved(node.data);
+            }
+        }
+    }
+
+    private final StatCallback existsCallback = new StatCallback() {
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            if (!closed) {
+                if (rc == Code.OK.intValue()) {
+                    // created before the watch was set
+                    load(root);
+                } else if (rc == Code.CONNECTIONLOSS.intValue()
+                        || rc == Code.OPERATIONTIMEOUT.intValue())
+                {
+                    retries.add(root);
+                }
+            }
+            loaded();
+        }
+    };
+
+    private void stateChanged(Watcher.Event.KeeperState state) {
+        switch (state) {
+        case SyncConnected:
+            if (ClientCnxn.getDisableAutoResetWatch()) {
+                // the watches are gone, read everything again
+                retries.addAll(nodes.keySet());
+            }
+            List<String> paths = new ArrayList<String>(retries);
+            retries.clear();
+            if (!paths.isEmpty()) {
+                LOG.info("Reading " + paths.size() + " nodes again after reconnect");
+            }
+            for (String path : paths) {
+                if (nodes.containsKey(path)) {
+                    readData(path);
+                    readChildren(path);
+                } else if (path.equals(root)) {
+                    // NONODE removes the root and watches for its creation
+                    nodes.putIfAbsent(root, new TreeNode());
+                    readData(root);
+                    readChildren(root);
+                }
+            }
+            break;
+        case Expired:
+            LOG.warn("Session expired, emptying the cache of " + root);
+            closed = true;
+            zk.removeStateWatcher(connectionWatcher);
+            List<String> all = new ArrayList<String>(nodes.keySet());
+            for (String path : all) {
+                TreeNode node = nodes.remove(path);
+                if (node != null && node.data != null) {
+                    for (TreeCacheListener listener : listeners) {
+                        listener.nodeRemoved(node.data);
+                    }
+                }
+            }
+            break;
+        default:
+            break;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.recipes.treecache;
+
+/**
+ * Callbacks of a {@link TreeCache}. They are called on the event thread of
+ * the ZooKeeper handle of the cache, in the order the changes were seen,
+ * so they should return quickly.
+ */
+public interface TreeCacheListener {
+    /**
+     * A node was added to the cache, either while loading it or because
+     * it was created.
+     */
+    public void nodeAdded(ChildData node);
+
+    /**
+     * The data of a node in the cache changed.
+     */
+    public void nodeUpdated(ChildData node);
+
+    /**
+     * A node was removed from the cache.
+     * @param node the last version of the node in the cache
+     */
+    public void nodeRemoved(ChildData node);
+
+    /**
+     * The subtree has been loaded for the first time.
+     */
+    public void initialized();
+}
@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.zookeeper.recipes.treecache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.ClientCnxn;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.test.ClientBase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TreeCacheTest extends ClientBase {
+    private ZooKeeper zk;
+    private TreeCache cache;
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        zk = createClient();
+        cache = new TreeCache(zk, "/root");
+        cache.addListener(new TreeCacheListener() {
+            public void nodeAdded(ChildData node) {
+                events.add("added " + node);
+            }
+            public void nodeUpdated(ChildData node) {
+                events.add("updated " + node);
+            }
+            public void nodeRemoved(ChildData node) {
+                events.add("removed " + node);
+            }
+            public void initialized() {
+                events.add("initialized");
+            }
+        });
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        cache.close();
+        zk.close();
+        super.tearDown();
+        LOG.info("FINISHED " + getTestName());
+    }
+
+    private void create(String path, String data) throws Exception {
+        zk.create(path, data.getBytes(), Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+    }
+
+    private void assertEvent(String expected) throws InterruptedException {
+        Assert.assertEquals(expected,
+                events.poll(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    private void waitForState(boolean connected) throws InterruptedException {
+        long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (zk.getState().isConnected() != connected) {
+            Assert.assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    private void start() throws InterruptedException {
+        cache.start();
+        Assert.assertTrue(cache.waitForInitialized(CONNECTION_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        create("/root", "r");
+        for (int i = 0; i < 5; i++) {
+            create("/root/" + i, "" + i);
+            for (int j = 0; j < 5; j++) {
+                create("/root/" + i + "/" + j, i + "" + j);
+                for (int k = 0; k < 5; k++) {
+                    create("/root/" + i + "/" + j + "/" + k, i + "" + j + k);
+                }
+            }
+        }
+        long start = System.nanoTime();
+        start();
+        LOG.info("Loaded " + cache.size() + " nodes with "
+                + cache.getReadCount() + " reads in "
+                + (System.nanoTime() - start) / 1000000 + "ms");
+
+        Assert.assertEquals(1 + 5 + 25 + 125, cache.size());
+        Assert.assertEquals("r",
+                new String(cache.getCurrentData("/root").getData()));
+        Assert.assertEquals("423",
+                new String(cache.getCurrentData("/root/4/2/3").getData()));
+        Assert.assertEquals(Arrays.asList("0", "1", "2", "3", "4"),
+                cache.getChildren("/root/1"));
+        Assert.assertEquals(Collections.emptyList(),
+                cache.getChildren("/root/1/1/1"));
+        Assert.assertNull(cache.getCurrentData("/root/5"));
+        Assert.assertNull(cache.getChildren("/root/5"));
+    }
+
+    @Test
+    public void testChanges() throws Exception {
+        create("/root", "r");
+        create("/root/a", "a");
+        start();
+        Assert.assertEquals(2, cache.size());
+        assertEvent("added /root r");
+        assertEvent("added /root/a a");
+        assertEvent("initialized");
+
+        create("/root/b", "b");
+        assertEvent("added /root/b b");
+        Assert.assertEquals(Arrays.asList("a", "b"),
+                cache.getChildren("/root"));
+
+        zk.setData("/root/a", "a2".getBytes(), -1);
+        assertEvent("updated /root/a a2");
+        Assert.assertEquals(1, cache.getCurrentData("/root/a").getStat()
+                .getVersion());
+
+        create("/root/a/c", "c");
+        assertEvent("added /root/a/c c");
+        zk.delete("/root/a/c", -1);
+        assertEvent("removed /root/a/c c");
+        zk.delete("/root/a", -1);
+        assertEvent("removed /root/a a2");
+        Assert.assertEquals(Arrays.asList("b"), cache.getChildren("/root"));
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testRootCreatedLater() throws Exception {
+        start();
+        assertEvent("initialized");
+        Assert.assertEquals(0, cache.size());
+
+        create("/root", "r");
+        assertEvent("added /root r");
+        create("/root/a", "a");
+        assertEvent("added /root/a a");
+
+        zk.delete("/root/a", -1);
+        assertEvent("removed /root/a a");
+        zk.delete("/root", -1);
+        assertEvent("removed /root r");
+        Assert.assertEquals(0, cache.size());
+
+        // still watching for the root to be created again
+        create("/root", "r2");
+        assertEvent("added /root r2");
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        create("/root", "r");
+        for (int i = 0; i < 10; i++) {
+            create("/root/" + i, "" + i);
+        }
+        start();
+        long reads = cache.getReadCount();
+
+        stopServer();
+        waitForState(false);
+        startServer();
+        waitForState(true);
+        zk.setData("/root/3", "x".getBytes(), -1);
+        long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+        while (!"x".equals(new String(cache.getCurrentData("/root/3").getData()))) {
+            Assert.assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        // only the changed node was read again
+        Assert.assertEquals(reads + 1, cache.getReadCount());
+        Assert.assertEquals(11, cache.size());
+    }
+
+    @Test
+    public void testReconnectWithoutWatchReset() throws Exception {
+        ClientCnxn.setDisableAutoResetWatch(true);
+        try {
+            create("/root", "r");
+            for (int i = 0; i < 10; i++) {
+                create("/root/" + i, "" + i);
+            }
+            start();
+            long reads = cache.getReadCount();
+
+            stopServer();
+            waitForState(false);
+            startServer();
+            waitForState(true);
+            // the watches were dropped, so the cache reads everything again
+            // and sets them anew
+            long end = System.currentTimeMillis() + CONNECTION_TIMEOUT;
+            while (cache.getReadCount() < reads + 2 * 11) {
+                Assert.assertTrue(System.currentTimeMillis() < end);
+                Thread.sleep(10);
+            }
+            zk.setData("/root/3", "x".getBytes(), -1);
+            while (!"x".equals(new String(cache.getCurrentData("/root/3").getData()))) {
+                Assert.assertTrue(System.currentTimeMillis() < end);
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(11, cache.size());
+        } finally {
+            ClientCnxn.setDisableAutoResetWatch(false);
+        }
+    }
+}